@@ -0,0 +1,152 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import org.exist.numbering.DLN;
+import org.exist.numbering.NodeId;
+import org.exist.numbering.PackedDLNArray;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the descendant (or child) join between the node ids of
+ * a context set and those of a candidate set, as is performed for a path
+ * step such as <code>$sections//para</code>, when done:
+ *
+ * 1. by a binary search into the candidates for each context node,
+ * followed by a walk using {@link NodeId#computeRelation(NodeId)}.
+ *
+ * 2. by the {@link StructuralJoin} merge join on {@link PackedDLNArray}.
+ *
+ * The document is generated with a random fan-out per level, down to
+ * the given depth, which resembles a deep document-centric structure
+ * (book/chapter/section/.../para) more closely than a uniform tree.
+ */
+@State(Scope.Benchmark)
+public class StructuralJoinBenchmark {
+
+    private static final int MAX_FAN_OUT = 4;
+
+    @Param({"8", "12"})
+    public int depth;
+
+    /**
+     * The level of the context nodes, below the root element.
+     */
+    @Param({"1", "3"})
+    public int contextLevel;
+
+    @Param({"false", "true"})
+    public boolean childOnly;
+
+    private NodeId[] contextIds;
+    private NodeId[] candidateIds;
+    private PackedDLNArray packedContextIds;
+    private PackedDLNArray packedCandidateIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(depth);
+        final List<NodeId> context = new ArrayList<>();
+        final List<NodeId> candidates = new ArrayList<>();
+        generate(new DLN(), 0, random, context, candidates);
+
+        contextIds = context.toArray(new NodeId[0]);
+        candidateIds = candidates.toArray(new NodeId[0]);
+
+        packedContextIds = new PackedDLNArray(contextIds.length);
+        for (final NodeId contextId : contextIds) {
+            packedContextIds.add(contextId);
+        }
+        packedCandidateIds = new PackedDLNArray(candidateIds.length);
+        for (final NodeId candidateId : candidateIds) {
+            packedCandidateIds.add(candidateId);
+        }
+    }
+
+    /**
+     * Adds the nodes in document order, every node at the context level
+     * becomes a context node, and every other node below it a candidate.
+     */
+    private void generate(final NodeId nodeId, final int level, final Random random,
+            final List<NodeId> context, final List<NodeId> candidates) {
+        if (level == contextLevel) {
+            context.add(nodeId);
+        } else if (level > contextLevel && (level & 1) == 0) {
+            candidates.add(nodeId);
+        }
+        if (level == depth) {
+            return;
+        }
+        final int fanOut = 1 + random.nextInt(MAX_FAN_OUT);
+        NodeId child = nodeId.newChild();
+        for (int i = 0; i < fanOut; i++) {
+            generate(child, level + 1, random, context, candidates);
+            child = child.nextSibling();
+        }
+    }
+
+    @Benchmark
+    public void nodeIdBinarySearch(final Blackhole blackhole) {
+        for (final NodeId parentId : contextIds) {
+            int low = 0;
+            int high = candidateIds.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (candidateIds[mid].compareTo(parentId) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < candidateIds.length; i++) {
+                final int relation = candidateIds[i].computeRelation(parentId);
+                if (relation < 0) {
+                    break;
+                }
+                if (!childOnly || relation == NodeId.IS_CHILD) {
+                    blackhole.consume(i);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void packedMergeJoin(final Blackhole blackhole) {
+        new StructuralJoin(childOnly, false).join(
+                packedContextIds, 0, packedContextIds.size(),
+                packedCandidateIds, 0, packedCandidateIds.size(),
+                (ancestorIdx, descendantIdx) -> blackhole.consume(descendantIdx));
+    }
+
+    public static void main(final String args[]) {
+        // NOTE: just for running with the java debugger
+        final StructuralJoinBenchmark benchmark = new StructuralJoinBenchmark();
+        benchmark.depth = 8;
+        benchmark.contextLevel = 1;
+        benchmark.setUp();
+    }
+}
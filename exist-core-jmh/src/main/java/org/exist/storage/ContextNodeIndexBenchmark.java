@@ -0,0 +1,115 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.numbering.DLN;
+import org.exist.numbering.NodeId;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the ways in which the node ids of a value index entry for a document
+ * are filtered by the context nodes of that document, as is done when a
+ * predicate such as <code>$items[price = 10]</code> is evaluated by the value index:
+ *
+ * 1. by a binary search over the context nodes for every node id of the entry,
+ * which is how a context set is probed by <code>NodeSet#get(NodeProxy)</code>.
+ *
+ * 2. by galloping forward through the context nodes with
+ * {@link ContextNodeIndex#gallop(NodeProxy[], int, NodeId)}, stopping once
+ * the last context node has been passed.
+ *
+ * Both the context nodes and the node ids of the entry are drawn at random
+ * from the children of a single element, so their sizes set the selectivity.
+ */
+@State(Scope.Benchmark)
+public class ContextNodeIndexBenchmark {
+
+    private static final int CHILDREN = 1 << 20;
+
+    @Param({"16", "1024", "65536"})
+    public int contextSize;
+
+    @Param({"16", "1024", "65536"})
+    public int entrySize;
+
+    private NodeProxy[] contextNodes;
+    private NodeId[] entryIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(contextSize ^ entrySize);
+        contextNodes = Arrays.stream(children(random, contextSize))
+                .mapToObj(child -> new NodeProxy(null, null, new DLN("1." + child)))
+                .toArray(NodeProxy[]::new);
+        entryIds = Arrays.stream(children(random, entrySize))
+                .mapToObj(child -> new DLN("1." + child))
+                .toArray(NodeId[]::new);
+    }
+
+    private static int[] children(final Random random, final int count) {
+        return random.ints(1, CHILDREN + 1).distinct().limit(count).sorted().toArray();
+    }
+
+    @Benchmark
+    public void binarySearchPerNode(final Blackhole blackhole) {
+        for (final NodeId nodeId : entryIds) {
+            int low = 0;
+            int high = contextNodes.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = contextNodes[mid].getNodeId().compareTo(nodeId);
+                if (cmp == 0) {
+                    blackhole.consume(contextNodes[mid]);
+                    break;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void gallop(final Blackhole blackhole) {
+        int pos = 0;
+        for (int i = 0; i < entryIds.length && pos < contextNodes.length; i++) {
+            pos = ContextNodeIndex.gallop(contextNodes, pos, entryIds[i]);
+            if (pos < contextNodes.length && contextNodes[pos].getNodeId().compareTo(entryIds[i]) == 0) {
+                blackhole.consume(contextNodes[pos]);
+            }
+        }
+    }
+
+    public static void main(final String args[]) {
+        // NOTE: just for running with the java debugger
+        final ContextNodeIndexBenchmark benchmark = new ContextNodeIndexBenchmark();
+        benchmark.contextSize = 16;
+        benchmark.entrySize = 1024;
+        benchmark.setUp();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.lock;
+
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of many writers, each of which
+ * repeatedly WRITE_LOCKs its own sibling Collection beneath
+ * a common parent, e.g. /db/data/0, /db/data/1, ... /db/data/n.
+ *
+ * With single-writer/multi-reader the writers serialise on
+ * the WRITE_LOCKs of /db and /db/data, whereas with
+ * multi-writer/multi-reader the ancestors are only INTENTION_WRITE
+ * locked and so the writers may proceed concurrently.
+ */
+@State(Scope.Benchmark)
+public class SiblingCollectionLockBenchmark {
+
+    private static final int CONCURRENCY_LEVEL = 100;
+    private static final String PARENT_COLLECTION = "/db/data/";
+
+    @Param({"false", "true"})
+    public boolean pathsMultiWriter;
+
+    /**
+     * The amount of work performed whilst the lock is held.
+     */
+    @Param({"100", "1000"})
+    public long workTokens;
+
+    private LockManager lockManager;
+    private final AtomicInteger nextSibling = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final String previousPathsMultiWriter = System.setProperty(LockManager.PROP_ENABLE_PATHS_MULTI_WRITER, Boolean.toString(pathsMultiWriter));
+        try {
+            lockManager = new LockManager(CONCURRENCY_LEVEL);
+        } finally {
+            if (previousPathsMultiWriter != null) {
+                System.setProperty(LockManager.PROP_ENABLE_PATHS_MULTI_WRITER, previousPathsMultiWriter);
+            } else {
+                System.clearProperty(LockManager.PROP_ENABLE_PATHS_MULTI_WRITER);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        lockManager.getLockTable().shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class WriterState {
+        private XmldbURI collectionUri;
+
+        @Setup(Level.Trial)
+        public void setUp(final SiblingCollectionLockBenchmark benchmark) {
+            collectionUri = XmldbURI.create(PARENT_COLLECTION + benchmark.nextSibling.getAndIncrement());
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void writeSiblingCollections(final WriterState writerState) throws LockException {
+        try (final ManagedCollectionLock collectionLock = lockManager.acquireCollectionWriteLock(writerState.collectionUri)) {
+            Blackhole.consumeCPU(workTokens);
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void intentionWriteSiblingCollections(final WriterState writerState) throws LockException {
+        if (!pathsMultiWriter) {
+            // INTENTION_WRITE is not available for Collections in single-writer/multi-reader mode
+            return;
+        }
+        try (final ManagedCollectionLock collectionLock = lockManager.acquireCollectionIntentionWriteLock(writerState.collectionUri)) {
+            Blackhole.consumeCPU(workTokens);
+        }
+    }
+
+    public static void main(final String args[]) throws LockException {
+        // NOTE: just for running with the java debugger
+        final SiblingCollectionLockBenchmark benchmark = new SiblingCollectionLockBenchmark();
+        benchmark.pathsMultiWriter = true;
+        benchmark.workTokens = 100;
+        benchmark.setUp();
+
+        final WriterState writerState = new WriterState();
+        writerState.setUp(benchmark);
+        benchmark.writeSiblingCollections(writerState);
+        benchmark.intentionWriteSiblingCollections(writerState);
+
+        benchmark.tearDown();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.serializer;
+
+import org.exist.dom.QName;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.transform.OutputKeys;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares serializing the same events with a {@link SAXSerializer}
+ * as XML, XHTML and JSON, when the output bytes are produced:
+ *
+ * 1. by an {@link OutputStreamWriter}, as before.
+ *
+ * 2. by a {@link UTF8Writer}, which encodes into a pooled byte buffer.
+ *
+ * The document is a flat list of records, each with a few attributes
+ * and text fields. Most of the text is ASCII, some of it needs escaping
+ * and some has characters outside of ASCII.
+ */
+@State(Scope.Benchmark)
+public class SerializerWriterBenchmark {
+
+    private static final QName RECORDS = new QName("records");
+    private static final QName RECORD = new QName("record");
+    private static final QName ID = new QName("id");
+    private static final QName TYPE = new QName("type");
+    private static final QName[] FIELDS = { new QName("title"), new QName("author"), new QName("description") };
+
+    private static final String[] WORDS = {
+        "lorem", "ipsum", "dolor", "sit", "amet", "<b>", "&amp;", "caf\u00e9", "\u00fcber", "\u65e5\u672c", "x > y"
+    };
+
+    @Param({"xml", "xhtml", "json"})
+    public String method;
+
+    @Param({"false", "true"})
+    public boolean utf8Writer;
+
+    @Param({"1000"})
+    public int records;
+
+    private String[][] texts;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+    private final SAXSerializer serializer = new SAXSerializer();
+    private final Properties properties = new Properties();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(records);
+        texts = new String[records][FIELDS.length];
+        for (int i = 0; i < records; i++) {
+            for (int j = 0; j < FIELDS.length; j++) {
+                final StringBuilder text = new StringBuilder();
+                final int words = 2 + random.nextInt(j == FIELDS.length - 1 ? 40 : 4);
+                for (int k = 0; k < words; k++) {
+                    if (k > 0) {
+                        text.append(' ');
+                    }
+                    text.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                texts[i][j] = text.toString();
+            }
+        }
+
+        properties.setProperty(OutputKeys.METHOD, method);
+        properties.setProperty(OutputKeys.INDENT, "no");
+        properties.setProperty(OutputKeys.ENCODING, UTF_8.name());
+    }
+
+    @Benchmark
+    public int serialize() throws Exception {
+        out.reset();
+        final Writer writer = utf8Writer ? new UTF8Writer(out) : new OutputStreamWriter(out, UTF_8);
+        serializer.setOutput(writer, properties);
+
+        serializer.startDocument();
+        serializer.startElement(RECORDS, null);
+        for (int i = 0; i < records; i++) {
+            final AttrList attribs = new AttrList();
+            attribs.addAttribute(ID, Integer.toString(i));
+            attribs.addAttribute(TYPE, (i & 1) == 0 ? "book" : "article");
+            serializer.startElement(RECORD, attribs);
+            for (int j = 0; j < FIELDS.length; j++) {
+                serializer.startElement(FIELDS[j], null);
+                serializer.characters(texts[i][j]);
+                serializer.endElement(FIELDS[j]);
+            }
+            serializer.endElement(RECORD);
+        }
+        serializer.endElement(RECORDS);
+        serializer.endDocument();
+
+        writer.close();
+        serializer.reset();
+        return out.size();
+    }
+}
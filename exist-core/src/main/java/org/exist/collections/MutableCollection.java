@@ -692,7 +692,8 @@ public class MutableCollection implements Collection {
 
     @Override
     public LockedDocument getDocumentWithLock(final DBBroker broker, final XmldbURI name, final LockMode lockMode) throws LockException, PermissionDeniedException {
-        try(final ManagedCollectionLock collectionLock = lockManager.acquireCollectionReadLock(path)) {
+        final LockMode collectionLockMode = lockManager.relativeCollectionLockMode(READ_LOCK, lockMode);
+        try(final ManagedCollectionLock collectionLock = lockManager.acquireCollectionLock(path, collectionLockMode)) {
 
             // lock the document
             final ManagedDocumentLock documentLock;
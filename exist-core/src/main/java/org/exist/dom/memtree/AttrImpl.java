@@ -47,7 +47,7 @@ public class AttrImpl extends NodeImpl implements Attr {
 
     @Override
     public NodeId getNodeId() {
-        return document.attrNodeId[nodeNumber];
+        return document.getAttrNodeIdFor(nodeNumber);
     }
 
     @Override
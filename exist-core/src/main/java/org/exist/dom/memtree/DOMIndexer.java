@@ -197,7 +197,7 @@ public class DOMIndexer {
                     break;
                 }
                 final ElementImpl last = stack.peek();
-                text.setData(new String(doc.characters, doc.alpha[nodeNr], doc.alphaLen[nodeNr]));
+                text.setData(doc.text.getString(doc.alpha[nodeNr], doc.alphaLen[nodeNr]));
                 text.setOwnerDocument(targetDoc);
                 last.appendChildInternal(prevNode, text);
                 setPrevious(text);
@@ -208,7 +208,7 @@ public class DOMIndexer {
             case Node.CDATA_SECTION_NODE: {
                 final ElementImpl last = stack.peek();
                 final org.exist.dom.persistent.CDATASectionImpl cdata = (org.exist.dom.persistent.CDATASectionImpl) NodePool.getInstance().borrowNode(Node.CDATA_SECTION_NODE);
-                cdata.setData(doc.characters, doc.alpha[nodeNr], doc.alphaLen[nodeNr]);
+                cdata.setData(doc.text.chars(doc.alpha[nodeNr]), doc.text.offset(doc.alpha[nodeNr]), doc.alphaLen[nodeNr]);
                 cdata.setOwnerDocument(targetDoc);
                 last.appendChildInternal(prevNode, cdata);
                 setPrevious(cdata);
@@ -217,7 +217,7 @@ public class DOMIndexer {
             }
 
             case Node.COMMENT_NODE: {
-                comment.setData(doc.characters, doc.alpha[nodeNr], doc.alphaLen[nodeNr]);
+                comment.setData(doc.text.chars(doc.alpha[nodeNr]), doc.text.offset(doc.alpha[nodeNr]), doc.alphaLen[nodeNr]);
                 comment.setOwnerDocument(targetDoc);
                 if(stack.isEmpty()) {
                     comment.setNodeId(NodeId.DOCUMENT_NODE);
@@ -235,7 +235,7 @@ public class DOMIndexer {
             case Node.PROCESSING_INSTRUCTION_NODE: {
                 final QName qn = doc.nodeName[nodeNr];
                 pi.setTarget(qn.getLocalPart());
-                pi.setData(new String(doc.characters, doc.alpha[nodeNr], doc.alphaLen[nodeNr]));
+                pi.setData(doc.text.getString(doc.alpha[nodeNr], doc.alphaLen[nodeNr]));
                 pi.setOwnerDocument(targetDoc);
                 if(stack.isEmpty()) {
                     pi.setNodeId(NodeId.DOCUMENT_NODE);
@@ -30,6 +30,7 @@ import org.exist.dom.QName.IllegalQNameException;
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.numbering.NodeId;
 import org.exist.numbering.NodeIdFactory;
+import org.exist.numbering.PackedDLNArray;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.ElementValue;
@@ -47,6 +48,7 @@ import org.exist.xquery.value.Type;
 import org.w3c.dom.*;
 import org.xml.sax.SAXException;
 
+import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import java.util.Arrays;
 import java.util.Objects;
@@ -76,7 +78,7 @@ import static org.exist.dom.QName.Validity.ILLEGAL_FORMAT;
  *  * {@link #nodeName}
  *  * {@link #alpha}
  *  * {@link #alphaLen}
- *  * {@link #characters}
+ *  * {@link #text}
  *  * {@link #nodeId}
  *  * {@link #attrName}
  *  * {@link #attrType}
@@ -95,7 +97,6 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
 
     private static final int NODE_SIZE = 16;
     private static final int ATTR_SIZE = 8;
-    private static final int CHAR_BUF_SIZE = 256;
     private static final int REF_SIZE = 8;
 
     // holds the node type of a node
@@ -110,18 +111,21 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     // pointer into the namePool
     protected QName[] nodeName;
 
-    protected NodeId[] nodeId;
+    // the node ids, packed once they have been computed
+    @Nullable protected PackedDLNArray nodeId;
+
+    // siblings visited so far while computing single node ids
+    private int nodeIdLookupCost = 0;
 
     //alphanumeric content
     protected int[] alpha;
     protected int[] alphaLen;
-    protected char[] characters = null;
-    protected int nextChar = 0;
+    TextStore text = null;
 
     // attributes
     protected QName[] attrName;
     protected int[] attrType;
-    protected NodeId[] attrNodeId;
+    @Nullable protected PackedDLNArray attrNodeId;
     protected int[] attrParent;
     protected String[] attrValue;
     protected int nextAttr = 0;
@@ -188,7 +192,6 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         next = new int[NODE_SIZE];
         Arrays.fill(next, -1);
         nodeName = new QName[NODE_SIZE];
-        nodeId = new NodeId[NODE_SIZE];
         alpha = new int[NODE_SIZE];
         alphaLen = new int[NODE_SIZE];
         Arrays.fill(alphaLen, -1);
@@ -196,7 +199,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         attrParent = new int[ATTR_SIZE];
         attrValue = new String[ATTR_SIZE];
         attrType = new int[ATTR_SIZE];
-        attrNodeId = new NodeId[NODE_SIZE];
+        text = new TextStore();
         treeLevel[0] = 0;
         nodeKind[0] = Node.DOCUMENT_NODE;
         document = this;
@@ -204,10 +207,13 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
 
     public void reset() {
         size = 0;
-        nextChar = 0;
+        text = new TextStore();
         nextAttr = 0;
         nextReferenceIdx = 0;
         references = null;
+        nodeId = null;
+        attrNodeId = null;
+        nodeIdLookupCost = 0;
     }
 
     public int getSize() {
@@ -234,6 +240,8 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         nodeName[size] = qname != null ? namePool.getSharedName(qname) : null;
         alpha[size] = -1; // undefined
         next[size] = -1;
+        // any computed ids do not cover the new node
+        nodeId = null;
         return (size++);
     }
 
@@ -241,80 +249,27 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         if(nodeKind == null) {
             init();
         }
-        if(characters == null) {
-            characters = new char[len > CHAR_BUF_SIZE ? len : CHAR_BUF_SIZE];
-        } else if((nextChar + len) >= characters.length) {
-            int newLen = (characters.length * 3) / 2;
-            if(newLen < (nextChar + len)) {
-                newLen = nextChar + len;
-            }
-            final char[] nc = new char[newLen];
-            System.arraycopy(characters, 0, nc, 0, characters.length);
-            characters = nc;
-        }
-        alpha[nodeNum] = nextChar;
+        alpha[nodeNum] = text.add(ch, start, len);
         alphaLen[nodeNum] = len;
-        System.arraycopy(ch, start, characters, nextChar, len);
-        nextChar += len;
     }
 
     public void addChars(final int nodeNum, final CharSequence s) {
         if(nodeKind == null) {
             init();
         }
-        int len = (s == null) ? 0 : s.length();
-        if(characters == null) {
-            characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
-        } else if((nextChar + len) >= characters.length) {
-            int newLen = (characters.length * 3) / 2;
-            if(newLen < (nextChar + len)) {
-                newLen = nextChar + len;
-            }
-            final char[] nc = new char[newLen];
-            System.arraycopy(characters, 0, nc, 0, characters.length);
-            characters = nc;
-        }
-        alpha[nodeNum] = nextChar;
-        alphaLen[nodeNum] = len;
-        for(int i = 0; i < len; i++) {
-            characters[nextChar++] = s.charAt(i);
-        }
+        final CharSequence chars = (s == null) ? "" : s;
+        alpha[nodeNum] = text.add(chars);
+        alphaLen[nodeNum] = chars.length();
     }
 
     public void appendChars(final int nodeNum, final char[] ch, final int start, final int len) {
-        if(characters == null) {
-            characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
-        } else if((nextChar + len) >= characters.length) {
-            int newLen = (characters.length * 3) / 2;
-            if(newLen < (nextChar + len)) {
-                newLen = nextChar + len;
-            }
-            final char[] nc = new char[newLen];
-            System.arraycopy(characters, 0, nc, 0, characters.length);
-            characters = nc;
-        }
+        alpha[nodeNum] = text.append(alpha[nodeNum], alphaLen[nodeNum], ch, start, len);
         alphaLen[nodeNum] = alphaLen[nodeNum] + len;
-        System.arraycopy(ch, start, characters, nextChar, len);
-        nextChar += len;
     }
 
     public void appendChars(final int nodeNum, final CharSequence s) {
-        final int len = s.length();
-        if(characters == null) {
-            characters = new char[(len > CHAR_BUF_SIZE) ? len : CHAR_BUF_SIZE];
-        } else if((nextChar + len) >= characters.length) {
-            int newLen = (characters.length * 3) / 2;
-            if(newLen < (nextChar + len)) {
-                newLen = nextChar + len;
-            }
-            final char[] nc = new char[newLen];
-            System.arraycopy(characters, 0, nc, 0, characters.length);
-            characters = nc;
-        }
-        alphaLen[nodeNum] = alphaLen[nodeNum] + len;
-        for(int i = 0; i < len; i++) {
-            characters[nextChar++] = s.charAt(i);
-        }
+        alpha[nodeNum] = text.append(alpha[nodeNum], alphaLen[nodeNum], s);
+        alphaLen[nodeNum] = alphaLen[nodeNum] + s.length();
     }
 
     public void addReferenceNode(final int nodeNum, final NodeProxy proxy) {
@@ -369,11 +324,13 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         final QName attrQname = new QName(qname.getLocalPart(), qname.getNamespaceURI(), qname.getPrefix(), ElementValue.ATTRIBUTE);
         attrParent[nextAttr] = nodeNum;
         attrName[nextAttr] = namePool.getSharedName(attrQname);
-        attrValue[nextAttr] = value;
+        attrValue[nextAttr] = text.shareString(value);
         attrType[nextAttr] = type;
         if(alpha[nodeNum] < 0) {
             alpha[nodeNum] = nextAttr;
         }
+        nodeId = null;
+        attrNodeId = null;
         return (nextAttr++);
     }
 
@@ -435,10 +392,6 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         System.arraycopy(nodeName, 0, newNodeName, 0, size);
         nodeName = newNodeName;
 
-        final NodeId[] newNodeId = new NodeId[newSize];
-        System.arraycopy(nodeId, 0, newNodeId, 0, size);
-        nodeId = newNodeId;
-
         final int[] newAlpha = new int[newSize];
         System.arraycopy(alpha, 0, newAlpha, 0, size);
         alpha = newAlpha;
@@ -468,10 +421,6 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         final int[] newAttrType = new int[newSize];
         System.arraycopy(attrType, 0, newAttrType, 0, size);
         attrType = newAttrType;
-
-        final NodeId[] newNodeId = new NodeId[newSize];
-        System.arraycopy(attrNodeId, 0, newNodeId, 0, size);
-        attrNodeId = newNodeId;
     }
 
     private void growReferences() {
@@ -1161,21 +1110,21 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 break;
             }
             case Node.TEXT_NODE:
-                receiver.characters(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                receiver.characters(document.text.chars(document.alpha[nr]), document.text.offset(document.alpha[nr]), document.alphaLen[nr]);
                 break;
             case Node.CDATA_SECTION_NODE:
-                receiver.cdataSection(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                receiver.cdataSection(document.text.chars(document.alpha[nr]), document.text.offset(document.alpha[nr]), document.alphaLen[nr]);
                 break;
             case Node.ATTRIBUTE_NODE:
                 final QName attrQName = document.attrName[nr];
                 receiver.attribute(attrQName, attrValue[nr]);
                 break;
             case Node.COMMENT_NODE:
-                receiver.comment(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                receiver.comment(document.text.chars(document.alpha[nr]), document.text.offset(document.alpha[nr]), document.alphaLen[nr]);
                 break;
             case Node.PROCESSING_INSTRUCTION_NODE:
                 final QName piQName = document.nodeName[nr];
-                final String data = new String(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                final String data = document.text.getString(document.alpha[nr], document.alphaLen[nr]);
                 receiver.processingInstruction(piQName.getLocalPart(), data);
                 break;
             case NodeImpl.NAMESPACE_NODE:
@@ -1227,75 +1176,156 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
     }
 
     public DocumentImpl expandRefs(final NodeImpl rootNode) throws DOMException {
+        if(nextReferenceIdx == 0) {
+            return this;
+        }
+        final MemTreeBuilder builder = new MemTreeBuilder(getExpression(), context);
+        final DocumentBuilderReceiver receiver = new DocumentBuilderReceiver(getExpression(), builder);
         try {
-            if(nextReferenceIdx == 0) {
-                computeNodeIds();
-                return this;
-            }
-            final MemTreeBuilder builder = new MemTreeBuilder(getExpression(), context);
-            final DocumentBuilderReceiver receiver = new DocumentBuilderReceiver(getExpression(), builder);
-            try {
-                builder.startDocument();
-                NodeImpl node = (rootNode == null) ? (NodeImpl) getFirstChild() : rootNode;
-                while(node != null) {
-                    copyTo(node, receiver, true);
-                    node = (NodeImpl) node.getNextSibling();
-                }
-                receiver.endDocument();
-            } catch(final SAXException e) {
-                throw new DOMException(DOMException.INVALID_STATE_ERR, e.getMessage());
+            builder.startDocument();
+            NodeImpl node = (rootNode == null) ? (NodeImpl) getFirstChild() : rootNode;
+            while(node != null) {
+                copyTo(node, receiver, true);
+                node = (NodeImpl) node.getNextSibling();
             }
-            final DocumentImpl newDoc = builder.getDocument();
-            newDoc.computeNodeIds();
-            return newDoc;
-        } catch(final EXistException e) {
+            receiver.endDocument();
+        } catch(final SAXException e) {
             throw new DOMException(DOMException.INVALID_STATE_ERR, e.getMessage());
         }
+        return builder.getDocument();
     }
 
     public NodeImpl getNodeById(final NodeId id) {
         expand();
+        if(size == 0) {
+            return null;
+        }
+        computeNodeIds();
         for(int i = 0; i < size; i++) {
-            if(id.equals(nodeId[i])) {
+            if(!nodeId.isNull(i) && nodeId.compare(i, id) == 0) {
                 return getNode(i);
             }
         }
         return null;
     }
 
-    private void computeNodeIds() throws EXistException {
-        if(nodeId[0] != null) {
+    /**
+     * Returns the id of a node, computing only that id unless the
+     * ids of the whole document have already been computed.
+     *
+     * @param nodeNum the node number
+     * @return the node id
+     */
+    NodeId getNodeIdFor(final int nodeNum) {
+        if(nodeId == null && nodeIdLookupCost > size) {
+            // single lookups have cost as much as computing all ids would
+            computeNodeIds();
+        }
+        if(nodeId != null) {
+            return nodeId.get(nodeNum);
+        }
+        if(nodeNum == 0) {
+            return getDatabase().getNodeFactory().documentNodeId();
+        }
+
+        // the path from the top-level node down to nodeNum
+        final int[] path = new int[treeLevel[nodeNum]];
+        int n = nodeNum;
+        for(int i = path.length - 1; i >= 0; i--) {
+            path[i] = n;
+            n = getParentNodeFor(n);
+        }
+
+        NodeId id = null;
+        int parent = 0;
+        for(final int child : path) {
+            int levelId = 1;
+            if(parent > 0) {
+                int attr = alpha[parent];
+                if(-1 < attr) {
+                    while((attr < nextAttr) && (attrParent[attr] == parent)) {
+                        ++levelId;
+                        ++attr;
+                    }
+                }
+            }
+            for(int sibling = getFirstChildFor(parent); sibling != child; sibling = next[sibling]) {
+                ++levelId;
+            }
+            nodeIdLookupCost += levelId;
+            id = parent == 0 ? getDatabase().getNodeFactory().createInstance(levelId) : id.getChild(levelId);
+            parent = child;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of an attribute, computing only that id unless the
+     * ids of the whole document have already been computed.
+     *
+     * @param attr the attribute number
+     * @return the attribute's node id
+     */
+    NodeId getAttrNodeIdFor(final int attr) {
+        if(attrNodeId == null && nodeIdLookupCost > size) {
+            computeNodeIds();
+        }
+        if(attrNodeId != null) {
+            return attrNodeId.get(attr);
+        }
+        final int parent = attrParent[attr];
+        return getNodeIdFor(parent).getChild(attr - alpha[parent] + 1);
+    }
+
+    /**
+     * Computes the ids of all nodes and attributes, and packs
+     * them into {@link #nodeId} and {@link #attrNodeId}.
+     */
+    private void computeNodeIds() {
+        if(nodeId != null) {
             return;
         }
+        final NodeId[] nodeIds = new NodeId[size];
+        final NodeId[] attrNodeIds = new NodeId[nextAttr];
         final NodeIdFactory nodeFactory = getDatabase().getNodeFactory();
-        nodeId[0] = nodeFactory.documentNodeId();
-        if(size == 1) {
-            return;
+        nodeIds[0] = nodeFactory.documentNodeId();
+        if(size > 1) {
+            NodeId nextId = nodeFactory.createInstance();
+            NodeImpl next = (NodeImpl) getFirstChild();
+            while(next != null) {
+                computeNodeIds(nodeIds, attrNodeIds, nextId, next.nodeNumber);
+                next = (NodeImpl) next.getNextSibling();
+                nextId = nextId.nextSibling();
+            }
         }
-        NodeId nextId = nodeFactory.createInstance();
-        NodeImpl next = (NodeImpl) getFirstChild();
-        while(next != null) {
-            computeNodeIds(nextId, next.nodeNumber);
-            next = (NodeImpl) next.getNextSibling();
-            nextId = nextId.nextSibling();
+        attrNodeId = pack(attrNodeIds);
+        nodeId = pack(nodeIds);
+    }
+
+    private static PackedDLNArray pack(final NodeId[] ids) {
+        final PackedDLNArray packed = new PackedDLNArray(ids.length);
+        for(final NodeId id : ids) {
+            packed.add(id);
         }
+        packed.trimToSize();
+        return packed;
     }
 
-    private void computeNodeIds(final NodeId id, final int nodeNum) {
-        nodeId[nodeNum] = id;
+    private void computeNodeIds(final NodeId[] nodeIds, final NodeId[] attrNodeIds, final NodeId id, final int nodeNum) {
+        nodeIds[nodeNum] = id;
         if(nodeKind[nodeNum] == Node.ELEMENT_NODE) {
             NodeId nextId = id.newChild();
             int attr = document.alpha[nodeNum];
             if(-1 < attr) {
                 while((attr < document.nextAttr) && (document.attrParent[attr] == nodeNum)) {
-                    attrNodeId[attr] = nextId;
+                    attrNodeIds[attr] = nextId;
                     nextId = nextId.nextSibling();
                     ++attr;
                 }
             }
             int nextNode = getFirstChildFor(nodeNum);
             while(nextNode > nodeNum) {
-                computeNodeIds(nextId, nextNode);
+                computeNodeIds(nodeIds, attrNodeIds, nextId, nextNode);
                 nextNode = document.next[nextNode];
                 if(nextNode > nodeNum) {
                     nextId = nextId.nextSibling();
@@ -1316,10 +1346,10 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
         next = newDoc.next;
         nodeName = newDoc.nodeName;
         nodeId = newDoc.nodeId;
+        nodeIdLookupCost = newDoc.nodeIdLookupCost;
         alpha = newDoc.alpha;
         alphaLen = newDoc.alphaLen;
-        characters = newDoc.characters;
-        nextChar = newDoc.nextChar;
+        text = newDoc.text;
         attrName = newDoc.attrName;
         attrNodeId = newDoc.attrNodeId;
         attrParent = newDoc.attrParent;
@@ -1409,23 +1439,22 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Document {
                 receiver.startElement(nodeName, attribs);
                 break;
             case Node.TEXT_NODE:
-                receiver.characters(new String(document.characters, document.alpha[nr],
-                    document.alphaLen[nr]));
+                receiver.characters(document.text.getString(document.alpha[nr], document.alphaLen[nr]));
                 break;
             case Node.ATTRIBUTE_NODE:
                 final QName attrQName = document.attrName[nr];
                 receiver.attribute(attrQName, attrValue[nr]);
                 break;
             case Node.COMMENT_NODE:
-                receiver.comment(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                receiver.comment(document.text.chars(document.alpha[nr]), document.text.offset(document.alpha[nr]), document.alphaLen[nr]);
                 break;
             case Node.PROCESSING_INSTRUCTION_NODE:
                 final QName qn = document.nodeName[nr];
-                final String data = new String(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                final String data = document.text.getString(document.alpha[nr], document.alphaLen[nr]);
                 receiver.processingInstruction(qn.getLocalPart(), data);
                 break;
             case Node.CDATA_SECTION_NODE:
-                receiver.cdataSection(document.characters, document.alpha[nr], document.alphaLen[nr]);
+                receiver.cdataSection(document.text.chars(document.alpha[nr]), document.text.offset(document.alpha[nr]), document.alphaLen[nr]);
                 break;
             case NodeImpl.REFERENCE_NODE:
                 serializer.toReceiver(document.references[document.alpha[nr]], true, false);
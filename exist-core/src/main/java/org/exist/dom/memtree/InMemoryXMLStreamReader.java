@@ -66,7 +66,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
                 return null;
             }
             doc.expand();
-            return doc.nodeId[currentNode];
+            return doc.getNodeIdFor(currentNode);
         }
         return null;
     }
@@ -297,7 +297,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
         }
         doc.expand();
         final int attr = doc.alpha[currentNode];
-        return doc.attrNodeId[attr + index];
+        return doc.getAttrNodeIdFor(attr + index);
     }
 
     @Override
@@ -394,7 +394,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
     @Override
     public String getText() {
         if(state == CHARACTERS || state == COMMENT || state == CDATA) {
-            return new String(doc.characters, doc.alpha[currentNode], doc.alphaLen[currentNode]);
+            return doc.text.getString(doc.alpha[currentNode], doc.alphaLen[currentNode]);
         }
         return "";
     }
@@ -402,7 +402,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
     @Override
     public char[] getTextCharacters() {
         final char[] ch = new char[doc.alphaLen[currentNode]];
-        System.arraycopy(doc.characters, doc.alpha[currentNode], ch, 0, ch.length);
+        doc.text.getChars(doc.alpha[currentNode], ch.length, ch, 0);
         return ch;
     }
 
@@ -497,7 +497,7 @@ public class InMemoryXMLStreamReader implements ExtendedXMLStreamReader {
 
     @Override
     public String getPIData() {
-        return new String(doc.characters, doc.alpha[currentNode], doc.alphaLen[currentNode]);
+        return doc.text.getString(doc.alpha[currentNode], doc.alphaLen[currentNode]);
     }
 
     /**
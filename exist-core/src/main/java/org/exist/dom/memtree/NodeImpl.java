@@ -243,7 +243,7 @@ public abstract class NodeImpl<T extends NodeImpl<T>> implements INode<DocumentI
     @Override
     public NodeId getNodeId() {
         expand();
-        return document.nodeId[nodeNumber];
+        return document.getNodeIdFor(nodeNumber);
     }
 
     public void expand() throws DOMException {
@@ -516,27 +516,23 @@ public abstract class NodeImpl<T extends NodeImpl<T>> implements INode<DocumentI
     public String getStringValue() {
         final int level = document.treeLevel[nodeNumber];
         int next = nodeNumber + 1;
-        int startOffset = 0;
-        int len = -1;
+        int textNode = -1;
 
         while(next < document.size && document.treeLevel[next] > level) {
             if(
-                (document.nodeKind[next] == Node.TEXT_NODE)
+                (textNode < 0)
+                    && ((document.nodeKind[next] == Node.TEXT_NODE)
                     || (document.nodeKind[next] == Node.CDATA_SECTION_NODE)
-                    || (document.nodeKind[next] == Node.PROCESSING_INSTRUCTION_NODE)
+                    || (document.nodeKind[next] == Node.PROCESSING_INSTRUCTION_NODE))
                 ) {
-                if(len < 0) {
-                    startOffset = document.alpha[next];
-                    len = document.alphaLen[next];
-                } else {
-                    len += document.alphaLen[next];
-                }
+                textNode = next;
             } else {
+                // the characters of several nodes need not be adjacent
                 return getStringValueSlow();
             }
             ++next;
         }
-        return len < 0 ? "" : new String(document.characters, startOffset, len);
+        return textNode < 0 ? "" : document.text.getString(document.alpha[textNode], document.alphaLen[textNode]);
     }
 
     private String getStringValueSlow() {
@@ -552,7 +548,7 @@ public abstract class NodeImpl<T extends NodeImpl<T>> implements INode<DocumentI
                     if(buf == null) {
                         buf = new StringBuilder();
                     }
-                    buf.append(document.characters, document.alpha[next], document.alphaLen[next]);
+                    document.text.appendTo(buf, document.alpha[next], document.alphaLen[next]);
                     break;
                 }
                 case REFERENCE_NODE: {
@@ -826,12 +822,18 @@ public abstract class NodeImpl<T extends NodeImpl<T>> implements INode<DocumentI
 
     public void selectPreceding(final NodeTest test, final Sequence result, final int position)
         throws XPathException {
-        final NodeId myNodeId = getNodeId();
+        expand();
+        // the ancestors of this node are met in descending order
+        int ancestor = document.getParentNodeFor(nodeNumber);
         int count = 0;
 
         for(int i = nodeNumber - 1; i > 0; i--) {
+            if(i == ancestor) {
+                ancestor = document.getParentNodeFor(ancestor);
+                continue;
+            }
             final NodeImpl n = document.getNode(i);
-            if(!myNodeId.isDescendantOf(n.getNodeId()) && test.matches(n)) {
+            if(test.matches(n)) {
                 if((position < 0) || (++count == position)) {
                     result.add(n);
                 }
@@ -874,12 +876,17 @@ public abstract class NodeImpl<T extends NodeImpl<T>> implements INode<DocumentI
                 next = (NodeImpl) next.getNextSibling();
             }
         } else {
-            final NodeId myNodeId = getNodeId();
+            expand();
             int count = 0;
+            // skip the descendants of this node
+            final short level = document.treeLevel[nodeNumber];
             int nextNode = nodeNumber + 1;
+            while(nextNode < document.size && document.treeLevel[nextNode] > level) {
+                nextNode++;
+            }
             while(nextNode < document.size) {
                 final NodeImpl n = document.getNode(nextNode);
-                if(!n.getNodeId().isDescendantOf(myNodeId) && test.matches(n)) {
+                if(test.matches(n)) {
                     if((position < 0) || (++count == position)) {
                         result.add(n);
                     }
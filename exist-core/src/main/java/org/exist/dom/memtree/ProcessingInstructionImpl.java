@@ -57,7 +57,7 @@ public class ProcessingInstructionImpl extends NodeImpl implements ProcessingIns
 
     @Override
     public String getData() {
-        return new String(document.characters, document.alpha[nodeNumber], document.alphaLen[nodeNumber]);
+        return document.text.getString(document.alpha[nodeNumber], document.alphaLen[nodeNumber]);
     }
 
     @Override
@@ -72,8 +72,7 @@ public class ProcessingInstructionImpl extends NodeImpl implements ProcessingIns
 
     @Override
     public void setData(final String data) throws DOMException {
-        document.characters = data.toCharArray();
-        document.alpha[nodeNumber] = 0;
+        document.alpha[nodeNumber] = document.text.add(data);
         document.alphaLen[nodeNumber] = data.length();
     }
 
@@ -0,0 +1,256 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.memtree;
+
+import java.util.Arrays;
+
+/**
+ * Character storage of an in-memory document.
+ *
+ * Characters are held in chunks rather than in one growable array, so
+ * that a growing document never copies its text: a full chunk is simply
+ * followed by a new one. The characters of a single value are always
+ * contiguous within one chunk; a value which is larger than a chunk gets
+ * a chunk of its own.
+ *
+ * Values are addressed by an int, the chunk's slot in the high bits and
+ * the offset within the chunk in the low bits. A chunk holding a large
+ * value occupies as many slots as its length requires, so the address
+ * space is the same as that of a single char array.
+ *
+ * Short values are shared: adding a value which equals a recently added
+ * one returns the address of the earlier copy. Stored characters are
+ * therefore never modified; changing a value writes a new one. Short
+ * strings, which the document keeps as such, can be shared by
+ * {@link #shareString(String)}.
+ */
+final class TextStore {
+
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int OFFSET_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Values up to this length are shared, see {@link #share(int, int)}.
+     */
+    private static final int MAX_SHARED_LEN = 32;
+    private static final int SHARED_SIZE = 1024;
+
+    private char[][] chunks = new char[4][];
+
+    // slot of the chunk being filled, or -1
+    private int current = -1;
+    private int used = 0;
+
+    // direct-mapped cache of short values, address and length
+    private int[] sharedAddress = null;
+    private int[] sharedLen;
+
+    // direct-mapped cache of short strings, i.e. attribute values
+    private String[] sharedStrings = null;
+
+    char[] chars(final int address) {
+        return chunks[address >>> CHUNK_SHIFT];
+    }
+
+    int offset(final int address) {
+        return address & OFFSET_MASK;
+    }
+
+    String getString(final int address, final int len) {
+        if(len == 0) {
+            return "";
+        }
+        return new String(chars(address), offset(address), len);
+    }
+
+    void appendTo(final StringBuilder buf, final int address, final int len) {
+        if(len > 0) {
+            buf.append(chars(address), offset(address), len);
+        }
+    }
+
+    void getChars(final int address, final int len, final char[] dst, final int dstOffset) {
+        if(len > 0) {
+            System.arraycopy(chars(address), offset(address), dst, dstOffset, len);
+        }
+    }
+
+    int add(final char[] ch, final int start, final int len) {
+        final int address = reserve(len);
+        System.arraycopy(ch, start, chars(address), offset(address), len);
+        return share(address, len);
+    }
+
+    int add(final CharSequence s) {
+        final int len = s.length();
+        final int address = reserve(len);
+        copy(s, chars(address), offset(address));
+        return share(address, len);
+    }
+
+    /**
+     * Appends characters to a stored value.
+     *
+     * @param address the address of the value
+     * @param len the length of the value
+     * @param ch the characters to append
+     * @param start the offset of the characters in ch
+     * @param appendLen the number of characters to append
+     *
+     * @return the address of the extended value, which differs from
+     *     address if the value had to be moved
+     */
+    int append(final int address, final int len, final char[] ch, final int start, final int appendLen) {
+        final int newAddress = extend(address, len, appendLen);
+        System.arraycopy(ch, start, chars(newAddress), offset(newAddress) + len, appendLen);
+        return newAddress;
+    }
+
+    int append(final int address, final int len, final CharSequence s) {
+        final int newAddress = extend(address, len, s.length());
+        copy(s, chars(newAddress), offset(newAddress) + len);
+        return newAddress;
+    }
+
+    /**
+     * Makes room for appending to a value. The value is extended in
+     * place if it is the last one of the current chunk and the chunk has
+     * room, otherwise it is copied to a new location.
+     */
+    private int extend(final int address, final int len, final int appendLen) {
+        if(current > -1 && address + len == (current << CHUNK_SHIFT) + used
+                && used + appendLen <= chunks[current].length) {
+            used += appendLen;
+            return address;
+        }
+        final int newAddress = reserve(len + appendLen);
+        getChars(address, len, chars(newAddress), offset(newAddress));
+        return newAddress;
+    }
+
+    /**
+     * Reserves space for a value of the given length.
+     *
+     * @return the address of the reserved space
+     */
+    private int reserve(final int len) {
+        // a new value may only start within the first slot of a chunk
+        if(current > -1 && used < CHUNK_SIZE && used + len <= CHUNK_SIZE) {
+            final int address = (current << CHUNK_SHIFT) + used;
+            used += len;
+            return address;
+        }
+
+        final int slot = current < 0 ? 0 : current + slots(chunks[current].length);
+        final long base = (long) slot << CHUNK_SHIFT;
+        // a large value gets room to grow, as text nodes are often built by appending
+        final long chunkLen = len <= CHUNK_SIZE ? CHUNK_SIZE : Math.min(len + (long) (len >>> 1), Integer.MAX_VALUE - base);
+        if(chunkLen < len || base + chunkLen > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Character data exceeds the maximum size of an in-memory document");
+        }
+        if(slot >= chunks.length) {
+            final char[][] newChunks = new char[Math.max(chunks.length * 2, slot + 1)][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            chunks = newChunks;
+        }
+        chunks[slot] = new char[(int) chunkLen];
+        current = slot;
+        used = len;
+        return slot << CHUNK_SHIFT;
+    }
+
+    private static int slots(final int chunkLen) {
+        return (int) ((chunkLen + (long) OFFSET_MASK) >>> CHUNK_SHIFT);
+    }
+
+    /**
+     * Returns the address of an equal short value added before, releasing
+     * the just reserved space of the new value, or else remembers the new
+     * value for sharing.
+     */
+    private int share(final int address, final int len) {
+        if(len > MAX_SHARED_LEN) {
+            return address;
+        }
+        if(sharedAddress == null) {
+            sharedAddress = new int[SHARED_SIZE];
+            sharedLen = new int[SHARED_SIZE];
+            Arrays.fill(sharedAddress, -1);
+        }
+        final char[] chunk = chars(address);
+        final int offset = offset(address);
+        final int i = hash(chunk, offset, len);
+        final int sharedAt = sharedAddress[i];
+        if(sharedAt > -1 && sharedLen[i] == len
+                && Arrays.equals(chars(sharedAt), offset(sharedAt), offset(sharedAt) + len, chunk, offset, offset + len)) {
+            // the new value is the last one of the current chunk
+            used -= len;
+            return sharedAt;
+        }
+        sharedAddress[i] = address;
+        sharedLen[i] = len;
+        return address;
+    }
+
+    /**
+     * Returns an equal string added before, if a short one is
+     * still known, so that the document retains a single instance.
+     *
+     * @param s the string, may be null
+     * @return s or an equal string
+     */
+    String shareString(final String s) {
+        if(s == null || s.length() > MAX_SHARED_LEN) {
+            return s;
+        }
+        if(sharedStrings == null) {
+            sharedStrings = new String[SHARED_SIZE];
+        }
+        final int h = s.hashCode();
+        final int i = (h ^ (h >>> 16)) & (SHARED_SIZE - 1);
+        final String shared = sharedStrings[i];
+        if(s.equals(shared)) {
+            return shared;
+        }
+        sharedStrings[i] = s;
+        return s;
+    }
+
+    private static int hash(final char[] ch, final int start, final int len) {
+        int h = len;
+        for(int i = start; i < start + len; i++) {
+            h = 31 * h + ch[i];
+        }
+        return (h ^ (h >>> 16)) & (SHARED_SIZE - 1);
+    }
+
+    private static void copy(final CharSequence s, final char[] dst, final int dstOffset) {
+        if(s instanceof String) {
+            ((String) s).getChars(0, s.length(), dst, dstOffset);
+        } else {
+            for(int i = 0; i < s.length(); i++) {
+                dst[dstOffset + i] = s.charAt(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,679 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import org.exist.collections.Collection;
+import org.exist.dom.INode;
+import org.exist.dom.QName;
+import org.exist.numbering.NodeId;
+import org.exist.numbering.PackedDLNArray;
+import org.exist.storage.RangeIndexSpec;
+import org.exist.storage.StorageAddress;
+import org.exist.xquery.Constants;
+import org.exist.xquery.Expression;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A node set which stores its nodes column-wise, as parallel arrays of
+ * node ids, storage addresses, node types and names, together with
+ * one entry per run of nodes from the same document. The node ids are
+ * packed into a single buffer, see {@link PackedDLNArray}.
+ *
+ * Unlike {@link NewArrayNodeSet}, which holds a {@link NodeProxy} for every node,
+ * a NodeProxy is only created for a node when it is retrieved from the set;
+ * e.g. by iteration or when it matches a structural join. Once created the
+ * NodeProxy is kept, so that any context or matches added to it are retained.
+ * This is intended for large sets which are immediately filtered, such as the
+ * nodes for a QName scanned from the structural index, where most of the nodes
+ * never escape the join with the context set.
+ *
+ * Nodes should be added in document order; the set detects if they are not
+ * and sorts itself on first read access.
+ */
+public class ColumnarNodeSet extends AbstractNodeSet {
+
+    private static final int INITIAL_SIZE = 64;
+    private static final int INITIAL_DOCUMENTS = 16;
+
+    private int size = 0;
+    private PackedDLNArray nodeIds;
+    private long[] addresses;
+    private short[] nodeTypes;
+    private QName[] qnames;
+    @Nullable private NodeProxy[] proxies = null;
+
+    private int documentCount = 0;
+    private DocumentImpl[] documents = new DocumentImpl[INITIAL_DOCUMENTS];
+    private int[] documentOffsets = new int[INITIAL_DOCUMENTS];
+
+    private boolean isSorted = true;
+    private int state = 0;
+    @Nullable private DocumentSet cachedDocumentSet = null;
+
+    public ColumnarNodeSet() {
+        this(INITIAL_SIZE);
+    }
+
+    public ColumnarNodeSet(final int initialSize) {
+        final int capacity = Math.max(initialSize, 1);
+        this.nodeIds = new PackedDLNArray(capacity);
+        this.addresses = new long[capacity];
+        this.nodeTypes = new short[capacity];
+        this.qnames = new QName[capacity];
+    }
+
+    /**
+     * Add a node to the set without creating a {@link NodeProxy} for it.
+     *
+     * @param doc the document containing the node
+     * @param nodeId the id of the node
+     * @param nodeType the DOM type of the node
+     * @param address the storage address of the node, or {@link StoredNode#UNKNOWN_NODE_IMPL_ADDRESS}
+     * @param qname the name of the node, or null if unknown
+     */
+    public void add(final DocumentImpl doc, final NodeId nodeId, final short nodeType, final long address,
+            @Nullable final QName qname) {
+        ensureCapacity();
+        nodeIds.add(nodeId);
+        startDocument(doc);
+        addresses[size] = address;
+        nodeTypes[size] = nodeType;
+        qnames[size] = qname;
+        size++;
+        setHasChanged();
+    }
+
+    @Override
+    public void add(final NodeProxy proxy) {
+        ensureCapacity();
+        nodeIds.add(proxy.getNodeId());
+        startDocument(proxy.getOwnerDocument());
+        addresses[size] = proxy.getInternalAddress();
+        nodeTypes[size] = proxy.getNodeType();
+        qnames[size] = null;
+        if (proxies == null) {
+            proxies = new NodeProxy[addresses.length];
+        }
+        proxies[size] = proxy;
+        size++;
+        setHasChanged();
+    }
+
+    private void startDocument(final DocumentImpl doc) {
+        if (documentCount > 0 && documents[documentCount - 1].getDocId() == doc.getDocId()) {
+            if (nodeIds.compare(size - 1, nodeIds, size) >= 0) {
+                isSorted = false;
+            }
+            return;
+        }
+
+        if (documentCount > 0 && documents[documentCount - 1].getDocId() > doc.getDocId()) {
+            isSorted = false;
+        }
+        if (documentCount == documents.length) {
+            final int newLength = documentCount << 1;
+            documents = Arrays.copyOf(documents, newLength);
+            documentOffsets = Arrays.copyOf(documentOffsets, newLength);
+        }
+        documents[documentCount] = doc;
+        documentOffsets[documentCount] = size;
+        documentCount++;
+    }
+
+    private void ensureCapacity() {
+        if (size == addresses.length) {
+            final int newLength = size << 1;
+            addresses = Arrays.copyOf(addresses, newLength);
+            nodeTypes = Arrays.copyOf(nodeTypes, newLength);
+            qnames = Arrays.copyOf(qnames, newLength);
+            if (proxies != null) {
+                proxies = Arrays.copyOf(proxies, newLength);
+            }
+        }
+    }
+
+    private void setHasChanged() {
+        this.state = (state == Integer.MAX_VALUE ? 0 : state + 1);
+        this.cachedDocumentSet = null;
+    }
+
+    /**
+     * Sorts the nodes into document order and removes duplicates,
+     * if they were not added in document order.
+     */
+    public void sort() {
+        if (isSorted) {
+            return;
+        }
+
+        // the document of each node, before the runs are rebuilt
+        final DocumentImpl[] nodeDocuments = new DocumentImpl[size];
+        for (int d = 0; d < documentCount; d++) {
+            Arrays.fill(nodeDocuments, documentOffsets[d], getDocumentEnd(d), documents[d]);
+        }
+
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            final int cmp = Integer.compare(nodeDocuments[a].getDocId(), nodeDocuments[b].getDocId());
+            return cmp != Constants.EQUAL ? cmp : nodeIds.compare(a, nodeIds, b);
+        });
+
+        final PackedDLNArray oldNodeIds = nodeIds;
+        final long[] oldAddresses = addresses;
+        final short[] oldNodeTypes = nodeTypes;
+        final QName[] oldQNames = qnames;
+        final NodeProxy[] oldProxies = proxies;
+        final int oldSize = size;
+
+        final int capacity = oldAddresses.length;
+        nodeIds = new PackedDLNArray(oldSize);
+        addresses = new long[capacity];
+        nodeTypes = new short[capacity];
+        qnames = new QName[capacity];
+        proxies = oldProxies == null ? null : new NodeProxy[capacity];
+        size = 0;
+        documentCount = 0;
+        isSorted = true;
+
+        for (int j = 0; j < oldSize; j++) {
+            final int i = order[j];
+            final DocumentImpl doc = nodeDocuments[i];
+            if (size > 0 && documents[documentCount - 1].getDocId() == doc.getDocId()
+                    && oldNodeIds.compare(i, nodeIds, size - 1) == 0) {
+                // duplicate, keep the first but merge the matches of any proxies
+                if (oldProxies != null && oldProxies[i] != null) {
+                    if (proxies[size - 1] == null) {
+                        proxies[size - 1] = oldProxies[i];
+                    } else {
+                        proxies[size - 1].addMatches(oldProxies[i]);
+                    }
+                }
+                continue;
+            }
+
+            nodeIds.add(oldNodeIds, i);
+            startDocument(doc);
+            addresses[size] = oldAddresses[i];
+            nodeTypes[size] = oldNodeTypes[i];
+            qnames[size] = oldQNames[i];
+            if (oldProxies != null) {
+                proxies[size] = oldProxies[i];
+            }
+            size++;
+        }
+        setHasChanged();
+    }
+
+    /**
+     * Get the number of documents which nodes in this set belong to.
+     *
+     * @return the number of documents
+     */
+    public int getDocumentCount() {
+        sort();
+        return documentCount;
+    }
+
+    /**
+     * Get the index of a document within this set.
+     *
+     * @param docId the id of the document
+     * @return the index of the document, or a negative value if the set holds no nodes of the document
+     */
+    int getDocumentIndex(final int docId) {
+        sort();
+        int low = 0;
+        int high = documentCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midVal = documents[mid].getDocId();
+            if (midVal < docId) {
+                low = mid + 1;
+            } else if (midVal > docId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    DocumentImpl getDocument(final int docIdx) {
+        return documents[docIdx];
+    }
+
+    /**
+     * @param docIdx the index of a document within this set
+     * @return the position of the first node of the document
+     */
+    int getDocumentStart(final int docIdx) {
+        return documentOffsets[docIdx];
+    }
+
+    /**
+     * @param docIdx the index of a document within this set
+     * @return the position after the last node of the document
+     */
+    int getDocumentEnd(final int docIdx) {
+        return docIdx + 1 < documentCount ? documentOffsets[docIdx + 1] : size;
+    }
+
+    /**
+     * Get the id of a node without creating a {@link NodeProxy} for it.
+     *
+     * @param pos the position of the node
+     * @return the id of the node, which shares the buffer of this set
+     */
+    NodeId getNodeId(final int pos) {
+        return nodeIds.get(pos);
+    }
+
+    /**
+     * Get the packed ids of all nodes, for joins.
+     *
+     * @return the node ids, with the same positions as the nodes
+     */
+    PackedDLNArray getPackedNodeIds() {
+        sort();
+        return nodeIds;
+    }
+
+    /**
+     * Find a node within the nodes of a document.
+     *
+     * @param docIdx the index of the document within this set
+     * @param nodeId the id of the node to find
+     * @return the position of the node, or -1 if it is not in the set
+     */
+    private int find(final int docIdx, final NodeId nodeId) {
+        int low = documentOffsets[docIdx];
+        int high = getDocumentEnd(docIdx) - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = nodeIds.compare(mid, nodeId);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int findNode(final int docId, final NodeId nodeId) {
+        final int docIdx = getDocumentIndex(docId);
+        return docIdx < 0 ? -1 : find(docIdx, nodeId);
+    }
+
+    /**
+     * Get the node at a position, creating its {@link NodeProxy}
+     * if that has not already happened.
+     */
+    private NodeProxy materialize(final int pos) {
+        if (proxies == null) {
+            proxies = new NodeProxy[addresses.length];
+        }
+        NodeProxy proxy = proxies[pos];
+        if (proxy == null) {
+            int low = 0;
+            int high = documentCount - 1;
+            while (low < high) {
+                final int mid = (low + high + 1) >>> 1;
+                if (documentOffsets[mid] <= pos) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            proxy = new NodeProxy(null, documents[low], nodeIds.get(pos), nodeTypes[pos], addresses[pos]);
+            if (qnames[pos] != null) {
+                proxy.setQName(qnames[pos]);
+            }
+            proxies[pos] = proxy;
+        }
+        return proxy;
+    }
+
+    @Override
+    public NodeProxy get(final int pos) {
+        sort();
+        if (pos < 0 || pos >= size) {
+            return null;
+        }
+        return materialize(pos);
+    }
+
+    @Override
+    public NodeProxy get(final NodeProxy p) {
+        return get(p.getOwnerDocument(), p.getNodeId());
+    }
+
+    @Override
+    public NodeProxy get(final DocumentImpl doc, final NodeId nodeId) {
+        final int pos = findNode(doc.getDocId(), nodeId);
+        return pos < 0 ? null : materialize(pos);
+    }
+
+    @Override
+    public boolean contains(final NodeProxy proxy) {
+        return findNode(proxy.getOwnerDocument().getDocId(), proxy.getNodeId()) > -1;
+    }
+
+    @Override
+    public boolean containsReference(final Item item) {
+        final int pos = findItem(item);
+        return pos > -1 && proxies != null && proxies[pos] == item;
+    }
+
+    @Override
+    public boolean contains(final Item item) {
+        return findItem(item) > -1;
+    }
+
+    private int findItem(final Item item) {
+        if (item instanceof NodeProxy) {
+            final NodeProxy proxy = (NodeProxy) item;
+            return findNode(proxy.getOwnerDocument().getDocId(), proxy.getNodeId());
+        }
+        if (!(item instanceof Node)) {
+            return -1;
+        }
+
+        @Nullable final Document doc;
+        if (item instanceof Document) {
+            doc = (Document) item;
+        } else {
+            doc = ((Node) item).getOwnerDocument();
+        }
+        if (!(doc instanceof DocumentImpl)) {
+            // in-memory nodes are never part of a persistent node set
+            return -1;
+        }
+        return findNode(((DocumentImpl) doc).getDocId(), ((INode) item).getNodeId());
+    }
+
+    @Override
+    public NodeSetIterator iterator() {
+        sort();
+        return new ColumnarIterator();
+    }
+
+    @Override
+    public SequenceIterator iterate() {
+        sort();
+        return new ColumnarIterator();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() {
+        sort();
+        return new ColumnarIterator();
+    }
+
+    @Override
+    public int getLength() {
+        sort();
+        return size;
+    }
+
+    @Override
+    public long getItemCountLong() {
+        return getLength();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        return getLength() == 1;
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        return get(pos);
+    }
+
+    @Override
+    public Node item(final int pos) {
+        final NodeProxy p = get(pos);
+        return p == null ? null : p.getNode();
+    }
+
+    @Override
+    public int getSizeHint(final DocumentImpl doc) {
+        final int docIdx = getDocumentIndex(doc.getDocId());
+        return docIdx < 0 ? Constants.NO_SIZE_HINT : getDocumentEnd(docIdx) - documentOffsets[docIdx];
+    }
+
+    @Override
+    public DocumentSet getDocumentSet() {
+        sort();
+        if (cachedDocumentSet == null) {
+            final DefaultDocumentSet docs = new DefaultDocumentSet(documentCount);
+            for (int d = 0; d < documentCount; d++) {
+                docs.add(documents[d]);
+            }
+            cachedDocumentSet = docs;
+        }
+        return cachedDocumentSet;
+    }
+
+    @Override
+    public Iterator<Collection> getCollectionIterator() {
+        return getDocumentSet().getCollectionIterator();
+    }
+
+    @Override
+    public NodeSet selectParentChild(final NodeSet al, final int mode, final int contextId) {
+        sort();
+        if (al instanceof VirtualNodeSet) {
+            return NodeSetHelper.selectParentChild(this, al, mode, contextId);
+        }
+        return NodeSetHelper.selectDescendants(this, al, true, false, mode, contextId, true);
+    }
+
+    @Override
+    public NodeSet selectAncestorDescendant(final NodeSet al, final int mode, final boolean includeSelf,
+            final int contextId, final boolean copyMatches) {
+        sort();
+        if (al instanceof VirtualNodeSet) {
+            return NodeSetHelper.selectAncestorDescendant(this, al, mode, includeSelf, contextId);
+        }
+        return NodeSetHelper.selectDescendants(this, al, false, includeSelf, mode, contextId, copyMatches);
+    }
+
+    @Override
+    public void setSelfAsContext(final int contextId) throws XPathException {
+        sort();
+        for (int i = 0; i < size; i++) {
+            final NodeProxy proxy = materialize(i);
+            proxy.addContextNode(contextId, proxy);
+        }
+    }
+
+    @Override
+    public void clearContext(final int contextId) throws XPathException {
+        // only nodes which have a proxy can have a context
+        if (proxies != null) {
+            for (int i = 0; i < size; i++) {
+                if (proxies[i] != null) {
+                    proxies[i].clearContext(contextId);
+                }
+            }
+        }
+    }
+
+    @Override
+    public NodeSet getContextNodes(final int contextId) {
+        sort();
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        // only nodes which have a proxy can have a context
+        if (proxies != null) {
+            for (int i = 0; i < size; i++) {
+                final NodeProxy current = proxies[i];
+                if (current == null) {
+                    continue;
+                }
+                ContextItem contextNode = current.getContext();
+                while (contextNode != null) {
+                    if (contextNode.getContextId() == contextId) {
+                        final NodeProxy context = contextNode.getNode();
+                        context.addMatches(current);
+                        if (Expression.NO_CONTEXT_ID != contextId) {
+                            context.addContextNode(contextId, context);
+                        }
+                        result.add(context);
+                    }
+                    contextNode = contextNode.getNextDirect();
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getIndexType() {
+        // determined from the storage addresses, so without creating a NodeProxy for each node
+        if (indexType == Type.ANY_TYPE) {
+            sort();
+            for (int d = 0; d < documentCount && indexType != Type.ITEM; d++) {
+                if (documents[d].getCollection().isTempCollection()) {
+                    //Temporary nodes return default values
+                    indexType = Type.ITEM;
+                    break;
+                }
+                final int end = getDocumentEnd(d);
+                for (int i = documentOffsets[d]; i < end; i++) {
+                    final int nodeIndexType = addresses[i] == StoredNode.UNKNOWN_NODE_IMPL_ADDRESS ? Type.ITEM
+                            : RangeIndexSpec.indexTypeToXPath(StorageAddress.indexTypeFromPointer(addresses[i]));
+                    if (indexType == Type.ANY_TYPE) {
+                        indexType = nodeIndexType;
+                    } else if (indexType != nodeIndexType) {
+                        indexType = Type.ITEM;
+                        break;
+                    }
+                }
+            }
+        }
+        return indexType;
+    }
+
+    @Override
+    public int getState() {
+        return state;
+    }
+
+    @Override
+    public boolean hasChanged(final int previousState) {
+        return state != previousState;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarNodeSet#" + super.toString();
+    }
+
+    private class ColumnarIterator implements NodeSetIterator, SequenceIterator {
+        private int pos = 0;
+
+        @Override
+        public final boolean hasNext() {
+            return pos < size && pos > -1;
+        }
+
+        @Override
+        public final NodeProxy next() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                throw new NoSuchElementException();
+            }
+            return materialize(pos++);
+        }
+
+        @Override
+        public long skippable() {
+            if (pos == -1) {
+                return 0;
+            }
+            return size - pos;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long skip = Math.min(n, pos == -1 ? 0 : size - pos);
+            pos += skip;
+            return skip;
+        }
+
+        @Override
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public final NodeProxy peekNode() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return materialize(pos);
+        }
+
+        @Override
+        public final Item nextItem() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return materialize(pos++);
+        }
+
+        @Override
+        public void setPosition(final NodeProxy proxy) {
+            pos = findNode(proxy.getOwnerDocument().getDocId(), proxy.getNodeId());
+        }
+    }
+}
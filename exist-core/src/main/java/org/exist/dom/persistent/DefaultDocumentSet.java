@@ -145,24 +145,40 @@ public class DefaultDocumentSet implements MutableDocumentSet {
 
     @Override
     public DocumentSet intersection(final DocumentSet other) {
-        final DefaultDocumentSet result = new DefaultDocumentSet();
-
-        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
-            final DocumentImpl d = i.next();
-            if (other.contains(d.getDocId())) {
-                result.add(d);
-            }
+        if (other instanceof DefaultDocumentSet) {
+            // optimization: intersect the bitmaps of document ids word by word,
+            // then look up the documents which remain
+            final BitSet common = (BitSet) docIds.clone();
+            common.and(((DefaultDocumentSet) other).docIds);
+            return fromDocIds(common, this);
         }
-        for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+
+        // otherwise probe the larger set with the documents of the smaller one
+        final DocumentSet smaller = other.getDocumentCount() < getDocumentCount() ? other : this;
+        final DocumentSet larger = smaller == this ? other : this;
+        final DefaultDocumentSet result = new DefaultDocumentSet();
+        for (final Iterator<DocumentImpl> i = smaller.getDocumentIterator(); i.hasNext(); ) {
             final DocumentImpl d = i.next();
-            if (contains(d.getDocId()) && (!result.contains(d.getDocId()))) {
-                result.add(d);
+            if (larger.contains(d.getDocId())) {
+                result.add(d, false);
             }
         }
         return result;
     }
 
     public DocumentSet union(final DocumentSet other) {
+        if (other instanceof DefaultDocumentSet) {
+            // optimization: only documents missing from the other set need to be added
+            final DefaultDocumentSet otherDDS = (DefaultDocumentSet) other;
+            final DefaultDocumentSet result = fromDocIds(otherDDS.docIds, otherDDS);
+            final BitSet missing = (BitSet) docIds.clone();
+            missing.andNot(otherDDS.docIds);
+            for (int docId = missing.nextSetBit(0); docId >= 0; docId = missing.nextSetBit(docId + 1)) {
+                result.add(docs.get(docId), false);
+            }
+            return result;
+        }
+
         final DefaultDocumentSet result = new DefaultDocumentSet();
         result.addAll(other);
         for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
@@ -174,6 +190,21 @@ public class DefaultDocumentSet implements MutableDocumentSet {
         return result;
     }
 
+    /**
+     * Creates a set of the given documents, in document id order.
+     *
+     * @param ids the ids of the documents
+     * @param source a set which contains all the documents
+     * @return the new set
+     */
+    private static DefaultDocumentSet fromDocIds(final BitSet ids, final DefaultDocumentSet source) {
+        final DefaultDocumentSet result = new DefaultDocumentSet(Math.max(ids.cardinality(), DEFAULT_SIZE));
+        for (int docId = ids.nextSetBit(0); docId >= 0; docId = ids.nextSetBit(docId + 1)) {
+            result.add(source.docs.get(docId), false);
+        }
+        return result;
+    }
+
     @Override
     public boolean contains(final DocumentSet other) {
         if (other.getDocumentCount() > getDocumentCount()) {
@@ -183,10 +214,9 @@ public class DefaultDocumentSet implements MutableDocumentSet {
         if(other instanceof DefaultDocumentSet) {
             // optimization for fast comparison when other is also a DefaultDocumentSet
             final DefaultDocumentSet otherDDS = (DefaultDocumentSet)other;
-            final BitSet compare = new BitSet();
-            compare.or(docIds);
-            compare.and(otherDDS.docIds);
-            return compare.equals(otherDDS.docIds);
+            final BitSet missing = (BitSet) otherDDS.docIds.clone();
+            missing.andNot(docIds);
+            return missing.isEmpty();
         } else {
             // otherwise, fallback to general comparison
             final Iterator<DocumentImpl> otherDocumentIterator = other.getDocumentIterator();
@@ -222,14 +252,7 @@ public class DefaultDocumentSet implements MutableDocumentSet {
     }
 
     public int getMaxDocId() {
-        int max = DocumentImpl.UNKNOWN_DOCUMENT_ID;
-        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
-            final DocumentImpl d = i.next();
-            if (d.getDocId() > max) {
-                max = d.getDocId();
-            }
-        }
-        return max;
+        return docIds.isEmpty() ? DocumentImpl.UNKNOWN_DOCUMENT_ID : docIds.length() - 1;
     }
 
     @Override
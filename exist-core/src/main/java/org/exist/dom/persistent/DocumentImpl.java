@@ -52,6 +52,7 @@ import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.exist.dom.QName.Validity.ILLEGAL_FORMAT;
@@ -133,6 +134,13 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Resource, Do
      */
     protected long lastModified = 0;
 
+    /**
+     * The number of modifications made to this document since it was loaded,
+     * unlike {@link #lastModified} this is not persisted, but does not have a
+     * millisecond resolution
+     */
+    private final AtomicLong modificationCount = new AtomicLong();
+
     /**
      * The number of data pages occupied by this document
      */
@@ -463,6 +471,29 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Resource, Do
 
     public void setLastModified(final long lastModified) {
         this.lastModified = lastModified;
+        incrementModificationCount();
+    }
+
+    /**
+     * Returns the number of modifications made to this document since it was loaded.
+     * Two calls which return the same count bracket a period in which the document
+     * was not modified.
+     *
+     * @return the modification count
+     */
+    public long getModificationCount() {
+        return modificationCount.get();
+    }
+
+    /**
+     * Records a modification of the document, i.e. a change of its nodes or their storage.
+     *
+     * Must be called whilst holding the write lock of the document and before the
+     * modification starts, so that a snapshot taken before the modification is
+     * invalidated even if it is validated whilst the modification is still in progress.
+     */
+    public void incrementModificationCount() {
+        modificationCount.incrementAndGet();
     }
 
     public String getMimeType() {
@@ -680,6 +711,7 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Resource, Do
 
         // always set mtime
         this.lastModified = timestamp;
+        incrementModificationCount();
 
         // reset pageCount: will be updated during storage
         this.pageCount = 0;
@@ -913,8 +913,94 @@ public class NewArrayNodeSet extends AbstractArrayNodeSet implements ExtNodeSet,
         return null;
     }
 
+    /**
+     * Intersects two sorted node sets by merging them: documents are matched
+     * on the sorted document ids first, and only the nodes of documents found in
+     * both sets are compared.
+     */
+    @Override
+    public NodeSet intersection(final NodeSet other) {
+        if(!(other instanceof NewArrayNodeSet)) {
+            return super.intersection(other);
+        }
+        final NewArrayNodeSet o = (NewArrayNodeSet) other;
+        sort();
+        o.sort();
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        int i = 0;
+        int j = 0;
+        while(i < documentCount && j < o.documentCount) {
+            if(documentIds[i] < o.documentIds[j]) {
+                i++;
+            } else if(documentIds[i] > o.documentIds[j]) {
+                j++;
+            } else {
+                int l = documentNodesOffset[i];
+                final int lEnd = l + documentNodesCount[i];
+                int r = o.documentNodesOffset[j];
+                final int rEnd = r + o.documentNodesCount[j];
+                while(l < lEnd && r < rEnd) {
+                    final int cmp = nodes[l].getNodeId().compareTo(o.nodes[r].getNodeId());
+                    if(cmp < 0) {
+                        l++;
+                    } else if(cmp > 0) {
+                        r++;
+                    } else {
+                        nodes[l].addMatches(o.nodes[r]);
+                        result.add(nodes[l++]);
+                        r++;
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+        result.updateNoSort();
+        return result;
+    }
+
+    /**
+     * Unites two sorted node sets by merging them. As in {@link AbstractNodeSet#union(NodeSet)},
+     * a node contained in both sets is taken from the other set and receives the matches
+     * of this set's node.
+     */
+    @Override
+    public NodeSet union(final NodeSet other) {
+        if(!(other instanceof NewArrayNodeSet) || isEmpty() || other.isEmpty()) {
+            return super.union(other);
+        }
+        final NewArrayNodeSet o = (NewArrayNodeSet) other;
+        sort();
+        o.sort();
+        final NewArrayNodeSet result = new NewArrayNodeSet(size + o.size);
+        int l = 0;
+        int r = 0;
+        while(l < size && r < o.size) {
+            final int cmp = nodes[l].compareTo(o.nodes[r]);
+            if(cmp < 0) {
+                result.add(nodes[l++]);
+            } else if(cmp > 0) {
+                result.add(o.nodes[r++]);
+            } else {
+                o.nodes[r].addMatches(nodes[l++]);
+                result.add(o.nodes[r++]);
+            }
+        }
+        while(l < size) {
+            result.add(nodes[l++]);
+        }
+        while(r < o.size) {
+            result.add(o.nodes[r++]);
+        }
+        result.updateNoSort();
+        return result;
+    }
+
     @Override
     public NodeSet except(final NodeSet other) {
+        if(other instanceof NewArrayNodeSet) {
+            return exceptSorted((NewArrayNodeSet) other);
+        }
         final NewArrayNodeSet result = new NewArrayNodeSet();
         for(int i = 0; i < size; i++) {
             if(!other.contains(nodes[i])) {
@@ -924,6 +1010,44 @@ public class NewArrayNodeSet extends AbstractArrayNodeSet implements ExtNodeSet,
         return result;
     }
 
+    /**
+     * Removes the nodes of another sorted node set by merging the two sets. The nodes
+     * of documents which the other set does not contain are copied without comparison.
+     */
+    private NodeSet exceptSorted(final NewArrayNodeSet other) {
+        sort();
+        other.sort();
+        final NewArrayNodeSet result = new NewArrayNodeSet(Math.max(size, 1));
+        int j = 0;
+        for(int i = 0; i < documentCount; i++) {
+            while(j < other.documentCount && other.documentIds[j] < documentIds[i]) {
+                j++;
+            }
+            int l = documentNodesOffset[i];
+            final int lEnd = l + documentNodesCount[i];
+            if(j < other.documentCount && other.documentIds[j] == documentIds[i]) {
+                int r = other.documentNodesOffset[j];
+                final int rEnd = r + other.documentNodesCount[j];
+                while(l < lEnd && r < rEnd) {
+                    final int cmp = nodes[l].getNodeId().compareTo(other.nodes[r].getNodeId());
+                    if(cmp < 0) {
+                        result.add(nodes[l++]);
+                    } else if(cmp > 0) {
+                        r++;
+                    } else {
+                        l++;
+                        r++;
+                    }
+                }
+            }
+            while(l < lEnd) {
+                result.add(nodes[l++]);
+            }
+        }
+        result.updateNoSort();
+        return result;
+    }
+
     @Override
     public NodeSet getContextNodes(final int contextId) {
         final NewArrayNodeSet result = new NewArrayNodeSet();
@@ -1062,6 +1186,27 @@ public class NewArrayNodeSet extends AbstractArrayNodeSet implements ExtNodeSet,
     @Override
     public DocumentSet intersection(final DocumentSet other) {
         sort();
+        if(other instanceof NewArrayNodeSet) {
+            // both document id arrays are sorted, so merge them
+            final NewArrayNodeSet o = (NewArrayNodeSet) other;
+            o.sort();
+            final DefaultDocumentSet set = new DefaultDocumentSet();
+            int i = 0;
+            int j = 0;
+            while(i < documentCount && j < o.documentCount) {
+                if(documentIds[i] < o.documentIds[j]) {
+                    i++;
+                } else if(documentIds[i] > o.documentIds[j]) {
+                    j++;
+                } else {
+                    set.add(nodes[documentNodesOffset[i]].getOwnerDocument(), false);
+                    i++;
+                    j++;
+                }
+            }
+            return set;
+        }
+
         final DefaultDocumentSet set = new DefaultDocumentSet();
 
         //left
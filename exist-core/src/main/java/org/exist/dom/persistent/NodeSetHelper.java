@@ -22,6 +22,7 @@
 package org.exist.dom.persistent;
 
 import org.exist.numbering.NodeId;
+import org.exist.numbering.PackedDLNArray;
 import org.exist.storage.DBBroker;
 import org.exist.xquery.Constants;
 import org.exist.xquery.Expression;
@@ -29,6 +30,9 @@ import org.exist.xquery.NodeTest;
 import org.exist.xquery.XPathException;
 import org.w3c.dom.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Collection of static methods operating on node sets.
  *
@@ -64,6 +68,9 @@ public final class NodeSetHelper {
      */
     public static NodeSet selectParentChild(final NodeSet dl, final NodeSet al,
             final int mode, final int contextId) {
+        if(dl instanceof ColumnarNodeSet) {
+            return selectParentChild((ColumnarNodeSet) dl, al, mode, contextId);
+        }
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
         DocumentImpl lastDoc = null;
         switch(mode) {
@@ -179,6 +186,9 @@ public final class NodeSetHelper {
     public static NodeSet selectAncestorDescendant(final NodeSet dl,
             final NodeSet al, final int mode, final boolean includeSelf,
             final int contextId) {
+        if(dl instanceof ColumnarNodeSet) {
+            return selectAncestorDescendant((ColumnarNodeSet) dl, al, mode, includeSelf, contextId);
+        }
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
         DocumentImpl lastDoc = null;
         switch(mode) {
@@ -231,6 +241,200 @@ public final class NodeSetHelper {
         return result;
     }
 
+    /**
+     * As {@link #selectParentChild(NodeSet, NodeSet, int, int)}, but probes the
+     * potential parents with the node ids of the columnar child set, so that
+     * a {@link NodeProxy} is only created for the children that match.
+     */
+    private static NodeSet selectParentChild(final ColumnarNodeSet dl, final NodeSet al,
+            final int mode, final int contextId) {
+        final ExtArrayNodeSet result = new ExtArrayNodeSet();
+        final int documentCount = dl.getDocumentCount();
+        for(int docIdx = 0; docIdx < documentCount; docIdx++) {
+            final DocumentImpl doc = dl.getDocument(docIdx);
+            final int start = dl.getDocumentStart(docIdx);
+            final int end = dl.getDocumentEnd(docIdx);
+            final int sizeHint = mode == NodeSet.DESCENDANT ? end - start : al.getSizeHint(doc);
+            for(int i = start; i < end; i++) {
+                final NodeProxy parent = al.parentWithChild(doc, dl.getNodeId(i), true, false);
+                if(parent == null) {
+                    continue;
+                }
+                final NodeProxy child = dl.get(i);
+                switch(mode) {
+                    case NodeSet.DESCENDANT:
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            child.deepCopyContext(parent, contextId);
+                        } else {
+                            child.copyContext(parent);
+                        }
+                        result.add(child, sizeHint);
+                        break;
+
+                    case NodeSet.ANCESTOR:
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            parent.deepCopyContext(child, contextId);
+                        } else {
+                            parent.copyContext(child);
+                        }
+                        parent.addMatches(child);
+                        result.add(parent, sizeHint);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Bad 'mode' argument");
+                }
+            }
+        }
+        result.sort();
+        return result;
+    }
+
+    /**
+     * As {@link #selectAncestorDescendant(NodeSet, NodeSet, int, boolean, int)}, but probes
+     * the potential ancestors with the node ids of the columnar descendant set, so that
+     * a {@link NodeProxy} is only created for the descendants that match.
+     */
+    private static NodeSet selectAncestorDescendant(final ColumnarNodeSet dl,
+            final NodeSet al, final int mode, final boolean includeSelf,
+            final int contextId) {
+        final ExtArrayNodeSet result = new ExtArrayNodeSet();
+        final int documentCount = dl.getDocumentCount();
+        for(int docIdx = 0; docIdx < documentCount; docIdx++) {
+            final DocumentImpl doc = dl.getDocument(docIdx);
+            final int start = dl.getDocumentStart(docIdx);
+            final int end = dl.getDocumentEnd(docIdx);
+            final int sizeHint = mode == NodeSet.DESCENDANT ? end - start : al.getSizeHint(doc);
+            for(int i = start; i < end; i++) {
+                final NodeProxy ancestor = al.parentWithChild(doc, dl.getNodeId(i), false, includeSelf);
+                if(ancestor == null) {
+                    continue;
+                }
+                final NodeProxy descendant = dl.get(i);
+                switch(mode) {
+                    case NodeSet.DESCENDANT:
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            descendant.addContextNode(contextId, ancestor);
+                        } else {
+                            descendant.copyContext(ancestor);
+                        }
+                        result.add(descendant, sizeHint);
+                        break;
+
+                    case NodeSet.ANCESTOR:
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            ancestor.addContextNode(contextId, descendant);
+                        } else {
+                            ancestor.copyContext(descendant);
+                        }
+                        result.add(ancestor, sizeHint);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Bad 'mode' argument");
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Join the given potential ancestor (or parent) nodes with the nodes of the
+     * columnar set, document by document, by a merge join on the packed node ids
+     * (see {@link StructuralJoin}). A {@link NodeProxy} is only created for the nodes
+     * of the columnar set which are related to one of the ancestors.
+     *
+     * @param dl          A columnar node set containing potential descendant nodes
+     * @param al          A node set containing potential ancestor nodes
+     * @param childOnly   only select children, not all descendants
+     * @param includeSelf include the self:: axis
+     * @param mode        Selection mode, either {@link NodeSet#DESCENDANT} or {@link NodeSet#ANCESTOR}
+     * @param contextId   Used to track context nodes when evaluating predicate
+     *                    expressions. If contextId != {@link Expression#NO_CONTEXT_ID}, the current
+     *                    context will be added to each result of the selection.
+     * @param copyMatches copy the matches between the related nodes
+     * @return the matching descendants or ancestors
+     */
+    public static NodeSet selectDescendants(final ColumnarNodeSet dl, final NodeSet al,
+            final boolean childOnly, final boolean includeSelf, final int mode,
+            final int contextId, final boolean copyMatches) {
+        final NodeSet result = new NewArrayNodeSet();
+        final PackedDLNArray descendantIds = dl.getPackedNodeIds();
+        final StructuralJoin join = new StructuralJoin(childOnly, includeSelf);
+
+        // the ancestors of the current document
+        final List<NodeProxy> ancestors = new ArrayList<>();
+        final PackedDLNArray ancestorIds = new PackedDLNArray();
+
+        final NodeSetIterator iterator = al.iterator();
+        NodeProxy next = iterator.hasNext() ? iterator.next() : null;
+        while(next != null) {
+            final DocumentImpl doc = next.getOwnerDocument();
+            ancestors.clear();
+            ancestorIds.clear();
+            boolean ancestorsSorted = true;
+            do {
+                ancestors.add(next);
+                final int idx = ancestorIds.add(next.getNodeId());
+                if(idx > 0 && ancestorIds.compare(idx - 1, ancestorIds, idx) > 0) {
+                    ancestorsSorted = false;
+                }
+                next = iterator.hasNext() ? iterator.next() : null;
+            } while(next != null && next.getOwnerDocument().getDocId() == doc.getDocId());
+
+            final int docIdx = dl.getDocumentIndex(doc.getDocId());
+            if(docIdx < 0) {
+                continue;
+            }
+            if(!ancestorsSorted) {
+                // the merge join needs the ancestors in document order
+                ancestors.sort((p1, p2) -> p1.getNodeId().compareTo(p2.getNodeId()));
+                ancestorIds.clear();
+                for(final NodeProxy ancestor : ancestors) {
+                    ancestorIds.add(ancestor.getNodeId());
+                }
+            }
+
+            join.join(ancestorIds, 0, ancestorIds.size(),
+                    descendantIds, dl.getDocumentStart(docIdx), dl.getDocumentEnd(docIdx),
+                    (ancestorIdx, descendantIdx) -> relate(result, dl.get(descendantIdx),
+                            ancestors.get(ancestorIdx), mode, contextId, copyMatches));
+        }
+        return result;
+    }
+
+    private static void relate(final NodeSet result, final NodeProxy descendant, final NodeProxy ancestor,
+            final int mode, final int contextId, final boolean copyMatches) {
+        switch(mode) {
+            case NodeSet.DESCENDANT:
+                if(Expression.NO_CONTEXT_ID != contextId) {
+                    descendant.deepCopyContext(ancestor, contextId);
+                } else {
+                    descendant.copyContext(ancestor);
+                }
+                if(copyMatches) {
+                    descendant.addMatches(ancestor);
+                }
+                result.add(descendant);
+                break;
+
+            case NodeSet.ANCESTOR:
+                if(Expression.NO_CONTEXT_ID != contextId) {
+                    ancestor.deepCopyContext(descendant, contextId);
+                } else {
+                    ancestor.copyContext(descendant);
+                }
+                if(copyMatches) {
+                    ancestor.addMatches(descendant);
+                }
+                result.add(ancestor, 1);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Bad 'mode' argument");
+        }
+    }
+
     public static boolean matchAncestorDescendant(final NodeSet dl,
             final NodeSet al, final int mode, final boolean includeSelf, final int contextId) {
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
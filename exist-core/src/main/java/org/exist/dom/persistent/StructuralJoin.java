@@ -0,0 +1,164 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import org.exist.numbering.NodeId;
+import org.exist.numbering.PackedDLNArray;
+
+import java.util.Arrays;
+
+/**
+ * A stack based merge join (Stack-Tree-Desc) between a list of potential
+ * ancestor ids and a list of potential descendant ids of the same document,
+ * both in document order.
+ *
+ * The two lists are walked once, in step. The stack holds the chain of
+ * ancestors which contain the current descendant, so every pair
+ * is found without searching the descendants once per ancestor. Whenever
+ * the stack is empty, the descendants before the next ancestor cannot match
+ * and are skipped over by a binary search, so a few ancestors joined with
+ * many descendants stay cheap.
+ */
+final class StructuralJoin {
+
+    @FunctionalInterface
+    interface MatchHandler {
+
+        /**
+         * Called for each related pair, in the order of the descendants and,
+         * for the same descendant, in the order of the ancestors.
+         *
+         * @param ancestorIdx the index of the ancestor (or parent)
+         * @param descendantIdx the index of the descendant (or child)
+         */
+        void match(int ancestorIdx, int descendantIdx);
+    }
+
+    private final boolean childOnly;
+    private final boolean includeSelf;
+    private int[] stack = new int[16];
+
+    /**
+     * @param childOnly only join parents and their children
+     * @param includeSelf also join an ancestor with itself (descendant-or-self)
+     */
+    StructuralJoin(final boolean childOnly, final boolean includeSelf) {
+        this.childOnly = childOnly;
+        this.includeSelf = includeSelf;
+    }
+
+    /**
+     * Join a range of ancestor ids with a range of descendant ids.
+     *
+     * @param ancestors the potential ancestor ids
+     * @param ancestorStart the index of the first ancestor
+     * @param ancestorEnd the index after the last ancestor
+     * @param descendants the potential descendant ids
+     * @param descendantStart the index of the first descendant
+     * @param descendantEnd the index after the last descendant
+     * @param handler receives the related pairs
+     */
+    void join(final PackedDLNArray ancestors, final int ancestorStart, final int ancestorEnd,
+            final PackedDLNArray descendants, final int descendantStart, final int descendantEnd,
+            final MatchHandler handler) {
+        int depth = 0;
+        int a = ancestorStart;
+        int d = descendantStart;
+        while (d < descendantEnd) {
+            if (depth == 0) {
+                if (a == ancestorEnd) {
+                    break;
+                }
+                d = lowerBound(descendants, d, descendantEnd, ancestors, a);
+                if (d == descendantEnd) {
+                    break;
+                }
+            }
+
+            // push the ancestors which start before or at the descendant
+            while (a < ancestorEnd && ancestors.compare(a, descendants, d) <= 0) {
+                while (depth > 0 && ancestors.computeRelation(a, ancestors, stack[depth - 1]) < 0) {
+                    depth--;
+                }
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth << 1);
+                }
+                stack[depth++] = a++;
+            }
+
+            // pop the ancestors which ended before the descendant
+            while (depth > 0 && descendants.computeRelation(d, ancestors, stack[depth - 1]) < 0) {
+                depth--;
+            }
+
+            if (depth > 0) {
+                emit(ancestors, descendants, d, depth, handler);
+            }
+            d++;
+        }
+    }
+
+    /**
+     * Report the matches of a descendant, given that all ancestors on the
+     * stack up to depth are ancestors or self of the descendant.
+     */
+    private void emit(final PackedDLNArray ancestors, final PackedDLNArray descendants, final int d,
+            final int depth, final MatchHandler handler) {
+        // only the top of the stack can be the descendant itself (or duplicates of it)
+        int top = depth - 1;
+        final int descendantUnits = descendants.units(d);
+        while (top >= 0 && ancestors.units(stack[top]) == descendantUnits) {
+            top--;
+        }
+
+        if (childOnly) {
+            int first = top;
+            while (first >= 0 && descendants.computeRelation(d, ancestors, stack[first]) == NodeId.IS_CHILD) {
+                first--;
+            }
+            for (int i = first + 1; i <= top; i++) {
+                handler.match(stack[i], d);
+            }
+        } else {
+            final int last = includeSelf ? depth - 1 : top;
+            for (int i = 0; i <= last; i++) {
+                handler.match(stack[i], d);
+            }
+        }
+    }
+
+    /**
+     * Find the first descendant which is not before an ancestor.
+     */
+    private static int lowerBound(final PackedDLNArray descendants, int low, int high,
+            final PackedDLNArray ancestors, final int a) {
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (descendants.compare(mid, ancestors, a) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
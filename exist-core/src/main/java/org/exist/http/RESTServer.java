@@ -52,6 +52,7 @@ import org.exist.storage.XQueryPool;
 import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.lock.ManagedCollectionLock;
 import org.exist.storage.serializers.EXistOutputKeys;
+import org.exist.storage.serializers.SerializedDocumentCache;
 import org.exist.storage.serializers.Serializer;
 import org.exist.storage.txn.Txn;
 import org.exist.util.*;
@@ -59,11 +60,11 @@ import org.exist.util.io.CachingFilterInputStream;
 import org.exist.util.io.FilterInputStreamCache;
 import org.exist.util.io.FilterInputStreamCacheFactory;
 import org.exist.util.io.FilterInputStreamCacheFactory.FilterInputStreamCacheConfiguration;
+import org.exist.util.serializer.AbstractSerializer;
 import org.exist.util.serializer.SAXSerializer;
 import org.exist.util.serializer.SerializerPool;
 import org.exist.util.serializer.XQuerySerializer;
 import org.exist.util.serializer.json.JSONNode;
-import org.exist.util.serializer.json.JSONObject;
 import org.exist.util.serializer.json.JSONSimpleProperty;
 import org.exist.util.serializer.json.JSONValue;
 import org.exist.xmldb.XmldbURI;
@@ -1786,6 +1787,21 @@ public class RESTServer {
         } else {
             // xml resource
 
+            // serve unmodified documents from the cache, the variant is keyed by the parameters as requested
+            final SerializedDocumentCache documentCache = broker.getBrokerPool().getSerializedDocumentCache();
+            final String cacheVariant = stylesheet == null && documentCache.isEnabled()
+                    ? SerializedDocumentCache.variant(encoding, asMimeType, outputProperties) : null;
+            if (cacheVariant != null) {
+                final SerializedDocumentCache.Entry cached = documentCache.get(resource, cacheVariant);
+                if (cached != null) {
+                    response.setContentType(cached.getContentType());
+                    final OutputStream os = response.getOutputStream();
+                    os.write(cached.getData());
+                    os.flush();
+                    return;
+                }
+            }
+
             SAXSerializer sax = null;
             final Serializer serializer = broker.borrowSerializer();
 
@@ -1804,12 +1820,9 @@ public class RESTServer {
                 }
                 serializer.setProperties(outputProperties);
 
-                if (asMimeType != null) { // was a mime-type specified?
-                    response.setContentType(asMimeType + "; charset=" + encoding);
-                } else {
-                    if (serializer.isStylesheetApplied()
-                            || serializer.hasXSLPi(resource) != null) {
-
+                final boolean transformed = serializer.isStylesheetApplied() || serializer.hasXSLPi(resource) != null;
+                if (asMimeType == null) { // wasn't a mime-type specified?
+                    if (transformed) {
                         asMimeType = serializer.getStylesheetProperty(OutputKeys.MEDIA_TYPE);
                         if (!useDynamicContentType || asMimeType == null) {
                             asMimeType = MimeType.HTML_TYPE.getName();
@@ -1818,13 +1831,12 @@ public class RESTServer {
                         if (LOG.isDebugEnabled()) {
                             LOG.debug("media-type: {}", asMimeType);
                         }
-
-                        response.setContentType(asMimeType + "; charset=" + encoding);
                     } else {
                         asMimeType = resource.getMimeType();
-                        response.setContentType(asMimeType + "; charset=" + encoding);
                     }
                 }
+                final String contentType = asMimeType + "; charset=" + encoding;
+                response.setContentType(contentType);
                 if (asMimeType.equals(MimeType.HTML_TYPE.getName())) {
                     outputProperties.setProperty("method", "xhtml");
                     outputProperties.setProperty("media-type", "text/html; charset=" + encoding);
@@ -1832,13 +1844,29 @@ public class RESTServer {
                     outputProperties.setProperty("omit-xml-declaration", "no");
                 }
 
-                final OutputStreamWriter writer = new OutputStreamWriter(response.getOutputStream(), encoding);
+                final SerializedDocumentCache.Recorder recorder = cacheVariant != null && !transformed
+                        ? documentCache.record(response.getOutputStream()) : null;
+                final boolean streamUTF8 = canStreamUTF8(serializer, resource, encoding, outputProperties);
+                final Writer writer = AbstractSerializer.createWriter(recorder != null ? recorder : response.getOutputStream(), encoding);
                 sax.setOutput(writer, outputProperties);
-                serializer.setSAXHandlers(sax, sax);
 
-                serializer.toSAX(resource);
+                if (streamUTF8) {
+                    serializer.toUTF8(resource, sax);
+                } else {
+                    serializer.setSAXHandlers(sax, sax);
+                    serializer.toSAX(resource);
+                }
 
                 writer.flush();
+
+                // output which pulled in other documents can change without this one changing
+                if (recorder != null && !serializer.getXIncludeFilter().isIncludeProcessed()) {
+                    final byte[] recorded = recorder.getRecorded();
+                    if (recorded != null) {
+                        documentCache.put(resource, cacheVariant, contentType, recorded);
+                    }
+                }
+
                 writer.close(); // DO NOT use in try-write-resources, otherwise ther response stream is always closed, and we can't report the errors
             } catch (final SAXException saxe) {
                 LOG.warn(saxe);
@@ -1855,6 +1883,22 @@ public class RESTServer {
         }
     }
 
+    /**
+     * Check if a stored XML document can be streamed from its node records, see
+     * {@link Serializer#toUTF8(DocumentImpl, SAXSerializer)}. The output has to be
+     * plain XML in UTF-8 without indentation, character maps or CDATA section
+     * elements, and the serializer must not transform the document.
+     */
+    private static boolean canStreamUTF8(final Serializer serializer, final DocumentImpl resource,
+            final String encoding, final Properties outputProperties) {
+        return UTF_8.name().equalsIgnoreCase(encoding)
+                && "xml".equals(outputProperties.getProperty(OutputKeys.METHOD, "xml"))
+                && "no".equals(outputProperties.getProperty(OutputKeys.INDENT, "no"))
+                && outputProperties.get(EXistOutputKeys.USE_CHARACTER_MAPS) == null
+                && outputProperties.getProperty(OutputKeys.CDATA_SECTION_ELEMENTS, "").trim().isEmpty()
+                && serializer.canStreamUTF8(resource);
+    }
+
     /**
      * @param response
      * @param encoding
@@ -2174,7 +2218,7 @@ public class RESTServer {
             if (wrap) {
                 outputProperties.setProperty("method", "xml");
             }
-            final Writer writer = new OutputStreamWriter(response.getOutputStream(), encoding);
+            final Writer writer = AbstractSerializer.createWriter(response.getOutputStream(), encoding);
             final XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, writer);
 
             //Marshaller.marshall(broker, results, start, howmany, serializer.getContentHandler());
@@ -2217,43 +2261,54 @@ public class RESTServer {
         outputProperties.setProperty(Serializer.GENERATE_DOC_EVENTS, "false");
         try {
             serializer.setProperties(outputProperties);
-            try (Writer writer = new OutputStreamWriter(response.getOutputStream(), getEncoding(outputProperties))) {
-                final JSONObject root = new JSONObject();
-                root.addObject(new JSONSimpleProperty("start", Integer.toString(start), true));
-                root.addObject(new JSONSimpleProperty("count", Integer.toString(howmany), true));
-                root.addObject(new JSONSimpleProperty("hits", Integer.toString(results.getItemCount()), true));
+            try (Writer writer = AbstractSerializer.createWriter(response.getOutputStream(), getEncoding(outputProperties))) {
+                // written item by item rather than through a JSONObject tree, so that only one
+                // serialized item is held in memory at a time; the output is the same as
+                // JSONObject#serialize would produce for the tree
+                writer.write('{');
+                writeJSONProperty(writer, new JSONSimpleProperty("start", Integer.toString(start), true));
+                writeJSONProperty(writer, new JSONSimpleProperty("count", Integer.toString(howmany), true));
+                writeJSONProperty(writer, new JSONSimpleProperty("hits", Integer.toString(results.getItemCount()), true));
                 if (outputProperties.getProperty(Serializer.PROPERTY_SESSION_ID) != null) {
-                    root.addObject(new JSONSimpleProperty("session",
+                    writeJSONProperty(writer, new JSONSimpleProperty("session",
                             outputProperties.getProperty(Serializer.PROPERTY_SESSION_ID)));
                 }
-                root.addObject(new JSONSimpleProperty("compilationTime", Long.toString(compilationTime), true));
-                root.addObject(new JSONSimpleProperty("executionTime", Long.toString(executionTime), true));
-
-                final JSONObject data = new JSONObject("data");
-                root.addObject(data);
+                writeJSONProperty(writer, new JSONSimpleProperty("compilationTime", Long.toString(compilationTime), true));
+                writeJSONProperty(writer, new JSONSimpleProperty("executionTime", Long.toString(executionTime), true));
+
+                writer.write("\"data\":");
+                if (howmany == 0) {
+                    writer.write("null");
+                } else if (howmany > 1) {
+                    // a single value is written without an array
+                    writer.write('[');
+                }
 
                 Item item;
                 for (int i = --start; i < start + howmany; i++) {
+                    if (i > start) {
+                        writer.write(',');
+                    }
                     item = results.itemAt(i);
+                    final JSONValue json;
                     if (Type.subTypeOf(item.getType(), Type.NODE)) {
                         final NodeValue value = (NodeValue) item;
-                        JSONValue json;
                         if ("json".equals(outputProperties.getProperty("method", "xml"))) {
                             json = new JSONValue(serializer.serialize(value), false);
                             json.setSerializationDataType(JSONNode.SerializationDataType.AS_LITERAL);
                         } else {
                             json = new JSONValue(serializer.serialize(value));
-                            json.setSerializationType(JSONNode.SerializationType.AS_ARRAY);
                         }
-                        data.addObject(json);
                     } else {
-                        final JSONValue json = new JSONValue(item.getStringValue());
-                        json.setSerializationType(JSONNode.SerializationType.AS_ARRAY);
-                        data.addObject(json);
+                        json = new JSONValue(item.getStringValue());
                     }
+                    json.serializeContent(writer);
                 }
 
-                root.serialize(writer, true);
+                if (howmany > 1) {
+                    writer.write(']');
+                }
+                writer.write('}');
 
                 writer.flush();
             }
@@ -2264,6 +2319,11 @@ public class RESTServer {
         }
     }
 
+    private static void writeJSONProperty(final Writer writer, final JSONSimpleProperty property) throws IOException {
+        property.serialize(writer, false);
+        writer.write(',');
+    }
+
     private boolean isExecutableType(final DocumentImpl resource) {
         return (
             resource != null
@@ -0,0 +1,55 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing;
+
+import java.io.IOException;
+
+/**
+ * Index workers which can defer writing the index entries of the
+ * documents that they index until the end of a batch, should implement
+ * this interface.
+ *
+ * Whilst a batch is open, {@link #flush()} after storing a document
+ * only accumulates that document's entries; they are written in key order,
+ * in a single pass, when the batch is ended or when the worker is asked
+ * to do anything other than store further documents. The entries must
+ * also be written when the transaction which stored the document commits,
+ * and when the index is synced; so that the entries of a committed document
+ * are visible to other brokers, and are not only held in memory by a checkpoint.
+ *
+ * See {@link IndexController#startBatch()}.
+ */
+public interface BatchingIndexWorker extends IndexWorker {
+
+    /**
+     * Start accumulating the index entries of stored documents.
+     */
+    void startBatch();
+
+    /**
+     * Write any accumulated index entries and stop accumulating.
+     *
+     * @throws IOException if any of the entries accumulated during the batch
+     *     could not be written
+     */
+    void endBatch() throws IOException;
+}
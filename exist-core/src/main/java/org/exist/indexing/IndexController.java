@@ -39,6 +39,7 @@ import org.exist.xquery.XQueryContext;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -59,6 +60,7 @@ public class IndexController {
     private DocumentImpl currentDoc = null;
     private ReindexMode currentMode = ReindexMode.UNKNOWN;
     private boolean reindexing;
+    private int batchDepth = 0;
 
     public IndexController(final DBBroker broker) {
         this.broker = broker;
@@ -195,6 +197,67 @@ public class IndexController {
         indexWorkers.values().forEach(IndexWorker::flush);
     }  
 
+    /**
+     * Starts a batch of document stores. Index workers which implement
+     * {@link BatchingIndexWorker} accumulate the entries of each stored document
+     * and write them sorted by key, in one pass, when the transaction storing the
+     * documents commits or at {@link #endBatch()}; rather than writing a small burst
+     * of entries at the end of every document. Batching is therefore only of use
+     * when many documents are stored in a single transaction, e.g. a reindex or a bulk store.
+     *
+     * Batches may be nested, only the outermost {@link #endBatch()} writes the entries.
+     * Each call must be matched by a call to {@link #endBatch()}, typically in a finally block.
+     */
+    public void startBatch() {
+        if (batchDepth++ == 0) {
+            for (final IndexWorker indexWorker : indexWorkers.values()) {
+                if (indexWorker instanceof BatchingIndexWorker) {
+                    ((BatchingIndexWorker) indexWorker).startBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends a batch of document stores which was started by {@link #startBatch()}.
+     *
+     * @throws IOException if an index worker could not write the entries accumulated
+     *     during the batch, the batch is ended by all of the index workers regardless
+     */
+    public void endBatch() throws IOException {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("endBatch called without startBatch");
+        }
+        if (--batchDepth == 0) {
+            IOException failure = null;
+            for (final IndexWorker indexWorker : indexWorkers.values()) {
+                if (indexWorker instanceof BatchingIndexWorker) {
+                    try {
+                        ((BatchingIndexWorker) indexWorker).endBatch();
+                    } catch (final IOException e) {
+                        if (failure == null) {
+                            failure = e;
+                        } else {
+                            failure.addSuppressed(e);
+                        }
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Determines if a batch of document stores is open.
+     *
+     * @return true if a batch is open
+     */
+    public boolean isBatching() {
+        return batchDepth > 0;
+    }
+
     /**
      * Remove all indexes defined on the specified collection.
      *
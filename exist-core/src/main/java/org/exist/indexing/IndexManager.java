@@ -30,6 +30,7 @@ import org.exist.storage.BrokerPoolService;
 import org.exist.storage.BrokerPoolServiceException;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.txn.Txn;
 import org.exist.util.Configuration;
 import org.exist.util.DatabaseConfigurationException;
 import org.w3c.dom.Element;
@@ -236,6 +237,28 @@ public class IndexManager implements BrokerPoolService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Lets indexes which implement {@link RecoverySupport} catch up with
+     * changes that were lost by a crash.
+     *
+     * @param systemBroker The broker that will perform the operation
+     * @param transaction The transaction for the operation
+     * @throws BrokerPoolServiceException if an index cannot be recovered
+     */
+    @Override
+    public void startPreMultiUserSystem(final DBBroker systemBroker, final Txn transaction) throws BrokerPoolServiceException {
+        for (final Iterator<Index> i = iterator(); i.hasNext(); ) {
+            final Index index = i.next();
+            if (index instanceof RecoverySupport) {
+                try {
+                    ((RecoverySupport) index).recover(systemBroker, transaction);
+                } catch(final DBException e) {
+                    throw new BrokerPoolServiceException(e);
+                }
+            }
+        }
+    }
+
     /**
      * Shutdowns all registered indexes by calling {@link org.exist.indexing.Index#close()}
      * on them.
@@ -0,0 +1,437 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.CollectionCache;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.numbering.NodeId;
+import org.exist.numbering.NodeIdFactory;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.BrokerPoolServiceException;
+import org.exist.util.ByteConversion;
+import org.exist.util.Configuration;
+
+import javax.annotation.Nullable;
+
+/**
+ * Global cache for the hits of index lookups.
+ *
+ * Entries are keyed by the id of the index, the query sent to the index and
+ * the ids of the documents which were searched. They hold the matching nodes
+ * in a compact form: document id, node id and storage address of each hit.
+ * Hits are cached before they are filtered by a context node set, so the same
+ * entry serves lookups from different contexts.
+ *
+ * Index workers call {@link #invalidate(String, int)} whenever they change the
+ * entries of a document, which drops every cached lookup that covered the
+ * document. Lookups which were running while an invalidation happened are not
+ * cached, see {@link #getGeneration()}.
+ *
+ * The cache is disabled unless a size is configured with the
+ * {@code query-cache-size} attribute of the indexer element in conf.xml.
+ * Entries larger than a quarter of the cache are never stored.
+ */
+@ThreadSafe
+public class IndexQueryCache implements BrokerPoolService {
+    private final static Logger LOG = LogManager.getLogger(IndexQueryCache.class);
+
+    public static final String CACHE_SIZE_ATTRIBUTE = "query-cache-size";
+    public static final String PROPERTY_CACHE_SIZE_BYTES = "indexer.query-cache-size";
+
+    /**
+     * Approximate fixed overhead of an entry in bytes, in addition to its arrays.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private int maxCacheSize = 0;
+    private @Nullable Cache<Key, Hits> cache;
+    private StatsCounter statsCounter = new ConcurrentStatsCounter();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    @Override
+    public void configure(final Configuration configuration) throws BrokerPoolServiceException {
+        this.maxCacheSize = Math.max(configuration.getInteger(PROPERTY_CACHE_SIZE_BYTES), 0);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("IndexQueryCache will use {} bytes max.", this.maxCacheSize);
+        }
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) throws BrokerPoolServiceException {
+        if (maxCacheSize == 0) {
+            return;
+        }
+
+        final Weigher<Key, Hits> hitsWeigher = (key, hits) -> key.weight() + hits.weight();
+        this.statsCounter = new ConcurrentStatsCounter();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxCacheSize)
+                .weigher(hitsWeigher)
+                .recordStats(() -> statsCounter)
+                .build();
+    }
+
+    /**
+     * Returns true if a cache size was configured.
+     *
+     * @return true if the cache is in use
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the maximum size of the cache in bytes
+     *
+     * @return maximum size of the cache in bytes, or 0 if the cache is disabled
+     */
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Returns the number of entries currently held in the cache
+     *
+     * @return the approximate number of entries
+     */
+    public long getEntryCount() {
+        return cache == null ? 0 : cache.estimatedSize();
+    }
+
+    /**
+     * Returns how often the entries of a document or an index were invalidated
+     *
+     * @return the number of invalidations
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Get a Snapshot of the Cache Statistics
+     *
+     * @return The cache statistics
+     */
+    public CollectionCache.Statistics getStatistics() {
+        final CacheStats cacheStats = statsCounter.snapshot();
+        return new CollectionCache.Statistics(
+                cacheStats.hitCount(),
+                cacheStats.missCount(),
+                cacheStats.loadSuccessCount(),
+                cacheStats.loadFailureCount(),
+                cacheStats.totalLoadTime(),
+                cacheStats.evictionCount(),
+                cacheStats.evictionWeight()
+        );
+    }
+
+    /**
+     * Builds the key of an index lookup.
+     *
+     * @param indexId the id of the index, see {@link Index#getIndexId()}
+     * @param query the query sent to the index. Must implement equals and hashCode
+     *     and must not be changed after the key was built.
+     * @param docs the documents which are searched
+     *
+     * @return the key
+     */
+    public static Key key(final String indexId, final Object query, final DocumentSet docs) {
+        final int[] docIds = new int[docs.getDocumentCount()];
+        int count = 0;
+        for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext() && count < docIds.length; ) {
+            docIds[count++] = i.next().getDocId();
+        }
+        final int[] sorted = count == docIds.length ? docIds : Arrays.copyOf(docIds, count);
+        Arrays.sort(sorted);
+        return new Key(indexId, query, sorted);
+    }
+
+    /**
+     * Returns the current generation of the cache, which changes with every
+     * invalidation. Must be read before the index is searched and passed to
+     * {@link #put(Key, Hits, long)}.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns the cached hits of an index lookup
+     *
+     * @param key the key of the lookup
+     *
+     * @return the hits, or null if the lookup is not cached
+     */
+    public @Nullable Hits get(final Key key) {
+        if (cache == null) {
+            return null;
+        }
+
+        final Hits hits = cache.asMap().get(key);
+        if (hits != null) {
+            statsCounter.recordHits(1);
+        } else {
+            statsCounter.recordMisses(1);
+        }
+        return hits;
+    }
+
+    /**
+     * Stores the hits of an index lookup, unless the cache was invalidated
+     * since the lookup started.
+     *
+     * @param key the key of the lookup
+     * @param hits the hits of the lookup
+     * @param generation the generation read before the lookup started
+     */
+    public void put(final Key key, final Hits hits, final long generation) {
+        if (cache == null || key.weight() + hits.weight() > getMaxEntrySize() || this.generation.get() != generation) {
+            return;
+        }
+
+        cache.put(key, hits);
+        if (this.generation.get() != generation) {
+            // an invalidation raced with the put, so the entry may be outdated
+            cache.asMap().remove(key, hits);
+        }
+    }
+
+    /**
+     * Creates a builder for the hits of an index lookup. The builder stops
+     * recording once the hits could no longer be cached.
+     *
+     * @return the builder
+     */
+    public HitsBuilder newHits() {
+        return new HitsBuilder(cache == null ? 0 : getMaxEntrySize());
+    }
+
+    /**
+     * Removes all cached lookups of an index which covered the document
+     *
+     * @param indexId the id of the index
+     * @param docId the id of the changed document
+     */
+    public void invalidate(final String indexId, final int docId) {
+        generation.incrementAndGet();
+        if (cache != null) {
+            invalidationCount.incrementAndGet();
+            cache.asMap().keySet().removeIf(key -> key.indexId.equals(indexId) && key.contains(docId));
+        }
+    }
+
+    /**
+     * Removes all cached lookups of an index
+     *
+     * @param indexId the id of the index
+     */
+    public void invalidate(final String indexId) {
+        generation.incrementAndGet();
+        if (cache != null) {
+            invalidationCount.incrementAndGet();
+            cache.asMap().keySet().removeIf(key -> key.indexId.equals(indexId));
+        }
+    }
+
+    /**
+     * Removes all entries from the Cache
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        if (cache != null) {
+            invalidationCount.incrementAndGet();
+            cache.invalidateAll();
+        }
+    }
+
+    private int getMaxEntrySize() {
+        return maxCacheSize / 4;
+    }
+
+    /**
+     * Identifies an index lookup.
+     */
+    public static final class Key {
+        private final String indexId;
+        private final Object query;
+        private final int[] docIds;
+        private final int hashCode;
+
+        private Key(final String indexId, final Object query, final int[] docIds) {
+            this.indexId = indexId;
+            this.query = query;
+            this.docIds = docIds;
+            this.hashCode = 31 * (31 * indexId.hashCode() + query.hashCode()) + Arrays.hashCode(docIds);
+        }
+
+        private boolean contains(final int docId) {
+            return Arrays.binarySearch(docIds, docId) >= 0;
+        }
+
+        private int weight() {
+            return ENTRY_OVERHEAD + docIds.length * 4;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return hashCode == key.hashCode && indexId.equals(key.indexId) && query.equals(key.query)
+                    && Arrays.equals(docIds, key.docIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Receives the hits of a cached lookup.
+     */
+    @FunctionalInterface
+    public interface HitConsumer {
+        /**
+         * @param docId the id of the document containing the hit
+         * @param nodeId the id of the matching node
+         * @param address the storage address of the node, or -1 if unknown
+         */
+        void accept(int docId, NodeId nodeId, long address);
+    }
+
+    /**
+     * The hits of a lookup, serialized into a single array.
+     * Each hit takes 14 bytes plus the size of its node id.
+     */
+    public static final class Hits {
+        private final byte[] data;
+        private final int count;
+
+        private Hits(final byte[] data, final int count) {
+            this.data = data;
+            this.count = count;
+        }
+
+        /**
+         * @return the number of hits
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Passes each hit to the consumer, in the order in which they were recorded
+         *
+         * @param nodeFactory the factory for creating the node ids
+         * @param consumer the consumer of the hits
+         */
+        public void forEach(final NodeIdFactory nodeFactory, final HitConsumer consumer) {
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                final int docId = ByteConversion.byteToInt(data, offset);
+                final long address = ByteConversion.byteToLong(data, offset + 4);
+                final int units = ByteConversion.byteToShort(data, offset + 12);
+                final NodeId nodeId = nodeFactory.createFromData(units, data, offset + 14);
+                consumer.accept(docId, nodeId, address);
+                offset += 14 + nodeId.size();
+            }
+        }
+
+        private int weight() {
+            return data.length;
+        }
+    }
+
+    /**
+     * Records the hits of a lookup.
+     */
+    public static final class HitsBuilder {
+        private final int limit;
+        private @Nullable byte[] data;
+        private int length = 0;
+        private int count = 0;
+
+        private HitsBuilder(final int limit) {
+            this.limit = limit;
+            this.data = limit > 0 ? new byte[Math.min(limit, 1024)] : null;
+        }
+
+        /**
+         * Records a hit
+         *
+         * @param docId the id of the document containing the hit
+         * @param nodeId the id of the matching node
+         * @param address the storage address of the node, or -1 if unknown
+         */
+        public void add(final int docId, final NodeId nodeId, final long address) {
+            if (data == null) {
+                return;
+            }
+            final int size = 14 + nodeId.size();
+            if (length + size > limit) {
+                // too large to be cached
+                data = null;
+                return;
+            }
+            if (length + size > data.length) {
+                data = Arrays.copyOf(data, Math.min(limit, Math.max(data.length * 2, length + size)));
+            }
+            ByteConversion.intToByte(docId, data, length);
+            ByteConversion.longToByte(address, data, length + 4);
+            ByteConversion.shortToByte((short) nodeId.units(), data, length + 12);
+            nodeId.serialize(data, length + 14);
+            length += size;
+            count++;
+        }
+
+        /**
+         * @return the recorded hits, or null if they cannot be cached
+         */
+        public @Nullable Hits build() {
+            return data == null ? null : new Hits(Arrays.copyOf(data, length), count);
+        }
+    }
+}
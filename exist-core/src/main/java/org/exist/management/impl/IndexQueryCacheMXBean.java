@@ -0,0 +1,59 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.management.impl;
+
+import org.exist.collections.CollectionCache;
+
+/**
+ * JMX MXBean interface for examining the IndexQueryCache
+ */
+public interface IndexQueryCacheMXBean extends PerInstanceMBean {
+
+    /**
+     * Get a statistics snapshot of the Index Query Cache
+     *
+     * @return Statistics for the Index Query Cache
+     */
+    CollectionCache.Statistics getStatistics();
+
+    /**
+     * Get the configured size of the Index Query Cache
+     *
+     * @return the maximum size in bytes, or 0 if the cache is disabled
+     */
+    int getMaxCacheSize();
+
+    /**
+     * Get the number of entries in the Index Query Cache
+     *
+     * @return the approximate number of cached index lookups
+     */
+    long getEntryCount();
+
+    /**
+     * Get the number of invalidations of the Index Query Cache
+     *
+     * @return how often cached lookups were dropped because index entries changed
+     */
+    long getInvalidationCount();
+}
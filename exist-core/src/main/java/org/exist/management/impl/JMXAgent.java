@@ -86,7 +86,9 @@ public final class JMXAgent implements Agent {
                 new DiskUsage(instance),
                 new ProcessReport(instance),
                 new BinaryValues(instance),
-                new CollectionCache(instance)
+                new CollectionCache(instance),
+                new SerializedDocumentCache(instance),
+                new IndexQueryCache(instance)
         );
 
         for (final PerInstanceMBean perInstanceMBean : perInstanceMBeans) {
@@ -134,6 +134,18 @@ public class DLN extends DLNBase implements NodeId {
         super(data, nbits);
     }
 
+    /**
+     * Create a new DLN by copying nbits bits of an id
+     * which is encoded within a larger byte[].
+     *
+     * @param data the byte[] to read bits from
+     * @param byteOffset the offset of the id within the byte[]
+     * @param nbits number of bits to read
+     */
+    DLN(final byte[] data, final int byteOffset, final int nbits) {
+        super(data, byteOffset, nbits);
+    }
+
     /**
      * Returns a new DLN representing the first child
      * node of this node.
@@ -176,7 +188,7 @@ public class DLN extends DLNBase implements NodeId {
 
     @Override
     public NodeId insertNode(final NodeId right) {
-        final DLN rightNode = (DLN) right;
+        final DLN rightNode = asDLN(right);
         if (right == null) {
             return nextSibling();
         }
@@ -216,7 +228,7 @@ public class DLN extends DLNBase implements NodeId {
 
     @Override
     public NodeId append(final NodeId otherId) {
-        final DLN other = (DLN) otherId;
+        final DLN other = asDLN(otherId);
         final DLN newId = new DLN(this);
         int offset = 0;
         while(offset <= other.bitIndex) {
@@ -256,6 +268,10 @@ public class DLN extends DLNBase implements NodeId {
 
     @Override
     public boolean isDescendantOf(final NodeId ancestor) {
+        if (ancestor instanceof PackedDLN) {
+            final int relation = relationTo((PackedDLN) ancestor);
+            return relation == IS_CHILD || relation == IS_DESCENDANT;
+        }
         final DLN other = (DLN) ancestor;
         return startsWith(other) && bitIndex > other.bitIndex
             && isLevelSeparator(other.bitIndex + 1);
@@ -263,6 +279,9 @@ public class DLN extends DLNBase implements NodeId {
 
     @Override
     public boolean isDescendantOrSelfOf(final NodeId other) {
+        if (other instanceof PackedDLN) {
+            return relationTo((PackedDLN) other) > 0;
+        }
         final DLN ancestor = (DLN) other;
         return startsWith(ancestor) &&
             (bitIndex == ancestor.bitIndex || isLevelSeparator((ancestor).bitIndex + 1));
@@ -270,6 +289,10 @@ public class DLN extends DLNBase implements NodeId {
 
     @Override
     public boolean isChildOf(final NodeId parent) {
+        if (parent instanceof PackedDLN) {
+            final PackedDLN other = (PackedDLN) parent;
+            return isChildOf(bits, 0, units(), other.data, other.byteOffset, other.units);
+        }
         final DLN other = (DLN) parent;
         if(!startsWith(other)) {
             return false;
@@ -280,6 +303,9 @@ public class DLN extends DLNBase implements NodeId {
 
     @Override
     public int computeRelation(final NodeId ancestor) {
+        if (ancestor instanceof PackedDLN) {
+            return relationTo((PackedDLN) ancestor);
+        }
         final DLN other = (DLN) ancestor;
         if (other == NodeId.DOCUMENT_NODE) {
             return getLevelCount(0) == 1 ? IS_CHILD : IS_DESCENDANT;
@@ -299,6 +325,10 @@ public class DLN extends DLNBase implements NodeId {
         return -1;
     }
 
+    private int relationTo(final PackedDLN ancestor) {
+        return computeRelation(bits, 0, units(), ancestor.data, ancestor.byteOffset, ancestor.units);
+    }
+
     @Override
     public boolean isSiblingOf(final NodeId sibling) {
         final NodeId parent = getParentId();
@@ -319,6 +349,9 @@ public class DLN extends DLNBase implements NodeId {
         if(otherId == null) {
             return 1;
         }
+        if(otherId instanceof PackedDLN) {
+            return -otherId.compareTo(this);
+        }
         final DLN other = (DLN) otherId;
         final int a1len = bits.length;
         final int a2len = other.bits.length;
@@ -373,7 +406,7 @@ public class DLN extends DLNBase implements NodeId {
     public NodeId write(final NodeId prevId, final VariableByteOutputStream os) throws IOException {
         int i = 0;
         if(prevId != null) {
-            final DLN previous = (DLN) prevId;
+            final DLN previous = asDLN(prevId);
             final int len = Math.min(bits.length, previous.bits.length);
             for( ; i < len; i++) {
                 final byte b = bits[i];
@@ -387,4 +420,11 @@ public class DLN extends DLNBase implements NodeId {
         os.write(bits, i, bits.length - i);
         return this;
     }
+
+    /**
+     * Get a node id as a DLN, copying it if it is a {@link PackedDLN}.
+     */
+    private static DLN asDLN(final NodeId nodeId) {
+        return nodeId instanceof PackedDLN ? ((PackedDLN) nodeId).toDLN() : (DLN) nodeId;
+    }
 }
@@ -121,6 +121,22 @@ public class DLNBase {
         bitIndex = units - 1;
     }
 
+    /**
+     * Copies nbits bits of an id which is encoded within a larger byte array.
+     *
+     * @param data the byte array containing the encoded id
+     * @param byteOffset the offset of the id within the byte array
+     * @param nbits the number of bits of the id
+     */
+    protected DLNBase(final byte[] data, final int byteOffset, final int nbits) {
+        bits = Arrays.copyOfRange(data, byteOffset, byteOffset + ((nbits + 7) >>> 3));
+        final int remainder = nbits & 7;
+        if (remainder > 0) {
+            bits[bits.length - 1] &= BIT_MASK[remainder - 1];
+        }
+        bitIndex = nbits - 1;
+    }
+
     protected DLNBase(final byte[] data, final int nbits) {
         final int remainder = nbits % 8;
         final int len = nbits / 8;
@@ -291,9 +307,13 @@ public class DLNBase {
         return bits.length;
     }
 
-    private static int unitsUsed(int startBit, final byte[] bits) {
+    private static int unitsUsed(final int startBit, final byte[] bits) {
+        return unitsUsed(startBit, bits, 0);
+    }
+
+    private static int unitsUsed(int startBit, final byte[] bits, final int byteOffset) {
         int units = 1;
-        while ((bits[startBit >> UNIT_SHIFT] & (1 << ((7 - startBit++) & 7))) != 0) {
+        while ((bits[byteOffset + (startBit >> UNIT_SHIFT)] & (1 << ((7 - startBit++) & 7))) != 0) {
             ++units;
         }
         return units;
@@ -311,14 +331,28 @@ public class DLNBase {
      * @return the number of levels in this id
      */
     public int getLevelCount(final int startOffset) {
+        return getLevelCount(bits, 0, startOffset, bitIndex);
+    }
+
+    /**
+     * Counts the levels of an id which is encoded within a larger
+     * byte array, see {@link #getLevelCount(int)}.
+     *
+     * @param bits the byte array containing the encoded id
+     * @param byteOffset the offset of the id within the byte array
+     * @param startOffset the offset (in number of bits) to start counting
+     * @param bitIndex the index of the last bit of the id
+     * @return the number of levels in the id
+     */
+    static int getLevelCount(final byte[] bits, final int byteOffset, final int startOffset, final int bitIndex) {
         int bit = startOffset;
         int count = 0;
         while (bit > -1 && bit <= bitIndex) {
-            final int units = unitsUsed(bit, bits);
+            final int units = unitsUsed(bit, bits, byteOffset);
             bit += units;
             bit += bitWidth(units);
             if (bit < bitIndex) {
-                if ((bits[bit >> UNIT_SHIFT] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
+                if ((bits[byteOffset + (bit >> UNIT_SHIFT)] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
                     ++count;
                 }
             } else {
@@ -377,17 +411,30 @@ public class DLNBase {
      * @return start-offset of the last level id.
      */
     public int lastLevelOffset() {
+        return lastLevelOffset(bits, 0, bitIndex);
+    }
+
+    /**
+     * Finds the last level of an id which is encoded within a larger
+     * byte array, see {@link #lastLevelOffset()}.
+     *
+     * @param bits the byte array containing the encoded id
+     * @param byteOffset the offset of the id within the byte array
+     * @param bitIndex the index of the last bit of the id
+     * @return start-offset of the last level id
+     */
+    static int lastLevelOffset(final byte[] bits, final int byteOffset, final int bitIndex) {
         int bit = 0;
         int lastOffset = 0;
         while (bit <= bitIndex) {
             // check if the next bit starts a new level or just a sub-level component
             if (bit > 0) {
-                if ((bits[bit >> UNIT_SHIFT] & (1 << ((7 - bit) & 7))) == LEVEL_SEPARATOR) {
+                if ((bits[byteOffset + (bit >> UNIT_SHIFT)] & (1 << ((7 - bit) & 7))) == LEVEL_SEPARATOR) {
                     lastOffset = bit + 1;
                 }
                 ++bit;
             }
-            final int units = unitsUsed(bit, bits);
+            final int units = unitsUsed(bit, bits, byteOffset);
             bit += units;
             bit += bitWidth(units);
         }
@@ -484,6 +531,9 @@ public class DLNBase {
         if (this == o) {
             return true;
         }
+        if (o instanceof PackedDLN) {
+            return o.equals(this);
+        }
         if (o == null || !(o instanceof DLNBase)) {
             return false;
         }
@@ -495,6 +545,35 @@ public class DLNBase {
         return Arrays.equals(bits, other.bits);
     }
 
+    @Override
+    public int hashCode() {
+        return hashCode(bits, 0, units());
+    }
+
+    /**
+     * Compute the hash code of an id held in a range of a, possibly
+     * larger, byte array. The result is the same as for {@link DLN#hashCode()};
+     * any bits following the last bit of the id are ignored.
+     *
+     * @param bits the byte array containing the id
+     * @param byteOffset the offset of the id
+     * @param units the number of bits of the id
+     * @return the hash code
+     */
+    static int hashCode(final byte[] bits, final int byteOffset, final int units) {
+        int hash = units;
+        final int size = (units + 7) >>> 3;
+        for (int i = 0; i < size - 1; i++) {
+            hash = 31 * hash + bits[byteOffset + i];
+        }
+        if (size > 0) {
+            final int remainder = units & 7;
+            final int last = bits[byteOffset + size - 1];
+            hash = 31 * hash + (byte) (remainder > 0 ? last & BIT_MASK[remainder - 1] : last);
+        }
+        return hash;
+    }
+
 //    public int compareTo(final DLNBase other) {
 //        if (other == null)
 //            return 1;
@@ -551,6 +630,119 @@ public class DLNBase {
         return (bits[bytes] & BIT_MASK[remaining]) == (other.bits[bytes] & BIT_MASK[remaining]);
     }
 
+    /**
+     * Compares the document order of two ids which are encoded within
+     * larger byte arrays. The result is the same as for {@link DLN#compareTo(NodeId)};
+     * any bits following the last bit of either id are ignored.
+     *
+     * @param bits the byte array containing the first id
+     * @param byteOffset the offset of the first id
+     * @param units the number of bits of the first id
+     * @param otherBits the byte array containing the second id
+     * @param otherByteOffset the offset of the second id
+     * @param otherUnits the number of bits of the second id
+     * @return a negative value, zero, or a positive value as the first id
+     *     is before, the same as, or after the second id
+     */
+    static int compareIds(final byte[] bits, final int byteOffset, final int units,
+            final byte[] otherBits, final int otherByteOffset, final int otherUnits) {
+        final int fullBytes = units >>> 3;
+        final int otherFullBytes = otherUnits >>> 3;
+        final int common = Math.min(fullBytes, otherFullBytes);
+        final int mismatch = Arrays.mismatch(bits, byteOffset, byteOffset + common,
+                otherBits, otherByteOffset, otherByteOffset + common);
+        if (mismatch >= 0) {
+            return (bits[byteOffset + mismatch] & 0xFF) - (otherBits[otherByteOffset + mismatch] & 0xFF);
+        }
+
+        // at most one more byte of either id, which may be partially used
+        final int length = (units + 7) >>> 3;
+        final int otherLength = (otherUnits + 7) >>> 3;
+        if (common < length && common < otherLength) {
+            final int b = byteAt(bits, byteOffset, units, common);
+            final int otherB = byteAt(otherBits, otherByteOffset, otherUnits, common);
+            if (b != otherB) {
+                return b - otherB;
+            }
+        }
+        return length - otherLength;
+    }
+
+    private static int byteAt(final byte[] bits, final int byteOffset, final int units, final int index) {
+        final int b = bits[byteOffset + index] & 0xFF;
+        final int usedBits = units - (index << 3);
+        return usedBits >= 8 ? b : b & BIT_MASK[usedBits - 1];
+    }
+
+    /**
+     * Determines the relation of an id to a potential ancestor,
+     * where both ids are encoded within larger byte arrays.
+     * Neither id may be the {@link NodeId#DOCUMENT_NODE}.
+     *
+     * @param bits the byte array containing the id
+     * @param byteOffset the offset of the id
+     * @param units the number of bits of the id
+     * @param ancestorBits the byte array containing the potential ancestor
+     * @param ancestorByteOffset the offset of the potential ancestor
+     * @param ancestorUnits the number of bits of the potential ancestor
+     * @return {@link NodeId#IS_CHILD}, {@link NodeId#IS_DESCENDANT}, {@link NodeId#IS_SELF},
+     *     or -1 if the ids are not related
+     */
+    static int computeRelation(final byte[] bits, final int byteOffset, final int units,
+            final byte[] ancestorBits, final int ancestorByteOffset, final int ancestorUnits) {
+        if (units < ancestorUnits || !startsWith(bits, byteOffset, ancestorBits, ancestorByteOffset, ancestorUnits)) {
+            return -1;
+        }
+        if (units == ancestorUnits) {
+            return NodeId.IS_SELF;
+        }
+        // the bit following the ancestor's bits must start a new level
+        if ((bits[byteOffset + (ancestorUnits >> UNIT_SHIFT)] & (1 << ((7 - ancestorUnits) & 7))) != LEVEL_SEPARATOR) {
+            return -1;
+        }
+        return getLevelCount(bits, byteOffset, ancestorUnits + 1, units - 1) == 1 ? NodeId.IS_CHILD : NodeId.IS_DESCENDANT;
+    }
+
+    /**
+     * Checks if an id is a child of another, where both ids are encoded
+     * within larger byte arrays. The result is the same as for
+     * {@link DLN#isChildOf(NodeId)}.
+     *
+     * @param bits the byte array containing the id
+     * @param byteOffset the offset of the id
+     * @param units the number of bits of the id
+     * @param parentBits the byte array containing the potential parent
+     * @param parentByteOffset the offset of the potential parent
+     * @param parentUnits the number of bits of the potential parent
+     * @return true if the id is a child of the parent
+     */
+    static boolean isChildOf(final byte[] bits, final int byteOffset, final int units,
+            final byte[] parentBits, final int parentByteOffset, final int parentUnits) {
+        return units >= parentUnits
+                && startsWith(bits, byteOffset, parentBits, parentByteOffset, parentUnits)
+                && getLevelCount(bits, byteOffset, parentUnits + 1, units - 1) == 1;
+    }
+
+    /**
+     * Checks if an id starts with the bits of a prefix, where both are
+     * encoded within larger byte arrays. The id must have at least as
+     * many bits as the prefix.
+     */
+    private static boolean startsWith(final byte[] bits, final int byteOffset,
+            final byte[] prefixBits, final int prefixByteOffset, final int prefixUnits) {
+        final int fullBytes = prefixUnits >>> 3;
+        if (Arrays.mismatch(bits, byteOffset, byteOffset + fullBytes,
+                prefixBits, prefixByteOffset, prefixByteOffset + fullBytes) != -1) {
+            return false;
+        }
+        final int remainingBits = prefixUnits & 7;
+        if (remainingBits == 0) {
+            return true;
+        }
+        final int mask = BIT_MASK[remainingBits - 1];
+        return ((bits[byteOffset + fullBytes] ^ prefixBits[prefixByteOffset + fullBytes]) & mask) == 0;
+    }
+
     public String debug() {
         return toString() + " = " + toBitString() + " [" +  (bitIndex + 1) + ']';
     }
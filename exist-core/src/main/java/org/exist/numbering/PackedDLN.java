@@ -0,0 +1,257 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.numbering;
+
+import org.exist.storage.io.VariableByteOutputStream;
+
+import java.io.IOException;
+
+/**
+ * A {@link DLN} node id which does not own its bits, but refers to
+ * a range of a byte array shared with other ids, e.g. the buffer of
+ * a {@link PackedDLNArray}.
+ *
+ * Comparing and relating ids, as well as {@link #getParentId()}, work
+ * directly on the shared bits: the parent of an id is the same range
+ * of bits cut short, so no bits are copied. Operations which create a new
+ * id, such as {@link #newChild()}, return a regular {@link DLN}.
+ *
+ * Instances are immutable and interchangeable with {@link DLN}; the
+ * bits after the last bit of the id within the shared buffer are ignored.
+ */
+public final class PackedDLN implements NodeId {
+
+    final byte[] data;
+    final int byteOffset;
+    final int units;
+
+    /**
+     * @param data the shared buffer
+     * @param byteOffset the offset of the id within the buffer
+     * @param units the number of bits of the id, must be greater than zero
+     */
+    PackedDLN(final byte[] data, final int byteOffset, final int units) {
+        this.data = data;
+        this.byteOffset = byteOffset;
+        this.units = units;
+    }
+
+    /**
+     * Copy this id into a {@link DLN} of its own.
+     *
+     * @return the copy
+     */
+    public DLN toDLN() {
+        return new DLN(data, byteOffset, units);
+    }
+
+    @Override
+    public NodeId newChild() {
+        return toDLN().newChild();
+    }
+
+    @Override
+    public NodeId getChild(final int child) {
+        return toDLN().getChild(child);
+    }
+
+    @Override
+    public NodeId nextSibling() {
+        return toDLN().nextSibling();
+    }
+
+    @Override
+    public NodeId precedingSibling() {
+        return toDLN().precedingSibling();
+    }
+
+    @Override
+    public NodeId insertNode(final NodeId right) {
+        return toDLN().insertNode(right);
+    }
+
+    @Override
+    public NodeId insertBefore() {
+        return toDLN().insertBefore();
+    }
+
+    @Override
+    public NodeId append(final NodeId other) {
+        return toDLN().append(other);
+    }
+
+    @Override
+    public NodeId getParentId() {
+        final int last = DLNBase.lastLevelOffset(data, byteOffset, units - 1);
+        if (last == 0) {
+            return DOCUMENT_NODE;
+        }
+        return new PackedDLN(data, byteOffset, last - 1);
+    }
+
+    @Override
+    public boolean after(final NodeId other, final boolean isFollowing) {
+        if (compareTo(other) > 0) {
+            if (isFollowing) {
+                return !isDescendantOf(other);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean before(final NodeId other, final boolean isPreceding) {
+        if (compareTo(other) < 0) {
+            if (isPreceding) {
+                return !other.isDescendantOf(this);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isDescendantOf(final NodeId ancestor) {
+        final int relation = relationTo(ancestor);
+        return relation == IS_CHILD || relation == IS_DESCENDANT;
+    }
+
+    @Override
+    public boolean isDescendantOrSelfOf(final NodeId ancestor) {
+        return relationTo(ancestor) > 0;
+    }
+
+    @Override
+    public boolean isChildOf(final NodeId parent) {
+        if (parent instanceof PackedDLN) {
+            final PackedDLN other = (PackedDLN) parent;
+            return DLNBase.isChildOf(data, byteOffset, units, other.data, other.byteOffset, other.units);
+        }
+        final DLN other = (DLN) parent;
+        return DLNBase.isChildOf(data, byteOffset, units, other.bits, 0, other.units());
+    }
+
+    @Override
+    public int computeRelation(final NodeId ancestor) {
+        if (ancestor == DOCUMENT_NODE) {
+            return getTreeLevel() == 1 ? IS_CHILD : IS_DESCENDANT;
+        }
+        return relationTo(ancestor);
+    }
+
+    /**
+     * Relate to an ancestor by its bits, without treating the
+     * {@link NodeId#DOCUMENT_NODE} specially, as {@link DLN} does.
+     */
+    private int relationTo(final NodeId ancestor) {
+        if (ancestor instanceof PackedDLN) {
+            final PackedDLN other = (PackedDLN) ancestor;
+            return DLNBase.computeRelation(data, byteOffset, units, other.data, other.byteOffset, other.units);
+        }
+        final DLN other = (DLN) ancestor;
+        return DLNBase.computeRelation(data, byteOffset, units, other.bits, 0, other.units());
+    }
+
+    @Override
+    public boolean isSiblingOf(final NodeId sibling) {
+        final NodeId parent = getParentId();
+        return sibling.isChildOf(parent);
+    }
+
+    @Override
+    public int getTreeLevel() {
+        return DLNBase.getLevelCount(data, byteOffset, 0, units - 1);
+    }
+
+    @Override
+    public int compareTo(final NodeId otherId) {
+        if (otherId == null) {
+            return 1;
+        }
+        if (otherId instanceof PackedDLN) {
+            final PackedDLN other = (PackedDLN) otherId;
+            return DLNBase.compareIds(data, byteOffset, units, other.data, other.byteOffset, other.units);
+        }
+        final DLN other = (DLN) otherId;
+        return DLNBase.compareIds(data, byteOffset, units, other.bits, 0, other.units());
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof PackedDLN) {
+            final PackedDLN other = (PackedDLN) obj;
+            return units == other.units
+                    && DLNBase.compareIds(data, byteOffset, units, other.data, other.byteOffset, other.units) == 0;
+        }
+        if (obj instanceof DLN) {
+            final DLN other = (DLN) obj;
+            return units == other.units()
+                    && DLNBase.compareIds(data, byteOffset, units, other.bits, 0, other.units()) == 0;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return DLNBase.hashCode(data, byteOffset, units);
+    }
+
+    @Override
+    public int size() {
+        return (units + 7) >>> 3;
+    }
+
+    @Override
+    public int units() {
+        return units;
+    }
+
+    @Override
+    public void serialize(final byte[] data, final int offset) {
+        final int size = size();
+        System.arraycopy(this.data, byteOffset, data, offset, size);
+        final int remainder = units & 7;
+        if (remainder > 0) {
+            data[offset + size - 1] &= DLNBase.BIT_MASK[remainder - 1];
+        }
+    }
+
+    @Override
+    public void write(final VariableByteOutputStream os) throws IOException {
+        toDLN().write(os);
+    }
+
+    @Override
+    public NodeId write(final NodeId previous, final VariableByteOutputStream os) throws IOException {
+        toDLN().write(previous, os);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return toDLN().toString();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.numbering;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * An append-only list of {@link DLN} node ids, which are packed one after
+ * another into a single byte array instead of being held as separate objects.
+ *
+ * Ids are compared and related to each other directly on their encoded bits.
+ * Since the encoding of an ancestor id is a bit prefix of the encoding of its
+ * descendants, both operations are reduced to comparing byte ranges, which is
+ * done with {@link Arrays#mismatch(byte[], int, int, byte[], int, int)}. The JVM
+ * compares these ranges a machine word (or vector) at a time, rather than byte by byte.
+ *
+ * An id is retrieved as a {@link PackedDLN} which refers to the shared buffer,
+ * so the cost of holding many ids is little more than their encoded bytes.
+ * The {@link NodeId#DOCUMENT_NODE} is stored as an empty id, i.e. it precedes
+ * and contains all other ids. A null id may also be stored, e.g. for a node
+ * that has not been assigned an id; as for {@link NodeId#compareTo(NodeId)}
+ * a null id precedes all other ids, and it is not related to any id.
+ *
+ * Ids retrieved by {@link #get(int)} remain valid if more ids are added,
+ * but not after the array is {@link #clear() cleared}.
+ */
+public class PackedDLNArray {
+
+    private static final int INITIAL_SIZE = 16;
+    private static final int AVG_ID_LENGTH = 4;
+
+    private static final int NULL_ID = -1;
+
+    private byte[] data;
+    private int dataLength = 0;
+
+    /**
+     * The offset into {@link #data} and the number of bits used by each id.
+     */
+    private int[] offsets;
+    private int[] units;
+    private int size = 0;
+
+    public PackedDLNArray() {
+        this(INITIAL_SIZE);
+    }
+
+    public PackedDLNArray(final int initialSize) {
+        final int capacity = Math.max(initialSize, 1);
+        this.offsets = new int[capacity];
+        this.units = new int[capacity];
+        this.data = new byte[capacity * AVG_ID_LENGTH];
+    }
+
+    /**
+     * Append a node id.
+     *
+     * @param nodeId the node id, which must be a {@link DLN} or {@link PackedDLN}, or null
+     * @return the index of the appended id
+     */
+    public int add(@Nullable final NodeId nodeId) {
+        if (nodeId == null) {
+            return add(NULL_ID, null, 0);
+        } else if (nodeId == NodeId.DOCUMENT_NODE) {
+            return add(0, null, 0);
+        } else if (nodeId instanceof PackedDLN) {
+            final PackedDLN packed = (PackedDLN) nodeId;
+            return add(packed.units, packed.data, packed.byteOffset);
+        } else {
+            final DLN dln = (DLN) nodeId;
+            return add(dln.units(), dln.bits, 0);
+        }
+    }
+
+    /**
+     * Append a node id from another array, without retrieving it.
+     *
+     * @param other the array containing the id, must not be this array
+     * @param otherIdx the index of the id in the other array
+     * @return the index of the appended id
+     */
+    public int add(final PackedDLNArray other, final int otherIdx) {
+        return add(other.units[otherIdx], other.data, other.offsets[otherIdx]);
+    }
+
+    private int add(final int idUnits, final byte[] idData, final int idOffset) {
+        if (size == offsets.length) {
+            final int newLength = size << 1;
+            offsets = Arrays.copyOf(offsets, newLength);
+            units = Arrays.copyOf(units, newLength);
+        }
+
+        final int idLength = idUnits > 0 ? (idUnits + 7) >>> 3 : 0;
+        if (idLength > 0) {
+            if (dataLength + idLength > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length << 1, dataLength + idLength));
+            }
+            System.arraycopy(idData, idOffset, data, dataLength, idLength);
+            // the id may have been cut from a longer one, clear any following bits
+            final int remainder = idUnits & 7;
+            if (remainder > 0) {
+                data[dataLength + idLength - 1] &= DLNBase.BIT_MASK[remainder - 1];
+            }
+        }
+
+        offsets[size] = dataLength;
+        units[size] = idUnits;
+        dataLength += idLength;
+        return size++;
+    }
+
+    /**
+     * Get an id.
+     *
+     * @param idx the index of the id
+     * @return the id, which refers to the buffer of this array, or null if a null id was added
+     */
+    public @Nullable NodeId get(final int idx) {
+        final int idUnits = units[idx];
+        if (idUnits == NULL_ID) {
+            return null;
+        } else if (idUnits == 0) {
+            return NodeId.DOCUMENT_NODE;
+        }
+        return new PackedDLN(data, offsets[idx], idUnits);
+    }
+
+    /**
+     * @param idx the index of an id
+     * @return true if a null id was added at the index
+     */
+    public boolean isNull(final int idx) {
+        return units[idx] == NULL_ID;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        dataLength = 0;
+    }
+
+    /**
+     * Release the unused capacity, for an array that will not grow anymore.
+     */
+    public void trimToSize() {
+        if (offsets.length > size) {
+            offsets = Arrays.copyOf(offsets, Math.max(size, 1));
+            units = Arrays.copyOf(units, Math.max(size, 1));
+        }
+        if (data.length > dataLength) {
+            data = Arrays.copyOf(data, dataLength);
+        }
+    }
+
+    /**
+     * Compare the document order of two ids.
+     *
+     * @param idx the index of an id in this array
+     * @param other the array containing the id to compare with, may be this array
+     * @param otherIdx the index of the id in the other array
+     * @return a negative value, zero, or a positive value as the first id is
+     *     before, the same as, or after the other id
+     */
+    public int compare(final int idx, final PackedDLNArray other, final int otherIdx) {
+        final boolean isNull = units[idx] == NULL_ID;
+        if (isNull || other.units[otherIdx] == NULL_ID) {
+            return compareNull(isNull, other.units[otherIdx] == NULL_ID);
+        }
+        return DLNBase.compareIds(data, offsets[idx], units[idx],
+                other.data, other.offsets[otherIdx], other.units[otherIdx]);
+    }
+
+    /**
+     * Compare the document order of an id in this array with another id.
+     *
+     * @param idx the index of an id in this array
+     * @param nodeId the id to compare with
+     * @return a negative value, zero, or a positive value as the id in this array
+     *     is before, the same as, or after the other id
+     */
+    public int compare(final int idx, @Nullable final NodeId nodeId) {
+        final boolean isNull = units[idx] == NULL_ID;
+        if (isNull || nodeId == null) {
+            return compareNull(isNull, nodeId == null);
+        } else if (nodeId == NodeId.DOCUMENT_NODE) {
+            return units[idx] == 0 ? 0 : 1;
+        } else if (nodeId instanceof PackedDLN) {
+            final PackedDLN packed = (PackedDLN) nodeId;
+            return DLNBase.compareIds(data, offsets[idx], units[idx], packed.data, packed.byteOffset, packed.units);
+        } else {
+            final DLN dln = (DLN) nodeId;
+            return DLNBase.compareIds(data, offsets[idx], units[idx], dln.bits, 0, dln.units());
+        }
+    }
+
+    private static int compareNull(final boolean isNull, final boolean otherIsNull) {
+        if (isNull) {
+            return otherIsNull ? 0 : -1;
+        }
+        return 1;
+    }
+
+    /**
+     * Determine the relation of an id to a potential ancestor,
+     * as {@link NodeId#computeRelation(NodeId)} does.
+     *
+     * @param idx the index of an id in this array
+     * @param ancestors the array containing the potential ancestor, may be this array
+     * @param ancestorIdx the index of the potential ancestor
+     * @return {@link NodeId#IS_CHILD}, {@link NodeId#IS_DESCENDANT}, {@link NodeId#IS_SELF},
+     *     or -1 if the ids are not related, which is always the case if either is null
+     */
+    public int computeRelation(final int idx, final PackedDLNArray ancestors, final int ancestorIdx) {
+        final int idUnits = units[idx];
+        final int offset = offsets[idx];
+        final int ancestorUnits = ancestors.units[ancestorIdx];
+        if (idUnits == NULL_ID || ancestorUnits == NULL_ID) {
+            return -1;
+        }
+
+        if (ancestorUnits == 0) {
+            if (idUnits == 0) {
+                return NodeId.IS_SELF;
+            }
+            return DLNBase.getLevelCount(data, offset, 0, idUnits - 1) == 1 ? NodeId.IS_CHILD : NodeId.IS_DESCENDANT;
+        }
+        return DLNBase.computeRelation(data, offset, idUnits,
+                ancestors.data, ancestors.offsets[ancestorIdx], ancestorUnits);
+    }
+
+    /**
+     * @param idx the index of an id
+     * @return the number of bits used by the id, 0 for the document node, or -1 for a null id
+     */
+    public int units(final int idx) {
+        return units[idx];
+    }
+}
@@ -517,6 +517,15 @@ public class EmbeddedXMLStreamReader implements IEmbeddedXMLStreamReader, Extend
         return new XMLString();
     }
 
+    @Override
+    public @Nullable Value getUTF8Text() {
+        if(state == CHARACTERS || state == COMMENT || state == CDATA) {
+            final int offset = StoredNode.LENGTH_SIGNATURE_LENGTH + NodeId.LENGTH_NODE_ID_UNITS + nodeId.size();
+            return new Value(current.data(), current.start() + offset, current.getLength() - offset);
+        }
+        return null;
+    }
+
     @Override
     public String getText() {
         return getXMLText().toString();
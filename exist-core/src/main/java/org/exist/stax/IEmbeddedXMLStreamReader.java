@@ -24,8 +24,10 @@ package org.exist.stax;
 import org.exist.dom.persistent.IStoredNode;
 import org.exist.dom.persistent.NodeHandle;
 import org.exist.storage.DBBroker;
+import org.exist.storage.btree.Value;
 import org.exist.util.XMLString;
 
+import javax.annotation.Nullable;
 import javax.xml.stream.StreamFilter;
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
@@ -93,4 +95,14 @@ public interface IEmbeddedXMLStreamReader extends ExtendedXMLStreamReader {
      * @return the current text or the empty text
      */
     XMLString getXMLText();
+
+    /**
+     * Returns the text of a CHARACTERS, COMMENT or CDATA event as stored,
+     * i.e. UTF-8 encoded. The returned value is a view on the data of the
+     * current node record, nothing is copied or decoded. It is only valid
+     * until the cursor is moved.
+     *
+     * @return the UTF-8 encoded text, or null if the current event has no text
+     */
+    @Nullable Value getUTF8Text();
 }
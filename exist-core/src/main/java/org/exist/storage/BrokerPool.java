@@ -42,6 +42,7 @@ import org.exist.debuggee.Debuggee;
 import org.exist.debuggee.DebuggeeFactory;
 import org.exist.dom.persistent.SymbolTable;
 import org.exist.indexing.IndexManager;
+import org.exist.indexing.IndexQueryCache;
 import org.exist.management.AgentFactory;
 import org.exist.numbering.DLNFactory;
 import org.exist.numbering.NodeIdFactory;
@@ -60,6 +61,8 @@ import org.exist.storage.journal.JournalManager;
 import org.exist.storage.lock.FileLockService;
 import org.exist.storage.lock.LockManager;
 import org.exist.storage.recovery.RecoveryManager;
+import org.exist.storage.serializers.ParallelSerializationService;
+import org.exist.storage.serializers.SerializedDocumentCache;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.sync.SyncTask;
 import org.exist.storage.txn.TransactionException;
@@ -352,6 +355,21 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     //TODO : rename as collectionsCache ?
     private CollectionCache collectionCache;
 
+    /**
+     * The cache in which serialized documents are stored.
+     */
+    private SerializedDocumentCache serializedDocumentCache;
+
+    /**
+     * The cache in which the hits of index lookups are stored.
+     */
+    private IndexQueryCache indexQueryCache;
+
+    /**
+     * The worker threads for serializing query results in parallel.
+     */
+    private ParallelSerializationService parallelSerializationService;
+
     /**
      * The pool in which the database instance's readers are stored.
      */
@@ -480,6 +498,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 .filter(size -> size != -1)
                 .orElse(DEFAULT_COLLECTION_BUFFER_SIZE);
         this.collectionCache = servicesManager.register(new CollectionCache());
+        this.serializedDocumentCache = servicesManager.register(new SerializedDocumentCache());
+        this.indexQueryCache = servicesManager.register(new IndexQueryCache());
+        this.parallelSerializationService = servicesManager.register(new ParallelSerializationService());
         this.notificationService = servicesManager.register(new NotificationService());
 
         this.journalManager = recoveryEnabled ? Optional.of(new JournalManager()) : Optional.empty();
@@ -1011,6 +1032,33 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return collectionCache;
     }
 
+    /**
+     * Returns the cache in which serialized documents are stored.
+     *
+     * @return The cache, which is disabled unless configured
+     */
+    public SerializedDocumentCache getSerializedDocumentCache() {
+        return serializedDocumentCache;
+    }
+
+    /**
+     * Returns the cache in which the hits of index lookups are stored.
+     *
+     * @return The cache, which is disabled unless configured
+     */
+    public IndexQueryCache getIndexQueryCache() {
+        return indexQueryCache;
+    }
+
+    /**
+     * Returns the worker threads for serializing query results in parallel.
+     *
+     * @return The service, which is disabled unless configured
+     */
+    public ParallelSerializationService getParallelSerializationService() {
+        return parallelSerializationService;
+    }
+
     /**
      * Returns a cache in which the database instance's may store items.
      *
@@ -1282,6 +1330,23 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         }
     }
 
+    /**
+     * Returns an active broker for the database instance, but only if one is
+     * available without waiting for another thread to release its broker.
+     *
+     * @param subject Optionally a subject to set on the broker, see {@link #get(Optional)}
+     * @return The broker, or {@link Optional#empty()} if all brokers are in use
+     * @throws EXistException If the instance is not available (stopped or not configured)
+     */
+    public Optional<DBBroker> tryGet(final Optional<Subject> subject) throws EXistException {
+        synchronized(this) {
+            if(serviceModeUser != null || (inactiveBrokers.isEmpty() && brokersCount >= maxBrokers)) {
+                return Optional.empty();
+            }
+            return Optional.of(get(subject));
+        }
+    }
+
     /**
      * Releases a broker for the database instance. If it is no more used, make if invactive.
      * If there are pending system maintenance tasks,
@@ -0,0 +1,135 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.numbering.NodeId;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The nodes of a context set grouped by document, each group in document order.
+ *
+ * The node ids of a value index entry are stored sorted, so they can be intersected
+ * with a group by galloping forward through it, rather than by a binary search over
+ * the whole context set for every node id that is read from the entry.
+ */
+public final class ContextNodeIndex {
+
+    private static final Comparator<NodeProxy> BY_NODE_ID = Comparator.comparing(NodeProxy::getNodeId);
+
+    private final Int2ObjectMap<NodeProxy[]> nodesByDocument;
+
+    private ContextNodeIndex(final Int2ObjectMap<NodeProxy[]> nodesByDocument) {
+        this.nodesByDocument = nodesByDocument;
+    }
+
+    public static ContextNodeIndex of(final NodeSet contextSet) {
+        final Int2ObjectMap<List<NodeProxy>> groups = new Int2ObjectOpenHashMap<>();
+        for (final NodeProxy node : contextSet) {
+            final int docId = node.getOwnerDocument().getDocId();
+            List<NodeProxy> group = groups.get(docId);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(docId, group);
+            }
+            group.add(node);
+        }
+
+        final Int2ObjectMap<NodeProxy[]> nodesByDocument = new Int2ObjectOpenHashMap<>(groups.size());
+        for (final Int2ObjectMap.Entry<List<NodeProxy>> group : groups.int2ObjectEntrySet()) {
+            final NodeProxy[] nodes = group.getValue().toArray(new NodeProxy[0]);
+            if (!isSorted(nodes)) {
+                Arrays.sort(nodes, BY_NODE_ID);
+            }
+            nodesByDocument.put(group.getIntKey(), nodes);
+        }
+        return new ContextNodeIndex(nodesByDocument);
+    }
+
+    private static boolean isSorted(final NodeProxy[] nodes) {
+        for (int i = 1; i < nodes.length; i++) {
+            if (nodes[i - 1].getNodeId().compareTo(nodes[i].getNodeId()) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the context nodes of a document.
+     *
+     * @param docId the id of the document
+     *
+     * @return the nodes in document order, or null if the context set has none in the document
+     */
+    public @Nullable NodeProxy[] get(final int docId) {
+        return nodesByDocument.get(docId);
+    }
+
+    /**
+     * Find the position of the first node whose id is not before the given node id,
+     * searching forward from a position with exponentially growing steps and then
+     * by a binary search over the last step.
+     *
+     * When the node ids being looked up are themselves ascending, the position
+     * returned for one is the start for the next, so that a sparse side of the
+     * intersection costs a logarithm of the gap rather than of the whole group,
+     * and a dense side degrades to a linear merge.
+     *
+     * @param nodes the nodes in document order
+     * @param from the position to search from
+     * @param nodeId the node id to look for
+     *
+     * @return the position, or {@code nodes.length} if every node from {@code from} is before the node id
+     */
+    public static int gallop(final NodeProxy[] nodes, final int from, final NodeId nodeId) {
+        int low = from;
+        int high = from;
+        int step = 1;
+        while (high < nodes.length && nodes[high].getNodeId().compareTo(nodeId) < 0) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        if (high > nodes.length) {
+            high = nodes.length;
+        }
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (nodes[mid].getNodeId().compareTo(nodeId) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -1008,6 +1008,12 @@ public class NativeBroker implements DBBroker {
                     unlockFn = collectionLock::close;
                     break;
 
+                case INTENTION_WRITE:
+                case INTENTION_READ:
+                    collectionLock = lockManager.acquireCollectionLock(collectionUri, lockMode);
+                    unlockFn = collectionLock::close;
+                    break;
+
                 case NO_LOCK:
                 default:
                     collectionLock = ManagedCollectionLock.notLocked(collectionUri);
@@ -2056,7 +2062,7 @@ public class NativeBroker implements DBBroker {
 
             LOG.info("Start indexing collection {}", collection.getURI().toString());
             pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
-            reindexCollection(transaction, collection, IndexMode.STORE);
+            reindexCollectionInBatch(transaction, collection, IndexMode.STORE);
         } catch(final PermissionDeniedException | IOException e) {
             LOG.error("An error occurred during reindex: {}", e.getMessage(), e);
         } finally {
@@ -2065,6 +2071,26 @@ public class NativeBroker implements DBBroker {
         }
     }
 
+    /**
+     * Reindexes a collection and its descendants within a single index batch,
+     * so that the index entries of all the documents are written together,
+     * see {@link IndexController#startBatch()}.
+     *
+     * @throws IOException if the documents could not be reindexed, or the index
+     *     entries of the batch could not be written
+     */
+    private void reindexCollectionInBatch(final Txn transaction,
+            @EnsureLocked(mode=LockMode.READ_LOCK) final Collection collection, final IndexMode mode)
+            throws PermissionDeniedException, IOException, LockException {
+        final IndexController indexController = getIndexController();
+        indexController.startBatch();
+        try {
+            reindexCollection(transaction, collection, mode);
+        } finally {
+            indexController.endBatch();
+        }
+    }
+
     private void reindexCollection(final Txn transaction,
             @EnsureLocked(mode=LockMode.READ_LOCK) final Collection collection, final IndexMode mode)
             throws PermissionDeniedException, IOException, LockException {
@@ -2315,6 +2341,8 @@ public class NativeBroker implements DBBroker {
      */
     @Override
     public void storeXMLResource(final Txn transaction, final DocumentImpl doc) {
+        // the document's nodes, or their storage, have usually just been changed
+        doc.incrementModificationCount();
         try(final VariableByteOutputStream os = new VariableByteOutputStream(256);
                 final ManagedLock<ReentrantLock> collectionsDbLock = lockManager.acquireBtreeWriteLock(collectionsDb.getLockName())) {
             doc.write(os);
@@ -2958,6 +2986,7 @@ public class NativeBroker implements DBBroker {
         if(isReadOnly()) {
             throw new IOException(DATABASE_IS_READ_ONLY);
         }
+        document.incrementModificationCount();
         try {
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Removing document {} ({}) ...", document.getFileURI(), document.getDocId());
@@ -3162,6 +3191,7 @@ public class NativeBroker implements DBBroker {
         //TODO : use dedicated function in XmldbURI
         if (LOG.isDebugEnabled())
             LOG.debug("============> Defragmenting document {}", doc.getURI());
+        doc.incrementModificationCount();
         final long start = System.currentTimeMillis();
         try {
             final long firstChild = doc.getFirstChildAddress();
@@ -3304,6 +3334,7 @@ public class NativeBroker implements DBBroker {
     public <T extends IStoredNode> void storeNode(final Txn transaction, final IStoredNode<T> node, final NodePath currentPath, final IndexSpec indexSpec) {
         checkAvailableMemory();
         final DocumentImpl doc = node.getOwnerDocument();
+        doc.incrementModificationCount();
         final short nodeType = node.getNodeType();
         final byte[] data = node.serialize();
         new DOMTransaction(this, domDb, () -> lockManager.acquireBtreeWriteLock(domDb.getLockName()), doc) {
@@ -3336,6 +3367,7 @@ public class NativeBroker implements DBBroker {
     public <T extends IStoredNode> void updateNode(final Txn transaction, final IStoredNode<T> node, final boolean reindex) {
         try {
             final DocumentImpl doc = node.getOwnerDocument();
+            doc.incrementModificationCount();
             final long internalAddress = node.getInternalAddress();
             final byte[] data = node.serialize();
             new DOMTransaction(this, domDb, () -> lockManager.acquireBtreeWriteLock(domDb.getLockName())) {
@@ -3374,6 +3406,7 @@ public class NativeBroker implements DBBroker {
     public void insertNodeAfter(final Txn transaction, final NodeHandle previous, final IStoredNode node) {
         final byte[] data = node.serialize();
         final DocumentImpl doc = previous.getOwnerDocument();
+        doc.incrementModificationCount();
         new DOMTransaction(this, domDb, () -> lockManager.acquireBtreeWriteLock(domDb.getLockName()), doc) {
             @Override
             public Object start() {
@@ -3478,6 +3511,7 @@ public class NativeBroker implements DBBroker {
     public <T extends IStoredNode> void removeNode(final Txn transaction, final IStoredNode<T> node,
             final NodePath currentPath, final String content) {
         final DocumentImpl doc = node.getOwnerDocument();
+        doc.incrementModificationCount();
         new DOMTransaction(this, domDb, () -> lockManager.acquireBtreeWriteLock(domDb.getLockName()), doc) {
             @Override
             public Object start() {
@@ -3556,6 +3590,7 @@ public class NativeBroker implements DBBroker {
     @Override
     public void removeAllNodes(final Txn transaction, final IStoredNode node, final NodePath currentPath,
             final StreamListener listener) {
+        node.getOwnerDocument().incrementModificationCount();
 
         try(final INodeIterator iterator = getNodeIterator(node)) {
             iterator.next();
@@ -3848,7 +3883,7 @@ public class NativeBroker implements DBBroker {
         loadIndexModules();
         LOG.info("Reindexing database files ...");
         //Reindex from root collection
-        reindexCollection(null, getCollection(XmldbURI.ROOT_COLLECTION_URI), IndexMode.REPAIR);
+        reindexCollectionInBatch(null, getCollection(XmldbURI.ROOT_COLLECTION_URI), IndexMode.REPAIR);
     }
 
     @Override
@@ -36,6 +36,7 @@ import org.exist.indexing.IndexUtils;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.StreamListener;
 import org.exist.numbering.NodeId;
+import org.exist.numbering.NodeIdFactory;
 import org.exist.storage.btree.BTreeCallback;
 import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.DBException;
@@ -1205,11 +1206,23 @@ public class NativeValueIndex implements ContentLoadingObserver {
         private final NodeSet result;
         private final boolean returnAncestor;
 
+        /**
+         * The documents of the context set, when the nodes of the context set are
+         * selected, so that entries for any other document can be skipped undecoded.
+         */
+        @Nullable private final DocumentSet contextDocs;
+        @Nullable private ContextNodeIndex contextIndex = null;
+        private int contextSize = -1;
+        private long candidates = 0;
+        private final VariableByteArrayInput entryInput = new VariableByteArrayInput();
+        private byte[] entryBuf = new byte[0];
+
         public SearchCallback(final DocumentSet docs, final NodeSet contextSet, final NodeSet result, boolean returnAncestor) {
             this.docs = docs;
             this.contextSet = contextSet;
             this.result = result;
             this.returnAncestor = returnAncestor;
+            this.contextDocs = returnAncestor && contextSet != null ? contextSet.getDocumentSet() : null;
         }
 
         @Override
@@ -1230,11 +1243,16 @@ public class NativeValueIndex implements ContentLoadingObserver {
                     final DocumentImpl storedDocument = docs.getDoc(storedDocId);
 
                     //Exit if the document is not concerned
-                    if (storedDocument == null) {
+                    if (storedDocument == null || (contextDocs != null && !contextDocs.contains(storedDocId))) {
                         is.skipBytes(size);
                         continue;
                     }
 
+                    if (contextDocs != null && useContextIndex(gidsCount)) {
+                        probeContext(is, storedDocument, gidsCount, size);
+                        continue;
+                    }
+
                     //Process the nodes
                     NodeId previous = null;
 
@@ -1270,6 +1288,64 @@ public class NativeValueIndex implements ContentLoadingObserver {
 
             return false;
         }
+
+        /**
+         * Decides whether to intersect the node ids of an entry with a {@link ContextNodeIndex},
+         * rather than to look each of them up in the context set. Building the index costs a
+         * pass over the context set, so it is only built once the node ids seen so far would
+         * have cost about as much in binary searches of the context set.
+         *
+         * @param gidsCount the number of node ids in the entry
+         *
+         * @return true if the context index should be used
+         */
+        private boolean useContextIndex(final int gidsCount) {
+            if (contextIndex != null) {
+                return true;
+            }
+            if (contextSize < 0) {
+                contextSize = contextSet.getItemCount();
+            }
+            candidates += gidsCount;
+            if (candidates * (32 - Integer.numberOfLeadingZeros(contextSize)) < contextSize) {
+                return false;
+            }
+            contextIndex = ContextNodeIndex.of(contextSet);
+            return true;
+        }
+
+        /**
+         * Intersects the sorted node ids of an entry with the context nodes of its document.
+         *
+         * The entry is read whole, so that decoding can stop once its node ids
+         * have passed the last context node of the document.
+         */
+        private void probeContext(final VariableByteInput is, final DocumentImpl storedDocument, final int gidsCount,
+                final int size) throws IOException {
+            final NodeProxy[] contextNodes = contextIndex.get(storedDocument.getDocId());
+            if (contextNodes == null) {
+                is.skipBytes(size);
+                return;
+            }
+
+            if (entryBuf.length < size) {
+                entryBuf = new byte[size];
+            }
+            is.read(entryBuf, 0, size);
+            entryInput.initialize(entryBuf, 0, size);
+
+            final NodeIdFactory nodeFactory = broker.getBrokerPool().getNodeFactory();
+            NodeId previous = null;
+            int pos = 0;
+            for (int j = 0; j < gidsCount && pos < contextNodes.length; j++) {
+                final NodeId nodeId = nodeFactory.createFromStream(previous, entryInput);
+                previous = nodeId;
+                pos = ContextNodeIndex.gallop(contextNodes, pos, nodeId);
+                if (pos < contextNodes.length && contextNodes[pos].getNodeId().compareTo(nodeId) == 0) {
+                    result.add(contextNodes[pos], contextNodes.length);
+                }
+            }
+        }
     }
 
     private final class MatcherCallback extends SearchCallback {
@@ -36,11 +36,15 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.storage.lock.Lock.LockType;
 import org.exist.util.Configuration;
+import org.exist.util.DeadlockException;
 import org.exist.util.LockException;
 import org.exist.util.WeakLazyStripes;
 import org.exist.xmldb.XmldbURI;
 import uk.ac.ic.doc.slurp.multilock.MultiLock;
 
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
@@ -86,6 +90,12 @@ public class LockManager {
 
     private static final Logger LOG = LogManager.getLogger(LockManager.class);
 
+    /**
+     * How long to wait for a Collection or Document lock before, and then between,
+     * checking whether the waiting thread is deadlocked.
+     */
+    private static final long DEADLOCK_DETECTION_INTERVAL_MILLIS = 100;
+
     /**
      * Set to true to use the path Hierarchy for document locks
      * as opposed to separating Collection and Document locks
@@ -251,7 +261,8 @@ public class LockManager {
             final MultiLock lock = getPathLock(pathStr);
 
             lockTable.attempt(groupId, pathStr, lockType, lockMode);
-            if (lock(lock, lockMode)) {
+            final List<String> deadlockCycle = lock(lock, lockMode, lockType, pathStr);
+            if (deadlockCycle == null) {
                 locked[i] = new LockedPath(lock, lockMode, pathStr);
                 lockTable.acquired(groupId, pathStr, lockType, lockMode);
             } else {
@@ -259,13 +270,177 @@ public class LockManager {
 
                 unlockAll(locked, l -> lockTable.released(groupId, l.path, lockType, l.mode));
 
-                throw new LockException("Unable to acquire " + lockType + " " + lockMode + " for: " + pathStr);
+                throw deadlockException(lockType, lockMode, pathStr, deadlockCycle);
             }
         }
 
         return new LockGroup(groupId, locked);
     }
 
+    /**
+     * Acquires an INTENTION_READ_LOCK on a Collection.
+     *
+     * Unlike {@link #acquireCollectionReadLock(XmldbURI)} this does not implicitly
+     * lock the descendants of the Collection, it instead declares that the caller intends
+     * to READ_LOCK a descendant. This allows other threads to concurrently acquire
+     * an INTENTION_WRITE_LOCK on the Collection for the purposes of writing to siblings.
+     *
+     * @param collectionPath The path of the Collection for which a lock is requested.
+     *
+     * @return An INTENTION_READ_LOCK on the Collection.
+     * @throws LockException if a lock error occurs
+     */
+    public ManagedCollectionLock acquireCollectionIntentionReadLock(final XmldbURI collectionPath) throws LockException {
+        final LockGroup lockGroup = acquirePathIntentionLock(LockType.COLLECTION, collectionPath, Lock.LockMode.INTENTION_READ);
+        return new ManagedCollectionLock(
+                collectionPath,
+                lockGroup,
+                lockTable);
+    }
+
+    /**
+     * Acquires an INTENTION_WRITE_LOCK on a Collection.
+     *
+     * Unlike {@link #acquireCollectionWriteLock(XmldbURI)} this does not implicitly
+     * lock the descendants of the Collection, it instead declares that the caller intends
+     * to WRITE_LOCK a descendant. Many threads may hold an INTENTION_WRITE_LOCK on the same
+     * Collection, so writers to sibling Collections or Documents do not serialise on their
+     * common ancestors.
+     *
+     * Only available when the path Hierarchy is configured for Multi-Writer/Multi-Reader,
+     * as with Single-Writer/Multi-Reader ancestors are always WRITE_LOCK'ed.
+     *
+     * @param collectionPath The path of the Collection for which a lock is requested.
+     *
+     * @return An INTENTION_WRITE_LOCK on the Collection.
+     * @throws LockException if a lock error occurs
+     */
+    public ManagedCollectionLock acquireCollectionIntentionWriteLock(final XmldbURI collectionPath) throws LockException {
+        if (!pathsMultiWriter) {
+            throw new LockException("INTENTION_WRITE_LOCK on a Collection requires " + CONFIGURATION_PATHS_MULTI_WRITER + " to be enabled");
+        }
+        final LockGroup lockGroup = acquirePathIntentionLock(LockType.COLLECTION, collectionPath, Lock.LockMode.INTENTION_WRITE);
+        return new ManagedCollectionLock(
+                collectionPath,
+                lockGroup,
+                lockTable);
+    }
+
+    /**
+     * Acquires an intention lock on a database path and all of its ancestors.
+     *
+     * @param lockType The type of the lock
+     * @param path The path for which a lock is requested.
+     * @param intentionMode either {@link Lock.LockMode#INTENTION_READ} or {@link Lock.LockMode#INTENTION_WRITE}.
+     *
+     * @return The intention locks on the path.
+     *
+     * @throws LockException if a lock error occurs
+     */
+    LockGroup acquirePathIntentionLock(final LockType lockType, final XmldbURI path, final Lock.LockMode intentionMode) throws LockException {
+        if (intentionMode != Lock.LockMode.INTENTION_READ && intentionMode != Lock.LockMode.INTENTION_WRITE) {
+            throw new IllegalArgumentException("Expected an intention lock mode, but was: " + intentionMode);
+        }
+
+        final XmldbURI[] segments = path.getPathSegments();
+
+        final long groupId = System.nanoTime();
+
+        String pathStr = "";
+        final LockedPath[] locked = new LockedPath[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            pathStr += '/' + segments[i].toString();
+
+            final MultiLock lock = getPathLock(pathStr);
+
+            lockTable.attempt(groupId, pathStr, lockType, intentionMode);
+            final List<String> deadlockCycle = lock(lock, intentionMode, lockType, pathStr);
+            if (deadlockCycle == null) {
+                locked[i] = new LockedPath(lock, intentionMode, pathStr);
+                lockTable.acquired(groupId, pathStr, lockType, intentionMode);
+            } else {
+                lockTable.attemptFailed(groupId, pathStr, lockType, intentionMode);
+
+                unlockAll(locked, l -> lockTable.released(groupId, l.path, lockType, l.mode));
+
+                throw deadlockException(lockType, intentionMode, pathStr, deadlockCycle);
+            }
+        }
+
+        return new LockGroup(groupId, locked);
+    }
+
+    /**
+     * Locks a lock object, unless waiting for it would deadlock.
+     *
+     * When deadlock detection is enabled, the lock is attempted with a timeout, and only
+     * whilst it cannot be acquired is the wait-for graph of the lock table checked for a cycle,
+     * see {@link LockTable#detectDeadlock(String, LockType, Lock.LockMode)}. Uncontended and
+     * briefly contended acquisitions therefore do not pay for detection.
+     *
+     * @param lock the lock object to lock.
+     * @param lockMode the mode of the {@code lock} to acquire.
+     * @param lockType the type of the {@code lock}.
+     * @param id the id of the {@code lock}.
+     *
+     * @return null if the lock was acquired, or the names of the threads in the wait-for cycle
+     *     if the current thread was chosen as the victim of a deadlock and did not acquire the lock.
+     */
+    @Nullable
+    private List<String> lock(final MultiLock lock, final Lock.LockMode lockMode, final LockType lockType, final String id) {
+        if (!lockTable.isDeadlockDetectionEnabled(lockType)) {
+            lock(lock, lockMode);
+            return null;
+        }
+
+        try {
+            while (!tryLock(lock, lockMode, DEADLOCK_DETECTION_INTERVAL_MILLIS)) {
+                final List<String> deadlockCycle = lockTable.detectDeadlock(id, lockType, lockMode);
+                if (deadlockCycle != null) {
+                    return deadlockCycle;
+                }
+            }
+        } catch (final InterruptedException e) {
+            // restore the interrupted status, and as with lock(MultiLock, LockMode) do not abandon the acquisition
+            Thread.currentThread().interrupt();
+            lock(lock, lockMode);
+        }
+        return null;
+    }
+
+    /**
+     * Attempts to lock a lock object within a timeout.
+     *
+     * @param lock the lock object to lock.
+     * @param lockMode the mode of the {@code lock} to acquire.
+     * @param timeout the maximum time to wait for the lock in milliseconds.
+     *
+     * @return true, if we were able to lock with the mode.
+     *
+     * @throws InterruptedException if the current thread is interrupted whilst waiting
+     */
+    private static boolean tryLock(final MultiLock lock, final Lock.LockMode lockMode, final long timeout) throws InterruptedException {
+        switch (lockMode) {
+            case INTENTION_READ:
+                return lock.tryIntentionReadLock(timeout, TimeUnit.MILLISECONDS);
+
+            case INTENTION_WRITE:
+                return lock.tryIntentionWriteLock(timeout, TimeUnit.MILLISECONDS);
+
+            case READ_LOCK:
+                return lock.tryReadLock(timeout, TimeUnit.MILLISECONDS);
+
+            case WRITE_LOCK:
+                return lock.tryWriteLock(timeout, TimeUnit.MILLISECONDS);
+
+            case NO_LOCK:
+                return true;
+
+            default:
+                throw new IllegalArgumentException("Unknown lock mode: " + lockMode);
+        }
+    }
+
     /**
      * Locks a lock object.
      *
@@ -292,13 +467,34 @@ public class LockManager {
                 lock.writeLock();
                 break;
 
+            case NO_LOCK:
+                break;
+
             default:
-                throw new UnsupportedOperationException(); // TODO(AR) implement the other modes
+                throw new IllegalArgumentException("Unknown lock mode: " + lockMode);
         }
 
         return true;  //TODO(AR) switch to lock interruptibly above!
     }
 
+    /**
+     * Creates an exception to abort a lock attempt
+     * which would otherwise deadlock.
+     *
+     * @param lockType the type of the lock being attempted
+     * @param lockMode the mode of the lock being attempted
+     * @param id the id of the lock being attempted
+     * @param deadlockCycle the names of the threads in the wait-for cycle
+     *
+     * @return the exception
+     */
+    private static DeadlockException deadlockException(final LockType lockType, final Lock.LockMode lockMode,
+            final String id, final List<String> deadlockCycle) {
+        final String cycle = String.join(" -> ", deadlockCycle);
+        LOG.warn("Deadlock detected whilst attempting to acquire {} {} for: {}, wait-for cycle: {}", lockType, lockMode, id, cycle);
+        return new DeadlockException("Deadlock detected whilst attempting to acquire " + lockType + " " + lockMode + " for: " + id + ", wait-for cycle: " + cycle);
+    }
+
     /**
      * Releases an array of locked locks for the modes with which they were locked
      *
@@ -309,6 +505,10 @@ public class LockManager {
     static void unlockAll(final LockedPath[] locked, final Consumer<LockedPath> unlockListener) {
         for (int i = locked.length - 1; i >= 0; i--) {
             final LockedPath lock = locked[i];
+            if (lock == null) {
+                // not yet locked, i.e. acquisition was abandoned part way down the path
+                continue;
+            }
             unlock(lock.lock, lock.mode);
             unlockListener.accept(lock);
         }
@@ -338,8 +538,11 @@ public class LockManager {
                 lock.unlockWrite();
                 break;
 
+            case NO_LOCK:
+                break;
+
             default:
-                throw new UnsupportedOperationException(); // TODO(AR) implement the other modes
+                throw new IllegalArgumentException("Unknown lock mode: " + lockMode);
         }
     }
 
@@ -422,7 +625,8 @@ public class LockManager {
             }
 
             lockTable.attempt(groupId, pathStr, lockType, lockMode);
-            if (lock(lock, lockMode)) {
+            final List<String> deadlockCycle = lock(lock, lockMode, lockType, pathStr);
+            if (deadlockCycle == null) {
                 locked[i] = new LockedPath(lock, lockMode, pathStr);
                 lockTable.acquired(groupId, pathStr, lockType, lockMode);
             } else {
@@ -430,7 +634,7 @@ public class LockManager {
 
                 unlockAll(locked, l -> lockTable.released(groupId, l.path, lockType, l.mode));
 
-                throw new LockException("Unable to acquire " + lockType + " " + lockMode + " for: " + pathStr);
+                throw deadlockException(lockType, lockMode, pathStr, deadlockCycle);
             }
         }
 
@@ -496,13 +700,13 @@ public class LockManager {
 
             final MultiLock lock = getDocumentLock(path);
             lockTable.attempt(groupId, path, LockType.DOCUMENT, Lock.LockMode.READ_LOCK);
-
-            if (lock(lock, Lock.LockMode.READ_LOCK)) {
+            final List<String> deadlockCycle = lock(lock, Lock.LockMode.READ_LOCK, LockType.DOCUMENT, path);
+            if (deadlockCycle == null) {
 
                 lockTable.acquired(groupId, path, LockType.DOCUMENT, Lock.LockMode.READ_LOCK);
             } else {
                 lockTable.attemptFailed(groupId, path, LockType.DOCUMENT, Lock.LockMode.READ_LOCK);
-                throw new LockException("Unable to acquire READ_LOCK for: " + path);
+                throw deadlockException(LockType.DOCUMENT, Lock.LockMode.READ_LOCK, path, deadlockCycle);
             }
 
             return new ManagedSingleLockDocumentLock(documentPath, groupId, lock, Lock.LockMode.READ_LOCK, lockTable);
@@ -528,12 +732,12 @@ public class LockManager {
 
             final MultiLock lock = getDocumentLock(path);
             lockTable.attempt(groupId, path, LockType.DOCUMENT, Lock.LockMode.WRITE_LOCK);
-
-            if (lock(lock, Lock.LockMode.WRITE_LOCK)) {
+            final List<String> deadlockCycle = lock(lock, Lock.LockMode.WRITE_LOCK, LockType.DOCUMENT, path);
+            if (deadlockCycle == null) {
                 lockTable.acquired(groupId, path, LockType.DOCUMENT, Lock.LockMode.WRITE_LOCK);
             } else {
                 lockTable.attemptFailed(groupId, path, LockType.DOCUMENT, Lock.LockMode.WRITE_LOCK);
-                throw new LockException("Unable to acquire WRITE_LOCK for: " + path);
+                throw deadlockException(LockType.DOCUMENT, Lock.LockMode.WRITE_LOCK, path, deadlockCycle);
             }
 
             return new ManagedSingleLockDocumentLock(documentPath, groupId, lock, Lock.LockMode.WRITE_LOCK, lockTable);
@@ -589,6 +793,12 @@ public class LockManager {
      * it will return a WRITE_LOCK. That is to say that to aid dealock-avoidance,
      * this function may return a stricter locking mode than the {@code desiredCollectionLockMode}.
      *
+     * If in addition the path Hierarchy is Multi-Writer/Multi-Reader, then
+     * a READ_LOCK'ed Collection is only needed to reach its Documents, so an
+     * intention lock is returned instead, i.e. INTENTION_READ for a Document READ_LOCK
+     * and INTENTION_WRITE for a Document WRITE_LOCK. This allows concurrent writers
+     * of sibling Documents within the same Collection.
+     *
      * When Path Locks are disabled (the default) for Documents, Collection and Documents
      * have independent locking domains. In this case this function will always return
      * the {@code desiredCollectionLockMode}.
@@ -603,6 +813,17 @@ public class LockManager {
         if (!usePathLocksForDocuments) {
             return desiredCollectionLockMode;
 
+        } else if (pathsMultiWriter && desiredCollectionLockMode == Lock.LockMode.READ_LOCK) {
+            switch (documentLockMode) {
+                case NO_LOCK:
+                case INTENTION_READ:
+                case READ_LOCK:
+                    return Lock.LockMode.INTENTION_READ;
+
+                default:
+                    return Lock.LockMode.INTENTION_WRITE;
+            }
+
         } else {
             switch (documentLockMode) {
                 case NO_LOCK:
@@ -616,6 +837,65 @@ public class LockManager {
         }
     }
 
+    /**
+     * Returns the LockMode that should be used for a Collection whose
+     * Documents are enumerated and then locked whilst the Collection
+     * is still held, e.g. to protect all of the Documents of the Collection.
+     *
+     * This is the same as {@link #relativeCollectionLockMode(Lock.LockMode, Lock.LockMode)}
+     * for a READ_LOCK'ed Collection, except that an intention lock is never returned:
+     * an intention lock does not stop other threads from adding or removing Documents
+     * of the Collection whilst they are enumerated. Instead a READ_LOCK is returned for
+     * Document READ_LOCKs, and a WRITE_LOCK for Document WRITE_LOCKs, as the latter need an
+     * INTENTION_WRITE lock on the Collection which a READ_LOCK would not allow.
+     *
+     * @param documentLockMode The lock mode that will be used for the Documents of the Collection.
+     *
+     * @return The lock mode that should be used for enumerating the Collection.
+     */
+    public Lock.LockMode enumeratedCollectionLockMode(final Lock.LockMode documentLockMode) {
+        final Lock.LockMode collectionLockMode = relativeCollectionLockMode(Lock.LockMode.READ_LOCK, documentLockMode);
+        switch (collectionLockMode) {
+            case INTENTION_READ:
+                return Lock.LockMode.READ_LOCK;
+
+            case INTENTION_WRITE:
+                return Lock.LockMode.WRITE_LOCK;
+
+            default:
+                return collectionLockMode;
+        }
+    }
+
+    /**
+     * Acquires a lock on a Collection in the specified mode.
+     *
+     * @param collectionPath The path of the Collection for which a lock is requested.
+     * @param lockMode The mode of the lock to acquire.
+     *
+     * @return The lock on the Collection.
+     * @throws LockException if a lock error occurs
+     */
+    public ManagedCollectionLock acquireCollectionLock(final XmldbURI collectionPath, final Lock.LockMode lockMode) throws LockException {
+        switch (lockMode) {
+            case WRITE_LOCK:
+                return acquireCollectionWriteLock(collectionPath);
+
+            case READ_LOCK:
+                return acquireCollectionReadLock(collectionPath);
+
+            case INTENTION_WRITE:
+                return acquireCollectionIntentionWriteLock(collectionPath);
+
+            case INTENTION_READ:
+                return acquireCollectionIntentionReadLock(collectionPath);
+
+            case NO_LOCK:
+            default:
+                return ManagedCollectionLock.notLocked(collectionPath);
+        }
+    }
+
     /**
      * Retrieves a lock for a {@link org.exist.storage.dom.DOMFile}
      *
@@ -68,6 +68,7 @@ public class LockTable {
     // org.exist.util.Configuration properties
     public static final String CONFIGURATION_DISABLED = "lock-table.disabled";
     public static final String CONFIGURATION_TRACE_STACK_DEPTH = "lock-table.trace-stack-depth";
+    public static final String CONFIGURATION_DEADLOCK_DETECTION = "lock-table.deadlock-detection";
 
     //TODO(AR) remove eventually!
     // legacy properties for overriding the config
@@ -88,6 +89,12 @@ public class LockTable {
      */
     private int traceStackDepth;
 
+    /**
+     * Set to true to enable detecting deadlocks
+     * from the wait-for graph, see {@link #detectDeadlock(String, LockType, LockMode)}.
+     */
+    private final boolean deadlockDetection;
+
     /**
      * Lock event listeners
      */
@@ -108,6 +115,7 @@ public class LockTable {
     LockTable(final Configuration configuration) {
         this.disableEvents = LockManager.getLegacySystemPropertyOrConfigPropertyBool(PROP_DISABLE, configuration, CONFIGURATION_DISABLED, false);
         this.traceStackDepth = LockManager.getLegacySystemPropertyOrConfigPropertyInt(PROP_TRACE_STACK_DEPTH, configuration, CONFIGURATION_TRACE_STACK_DEPTH, 0);
+        this.deadlockDetection = LockManager.getConfigPropertyBool(configuration, CONFIGURATION_DEADLOCK_DETECTION, false);
 
         // add a log listener if trace level logging is enabled
         if(LOG.isTraceEnabled()) {
@@ -149,6 +157,170 @@ public class LockTable {
         event(Released, groupId, id, lockType, mode);
     }
 
+    /**
+     * Determines whether deadlocks are detected for a type of lock,
+     * see {@link #detectDeadlock(String, LockType, LockMode)}.
+     *
+     * @param lockType the type of lock
+     *
+     * @return true if deadlocks on the type of lock are detected
+     */
+    public boolean isDeadlockDetectionEnabled(final LockType lockType) {
+        return !disableEvents && deadlockDetection && isHierarchicalLockType(lockType);
+    }
+
+    /**
+     * Determines whether the current thread, which has
+     * reported an {@link #attempt(long, String, LockType, LockMode)}
+     * for a lock but has not yet been able to acquire it,
+     * is deadlocked and should abandon its attempt.
+     *
+     * The wait-for graph is derived from the lock table: a thread waits for
+     * every other thread which holds the lock it is attempting in an
+     * incompatible mode. If, by following the threads that those holders
+     * are themselves attempting to lock, we arrive back at the current thread,
+     * then there is a cycle and waiting would deadlock.
+     *
+     * Exactly one thread of a cycle should abandon its attempt and release its locks,
+     * the victim is the thread of the cycle whose attempt started most recently. For any
+     * other thread of the cycle null is returned, it should continue waiting and check
+     * again later, by which time the victim will have checked and abandoned its attempt.
+     *
+     * Only Collection and Document locks are considered, and detection is
+     * not available if lock events are disabled.
+     *
+     * @param id the id of the lock being attempted
+     * @param lockType the type of the lock being attempted
+     * @param lockMode the mode of the lock being attempted
+     *
+     * @return the names of the threads forming the cycle starting with the current thread,
+     *     or null if there is no deadlock or the current thread is not its victim
+     */
+    @Nullable
+    public List<String> detectDeadlock(final String id, final LockType lockType, final LockMode lockMode) {
+        if (!isDeadlockDetectionEnabled(lockType)) {
+            return null;
+        }
+
+        final Thread currentThread = Thread.currentThread();
+        final Deque<Thread> cycle = new ArrayDeque<>();
+        cycle.add(currentThread);
+        if (!waitsFor(currentThread, id, lockMode, currentThread, cycle, new HashSet<>())) {
+            return null;
+        }
+
+        // choose the thread with the most recent attempt as the victim
+        Thread victim = currentThread;
+        long victimAttempted = Long.MIN_VALUE;
+        for (final Thread thread : cycle) {
+            final Entry attempt = attempting.get(thread);
+            if (attempt == null) {
+                continue;
+            }
+
+            // read count (volatile) first to ensure visibility
+            final int localCount = attempt.count;
+            if (localCount > 0 && attempt.timestamp - victimAttempted > 0) {
+                victim = thread;
+                victimAttempted = attempt.timestamp;
+            }
+        }
+        if (victim != currentThread) {
+            return null;
+        }
+
+        final List<String> cycleNames = new ArrayList<>(cycle.size());
+        for (final Thread thread : cycle) {
+            cycleNames.add(thread.getName());
+        }
+        return cycleNames;
+    }
+
+    /**
+     * Depth-first search of the wait-for graph.
+     *
+     * @param waiter the thread which is waiting
+     * @param id the id of the lock that the {@code waiter} is waiting for
+     * @param lockMode the mode of the lock that the {@code waiter} is waiting for
+     * @param target the thread which we are searching for
+     * @param path the threads visited on the path to the {@code waiter}
+     * @param visited all threads that have been visited
+     *
+     * @return true if the {@code waiter} transitively waits for the {@code target}
+     */
+    private boolean waitsFor(final Thread waiter, final String id, final LockMode lockMode, final Thread target,
+            final Deque<Thread> path, final Set<Thread> visited) {
+        for (final Map.Entry<Thread, Entries> holder : acquired.entrySet()) {
+            final Thread holderThread = holder.getKey();
+            if (holderThread == waiter || !holder.getValue().holdsIncompatible(id, lockMode)) {
+                continue;
+            }
+
+            if (holderThread == target) {
+                path.addLast(target);
+                return true;
+            }
+
+            if (!visited.add(holderThread)) {
+                continue;
+            }
+
+            final Entry holderAttempt = attempting.get(holderThread);
+            if (holderAttempt == null) {
+                continue;
+            }
+
+            // read count (volatile) first to ensure visibility
+            final int localCount = holderAttempt.count;
+            if (localCount == 0 || !isHierarchicalLockType(holderAttempt.lockType)) {
+                // the holder is not waiting for a lock
+                continue;
+            }
+
+            path.addLast(holderThread);
+            if (waitsFor(holderThread, holderAttempt.id, holderAttempt.lockMode, target, path, visited)) {
+                return true;
+            }
+            path.removeLast();
+        }
+
+        return false;
+    }
+
+    private static boolean isHierarchicalLockType(final LockType lockType) {
+        return lockType == LockType.COLLECTION || lockType == LockType.DOCUMENT;
+    }
+
+    /**
+     * Determines if two lock modes are compatible, as per the compatibility matrix
+     * for hierarchical locks from Gray, Lorie and Putzolu 1975.
+     *
+     * @param heldMode the mode in which a lock is held
+     * @param requestedMode the mode in which the lock is requested
+     *
+     * @return true if the lock may be held in both modes at the same time by different threads
+     */
+    static boolean isCompatible(final LockMode heldMode, final LockMode requestedMode) {
+        if (heldMode == LockMode.NO_LOCK || requestedMode == LockMode.NO_LOCK) {
+            return true;
+        }
+
+        switch (heldMode) {
+            case INTENTION_READ:
+                return requestedMode != LockMode.WRITE_LOCK;
+
+            case INTENTION_WRITE:
+                return requestedMode == LockMode.INTENTION_READ || requestedMode == LockMode.INTENTION_WRITE;
+
+            case READ_LOCK:
+                return requestedMode == LockMode.INTENTION_READ || requestedMode == LockMode.READ_LOCK;
+
+            case WRITE_LOCK:
+            default:
+                return false;
+        }
+    }
+
     private void event(final LockEventType lockEventType, final long groupId, final String id, final LockType lockType, final LockMode lockMode) {
         if(disableEvents) {
             return;
@@ -182,6 +354,7 @@ public class LockTable {
                 entry.lockType = lockType;
                 entry.lockMode = lockMode;
                 entry.owner = currentThread.getName();
+                entry.timestamp = timestamp;
                 if(traceStackDepth == 0) {
                     entry.stackTraces = null;
                 } else {
@@ -423,6 +596,37 @@ public class LockTable {
             return null;
         }
 
+        /**
+         * Determines if any lock is held on the {@code id}
+         * in a mode which is incompatible with the {@code requestedMode}.
+         *
+         * NOTE: When Documents use path locks, Collection and Document
+         * locks share the same lock objects, so both types are checked.
+         *
+         * @param id the id of the lock
+         * @param requestedMode the mode in which the lock is requested
+         *
+         * @return true if an incompatible lock is held
+         */
+        public boolean holdsIncompatible(final String id, final LockMode requestedMode) {
+            final long stamp = entriesLock.readLock();
+            try {
+                for (final Entry entry : entries) {
+                    // read count (volatile) first to ensure visibility
+                    final int localCount = entry.count;
+                    if (localCount > 0
+                            && isHierarchicalLockType(entry.lockType)
+                            && !isCompatible(entry.lockMode, requestedMode)
+                            && entry.id.equals(id)) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                entriesLock.unlockRead(stamp);
+            }
+        }
+
         public void forEach(final Consumer<Entry> entryConsumer) {
             final long stamp = entriesLock.readLock();
             try {
@@ -772,6 +976,11 @@ public class LockTable {
         LockMode lockMode;
         String owner;
 
+        /**
+         * The {@link System#nanoTime()} of the attempt, only set for attempting entries.
+         */
+        long timestamp;
+
         @Nullable List<StackTraceElement[]> stackTraces;
 
         /**
@@ -805,6 +1014,7 @@ public class LockTable {
             this.lockType = other.lockType;
             this.lockMode = other.lockMode;
             this.owner = other.owner;
+            this.timestamp = other.timestamp;
             if (other.stackTraces != null) {
                 this.stackTraces = (ArrayList)((ArrayList)other.stackTraces).clone();
             } else {
@@ -24,8 +24,12 @@ package org.exist.storage.lock;
 import net.jcip.annotations.NotThreadSafe;
 import org.exist.collections.Collection;
 import org.exist.dom.persistent.*;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.DBBroker;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +37,15 @@ import java.util.Map;
 /**
  * This map is used by the XQuery engine to track how many read locks were
  * acquired for a document during query execution.
+ *
+ * When constructed in snapshot mode, the map does not retain the locks
+ * of the documents which are added to it. Instead each document lock is released
+ * as soon as the document has been recorded together with a version stamp, its
+ * {@link DocumentImpl#getModificationCount() modification count}. A query may then
+ * run against the documents without blocking writers, and afterwards
+ * {@link #isSnapshotValid(DBBroker)} can be used to determine whether any of the
+ * documents were modified, replaced, or removed in the meantime, in which case the
+ * query should be re-run.
  */
 @NotThreadSafe
 public class LockedDocumentMap {
@@ -42,7 +55,40 @@ public class LockedDocumentMap {
 
     private final Map<Integer, List<LockedDocument>> map = new LinkedHashMap<>(DEFAULT_SIZE, DEFAULT_GROWTH);
 
+    private final boolean snapshot;
+    private final Map<Integer, Long> snapshotVersions;
+
+    public LockedDocumentMap() {
+        this(false);
+    }
+
+    /**
+     * @param snapshot true if the map should operate in snapshot mode,
+     *     i.e. release document locks immediately and record document versions instead.
+     */
+    public LockedDocumentMap(final boolean snapshot) {
+        this.snapshot = snapshot;
+        this.snapshotVersions = snapshot ? new HashMap<>(DEFAULT_SIZE, DEFAULT_GROWTH) : null;
+    }
+
+    /**
+     * Returns true if this map operates in snapshot mode.
+     *
+     * @return true if this is a snapshot
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
     public void add(final LockedDocument lockedDocument) {
+        if (snapshot) {
+            final DocumentImpl doc = lockedDocument.getDocument();
+            snapshotVersions.putIfAbsent(doc.getDocId(), doc.getModificationCount());
+
+            // NOTE: the version has been recorded whilst the lock was held, so we can release it straight away
+            lockedDocument.close();
+        }
+
         map.compute(lockedDocument.getDocument().getDocId(), (k, v) -> {
             if(v == null) {
                 v = new ArrayList<>();
@@ -112,11 +158,72 @@ public class LockedDocumentMap {
         // cleanup
         for(final int docIdToRemove : docIdsToRemove) {
             map.remove(docIdToRemove);
+            if (snapshot) {
+                snapshotVersions.remove(docIdToRemove);
+            }
         }
 
         return this;
     }
 
+    /**
+     * Determines whether the documents recorded in this snapshot are
+     * still unchanged, i.e. none have been modified, replaced, or removed
+     * since they were added.
+     *
+     * If this map is not in snapshot mode then the documents are
+     * protected by their locks, and so the snapshot is always valid.
+     *
+     * @param broker the database broker
+     *
+     * @return true if the documents are unchanged
+     */
+    public boolean isSnapshotValid(final DBBroker broker) {
+        if (!snapshot) {
+            return true;
+        }
+
+        for (final List<LockedDocument> documentLocks : map.values()) {
+            final DocumentImpl doc = documentLocks.get(0).getDocument();
+
+            final Long modificationCount = snapshotVersions.get(doc.getDocId());
+            if (modificationCount == null || modificationCount != doc.getModificationCount()) {
+                return false;
+            }
+
+            // has the document been replaced or removed?
+            final Collection collection = doc.getCollection();
+            if (collection == null) {
+                return false;
+            }
+            try {
+                if (collection.getDocumentNoLock(broker, doc.getFileURI().lastSegmentString()) != doc) {
+                    return false;
+                }
+            } catch (final PermissionDeniedException e) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks that the documents recorded in this snapshot are still unchanged,
+     * see {@link #isSnapshotValid(DBBroker)}.
+     *
+     * @param broker the database broker
+     * @param cause the error of the query executed against the snapshot, if any,
+     *     which is likely to have been caused by a concurrent update if the snapshot is invalid
+     *
+     * @throws SnapshotInvalidatedException if any of the documents were modified, replaced, or removed
+     */
+    public void checkSnapshot(final DBBroker broker, @Nullable final Throwable cause) throws SnapshotInvalidatedException {
+        if (!isSnapshotValid(broker)) {
+            throw new SnapshotInvalidatedException("Snapshot of " + size() + " documents was invalidated by a concurrent update", cause);
+        }
+    }
+
     public boolean containsKey(final int docId) {
         return map.containsKey(docId);
     }
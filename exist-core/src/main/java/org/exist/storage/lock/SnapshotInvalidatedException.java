@@ -0,0 +1,40 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.lock;
+
+/**
+ * Thrown when the documents of a {@link LockedDocumentMap} snapshot were modified,
+ * replaced, or removed whilst a query was executing against them, i.e. the
+ * result of the query may be inconsistent and the query should be re-executed.
+ */
+public class SnapshotInvalidatedException extends Exception {
+
+    private static final long serialVersionUID = 6196347105532478201L;
+
+    public SnapshotInvalidatedException(final String message) {
+        super(message);
+    }
+
+    public SnapshotInvalidatedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -36,15 +36,20 @@ import org.exist.dom.persistent.ProcessingInstructionImpl;
 import org.exist.dom.persistent.TextImpl;
 import org.exist.dom.persistent.XMLDeclarationImpl;
 import org.exist.numbering.NodeId;
+import org.exist.stax.IEmbeddedXMLStreamReader;
 import org.exist.storage.DBBroker;
+import org.exist.storage.btree.Value;
 import org.exist.util.Configuration;
 import org.exist.util.serializer.AttrList;
+import org.exist.util.serializer.SAXSerializer;
 import org.exist.xquery.value.Type;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -53,7 +58,10 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.exist.storage.dom.INodeIterator;
 
+import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Serializer implementation for the native database backend.
@@ -117,19 +125,7 @@ public class NativeSerializer extends Serializer {
             documentStarted = true;
         }
 
-        if (doc.getXmlDeclaration() != null){
-            if ("no".equals(getProperty(EXistOutputKeys.OMIT_ORIGINAL_XML_DECLARATION, "no"))) {
-                final XMLDeclarationImpl xmlDecl = doc.getXmlDeclaration();
-                receiver.declaration(xmlDecl.getVersion(), xmlDecl.getEncoding(), xmlDecl.getStandalone());
-            }
-        }
-
-        if (doc.getDoctype() != null) {
-            if ("yes".equals(getProperty(EXistOutputKeys.OUTPUT_DOCTYPE, "no"))) {
-                final DocumentTypeImpl docType = (DocumentTypeImpl)doc.getDoctype();
-                serializeToReceiver(docType, null, docType.getOwnerDocument(), true, null, new TreeSet<>());
-            }
-        }
+        serializeProlog(doc);
 
         // iterate through children
         for (int i = 0; i < children.getLength(); i++) {
@@ -153,6 +149,178 @@ public class NativeSerializer extends Serializer {
     }
     
     
+    @Override
+    protected void serializeToUTF8(final DocumentImpl doc, final SAXSerializer sax, final boolean generateDocEvent) throws SAXException {
+        final long start = System.currentTimeMillis();
+
+        setDocument(doc);
+        final NodeList children = doc.getChildNodes();
+        if (generateDocEvent && !documentStarted) {
+            receiver.startDocument();
+            documentStarted = true;
+        }
+
+        serializeProlog(doc);
+
+        for (int i = 0; i < children.getLength(); i++) {
+            final IStoredNode<?> node = (IStoredNode<?>) children.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                serializeToUTF8(node, sax);
+            } else {
+                // comments and processing instructions have no text to stream
+                try(final INodeIterator domIter = broker.getNodeIterator(node)) {
+                    domIter.next();
+                    serializeToReceiver(node, domIter, doc, true, null, new TreeSet<>());
+                } catch(final IOException ioe) {
+                    LOG.warn("Unable to close node iterator", ioe);
+                }
+            }
+        }
+
+        if (generateDocEvent) {receiver.endDocument();}
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("streaming document {} ({}) as UTF-8 took {} msec", doc.getDocId(), doc.getURI(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Stream a top-level element from the raw node records. Namespace declarations are
+     * reported exactly as in {@link #serializeToReceiver(IStoredNode, INodeIterator, DocumentImpl, boolean, Match, Set)},
+     * but the text of text nodes is handed to the SAXSerializer as UTF-8 bytes. Inside
+     * XInclude elements text goes through the receivers, as the XInclude filter may
+     * have to drop it.
+     */
+    private void serializeToUTF8(final IStoredNode<?> root, final SAXSerializer sax) throws SAXException {
+        final Set<String> namespaces = new TreeSet<>();
+        final Deque<ElementFrame> stack = new ArrayDeque<>();
+        int xincludeDepth = 0;
+        IEmbeddedXMLStreamReader reader = null;
+        try {
+            reader = broker.newXMLStreamReader(root, false);
+            do {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        final QName qname = reader.getQName();
+                        final ElementFrame frame = new ElementFrame(qname);
+                        String defaultNS = null;
+                        final int nsCount = reader.getNamespaceCount();
+                        if (nsCount > 0) {
+                            frame.prefixes = new String[nsCount];
+                            for (int j = 0; j < nsCount; j++) {
+                                final String prefix = reader.getNamespacePrefix(j);
+                                final String uri = reader.getNamespaceURI(j);
+                                if (prefix.isEmpty()) {
+                                    defaultNS = uri;
+                                }
+                                receiver.startPrefixMapping(prefix, uri);
+                                namespaces.add(uri);
+                                frame.prefixes[j] = prefix;
+                            }
+                        }
+                        final String ns = defaultNS == null ? qname.getNamespaceURI() : defaultNS;
+                        if (ns != null && ns.length() > 0 && (!namespaces.contains(ns))) {
+                            frame.elementPrefix = qname.getPrefix() == null ? XMLConstants.DEFAULT_NS_PREFIX : qname.getPrefix();
+                            receiver.startPrefixMapping(frame.elementPrefix, ns);
+                        }
+                        final AttrList attribs = new AttrList();
+                        final int attrCount = reader.getAttributeCount();
+                        for (int j = 0; j < attrCount; j++) {
+                            attribs.addAttribute(reader.getAttributeQName(j), reader.getAttributeValue(j));
+                        }
+                        if (Namespaces.XINCLUDE_NS.equals(qname.getNamespaceURI())) {
+                            xincludeDepth++;
+                        }
+                        receiver.startElement(qname, attribs);
+                        stack.push(frame);
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        final ElementFrame closed = stack.pop();
+                        receiver.endElement(closed.qname);
+                        if (Namespaces.XINCLUDE_NS.equals(closed.qname.getNamespaceURI())) {
+                            xincludeDepth--;
+                        }
+                        if (closed.prefixes != null) {
+                            for (final String prefix : closed.prefixes) {
+                                receiver.endPrefixMapping(prefix);
+                            }
+                        }
+                        if (closed.elementPrefix != null) {
+                            receiver.endPrefixMapping(closed.elementPrefix);
+                        }
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                        if (xincludeDepth == 0) {
+                            final Value text = reader.getUTF8Text();
+                            sax.utf8Characters(text.data(), text.start(), text.getLength());
+                        } else {
+                            receiver.characters(reader.getXMLText());
+                        }
+                        break;
+
+                    case XMLStreamConstants.CDATA:
+                        final char[] cdata = reader.getXMLText().toString().toCharArray();
+                        receiver.cdataSection(cdata, 0, cdata.length);
+                        break;
+
+                    case XMLStreamConstants.COMMENT:
+                        final char[] comment = reader.getXMLText().toString().toCharArray();
+                        receiver.comment(comment, 0, comment.length);
+                        break;
+
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        receiver.processingInstruction(reader.getPITarget(), reader.getPIData());
+                        break;
+
+                    default:
+                        break;
+                }
+            } while (!stack.isEmpty());
+        } catch (final IOException | XMLStreamException e) {
+            throw new SAXException(e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    LOG.warn("Unable to close stream reader", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * An open element while streaming: its name and the prefixes
+     * which have to be unmapped when it is closed.
+     */
+    private static final class ElementFrame {
+        private final QName qname;
+        @Nullable private String[] prefixes = null;
+        @Nullable private String elementPrefix = null;
+
+        private ElementFrame(final QName qname) {
+            this.qname = qname;
+        }
+    }
+
+    private void serializeProlog(final DocumentImpl doc) throws SAXException {
+        if (doc.getXmlDeclaration() != null){
+            if ("no".equals(getProperty(EXistOutputKeys.OMIT_ORIGINAL_XML_DECLARATION, "no"))) {
+                final XMLDeclarationImpl xmlDecl = doc.getXmlDeclaration();
+                receiver.declaration(xmlDecl.getVersion(), xmlDecl.getEncoding(), xmlDecl.getStandalone());
+            }
+        }
+
+        if (doc.getDoctype() != null) {
+            if ("yes".equals(getProperty(EXistOutputKeys.OUTPUT_DOCTYPE, "no"))) {
+                final DocumentTypeImpl docType = (DocumentTypeImpl)doc.getDoctype();
+                serializeToReceiver(docType, null, docType.getOwnerDocument(), true, null, new TreeSet<>());
+            }
+        }
+    }
+
     protected void serializeToReceiver(IStoredNode node, INodeIterator iter,
             DocumentImpl doc, boolean first, Match match, Set<String> namespaces) throws SAXException {
         if (node == null && iter.hasNext()) {
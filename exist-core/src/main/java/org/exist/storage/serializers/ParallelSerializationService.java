@@ -0,0 +1,102 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.serializers;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.BrokerPoolServiceException;
+import org.exist.util.Configuration;
+import org.exist.util.NamedThreadFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Thread pool on which the {@link Serializer} prepares the items of
+ * multi-item results ahead of writing them, see
+ * {@link Serializer#toSAX(org.exist.xquery.value.Sequence, int, int, boolean, boolean, long, long)}.
+ *
+ * Disabled unless the {@code parallel-threads} attribute of the
+ * serializer element in conf.xml is set to a positive number.
+ */
+@ThreadSafe
+public class ParallelSerializationService implements BrokerPoolService {
+    private final static Logger LOG = LogManager.getLogger(ParallelSerializationService.class);
+
+    public static final String THREADS_ATTRIBUTE = "parallel-threads";
+    public static final String PROPERTY_THREADS = "serialization.parallel-threads";
+
+    private int threads = 0;
+    private @Nullable ExecutorService executorService;
+
+    @Override
+    public void configure(final Configuration configuration) throws BrokerPoolServiceException {
+        this.threads = Math.max(configuration.getInteger(PROPERTY_THREADS), 0);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Parallel serialization will use {} threads.", threads);
+        }
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) throws BrokerPoolServiceException {
+        if (threads > 0) {
+            this.executorService = Executors.newFixedThreadPool(threads, new NamedThreadFactory(brokerPool, "parallel-serializer"));
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns true if worker threads were configured.
+     *
+     * @return true if items may be serialized in parallel
+     */
+    public boolean isEnabled() {
+        return executorService != null;
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return the number of threads, or 0 if disabled
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    <T> Future<T> submit(final Callable<T> task) {
+        return executorService.submit(task);
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.serializers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.CollectionCache;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.BrokerPoolServiceException;
+import org.exist.util.Configuration;
+
+import javax.annotation.Nullable;
+
+/**
+ * Global cache for the serialized form of stored XML documents.
+ *
+ * Entries are keyed by document id and hold one variant per combination
+ * of encoding, media type and output properties. Each variant records the
+ * last-modified time of the document it was produced from, so a variant
+ * is only served while the document is unchanged. On top of that
+ * {@link SerializedDocumentCacheTrigger} drops all variants of a document
+ * as soon as it is updated, moved or removed.
+ *
+ * The cache is disabled unless a size is configured with the
+ * {@code document-cache-size} attribute of the serializer element in
+ * conf.xml. Variants larger than a quarter of the cache are never stored.
+ */
+@ThreadSafe
+public class SerializedDocumentCache implements BrokerPoolService {
+    private final static Logger LOG = LogManager.getLogger(SerializedDocumentCache.class);
+
+    public static final String CACHE_SIZE_ATTRIBUTE = "document-cache-size";
+    public static final String PROPERTY_CACHE_SIZE_BYTES = "serialization.document-cache-size";
+
+    private int maxCacheSize = 0;
+    private @Nullable Cache<Integer, Variants> cache;
+    private StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    @Override
+    public void configure(final Configuration configuration) throws BrokerPoolServiceException {
+        this.maxCacheSize = Math.max(configuration.getInteger(PROPERTY_CACHE_SIZE_BYTES), 0);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("SerializedDocumentCache will use {} bytes max.", this.maxCacheSize);
+        }
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) throws BrokerPoolServiceException {
+        if (maxCacheSize == 0) {
+            return;
+        }
+
+        final Weigher<Integer, Variants> variantsWeigher = (docId, variants) -> variants.size;
+        this.statsCounter = new ConcurrentStatsCounter();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxCacheSize)
+                .weigher(variantsWeigher)
+                .recordStats(() -> statsCounter)
+                .build();
+        brokerPool.registerDocumentTrigger(SerializedDocumentCacheTrigger.class);
+    }
+
+    /**
+     * Returns true if a cache size was configured.
+     *
+     * @return true if the cache is in use
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the maximum size of the cache in bytes
+     *
+     * @return maximum size of the cache in bytes, or 0 if the cache is disabled
+     */
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Get a Snapshot of the Cache Statistics
+     *
+     * @return The cache statistics
+     */
+    public CollectionCache.Statistics getStatistics() {
+        final CacheStats cacheStats = statsCounter.snapshot();
+        return new CollectionCache.Statistics(
+                cacheStats.hitCount(),
+                cacheStats.missCount(),
+                cacheStats.loadSuccessCount(),
+                cacheStats.loadFailureCount(),
+                cacheStats.totalLoadTime(),
+                cacheStats.evictionCount(),
+                cacheStats.evictionWeight()
+        );
+    }
+
+    /**
+     * Builds the key which identifies a serialization variant of a document.
+     *
+     * @param encoding the character encoding of the output
+     * @param mediaType the media type requested by the client, or null
+     * @param outputProperties the serialization parameters
+     *
+     * @return the variant key
+     */
+    public static String variant(final String encoding, @Nullable final String mediaType, final Properties outputProperties) {
+        final StringBuilder builder = new StringBuilder(encoding).append('\n');
+        if (mediaType != null) {
+            builder.append(mediaType);
+        }
+        for (final String name : new TreeSet<>(outputProperties.stringPropertyNames())) {
+            builder.append('\n').append(name).append('=').append(outputProperties.getProperty(name));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the cached serialization of the document, or null
+     * if there is none for the current version of the document
+     *
+     * @param document the document
+     * @param variant the variant key, see {@link #variant(String, String, Properties)}
+     *
+     * @return the cached entry or null
+     */
+    public @Nullable Entry get(final DocumentImpl document, final String variant) {
+        if (cache == null) {
+            return null;
+        }
+
+        final Variants variants = cache.asMap().get(document.getDocId());
+        final Entry entry = variants == null ? null : variants.entries.get(variant);
+        if (entry != null && entry.lastModified == document.getLastModified()) {
+            statsCounter.recordHits(1);
+            return entry;
+        }
+        statsCounter.recordMisses(1);
+        return null;
+    }
+
+    /**
+     * Stores a serialization of the document
+     *
+     * @param document the document which was serialized
+     * @param variant the variant key, see {@link #variant(String, String, Properties)}
+     * @param contentType the content type sent with the data
+     * @param data the serialized document
+     */
+    public void put(final DocumentImpl document, final String variant, final String contentType, final byte[] data) {
+        if (cache == null || data.length > getMaxEntrySize()) {
+            return;
+        }
+
+        final long lastModified = document.getLastModified();
+        final Entry entry = new Entry(lastModified, contentType, data);
+        cache.asMap().compute(document.getDocId(), (docId, variants) ->
+                variants == null ? new Variants(variant, entry) : variants.with(variant, entry));
+    }
+
+    /**
+     * Wraps the output stream so that everything written to it is also
+     * kept in memory, up to the size of the largest cacheable entry.
+     *
+     * @param os the output stream to wrap
+     *
+     * @return the recording output stream
+     */
+    public Recorder record(final OutputStream os) {
+        return new Recorder(os, getMaxEntrySize());
+    }
+
+    /**
+     * Removes all serializations of a document from the cache
+     *
+     * @param docId the id of the document
+     */
+    public void invalidate(final int docId) {
+        if (cache != null) {
+            cache.invalidate(docId);
+        }
+    }
+
+    /**
+     * Removes all entries from the Cache
+     */
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private int getMaxEntrySize() {
+        return maxCacheSize / 4;
+    }
+
+    /**
+     * A serialized document.
+     */
+    public static final class Entry {
+        private final long lastModified;
+        private final String contentType;
+        private final byte[] data;
+
+        private Entry(final long lastModified, final String contentType, final byte[] data) {
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.data = data;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Returns the serialized document. The array is shared, callers must not modify it.
+         *
+         * @return the serialized bytes
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    /**
+     * Immutable set of the variants cached for one document,
+     * replaced as a whole so that the cache weight stays accurate.
+     */
+    private static final class Variants {
+        private final Map<String, Entry> entries;
+        private final int size;
+
+        private Variants(final String variant, final Entry entry) {
+            this(Collections.singletonMap(variant, entry));
+        }
+
+        private Variants(final Map<String, Entry> entries) {
+            this.entries = entries;
+            int size = 0;
+            for (final Map.Entry<String, Entry> e : entries.entrySet()) {
+                size += e.getKey().length() + e.getValue().contentType.length() + e.getValue().data.length;
+            }
+            this.size = size;
+        }
+
+        private Variants with(final String variant, final Entry entry) {
+            final Map<String, Entry> copy = new HashMap<>(entries);
+            // drop variants produced from an older version of the document
+            copy.values().removeIf(e -> e.lastModified != entry.lastModified);
+            copy.put(variant, entry);
+            return new Variants(copy);
+        }
+    }
+
+    /**
+     * Output stream which passes everything through to the
+     * wrapped stream and keeps a copy of it in memory.
+     */
+    public static final class Recorder extends OutputStream {
+        private final OutputStream os;
+        private final int limit;
+        private @Nullable UnsynchronizedByteArrayOutputStream copy = new UnsynchronizedByteArrayOutputStream();
+
+        private Recorder(final OutputStream os, final int limit) {
+            this.os = os;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            os.write(b);
+            if (copy != null) {
+                if (copy.size() < limit) {
+                    copy.write(b);
+                } else {
+                    copy = null;
+                }
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            os.write(b, off, len);
+            if (copy != null) {
+                if (copy.size() + len <= limit) {
+                    copy.write(b, off, len);
+                } else {
+                    copy = null;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            os.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            os.close();
+        }
+
+        /**
+         * Returns everything written so far.
+         *
+         * @return the recorded bytes, or null if the output exceeded the limit
+         */
+        public @Nullable byte[] getRecorded() {
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
+}
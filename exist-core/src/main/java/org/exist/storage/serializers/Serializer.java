@@ -27,6 +27,9 @@ import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 import javax.xml.transform.OutputKeys;
@@ -60,11 +63,16 @@ import org.exist.numbering.NodeId;
 import org.exist.security.Permission;
 import org.exist.security.PermissionDeniedException;
 import org.exist.security.Subject;
+import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
+import org.exist.storage.lock.LockManager;
+import org.exist.storage.lock.ManagedDocumentLock;
 import org.exist.util.Configuration;
+import org.exist.util.LockException;
 import org.exist.util.MimeType;
 import org.exist.util.serializer.AttrList;
 import org.exist.util.serializer.Receiver;
+import org.exist.util.serializer.ReceiverEventBuffer;
 import org.exist.util.serializer.ReceiverToSAX;
 import org.exist.util.serializer.SAXSerializer;
 import org.exist.util.serializer.SerializerPool;
@@ -913,6 +921,41 @@ public abstract class Serializer implements XMLReader {
         serializeToReceiver(doc, "true".equals(getProperty(GENERATE_DOC_EVENTS, "false")));
     }
 
+    /**
+     * Check if {@link #toUTF8(DocumentImpl, SAXSerializer)} may be used to serialize
+     * the document with the current settings. This is only the case if the text of
+     * the document reaches the writer unchanged, i.e. no stylesheet is applied, no
+     * custom match listeners are configured and no exist:id attributes are added.
+     *
+     * @param doc the document to serialize
+     * @return true if the document can be streamed
+     */
+    public boolean canStreamUTF8(final DocumentImpl doc) {
+        if (templates != null || customMatchListeners.getFirst() != null || showId != EXIST_ID_NONE) {
+            return false;
+        }
+        return !"yes".equals(getProperty(EXistOutputKeys.PROCESS_XSL_PI, "no")) || hasXSLPi(doc) == null;
+    }
+
+    /**
+     * Serialize a stored document to the given SAXSerializer. Text nodes are passed
+     * on as the UTF-8 bytes of their node records, which lets a writer on a
+     * {@link org.exist.util.serializer.UTF8Writer} copy them to the output without
+     * decoding and re-encoding them. Everything else goes through the same receivers
+     * as with {@link #toSAX(DocumentImpl)}, including the XInclude filter.
+     *
+     * Must only be called if {@link #canStreamUTF8(DocumentImpl)} returned true.
+     *
+     * @param doc the document to serialize
+     * @param sax the serializer to write to
+     *
+     * @throws SAXException if an error occurs during serialization
+     */
+    public void toUTF8(final DocumentImpl doc, final SAXSerializer sax) throws SAXException {
+        setReceiver(sax, true);
+        serializeToUTF8(doc, sax, "true".equals(getProperty(GENERATE_DOC_EVENTS, "false")));
+    }
+
     public void toSAX(final NodeValue n) throws SAXException {
         try {
             if (n.getType() == Type.DOCUMENT && !(n instanceof NodeProxy)) {
@@ -983,13 +1026,19 @@ public abstract class Serializer implements XMLReader {
             receiver.startElement(ELEM_RESULT_QNAME, attrs);
         }
 
-        for (int i = --start; i < start + count; i++) {
-            final Item item = seq.itemAt(i);
-            if (item == null) {
-                LOG.debug("item {} not found", i);
-                continue;
+        --start;
+        final ParallelSerializationService parallel = broker.getBrokerPool().getParallelSerializationService();
+        if (parallel.isEnabled() && count > 1 && canSerializeInParallel()) {
+            itemsToSAX(parallel, seq, start, start + count, typed, wrap);
+        } else {
+            for (int i = start; i < start + count; i++) {
+                final Item item = seq.itemAt(i);
+                if (item == null) {
+                    LOG.debug("item {} not found", i);
+                    continue;
+                }
+                itemToSAX(item, typed, wrap);
             }
-            itemToSAX(item, typed, wrap);
         }
 
         if (wrap) {
@@ -999,6 +1048,169 @@ public abstract class Serializer implements XMLReader {
         receiver.endDocument();
     }
 
+    /**
+     * Stylesheets see the whole result, and an xml-stylesheet processing
+     * instruction in one document would change how that document is passed on,
+     * so items are only prepared in parallel if neither applies.
+     */
+    private boolean canSerializeInParallel() {
+        return templates == null && !"yes".equals(getProperty(EXistOutputKeys.PROCESS_XSL_PI, "no"));
+    }
+
+    /**
+     * Serializes the items from {@code from} (inclusive) to {@code to} (exclusive) in order,
+     * whilst the stored nodes amongst the next items are serialized ahead on the worker
+     * threads of the {@link ParallelSerializationService}. Each worker records the events
+     * of one item into a {@link ReceiverEventBuffer}, which is then replayed to the receiver
+     * here, so the output is the same as when serializing the items one after another.
+     *
+     * A worker only serializes an item if it can get a broker without waiting, and
+     * if this thread has not already reached that item; otherwise the item is
+     * serialized here. At most twice as many items as there are worker
+     * threads are prepared ahead, which bounds the memory used by the buffers.
+     *
+     * The workers do not lock the documents they read. Instead this thread read locks
+     * the document of each item before submitting it, and only releases the lock once
+     * the item has been written and the worker is done with it; so the documents can
+     * not be modified whilst they are serialized, as on the serial path. As the workers
+     * never wait for a lock, this thread can not deadlock waiting for a worker.
+     */
+    private void itemsToSAX(final ParallelSerializationService parallel, final Sequence seq, final int from,
+            final int to, final boolean typed, final boolean wrap) throws SAXException {
+        final BrokerPool pool = broker.getBrokerPool();
+        final LockManager lockManager = pool.getLockManager();
+        final Subject subject = broker.getCurrentSubject();
+        final @Nullable Subject itemUser = user;
+        final @Nullable XQueryContext.HttpContext itemHttpContext = httpContext;
+        final Properties properties = new Properties();
+        properties.putAll(outputProperties);
+        final boolean handleIncludes = receiver == xinclude;
+        final Receiver target = handleIncludes ? xinclude.getReceiver() : receiver;
+
+        final int capacity = parallel.getThreads() * 2;
+        final Deque<PreparedItem> pending = new ArrayDeque<>(capacity);
+        try {
+            int next = from;
+            for (int i = from; i < to; i++) {
+                while (next < to && pending.size() < capacity) {
+                    final Item item = seq.itemAt(next++);
+                    final PreparedItem prepared = new PreparedItem(item);
+                    pending.add(prepared);
+                    if (item != null && item.getType() != Type.ATTRIBUTE && Type.subTypeOf(item.getType(), Type.NODE)
+                            && ((NodeValue) item).getImplementationType() == NodeValue.PERSISTENT_NODE) {
+                        try {
+                            prepared.documentLock = lockManager.acquireDocumentReadLock(((NodeProxy) item).getOwnerDocument().getURI());
+                        } catch (final LockException e) {
+                            throw new SAXException(e.getMessage(), e);
+                        }
+                        prepared.events = parallel.submit(() -> {
+                            if (!prepared.claimed.compareAndSet(false, true)) {
+                                return null;
+                            }
+                            final Optional<DBBroker> maybeBroker = pool.tryGet(Optional.of(subject));
+                            if (!maybeBroker.isPresent()) {
+                                return null;
+                            }
+                            try (final DBBroker workerBroker = maybeBroker.get()) {
+                                final Serializer serializer = workerBroker.borrowSerializer();
+                                try {
+                                    serializer.setUser(itemUser);
+                                    serializer.setHttpContext(itemHttpContext);
+                                    serializer.setProperties(properties);
+                                    final ReceiverEventBuffer events = new ReceiverEventBuffer();
+                                    serializer.setReceiver(events, handleIncludes);
+                                    serializer.serializeToReceiver((NodeProxy) item, false, true);
+                                    return events;
+                                } finally {
+                                    workerBroker.returnSerializer(serializer);
+                                }
+                            }
+                        });
+                    }
+                }
+
+                final PreparedItem prepared = pending.remove();
+                try {
+                    if (prepared.item == null) {
+                        LOG.debug("item {} not found", i);
+                        continue;
+                    }
+                    itemToSAX(prepared.item, typed, wrap, prepared.await(), target);
+                } finally {
+                    prepared.unlock();
+                }
+            }
+        } finally {
+            // stop the workers from starting on items which will not be used
+            for (final PreparedItem prepared : pending) {
+                prepared.unlock();
+            }
+        }
+    }
+
+    /**
+     * An item of a result, and the events recorded
+     * for it by a worker thread, if any.
+     */
+    private static class PreparedItem {
+        private final @Nullable Item item;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private @Nullable Future<ReceiverEventBuffer> events = null;
+        private @Nullable ManagedDocumentLock documentLock = null;
+        private boolean awaited = false;
+
+        private PreparedItem(@Nullable final Item item) {
+            this.item = item;
+        }
+
+        /**
+         * Waits for the worker thread, unless it has not started on the item yet.
+         *
+         * @return the events recorded by the worker, or null if the item still has to be serialized
+         */
+        private @Nullable ReceiverEventBuffer await() throws SAXException {
+            if (events == null || claimed.compareAndSet(false, true)) {
+                awaited = true;
+                return null;
+            }
+            try {
+                final ReceiverEventBuffer buffer = events.get();
+                awaited = true;
+                return buffer;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SAXException(e.getMessage(), e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof SAXException) {
+                    throw (SAXException) cause;
+                }
+                throw new SAXException(cause.getMessage(), cause instanceof Exception ? (Exception) cause : e);
+            }
+        }
+
+        /**
+         * Stops the worker thread from starting on the item, or waits for it if it
+         * already has, and then releases the read lock on the document of the item.
+         */
+        private void unlock() {
+            if (documentLock == null) {
+                return;
+            }
+            if (!awaited && !claimed.compareAndSet(false, true)) {
+                try {
+                    events.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (final ExecutionException e) {
+                    // the item is not used
+                }
+            }
+            documentLock.close();
+            documentLock = null;
+        }
+    }
+
     /**
      * Serialize the items in the given sequence to SAX, starting with item start. If parameter
      * wrap is set to true, output a wrapper element to enclose the serialized items. The
@@ -1081,6 +1293,15 @@ public abstract class Serializer implements XMLReader {
     }
 
     private void itemToSAX(final Item item, final boolean typed, final boolean wrap) throws SAXException {
+        itemToSAX(item, typed, wrap, null, null);
+    }
+
+    /**
+     * @param events if not null, the events recorded for the node by a worker thread
+     * @param eventsTarget the receiver to replay the recorded events to
+     */
+    private void itemToSAX(final Item item, final boolean typed, final boolean wrap,
+            @Nullable final ReceiverEventBuffer events, @Nullable final Receiver eventsTarget) throws SAXException {
         if (Type.subTypeOf(item.getType(), Type.NODE)) {
             final NodeValue node = (NodeValue) item;
 
@@ -1094,10 +1315,14 @@ public abstract class Serializer implements XMLReader {
                 serializeTypePreNode(node);
                 if (node.getType() == Type.ATTRIBUTE) {
                     serializeTypeAttributeValue(node);
+                } else if (events != null) {
+                    events.replay(eventsTarget);
                 } else {
                     serializeToReceiver(node, false);
                 }
                 serializeTypePostNode(node);
+            } else if (events != null) {
+                events.replay(eventsTarget);
             } else {
                 serializeToReceiver(node, false);
             }
@@ -1133,6 +1358,9 @@ public abstract class Serializer implements XMLReader {
     protected abstract void serializeToReceiver(DocumentImpl doc, boolean generateDocEvent)
             throws SAXException;
 
+    protected abstract void serializeToUTF8(DocumentImpl doc, SAXSerializer sax, boolean generateDocEvent)
+            throws SAXException;
+
     protected void serializeToReceiver(final NodeValue v, final boolean generateDocEvents)
             throws SAXException {
         if (v.getImplementationType() == NodeValue.PERSISTENT_NODE) {
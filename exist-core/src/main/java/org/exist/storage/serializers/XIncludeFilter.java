@@ -113,6 +113,7 @@ public class XIncludeFilter implements Receiver {
     private @Nullable Map<String, String> namespaces = null;
     private boolean inFallback = false;
     private @Nullable ResourceError error = null;
+    private boolean includeProcessed = false;
 
     public XIncludeFilter(final Serializer serializer, @Nullable final Receiver receiver) {
         this.receiver = receiver;
@@ -133,6 +134,7 @@ public class XIncludeFilter implements Receiver {
         this.namespaces = null;
         this.inFallback = false;
         this.error = null;
+        this.includeProcessed = false;
     }
 
     public void setReceiver(final Receiver handler) {
@@ -153,6 +155,16 @@ public class XIncludeFilter implements Receiver {
         this.moduleLoadPath = path;
     }
 
+    /**
+     * Returns true if an xi:include was expanded since the last {@link #reset()},
+     * i.e. the output depends on resources other than the serialized document.
+     *
+     * @return true if an include was processed
+     */
+    public boolean isIncludeProcessed() {
+        return includeProcessed;
+    }
+
     @Override
     public void characters(final CharSequence seq) throws SAXException {
         if (!inFallback || error != null) {
@@ -239,6 +251,7 @@ public class XIncludeFilter implements Receiver {
                 }
 
                 final Optional<ResourceError> maybeResourceError = processXInclude(attribs.getValue(HREF_ATTRIB), attribs.getValue(XPOINTER_ATTRIB));
+                includeProcessed = true;
 
                 if (maybeResourceError.isPresent()) {
                     final ResourceError resourceError = maybeResourceError.get();
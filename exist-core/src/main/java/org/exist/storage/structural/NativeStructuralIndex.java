@@ -24,6 +24,8 @@ package org.exist.storage.structural;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.LogManager;
@@ -60,6 +62,9 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
     protected LockManager lockManager;
     protected SymbolTable symbols;
 
+    /** The workers which have a batch open, their batches are written by {@link #sync()} */
+    private final Set<NativeStructuralIndexWorker> batchingWorkers = ConcurrentHashMap.newKeySet();
+
     public NativeStructuralIndex() {
         //Nothing to do
     }
@@ -95,6 +100,12 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
         if (btree == null) {
             return;
         }
+
+        // a failure to write a batch is thrown by the worker when its batch ends
+        for (final NativeStructuralIndexWorker worker : batchingWorkers) {
+            worker.writeBatch();
+        }
+
         try(final ManagedLock<ReentrantLock> bfileLock = lockManager.acquireBtreeWriteLock(btree.getLockName())) {
             btree.flush();
         } catch (final LockException e) {
@@ -106,6 +117,14 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
         }
     }
 
+    void registerBatch(final NativeStructuralIndexWorker worker) {
+        batchingWorkers.add(worker);
+    }
+
+    void deregisterBatch(final NativeStructuralIndexWorker worker) {
+        batchingWorkers.remove(worker);
+    }
+
     @Override
     public void remove() throws DBException {
         btree.closeAndRemove();
@@ -32,6 +32,7 @@ import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.IStoredNode;
 import org.exist.dom.persistent.SymbolTable;
+import org.exist.dom.persistent.ColumnarNodeSet;
 import org.exist.dom.persistent.NewArrayNodeSet;
 import org.exist.dom.persistent.ExtNodeSet;
 import org.exist.dom.persistent.NodeSet;
@@ -47,6 +48,7 @@ import org.exist.storage.btree.Value;
 
 import org.exist.storage.lock.ManagedLock;
 import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
 import org.exist.util.ByteConversion;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.LockException;
@@ -55,9 +57,12 @@ import org.exist.xquery.*;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nullable;
+
 import org.exist.security.PermissionDeniedException;
 
 /**
@@ -65,7 +70,7 @@ import org.exist.security.PermissionDeniedException;
  * each key represents a sequence of: [type, qname, documentId, nodeId]. The btree value is just a
  * long pointing to the storage address of the actual node in dom.dbx.
  */
-public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex {
+public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex, BatchingIndexWorker {
 
     private final static Logger LOG = LogManager.getLogger(NativeStructuralIndexWorker.class);
 
@@ -77,6 +82,26 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     //nameType out of QName
     private Map<QName, List<NodeProxy>> pending = new TreeMap<>(new TypedQNameComparator());
 
+    /**
+     * The maximum number of entries to accumulate in a batch before
+     * they are written, bounds the memory used by a batch.
+     */
+    private static final int MAX_BATCH_ENTRIES = 100_000;
+
+    private boolean batching = false;
+    private final SortedMap<Value, Long> batch = new TreeMap<>();
+    private final SortedSet<Value> batchDocKeys = new TreeSet<>();
+
+    /**
+     * The last transaction whose commit has been registered to write the batch.
+     */
+    @Nullable private Txn batchTransaction = null;
+
+    /**
+     * The failure(s) to write the batch, thrown by {@link #endBatch()}.
+     */
+    @Nullable private IOException batchFailure = null;
+
     public NativeStructuralIndexWorker(NativeStructuralIndex index) {
         this.index = index;
     }
@@ -108,7 +133,10 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     public NodeSet findElementsByTagName(byte type, DocumentSet docs, QName qname, NodeSelector selector, Expression parent) {
-        final NewArrayNodeSet result = new NewArrayNodeSet();
+        writeBatch();
+        // without a selector every node is returned, so avoid creating a NodeProxy for each
+        // until it is needed, the result is then typically joined with a (much smaller) context set
+        final NodeSet result = selector == null ? new ColumnarNodeSet() : new NewArrayNodeSet();
         final FindElementsCallback callback = new FindElementsCallback(type, qname, result, docs, selector, parent);
 
         // for each document id range, scan the index to find matches
@@ -192,6 +220,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     public NodeSet findDescendantsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet, int contextId, Expression parent) {
+        writeBatch();
         final NewArrayNodeSet result = new NewArrayNodeSet();
         final FindDescendantsCallback callback = new FindDescendantsCallback(type, axis, qname, contextId, result, parent);
         try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
@@ -224,6 +253,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
 
     public NodeSet findAncestorsByTagName(byte type, QName qname, int axis, DocumentSet docs, NodeSet contextSet,
                                           int contextId) {
+        writeBatch();
         final NewArrayNodeSet result = new NewArrayNodeSet();
         try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
             for (final NodeProxy descendant : contextSet) {
@@ -265,6 +295,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
 
     public NodeSet scanByType(byte type, int axis, NodeTest test, boolean useSelfAsContext, DocumentSet docs, 
     		NodeSet contextSet, int contextId) {
+        writeBatch();
         final NewArrayNodeSet result = new NewArrayNodeSet();
         final FindDescendantsCallback callback = new FindDescendantsCallback(type, axis, null, contextId, useSelfAsContext, result, null);
         for (final NodeProxy ancestor : contextSet) {
@@ -303,11 +334,11 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         byte type;
         QName qname;
         DocumentSet docs;
-        NewArrayNodeSet result;
+        NodeSet result;
         NodeSelector selector;
         Expression parent;
 
-        FindElementsCallback(byte type, QName qname, NewArrayNodeSet result, DocumentSet docs, NodeSelector selector, Expression parent) {
+        FindElementsCallback(byte type, QName qname, NodeSet result, DocumentSet docs, NodeSelector selector, Expression parent) {
             this.type = type;
             this.result = result;
             this.docs = docs;
@@ -329,12 +360,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             final DocumentImpl doc = docs.getDoc(readDocId(key));
             if (doc != null) {
                 if (selector == null) {
-                    final NodeProxy storedNode = new NodeProxy(null, doc, nodeId,
-                        type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
-                    if (qname != null) {
-                        storedNode.setQName(qname);
-                    }
-                    result.add(storedNode);
+                    ((ColumnarNodeSet) result).add(doc, nodeId,
+                        type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer, qname);
                 } else {
                     final NodeProxy storedNode = selector.match(doc, nodeId);
                     if (storedNode != null) {
@@ -477,13 +504,65 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 processPending();
                 break;
             case REMOVE_ALL_NODES:
+                writeBatch();
                 removeDocument(document);
                 break;
             case REMOVE_SOME_NODES:
+                writeBatch();
                 removeSome();
         }
     }
 
+    @Override
+    public synchronized void startBatch() {
+        batching = true;
+        batchFailure = null;
+        index.registerBatch(this);
+    }
+
+    @Override
+    public synchronized void endBatch() throws IOException {
+        batching = false;
+        batchTransaction = null;
+        index.deregisterBatch(this);
+        writeBatch();
+
+        if (batchFailure != null) {
+            final IOException failure = batchFailure;
+            batchFailure = null;
+            throw failure;
+        }
+    }
+
+    /**
+     * Registers the transaction, which is storing a document into the batch,
+     * so that the batch is written when the transaction completes. Once a
+     * document is committed its entries are then visible to other brokers,
+     * and are written to disk by the next sync of the index.
+     *
+     * @param transaction the transaction storing the document, or null
+     *     if the document is stored without a transaction, i.e. repair
+     */
+    private synchronized void registerBatchTransaction(@Nullable final Txn transaction) {
+        if (!batching || transaction == null || transaction == batchTransaction) {
+            return;
+        }
+
+        batchTransaction = transaction;
+        transaction.registerListener(new TxnListener() {
+            @Override
+            public void commit() {
+                writeBatch();
+            }
+
+            @Override
+            public void abort() {
+                // outside of a batch the entries of the aborted document would already have been written
+                writeBatch();
+            }
+        });
+    }
+
     protected void removeSome() {
         if (pending.size() == 0) {
             return;
@@ -565,6 +644,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
 
     @Override
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
+        writeBatch();
         try {
             for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
                 final DocumentImpl doc = i.next();
@@ -590,6 +670,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
      * @return the matching occurrences
      */
     public Occurrences[] scanIndex(XQueryContext context, DocumentSet docs, NodeSet contextSet, Map hints) {
+        writeBatch();
         final Map<String, Occurrences> occurrences = new TreeMap<>();
         for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
             final DocumentImpl doc = i.next();
@@ -662,6 +743,11 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         if (pending.size() == 0 || index.btree == null)
             {return;}
 
+        if (batching) {
+            addPendingToBatch();
+            return;
+        }
+
         try {
             for (final Map.Entry<QName,List<NodeProxy>> entry: pending.entrySet()) {
                 final QName qname = entry.getKey();
@@ -689,6 +775,68 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         }
     }
 
+    /**
+     * Moves the pending entries of the current document into the batch,
+     * writing the batch if it has grown too large.
+     */
+    private synchronized void addPendingToBatch() {
+        try {
+            for (final Map.Entry<QName, List<NodeProxy>> entry : pending.entrySet()) {
+                final QName qname = entry.getKey();
+                for (final NodeProxy proxy : entry.getValue()) {
+                    final byte[] key = computeKey(qname.getNameType(), qname, document.getDocId(), proxy.getNodeId());
+                    batch.put(new Value(key), computeValue(proxy));
+                }
+                batchDocKeys.add(new Value(computeDocKey(qname.getNameType(), document.getDocId(), qname)));
+            }
+        } finally {
+            pending.clear();
+        }
+
+        if (batch.size() >= MAX_BATCH_ENTRIES) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Writes the batched entries into the btree in key order.
+     *
+     * A failure is logged, and then thrown by {@link #endBatch()}; so that
+     * the reindex, which opened the batch, fails.
+     */
+    synchronized void writeBatch() {
+        if (batch.isEmpty() || index.btree == null) {
+            return;
+        }
+
+        try(final ManagedLock<ReentrantLock> btreeLock = index.lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+            for (final Map.Entry<Value, Long> entry : batch.entrySet()) {
+                index.btree.addValue(entry.getKey(), entry.getValue());
+            }
+            for (final Value docKey : batchDocKeys) {
+                if (index.btree.findValue(docKey) == -1) {
+                    index.btree.addValue(docKey, 0);
+                }
+            }
+        } catch (final LockException e) {
+            failBatch(new IOException("Failed to lock structural index: " + e.getMessage(), e));
+        } catch (final Exception e) {
+            failBatch(new IOException("Exception caught while writing to structural index: " + e.getMessage(), e));
+        } finally {
+            batch.clear();
+            batchDocKeys.clear();
+        }
+    }
+
+    private void failBatch(final IOException e) {
+        NativeStructuralIndex.LOG.error(e.getMessage(), e);
+        if (batchFailure == null) {
+            batchFailure = e;
+        } else {
+            batchFailure.addSuppressed(e);
+        }
+    }
+
     private byte[] computeKey(byte type, QName qname, int documentId, NodeId nodeId) {
         final SymbolTable symbols = index.getBrokerPool().getSymbols();
         final short sym = symbols.getSymbol(qname.getLocalPart());
@@ -783,6 +931,12 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             //Nothing to do
         }
 
+        @Override
+        public void startIndexDocument(final Txn transaction) {
+            registerBatchTransaction(transaction);
+            super.startIndexDocument(transaction);
+        }
+
         @Override
         public void startElement(Txn transaction, ElementImpl element, NodePath path) {
             super.startElement(transaction, element, path);
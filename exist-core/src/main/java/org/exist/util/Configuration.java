@@ -47,6 +47,7 @@ import org.xml.sax.XMLReader;
 
 import org.exist.Indexer;
 import org.exist.indexing.IndexManager;
+import org.exist.indexing.IndexQueryCache;
 import org.exist.dom.memtree.SAXAdapter;
 import org.exist.scheduler.JobConfig;
 import org.exist.scheduler.JobException;
@@ -57,6 +58,8 @@ import org.exist.storage.IndexSpec;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.XQueryPool;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
+import org.exist.storage.serializers.ParallelSerializationService;
+import org.exist.storage.serializers.SerializedDocumentCache;
 import org.exist.storage.serializers.Serializer;
 import org.exist.validation.GrammarPool;
 import org.exist.xmldb.DatabaseImpl;
@@ -379,9 +382,11 @@ public class Configuration implements ErrorHandler {
             final Element lockTable = (Element) nlLockTable.item(0);
             final boolean lockTableDisabled = parseBoolean(getConfigAttributeValue(lockTable, "disabled"), false);
             final int lockTableTraceStackDepth = parseInt(getConfigAttributeValue(lockTable, "trace-stack-depth"), 0);
+            final boolean lockTableDeadlockDetection = parseBoolean(getConfigAttributeValue(lockTable, "deadlock-detection"), false);
 
             config.put(LockTable.CONFIGURATION_DISABLED, lockTableDisabled);
             config.put(LockTable.CONFIGURATION_TRACE_STACK_DEPTH, lockTableTraceStackDepth);
+            config.put(LockTable.CONFIGURATION_DEADLOCK_DETECTION, lockTableDeadlockDetection);
         }
 
         final NodeList nlDocument = lockManager.getElementsByTagName("document");
@@ -790,6 +795,26 @@ public class Configuration implements ErrorHandler {
             LOG.debug(PROPERTY_TAG_MATCHING_ATTRIBUTES + ": {}", config.get(PROPERTY_TAG_MATCHING_ATTRIBUTES));
         }
 
+        final String documentCache = getConfigAttributeValue(serializer, SerializedDocumentCache.CACHE_SIZE_ATTRIBUTE);
+        if (documentCache != null && !documentCache.isEmpty()) {
+            try {
+                config.put(SerializedDocumentCache.PROPERTY_CACHE_SIZE_BYTES, parseSizeInBytes(documentCache));
+                LOG.debug(SerializedDocumentCache.PROPERTY_CACHE_SIZE_BYTES + ": {}", config.get(SerializedDocumentCache.PROPERTY_CACHE_SIZE_BYTES));
+            } catch (final NumberFormatException nfe) {
+                LOG.warn("Cannot convert " + SerializedDocumentCache.PROPERTY_CACHE_SIZE_BYTES + " value to integer: {}", documentCache, nfe);
+            }
+        }
+
+        final String parallelThreads = getConfigAttributeValue(serializer, ParallelSerializationService.THREADS_ATTRIBUTE);
+        if (parallelThreads != null && !parallelThreads.isEmpty()) {
+            try {
+                config.put(ParallelSerializationService.PROPERTY_THREADS, Integer.valueOf(parallelThreads));
+                LOG.debug(ParallelSerializationService.PROPERTY_THREADS + ": {}", config.get(ParallelSerializationService.PROPERTY_THREADS));
+            } catch (final NumberFormatException nfe) {
+                LOG.warn("Cannot convert " + ParallelSerializationService.PROPERTY_THREADS + " value to integer: {}", parallelThreads, nfe);
+            }
+        }
+
         final NodeList nlFilters = serializer.getElementsByTagName(CustomMatchListenerFactory.CONFIGURATION_ELEMENT);
         if (nlFilters.getLength() > 0) {
             final List<String> filters = new ArrayList<>(nlFilters.getLength());
@@ -994,29 +1019,10 @@ public class Configuration implements ErrorHandler {
             LOG.warn("Cannot convert " + SHRINK_THRESHOLD_PROPERTY + " value to integer: {}", cacheShrinkThreshold, nfe);
         }
 
-        String collectionCache = getConfigAttributeValue(con, CollectionCache.CACHE_SIZE_ATTRIBUTE);
+        final String collectionCache = getConfigAttributeValue(con, CollectionCache.CACHE_SIZE_ATTRIBUTE);
         if (collectionCache != null) {
-            collectionCache = collectionCache.toLowerCase();
-
             try {
-                final int collectionCacheBytes;
-                if (collectionCache.endsWith("k")) {
-                    collectionCacheBytes = 1024 * Integer.parseInt(collectionCache.substring(0, collectionCache.length() - 1));
-                } else if (collectionCache.endsWith("kb")) {
-                    collectionCacheBytes = 1024 * Integer.parseInt(collectionCache.substring(0, collectionCache.length() - 2));
-                } else if (collectionCache.endsWith("m")) {
-                    collectionCacheBytes = 1024 * 1024 * Integer.parseInt(collectionCache.substring(0, collectionCache.length() - 1));
-                } else if (collectionCache.endsWith("mb")) {
-                    collectionCacheBytes = 1024 * 1024 * Integer.parseInt(collectionCache.substring(0, collectionCache.length() - 2));
-                } else if (collectionCache.endsWith("g")) {
-                    collectionCacheBytes = 1024 * 1024 * 1024 * Integer.parseInt(collectionCache.substring(0, collectionCache.length() - 1));
-                } else if (collectionCache.endsWith("gb")) {
-                    collectionCacheBytes = 1024 * 1024 * 1024 * Integer.parseInt(collectionCache.substring(0, collectionCache.length() - 2));
-                } else {
-                    collectionCacheBytes = Integer.parseInt(collectionCache);
-                }
-
-                config.put(PROPERTY_CACHE_SIZE_BYTES, collectionCacheBytes);
+                config.put(PROPERTY_CACHE_SIZE_BYTES, parseSizeInBytes(collectionCache));
 
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Set config {} = {}", PROPERTY_CACHE_SIZE_BYTES, config.get(PROPERTY_CACHE_SIZE_BYTES));
@@ -1384,6 +1390,16 @@ public class Configuration implements ErrorHandler {
             LOG.debug(PROPERTY_PRESERVE_WS_MIXED_CONTENT + ": {}", config.get(PROPERTY_PRESERVE_WS_MIXED_CONTENT));
         }
 
+        final String queryCache = getConfigAttributeValue(indexer, IndexQueryCache.CACHE_SIZE_ATTRIBUTE);
+        if (queryCache != null && !queryCache.isEmpty()) {
+            try {
+                config.put(IndexQueryCache.PROPERTY_CACHE_SIZE_BYTES, parseSizeInBytes(queryCache));
+                LOG.debug(IndexQueryCache.PROPERTY_CACHE_SIZE_BYTES + ": {}", config.get(IndexQueryCache.PROPERTY_CACHE_SIZE_BYTES));
+            } catch (final NumberFormatException nfe) {
+                LOG.warn("Cannot convert " + IndexQueryCache.PROPERTY_CACHE_SIZE_BYTES + " value to integer: {}", queryCache, nfe);
+            }
+        }
+
         // index settings
         final NodeList cl = doc.getElementsByTagName(CONFIGURATION_INDEX_ELEMENT_NAME);
 
@@ -1497,6 +1513,32 @@ public class Configuration implements ErrorHandler {
         }
     }
 
+    /**
+     * Parses a size which may carry a unit suffix, e.g. "64M" or "512kb".
+     *
+     * @param size the size, suffixed with k, kb, m, mb, g or gb, or a plain number of bytes
+     * @return the size in bytes
+     * @throws NumberFormatException if the size cannot be parsed
+     */
+    private static int parseSizeInBytes(final String size) throws NumberFormatException {
+        final String value = size.toLowerCase();
+        if (value.endsWith("k")) {
+            return 1024 * Integer.parseInt(value.substring(0, value.length() - 1));
+        } else if (value.endsWith("kb")) {
+            return 1024 * Integer.parseInt(value.substring(0, value.length() - 2));
+        } else if (value.endsWith("m")) {
+            return 1024 * 1024 * Integer.parseInt(value.substring(0, value.length() - 1));
+        } else if (value.endsWith("mb")) {
+            return 1024 * 1024 * Integer.parseInt(value.substring(0, value.length() - 2));
+        } else if (value.endsWith("g")) {
+            return 1024 * 1024 * 1024 * Integer.parseInt(value.substring(0, value.length() - 1));
+        } else if (value.endsWith("gb")) {
+            return 1024 * 1024 * 1024 * Integer.parseInt(value.substring(0, value.length() - 2));
+        } else {
+            return Integer.parseInt(value);
+        }
+    }
+
     /**
      * Gets the value of a configuration attribute
      * <p>
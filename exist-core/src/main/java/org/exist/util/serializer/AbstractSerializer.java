@@ -28,7 +28,11 @@ import org.exist.xquery.util.SerializerUtils;
 
 import javax.annotation.Nullable;
 import javax.xml.transform.OutputKeys;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Properties;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -79,6 +83,56 @@ public abstract class AbstractSerializer {
         return writers[XML_WRITER];
     }
 
+    /**
+     * Create a writer for serializing to a byte stream. For UTF-8 this is a
+     * {@link UTF8Writer}, which encodes straight into a pooled byte buffer,
+     * for other encodings an {@link OutputStreamWriter}.
+     *
+     * @param os the stream to write to
+     * @param encoding the name of the output encoding
+     * @return the writer, which the caller has to flush and close
+     *
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public static Writer createWriter(final OutputStream os, final String encoding) throws UnsupportedEncodingException {
+        if (UTF_8.name().equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding)) {
+            return new UTF8Writer(os);
+        }
+        return new OutputStreamWriter(os, encoding);
+    }
+
+    /**
+     * Create a writer for serializing to a byte stream.
+     *
+     * @param os the stream to write to
+     * @param encoding the output encoding
+     * @return the writer, which the caller has to flush and close
+     *
+     * @see #createWriter(OutputStream, String)
+     */
+    public static Writer createWriter(final OutputStream os, final Charset encoding) {
+        if (UTF_8.equals(encoding)) {
+            return new UTF8Writer(os);
+        }
+        return new OutputStreamWriter(os, encoding);
+    }
+
+    /**
+     * Serialize to a byte stream, using the encoding from the output properties.
+     *
+     * @param os the stream to write to
+     * @param properties the output properties
+     * @return the writer which was created for the stream, which the caller has to flush and close
+     *
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public Writer setOutput(final OutputStream os, @Nullable final Properties properties) throws UnsupportedEncodingException {
+        final String encoding = properties == null ? UTF_8.name() : properties.getProperty(OutputKeys.ENCODING, UTF_8.name());
+        final Writer writer = createWriter(os, encoding);
+        setOutput(writer, properties);
+        return writer;
+    }
+
     public void setOutput(Writer writer, Properties properties) {
         if (properties == null) {
             outputProperties = new Properties(defaultProperties);
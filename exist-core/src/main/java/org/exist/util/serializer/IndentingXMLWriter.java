@@ -128,6 +128,20 @@ public class IndentingXMLWriter extends XMLWriter {
         super.characters(chars);
     }
 
+    @Override
+    public void utf8Characters(final byte[] data, final int start, final int len) throws TransformerException {
+        if (len == 0) {
+            return;
+        }
+        for (int i = start; i < start + len; i++) {
+            if (data[i] == '\n') {
+                sameline = false;
+            }
+        }
+        afterTag = false;
+        super.utf8Characters(data, start, len);
+    }
+
     @Override
     public void comment(final CharSequence data) throws TransformerException {
         super.comment(data);
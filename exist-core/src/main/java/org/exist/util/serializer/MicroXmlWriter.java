@@ -23,6 +23,7 @@ package org.exist.util.serializer;
 
 import org.exist.dom.QName;
 import org.exist.storage.serializers.EXistOutputKeys;
+import org.exist.util.UTF8;
 
 import javax.xml.XMLConstants;
 import javax.xml.transform.OutputKeys;
@@ -167,6 +168,11 @@ public class MicroXmlWriter extends IndentingXMLWriter {
         super.characters(removeRestrictedChars(String.valueOf(ch, start, len)));
     }
 
+    @Override
+    public void utf8Characters(final byte[] data, final int start, final int len) throws TransformerException {
+        characters(UTF8.decode(data, start, len));
+    }
+
     @Override
     public void setOutputProperties(final Properties properties) {
         properties.setProperty(EXistOutputKeys.OMIT_ORIGINAL_XML_DECLARATION, "yes");
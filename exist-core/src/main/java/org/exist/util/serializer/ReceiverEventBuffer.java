@@ -0,0 +1,157 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.serializer;
+
+import org.exist.dom.INodeHandle;
+import org.exist.dom.QName;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A receiver which records the events it is sent, so that they
+ * can be replayed to another receiver later, possibly on another thread.
+ *
+ * All arguments are copied, as serializers reuse their character
+ * buffers and attribute lists. Calls to {@link #setCurrentNode(INodeHandle)}
+ * are not recorded, as the node objects are pooled; the receivers at the
+ * end of a serializer's chain ignore them anyway.
+ */
+public class ReceiverEventBuffer implements Receiver {
+
+    @FunctionalInterface
+    private interface Event {
+        void replay(Receiver receiver) throws SAXException;
+    }
+
+    private final List<Event> events = new ArrayList<>();
+
+    /**
+     * Sends the recorded events to the receiver, in the order they were recorded.
+     *
+     * @param receiver the receiver to send the events to
+     *
+     * @throws SAXException if the receiver raises an error
+     */
+    public void replay(final Receiver receiver) throws SAXException {
+        for (final Event event : events) {
+            event.replay(receiver);
+        }
+    }
+
+    @Override
+    public void startDocument() {
+        events.add(Receiver::startDocument);
+    }
+
+    @Override
+    public void endDocument() {
+        events.add(Receiver::endDocument);
+    }
+
+    @Override
+    public void declaration(@Nullable final String version, @Nullable final String encoding, @Nullable final String standalone) {
+        events.add(receiver -> receiver.declaration(version, encoding, standalone));
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String namespaceURI) {
+        events.add(receiver -> receiver.startPrefixMapping(prefix, namespaceURI));
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) {
+        events.add(receiver -> receiver.endPrefixMapping(prefix));
+    }
+
+    @Override
+    public void startElement(final QName qname, final AttrList attribs) {
+        final AttrList copy = new AttrList();
+        for (int i = 0; i < attribs.getLength(); i++) {
+            copy.addAttribute(attribs.getQName(i), attribs.getValue(i), attribs.getType(i), attribs.getNodeId(i));
+        }
+        events.add(receiver -> receiver.startElement(qname, copy));
+    }
+
+    @Override
+    public void endElement(final QName qname) {
+        events.add(receiver -> receiver.endElement(qname));
+    }
+
+    @Override
+    public void characters(final CharSequence seq) {
+        final String text = seq.toString();
+        events.add(receiver -> receiver.characters(text));
+    }
+
+    @Override
+    public void attribute(final QName qname, final String value) {
+        events.add(receiver -> receiver.attribute(qname, value));
+    }
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) {
+        final char[] text = copyOfRange(ch, start, length);
+        events.add(receiver -> receiver.comment(text, 0, text.length));
+    }
+
+    @Override
+    public void cdataSection(final char[] ch, final int start, final int len) {
+        final char[] text = copyOfRange(ch, start, len);
+        events.add(receiver -> receiver.cdataSection(text, 0, text.length));
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) {
+        events.add(receiver -> receiver.processingInstruction(target, data));
+    }
+
+    @Override
+    public void documentType(final String name, final String publicId, final String systemId) {
+        events.add(receiver -> receiver.documentType(name, publicId, systemId));
+    }
+
+    @Override
+    public void highlightText(final CharSequence seq) {
+        final String text = seq.toString();
+        events.add(receiver -> receiver.highlightText(text));
+    }
+
+    @Override
+    public void setCurrentNode(final INodeHandle node) {
+        // not recorded, see above
+    }
+
+    @Override
+    public Document getDocument() {
+        return null;
+    }
+
+    private static char[] copyOfRange(final char[] ch, final int start, final int length) {
+        final char[] copy = new char[length];
+        System.arraycopy(ch, start, copy, 0, length);
+        return copy;
+    }
+}
@@ -25,6 +25,7 @@ import org.exist.Namespaces;
 import org.exist.dom.INodeHandle;
 import org.exist.dom.QName;
 import org.exist.storage.serializers.EXistOutputKeys;
+import org.exist.util.UTF8;
 import org.exist.util.XMLString;
 import org.w3c.dom.Document;
 import org.xml.sax.Attributes;
@@ -377,6 +378,29 @@ public class SAXSerializer extends AbstractSerializer implements ContentHandler,
         }
     }
 
+    /**
+     * Write text which is already encoded as UTF-8.
+     *
+     * @param data the buffer holding the UTF-8 bytes
+     * @param start the offset of the first byte
+     * @param len the number of bytes
+     *
+     * @throws SAXException if the text cannot be written
+     *
+     * @see XMLWriter#utf8Characters(byte[], int, int)
+     */
+    public void utf8Characters(final byte[] data, final int start, final int len) throws SAXException {
+        try {
+            if (receiver instanceof XMLWriter) {
+                ((XMLWriter) receiver).utf8Characters(data, start, len);
+            } else {
+                receiver.characters(UTF8.decode(data, start, len));
+            }
+        } catch (final TransformerException e) {
+            throw new SAXException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public void ignorableWhitespace(final char[] ch, final int start, final int len) throws SAXException {
         try {
@@ -28,6 +28,7 @@ import javax.xml.transform.OutputKeys;
 import javax.xml.transform.TransformerException;
 import org.exist.dom.QName;
 import org.exist.util.CharSlice;
+import org.exist.util.UTF8;
 import org.exist.util.serializer.encodings.CharacterSet;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -144,6 +145,11 @@ public class TEXTWriter extends XMLWriter {
     public void characters(final char[] ch, final int start, final int len) throws TransformerException {
         characters(new CharSlice(ch, start, len));
     }
+
+    @Override
+    public void utf8Characters(final byte[] data, final int start, final int len) throws TransformerException {
+        characters(UTF8.decode(data, start, len));
+    }
     
     @Override
     public void processingInstruction(final String target, final String data) throws TransformerException {
@@ -209,13 +215,10 @@ public class TEXTWriter extends XMLWriter {
 
     @Override
     protected void writeChars(final CharSequence s, final boolean inAttribute) throws IOException {
-        final int len = s.length();
-        writeCharSeq(s, 0, len);
-    }
-    
-    private void writeCharSeq(final CharSequence ch, final int start, final int end) throws IOException {
-        for (int i = start; i < end; i++) {
-            writer.write(ch.charAt(i));
+        if (s instanceof String) {
+            writer.write((String) s);
+        } else {
+            writer.append(s);
         }
     }
     
@@ -0,0 +1,253 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A {@link Writer} which encodes characters as UTF-8 straight into a byte buffer
+ * and writes the buffer to an {@link OutputStream} when it is full.
+ *
+ * Compared to an {@link java.io.OutputStreamWriter} there is no intermediate
+ * char buffer, no {@link java.nio.charset.CharsetEncoder} and no locking. Bytes
+ * which are already UTF-8 encoded, e.g. text read from the node records of a
+ * stored document, can be passed to {@link #writeUTF8(byte[], int, int)} without
+ * decoding them first.
+ *
+ * The buffer is taken from a per-thread pool and given back by {@link #close()},
+ * so serializing many small results on a worker thread does not allocate a new
+ * buffer each time.
+ *
+ * Unpaired surrogates are replaced by '?', as the UTF-8 encoder of the JDK does.
+ * Instances are not thread-safe.
+ */
+public class UTF8Writer extends Writer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Released buffers of {@link #DEFAULT_BUFFER_SIZE}, one per thread.
+     */
+    private static final ThreadLocal<byte[]> BUFFER_POOL = new ThreadLocal<>();
+
+    private final OutputStream os;
+    private byte[] buf;
+    private int pos = 0;
+
+    /**
+     * High surrogate waiting for the low surrogate of its pair, or 0.
+     */
+    private char highSurrogate = 0;
+
+    public UTF8Writer(final OutputStream os) {
+        this.os = os;
+        final byte[] pooled = BUFFER_POOL.get();
+        if (pooled != null) {
+            BUFFER_POOL.remove();
+            this.buf = pooled;
+        } else {
+            this.buf = new byte[DEFAULT_BUFFER_SIZE];
+        }
+    }
+
+    public UTF8Writer(final OutputStream os, final int bufferSize) {
+        if (bufferSize < 4) {
+            throw new IllegalArgumentException("Buffer size must be at least 4 bytes: " + bufferSize);
+        }
+        this.os = os;
+        this.buf = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        ensureOpen();
+        if (buf.length - pos < 4) {
+            flushBuffer();
+        }
+        encode((char) c);
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        ensureOpen();
+        final int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (buf.length - pos < 4) {
+                flushBuffer();
+            }
+            // copy a run of ASCII characters without further checks
+            final int asciiEnd = Math.min(end, i + buf.length - pos);
+            char c;
+            while (i < asciiEnd && (c = cbuf[i]) < 0x80 && highSurrogate == 0) {
+                buf[pos++] = (byte) c;
+                i++;
+            }
+            if (i < end && buf.length - pos >= 4) {
+                encode(cbuf[i++]);
+            }
+        }
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(final CharSequence csq) throws IOException {
+        final CharSequence seq = csq == null ? "null" : csq;
+        return append(seq, 0, seq.length());
+    }
+
+    @Override
+    public Writer append(final CharSequence csq, final int start, final int end) throws IOException {
+        ensureOpen();
+        final CharSequence seq = csq == null ? "null" : csq;
+        int i = start;
+        while (i < end) {
+            if (buf.length - pos < 4) {
+                flushBuffer();
+            }
+            final int asciiEnd = Math.min(end, i + buf.length - pos);
+            char c;
+            while (i < asciiEnd && (c = seq.charAt(i)) < 0x80 && highSurrogate == 0) {
+                buf[pos++] = (byte) c;
+                i++;
+            }
+            if (i < end && buf.length - pos >= 4) {
+                encode(seq.charAt(i++));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write bytes which are already UTF-8 encoded.
+     *
+     * @param utf8 the buffer holding the encoded characters
+     * @param off the offset of the first byte to write
+     * @param len the number of bytes to write
+     *
+     * @throws IOException if the underlying stream cannot be written to
+     */
+    public void writeUTF8(final byte[] utf8, final int off, final int len) throws IOException {
+        ensureOpen();
+        if (highSurrogate != 0) {
+            unpairedSurrogate();
+        }
+        if (len > buf.length - pos) {
+            flushBuffer();
+            if (len >= buf.length) {
+                os.write(utf8, off, len);
+                return;
+            }
+        }
+        System.arraycopy(utf8, off, buf, pos, len);
+        pos += len;
+    }
+
+    /**
+     * Encode one character, the caller makes sure there is room for 4 bytes.
+     */
+    private void encode(final char c) throws IOException {
+        if (highSurrogate != 0) {
+            if (Character.isLowSurrogate(c)) {
+                final int cp = Character.toCodePoint(highSurrogate, c);
+                highSurrogate = 0;
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                return;
+            }
+            unpairedSurrogate();
+        }
+
+        if (c < 0x80) {
+            buf[pos++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[pos++] = (byte) (0xC0 | (c >> 6));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buf[pos++] = '?';
+        } else {
+            buf[pos++] = (byte) (0xE0 | (c >> 12));
+            buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    /**
+     * Replace a high surrogate which was not followed by a low surrogate.
+     */
+    private void unpairedSurrogate() throws IOException {
+        highSurrogate = 0;
+        if (pos == buf.length) {
+            flushBuffer();
+        }
+        buf[pos++] = '?';
+    }
+
+    /**
+     * The buffer of a closed writer may already be used by another writer of the same thread.
+     */
+    private void ensureOpen() throws IOException {
+        if (buf == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            os.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+        os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buf == null) {
+            return;
+        }
+        if (highSurrogate != 0) {
+            unpairedSurrogate();
+        }
+        flushBuffer();
+        if (buf.length == DEFAULT_BUFFER_SIZE) {
+            BUFFER_POOL.set(buf);
+        }
+        buf = null;
+        os.close();
+    }
+}
@@ -32,7 +32,9 @@ import com.evolvedbinary.j8fu.lazy.LazyVal;
 import org.exist.dom.QName;
 import org.exist.storage.serializers.EXistOutputKeys;
 import org.exist.util.CharSlice;
+import org.exist.util.UTF8;
 import org.exist.util.serializer.encodings.CharacterSet;
+import org.exist.util.serializer.encodings.UnicodeCharSet;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -72,9 +74,22 @@ public class XMLWriter implements SerializerWriter {
 
     private final char[] charref = new char[10];
 
-    private static final boolean[] textSpecialChars;
+    /**
+     * Replacement text for the ASCII characters which have to be escaped in text,
+     * indexed by character, null if the character is written as is.
+     */
+    private static final String[] TEXT_ESCAPES = new String[128];
 
-    private static final boolean[] attrSpecialChars;
+    /**
+     * Replacement text for the ASCII characters which have to be escaped in attribute values.
+     */
+    private static final String[] ATTR_ESCAPES = new String[128];
+
+    /**
+     * True if every character can be encoded in the output encoding,
+     * so that only {@link #TEXT_ESCAPES} and {@link #ATTR_ESCAPES} apply.
+     */
+    private boolean unicodeCharSet = true;
 
     private String defaultNamespace = "";
 
@@ -92,22 +107,18 @@ public class XMLWriter implements SerializerWriter {
     private boolean cdataSetionElement = false;
 
     static {
-        textSpecialChars = new boolean[128];
-        Arrays.fill(textSpecialChars, false);
-        textSpecialChars['<'] = true;
-        textSpecialChars['>'] = true;
-        // textSpecialChars['\r'] = true;
-        textSpecialChars['&'] = true;
-
-        attrSpecialChars = new boolean[128];
-        Arrays.fill(attrSpecialChars, false);
-        attrSpecialChars['<'] = true;
-        attrSpecialChars['>'] = true;
-        attrSpecialChars['\r'] = true;
-        attrSpecialChars['\n'] = true;
-        attrSpecialChars['\t'] = true;
-        attrSpecialChars['&'] = true;
-        attrSpecialChars['"'] = true;
+        TEXT_ESCAPES['<'] = "&lt;";
+        TEXT_ESCAPES['>'] = "&gt;";
+        // TEXT_ESCAPES['\r'] = "&#xD;";
+        TEXT_ESCAPES['&'] = "&amp;";
+
+        ATTR_ESCAPES['<'] = "&lt;";
+        ATTR_ESCAPES['>'] = "&gt;";
+        ATTR_ESCAPES['\r'] = "&#xD;";
+        ATTR_ESCAPES['\n'] = "&#xA;";
+        ATTR_ESCAPES['\t'] = "&#x9;";
+        ATTR_ESCAPES['&'] = "&amp;";
+        ATTR_ESCAPES['"'] = "&#34;";
     }
 
     @Nullable private XMLDeclaration originalXmlDecl;
@@ -141,6 +152,7 @@ public class XMLWriter implements SerializerWriter {
         if(this.charSet == null) {
             throw EX_CHARSET_NULL;
         }
+        this.unicodeCharSet = charSet instanceof UnicodeCharSet;
 
         this.xdmSerialization = outputProperties.getProperty(EXistOutputKeys.XDM_SERIALIZATION, "no").equals("yes");
     }
@@ -398,6 +410,62 @@ public class XMLWriter implements SerializerWriter {
         }
     }
 
+    /**
+     * Write text which is already encoded as UTF-8, e.g. the data of a stored text node.
+     *
+     * If the output is a {@link UTF8Writer} the special characters are escaped
+     * on the bytes and everything in between is copied as is. As all bytes of a
+     * multi-byte UTF-8 sequence are outside the ASCII range, they can never be
+     * mistaken for markup. Otherwise the bytes are decoded and passed to
+     * {@link #characters(CharSequence)}. Within a CDATA section the text is
+     * written unescaped, as by {@link #characters(char[], int, int)}.
+     *
+     * @param data the buffer holding the UTF-8 bytes
+     * @param start the offset of the first byte
+     * @param len the number of bytes
+     *
+     * @throws TransformerException if the text cannot be written
+     */
+    public void utf8Characters(final byte[] data, final int start, final int len) throws TransformerException {
+        if (!(writer instanceof UTF8Writer)) {
+            if (cdataSetionElement) {
+                final char[] ch = UTF8.decode(data, start, len).toString().toCharArray();
+                characters(ch, 0, ch.length);
+            } else {
+                characters(UTF8.decode(data, start, len));
+            }
+            return;
+        }
+
+        if(!declarationWritten) {
+            writeDeclaration();
+        }
+
+        try {
+            if(tagIsOpen) {
+                closeStartTag(false);
+            }
+            final UTF8Writer utf8Writer = (UTF8Writer) writer;
+            if (cdataSetionElement) {
+                utf8Writer.writeUTF8(data, start, len);
+                return;
+            }
+            final int end = start + len;
+            int pos = start;
+            for (int i = start; i < end; i++) {
+                final byte b = data[i];
+                if (b >= 0 && TEXT_ESCAPES[b] != null && needsEscape((char) b)) {
+                    utf8Writer.writeUTF8(data, pos, i - pos);
+                    writer.write(TEXT_ESCAPES[b]);
+                    pos = i + 1;
+                }
+            }
+            utf8Writer.writeUTF8(data, pos, end - pos);
+        } catch(final IOException ioe) {
+            throw new TransformerException(ioe.getMessage(), ioe);
+        }
+    }
+
     public void processingInstruction(final String target, final String data) throws TransformerException {
         if(!declarationWritten) {
             writeDeclaration();
@@ -594,71 +662,54 @@ public class XMLWriter implements SerializerWriter {
     	return true;
     }
     
+    /**
+     * Write text or an attribute value, escaping characters as required. Runs of
+     * characters which need no escaping are passed to the writer in one call.
+     *
+     * @param s the characters to write
+     * @param inAttribute true if s is an attribute value
+     *
+     * @throws IOException if the characters cannot be written
+     */
     protected void writeChars(final CharSequence s, final boolean inAttribute) throws IOException {
-        final boolean[] specialChars = inAttribute ? attrSpecialChars : textSpecialChars;
-        char ch = 0;
+        final String[] escapes = inAttribute ? ATTR_ESCAPES : TEXT_ESCAPES;
         final int len = s.length();
-        int pos = 0, i;
-        while(pos < len) {
-            i = pos;
-            while(i < len) {
-                ch = s.charAt(i);
-                if(ch < 128) {
-                    if(specialChars[ch]) {
-                        break;
-                    } else {
-                        i++;
-                    }
-                } else if(!charSet.inCharacterSet(ch)) {
-                    break;
-                } else {
-                    i++;
+        int pos = 0;
+        for (int i = 0; i < len; i++) {
+            final char ch = s.charAt(i);
+            final String escape;
+            if (ch < 128) {
+                escape = escapes[ch];
+                if (escape == null) {
+                    continue;
                 }
+            } else if (unicodeCharSet || charSet.inCharacterSet(ch)) {
+                continue;
+            } else {
+                escape = null;
             }
-            writeCharSeq(s, pos, i);
-            // writer.write(s.subSequence(pos, i).toString());
-            
-            if (i >= len) {
-                return;
-            }
-            
-            if(needsEscape(ch)) {
-                switch(ch) {
-                    case '<':
-                        writer.write("&lt;");
-                        break;
-                    case '>':
-                        writer.write("&gt;");
-                        break;
-                    case '&':
-                        writer.write("&amp;");
-                        break;
-                    case '\r':
-                        writer.write("&#xD;");
-                        break;
-                    case '\n':
-                        writer.write("&#xA;");
-                        break;
-                    case '\t':
-                        writer.write("&#x9;");
-                        break;
-                    case '"':
-                        writer.write("&#34;");
-                        break;
-                    default:
-                        writeCharacterReference(ch);
+
+            if (needsEscape(ch)) {
+                writeCharSeq(s, pos, i);
+                if (escape != null) {
+                    writer.write(escape);
+                } else {
+                    writeCharacterReference(ch);
                 }
-            } else {
-                writer.write(ch);
+                pos = i + 1;
             }
-            
-            pos = ++i;
         }
+        writeCharSeq(s, pos, len);
     }
 
     private void writeCharSeq(final CharSequence ch, final int start, final int end) throws IOException {
-        for(int i = start; i < end; i++) {
-            writer.write(ch.charAt(i));
+        if (start == end) {
+            return;
+        }
+        if (ch instanceof String) {
+            writer.write((String) ch, start, end - start);
+        } else {
+            writer.append(ch, start, end);
         }
     }
 
@@ -41,6 +41,8 @@ public abstract class JSONNode {
 
     private JSONNode next = null;
     private JSONNode nextOfSame = null;
+    // the last node of the nextOfSame chain, so that appending does not have to walk it
+    private JSONNode lastOfSame = null;
 
     public JSONNode(final Type type, final String name) {
         this.type = type;
@@ -84,15 +86,21 @@ public abstract class JSONNode {
     }
 
     public void setNextOfSame(JSONNode nextOfSame) {
+        if(nextOfSame == null) {
+            return;
+        }
+
         if(this.nextOfSame == null) {
             this.nextOfSame = nextOfSame;
         } else {
-            JSONNode current = this.nextOfSame;
-            while(current.nextOfSame != null) {
-                current = current.nextOfSame;
-            }
-            current.nextOfSame = nextOfSame;
+            lastOfSame.nextOfSame = nextOfSame;
+        }
+
+        JSONNode last = nextOfSame;
+        while(last.nextOfSame != null) {
+            last = last.nextOfSame;
         }
+        lastOfSame = last;
     }
 
     public void setNext(final JSONNode next) {
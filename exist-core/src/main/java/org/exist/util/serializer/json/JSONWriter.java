@@ -33,6 +33,7 @@ import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
 import org.exist.dom.QName.IllegalQNameException;
 import org.exist.storage.serializers.EXistOutputKeys;
+import org.exist.util.UTF8;
 import org.exist.util.serializer.XMLWriter;
 
 /**
@@ -263,6 +264,11 @@ public class JSONWriter extends XMLWriter {
         characters(new String(ch, start, len));
     }
 
+    @Override
+    public void utf8Characters(final byte[] data, final int start, final int len) throws TransformerException {
+        characters(UTF8.decode(data, start, len));
+    }
+
     @Override
     public void processingInstruction(final String target, final String data) throws TransformerException {
         // skip
@@ -43,6 +43,15 @@ public interface EXistXPathQueryService extends XPathQueryService {
      */
     int BEGIN_PROTECTED_MAX_LOCKING_RETRIES = -1;
 
+    /**
+     * The maximum amount of times a query executed
+     * after {@link #beginSnapshot()} is re-executed because
+     * the documents it read were concurrently modified.
+     * Once exhausted, the query is executed with the
+     * documents locked instead.
+     */
+    int SNAPSHOT_MAX_RETRIES = 3;
+
     /**
      * Process an XPath query based on the result of a previous query.
      * The XMLResource contains the result received from a previous
@@ -157,6 +166,25 @@ public interface EXistXPathQueryService extends XPathQueryService {
      */
     void beginProtected() throws XMLDBException;
 
+    /**
+     * Execute all following queries against a snapshot of the resources in
+     * the current collection (i.e. the one from which this service was obtained).
+     *
+     * Unlike {@link #beginProtected()} the resources are not kept locked, so
+     * queries never block writers. Instead, when a query has been executed, the
+     * resources it could have read are checked for concurrent modification, and if
+     * any were modified the query is transparently re-executed. After
+     * {@link #SNAPSHOT_MAX_RETRIES} the query is executed with the resources locked.
+     *
+     * It is thus guaranteed that the result of each query was computed over
+     * an unchanging set of documents.
+     *
+     * The snapshot is closed by calling {@link #endProtected()}.
+     *
+     * @throws XMLDBException if an error occurs whilst beginning snapshot mode.
+     */
+    void beginSnapshot() throws XMLDBException;
+
     /**
      * Close the protected environment. All locks held
      * by the current thread are released. The query result set
@@ -35,6 +35,7 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.XQueryPool;
 import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.lock.LockedDocumentMap;
+import org.exist.storage.lock.SnapshotInvalidatedException;
 import org.exist.storage.serializers.EXistOutputKeys;
 import org.exist.storage.txn.Txn;
 import org.exist.util.LockException;
@@ -74,6 +75,7 @@ public class LocalXPathQueryService extends AbstractLocalService implements EXis
     private final  Properties properties;
     private boolean lockDocuments = false;
     private LockedDocumentMap lockedDocuments = null;
+    private boolean snapshot = false;
     private DBBroker reservedBroker = null;
 
     public LocalXPathQueryService(final Subject user, final BrokerPool pool, final LocalCollection collection) {
@@ -193,14 +195,59 @@ public class LocalXPathQueryService extends AbstractLocalService implements EXis
         Sequence result = null;
         final XQueryContext context = expr.getContext();
         try {
-            context.setStaticallyKnownDocuments(docs);
-            if (lockedDocuments != null) {
-                context.setProtectedDocs(lockedDocuments);
+            final XQuery xquery = brokerPool.getXQueryService();
+            if (snapshot && lockedDocuments == null) {
+                // the previous query fell back to locking the documents, so take a new snapshot
+                lockedDocuments = protectDocuments(broker, true);
             }
-            setupContext(null, context);
 
-            final XQuery xquery = brokerPool.getXQueryService();
-            result = xquery.execute(broker, expr, contextSet, properties);
+            // the documents which protect this execution of the query
+            LockedDocumentMap executionDocuments = lockedDocuments;
+            try {
+                int snapshotRetries = SNAPSHOT_MAX_RETRIES;
+                while (true) {
+                    context.setStaticallyKnownDocuments(docs);
+                    if (executionDocuments != null) {
+                        context.setProtectedDocs(executionDocuments);
+                    }
+                    setupContext(null, context);
+
+                    try {
+                        try {
+                            result = xquery.execute(broker, expr, contextSet, properties);
+                        } catch (final XPathException e) {
+                            // reading the nodes of a document which was concurrently updated may fail
+                            if (executionDocuments != null) {
+                                executionDocuments.checkSnapshot(broker, e);
+                            }
+                            throw e;
+                        }
+                        if (executionDocuments != null) {
+                            executionDocuments.checkSnapshot(broker, null);
+                        }
+                        break;
+                    } catch (final SnapshotInvalidatedException e) {
+                        // documents were modified whilst the query was executing, so take a new snapshot and re-execute
+                        LOG.debug("{}, re-executing query. Snapshot retries remaining: {}", e.getMessage(), snapshotRetries - 1);
+                        result = null;
+                    }
+
+                    executionDocuments.unlock();
+                    lockedDocuments = null;
+                    if (--snapshotRetries > 0) {
+                        lockedDocuments = protectDocuments(broker, true);
+                        executionDocuments = lockedDocuments;
+                    } else {
+                        // fall back to locking the documents, but only for this execution of the query
+                        executionDocuments = null;
+                        executionDocuments = protectDocuments(broker, false);
+                    }
+                }
+            } finally {
+                if (executionDocuments != null && executionDocuments != lockedDocuments) {
+                    executionDocuments.unlock();
+                }
+            }
         } catch (final Exception e) {
             // need to catch all runtime exceptions here to be able to release locked documents
             throw new XMLDBException(ErrorCodes.VENDOR_ERROR, e.getMessage(), e);
@@ -397,36 +444,61 @@ public class LocalXPathQueryService extends AbstractLocalService implements EXis
      */
     @Override
     public void beginProtected() throws XMLDBException {
+        beginProtected(false);
+    }
+
+    /**
+     * Execute all following queries against a snapshot of the documents.
+     * The documents are not kept locked, instead each query is
+     * re-executed if the documents were modified whilst it was executing.
+     * Intended for read-only queries.
+     */
+    @Override
+    public void beginSnapshot() throws XMLDBException {
+        beginProtected(true);
+    }
+
+    private void beginProtected(final boolean snapshot) throws XMLDBException {
         try {
-            int retries = BEGIN_PROTECTED_MAX_LOCKING_RETRIES == - 1 ? -1 : BEGIN_PROTECTED_MAX_LOCKING_RETRIES - 2;
-            boolean deadlockCaught;
-            do {
-                reservedBroker = brokerPool.get(Optional.of(user));
-                deadlockCaught = false;
-                MutableDocumentSet docs = null;
-                try {
-                    final org.exist.collections.Collection coll = reservedBroker.getCollection(collection.getPathURI());
-                    lockedDocuments = new LockedDocumentMap();
-                    docs = new DefaultDocumentSet();
-                    coll.allDocs(reservedBroker, docs, true, lockedDocuments, LockMode.WRITE_LOCK);
-                    return;
-                } catch (final LockException e) {
-                    LOG.warn("Deadlock detected. Starting over again. Docs: {}; locked: {}. Cause: {}", docs.getDocumentCount(), lockedDocuments.size(), e.getMessage());
-                    lockedDocuments.unlock();
-                    reservedBroker.close();
-                    deadlockCaught = true;
-                } catch (final PermissionDeniedException e) {
-                    throw new XMLDBException(ErrorCodes.PERMISSION_DENIED,
-                            "Permission denied on document");
-                }
-                retries--;
-            } while (deadlockCaught && retries >= -1);
+            reservedBroker = brokerPool.get(Optional.of(user));
+            lockedDocuments = protectDocuments(reservedBroker, snapshot);
+            this.snapshot = snapshot;
+        } catch (final XMLDBException e) {
+            releaseReservedBroker();
+            throw e;
         } catch (final EXistException e) {
-            if(reservedBroker != null) {
-                reservedBroker.close();
-            }
+            releaseReservedBroker();
             throw new XMLDBException(ErrorCodes.VENDOR_ERROR, e.getMessage());
         }
+    }
+
+    private void releaseReservedBroker() {
+        if (reservedBroker != null) {
+            reservedBroker.close();
+        }
+        reservedBroker = null;
+    }
+
+    private LockedDocumentMap protectDocuments(final DBBroker broker, final boolean snapshot) throws XMLDBException {
+        final LockMode documentLockMode = snapshot ? LockMode.READ_LOCK : LockMode.WRITE_LOCK;
+        int retries = BEGIN_PROTECTED_MAX_LOCKING_RETRIES == - 1 ? -1 : BEGIN_PROTECTED_MAX_LOCKING_RETRIES - 2;
+        do {
+            MutableDocumentSet docs = null;
+            final LockedDocumentMap protectedDocuments = new LockedDocumentMap(snapshot);
+            try {
+                final org.exist.collections.Collection coll = broker.getCollection(collection.getPathURI());
+                docs = new DefaultDocumentSet();
+                coll.allDocs(broker, docs, true, protectedDocuments, documentLockMode);
+                return protectedDocuments;
+            } catch (final LockException e) {
+                LOG.warn("Deadlock detected. Starting over again. Docs: {}; locked: {}. Cause: {}", docs.getDocumentCount(), protectedDocuments.size(), e.getMessage());
+                protectedDocuments.unlock();
+            } catch (final PermissionDeniedException e) {
+                throw new XMLDBException(ErrorCodes.PERMISSION_DENIED,
+                        "Permission denied on document");
+            }
+            retries--;
+        } while (retries >= -1);
 
         throw new XMLDBException(ErrorCodes.VENDOR_ERROR, "Unable to beginProtected after " + BEGIN_PROTECTED_MAX_LOCKING_RETRIES + " retries");
     }
@@ -443,11 +515,9 @@ public class LocalXPathQueryService extends AbstractLocalService implements EXis
             lockedDocuments.unlock();
         }
         lockedDocuments = null;
+        snapshot = false;
 
-        if (reservedBroker != null) {
-            reservedBroker.close();
-        }
-        reservedBroker = null;
+        releaseReservedBroker();
     }
 
     @Override
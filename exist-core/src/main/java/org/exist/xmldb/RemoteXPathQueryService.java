@@ -47,6 +47,7 @@ public class RemoteXPathQueryService extends AbstractRemoteService implements EX
     private final Properties outputProperties;
     private String moduleLoadPath = null;
     private boolean protectedMode = false;
+    private boolean snapshotMode = false;
 
     /**
      * Creates a new RemoteXPathQueryService instance.
@@ -95,6 +96,9 @@ public class RemoteXPathQueryService extends AbstractRemoteService implements EX
         }
         if (protectedMode) {
             optParams.put(RpcAPI.PROTECTED_MODE, collection.getPath());
+            if (snapshotMode) {
+                optParams.put(RpcAPI.SNAPSHOT_MODE, Boolean.TRUE);
+            }
         }
         final List<Object> params = new ArrayList<>();
         params.add(query.getBytes(UTF_8));
@@ -232,6 +236,9 @@ public class RemoteXPathQueryService extends AbstractRemoteService implements EX
                 outputProperties.getProperty(RpcAPI.BASE_URI, collection.getPath()));
         if (protectedMode) {
             optParams.put(RpcAPI.PROTECTED_MODE, collection.getPath());
+            if (snapshotMode) {
+                optParams.put(RpcAPI.SNAPSHOT_MODE, Boolean.TRUE);
+            }
         }
         final List<Object> params = new ArrayList<>();
         params.add(query.getBytes(UTF_8));
@@ -373,8 +380,15 @@ public class RemoteXPathQueryService extends AbstractRemoteService implements EX
         protectedMode = true;
     }
 
+    @Override
+    public void beginSnapshot() {
+        protectedMode = true;
+        snapshotMode = true;
+    }
+
     @Override
     public void endProtected() {
         protectedMode = false;
+        snapshotMode = false;
     }
 }
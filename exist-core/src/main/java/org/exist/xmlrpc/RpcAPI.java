@@ -51,6 +51,7 @@ public interface RpcAPI {
     String BASE_URI = "base-uri";
     String STATIC_DOCUMENTS = "static-documents";
     String PROTECTED_MODE = "protected";
+    String SNAPSHOT_MODE = "snapshot";
     String ERROR = "error";
     String LINE = "line";
     String COLUMN = "column";
@@ -63,6 +63,7 @@ import org.exist.storage.DBBroker.PreserveType;
 import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.lock.LockManager;
 import org.exist.storage.lock.LockedDocumentMap;
+import org.exist.storage.lock.SnapshotInvalidatedException;
 import org.exist.storage.lock.ManagedCollectionLock;
 import org.exist.storage.lock.ManagedDocumentLock;
 import org.exist.storage.serializers.EXistOutputKeys;
@@ -73,6 +74,7 @@ import org.exist.util.*;
 import org.exist.util.crypto.digest.DigestType;
 import org.exist.util.crypto.digest.MessageDigest;
 import org.exist.util.io.TemporaryFileManager;
+import org.exist.util.serializer.AbstractSerializer;
 import org.exist.util.serializer.SAXSerializer;
 import org.exist.util.serializer.SerializerPool;
 import org.exist.validation.ValidationReport;
@@ -117,6 +119,7 @@ import org.xmldb.api.base.*;
 
 import static com.evolvedbinary.j8fu.tuple.Tuple.Tuple;
 import static org.exist.xmldb.EXistXPathQueryService.BEGIN_PROTECTED_MAX_LOCKING_RETRIES;
+import static org.exist.xmldb.EXistXPathQueryService.SNAPSHOT_MAX_RETRIES;
 import static java.nio.file.StandardOpenOption.*;
 
 /**
@@ -241,19 +244,44 @@ public class RpcConnection implements RpcAPI {
         final XQuery xquery = broker.getBrokerPool().getXQueryService();
 
         checkPragmas(compiled.getContext(), parameters);
+        int snapshotRetries = parameters.get(RpcAPI.SNAPSHOT_MODE) != null ? SNAPSHOT_MAX_RETRIES : 0;
         LockedDocumentMap lockedDocuments = null;
         try {
             final long start = System.currentTimeMillis();
-            lockedDocuments = beginProtected(broker, parameters);
-            if (lockedDocuments != null) {
-                compiled.getContext().setProtectedDocs(lockedDocuments);
-            }
-            final Properties outputProperties = new Properties();
-            final Sequence result = xquery.execute(broker, compiled, contextSet, outputProperties);
-            // pass last modified date to the HTTP response
-            HTTPUtils.addLastModifiedHeader(result, compiled.getContext());
-            LOG.info("query took {}ms.", System.currentTimeMillis() - start);
-            return new QueryResult(result, outputProperties);
+            while (true) {
+                lockedDocuments = beginProtected(broker, parameters, snapshotRetries > 0);
+                if (lockedDocuments != null) {
+                    compiled.getContext().setProtectedDocs(lockedDocuments);
+                }
+                final Properties outputProperties = new Properties();
+                final Sequence result;
+                try {
+                    try {
+                        result = xquery.execute(broker, compiled, contextSet, outputProperties);
+                    } catch (final XPathException e) {
+                        // reading the nodes of a document which was concurrently updated may fail
+                        if (lockedDocuments != null) {
+                            lockedDocuments.checkSnapshot(broker, e);
+                        }
+                        throw e;
+                    }
+                    if (lockedDocuments != null) {
+                        lockedDocuments.checkSnapshot(broker, null);
+                    }
+                } catch (final SnapshotInvalidatedException e) {
+                    // documents were modified whilst the query was executing, so re-execute it
+                    LOG.debug("{}, re-executing query. Snapshot retries remaining: {}", e.getMessage(), snapshotRetries - 1);
+                    lockedDocuments.unlock();
+                    lockedDocuments = null;
+                    snapshotRetries--;
+                    continue;
+                }
+
+                // pass last modified date to the HTTP response
+                HTTPUtils.addLastModifiedHeader(result, compiled.getContext());
+                LOG.info("query took {}ms.", System.currentTimeMillis() - start);
+                return new QueryResult(result, outputProperties);
+            }
         } catch (final XPathException e) {
             return new QueryResult(e);
         } finally {
@@ -263,7 +291,20 @@ public class RpcConnection implements RpcAPI {
         }
     }
 
-    protected LockedDocumentMap beginProtected(final DBBroker broker, final Map<String, Object> parameters) throws EXistException, PermissionDeniedException {
+    /**
+     * Locks the documents of the protected collection given in the {@code parameters}.
+     *
+     * @param broker the database broker
+     * @param parameters the query parameters
+     * @param snapshot true to take a snapshot of the documents instead of keeping them locked,
+     *     in which case the documents only need to be read locked whilst the snapshot is taken.
+     *
+     * @return the locked documents, or null if no protected collection was requested
+     *
+     * @throws EXistException if the documents could not be locked
+     * @throws PermissionDeniedException if the user may not access the protected collection
+     */
+    protected LockedDocumentMap beginProtected(final DBBroker broker, final Map<String, Object> parameters, final boolean snapshot) throws EXistException, PermissionDeniedException {
         final String protectColl = (String) parameters.get(RpcAPI.PROTECTED_MODE);
         if (protectColl == null) {
             return null;
@@ -272,9 +313,10 @@ public class RpcConnection implements RpcAPI {
         int retries = BEGIN_PROTECTED_MAX_LOCKING_RETRIES == - 1 ? -1 : BEGIN_PROTECTED_MAX_LOCKING_RETRIES - 2;
         do {
             MutableDocumentSet docs = null;
-            final LockedDocumentMap lockedDocuments = new LockedDocumentMap();
-            final LockMode documentLockMode = LockMode.WRITE_LOCK;
-            final LockMode collectionLockMode = broker.getBrokerPool().getLockManager().relativeCollectionLockMode(LockMode.READ_LOCK, documentLockMode);
+            final LockedDocumentMap lockedDocuments = new LockedDocumentMap(snapshot);
+            final LockMode documentLockMode = snapshot ? LockMode.READ_LOCK : LockMode.WRITE_LOCK;
+            // the documents are enumerated under the collection lock, so it may not be an intention lock
+            final LockMode collectionLockMode = broker.getBrokerPool().getLockManager().enumeratedCollectionLockMode(documentLockMode);
             try (final Collection coll = broker.openCollection(XmldbURI.createInternal(protectColl), collectionLockMode)) {
                 docs = new DefaultDocumentSet();
                 coll.allDocs(broker, docs, true, lockedDocuments, documentLockMode);
@@ -2208,7 +2250,7 @@ public class RpcConnection implements RpcAPI {
             try (final OutputStream os = compression
                     ? new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))
                     : new BufferedOutputStream(Files.newOutputStream(tempFile));
-                    final Writer writer = new OutputStreamWriter(os, getEncoding(parameters))) {
+                    final Writer writer = AbstractSerializer.createWriter(os, getEncoding(parameters))) {
                 serialize(broker, toProperties(parameters), saxSerializer -> saxSerializer.toSAX(node), writer);
             }
 
@@ -2312,7 +2354,7 @@ public class RpcConnection implements RpcAPI {
             try (final OutputStream os = compression
                     ? new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))
                     : new BufferedOutputStream(Files.newOutputStream(tempFile));
-                    final Writer writer = new OutputStreamWriter(os, getEncoding(parameters))) {
+                    final Writer writer = AbstractSerializer.createWriter(os, getEncoding(parameters))) {
                 if (Type.subTypeOf(item.getType(), Type.NODE)) {
                     final NodeValue nodeValue = (NodeValue) item;
                     for (final Map.Entry<Object, Object> entry : qr.serialization.entrySet()) {
@@ -2430,7 +2472,7 @@ public class RpcConnection implements RpcAPI {
                 try (final OutputStream os = compression
                         ? new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))
                         : new BufferedOutputStream(Files.newOutputStream(tempFile));
-                     final Writer writer = new OutputStreamWriter(os, getEncoding(parameters))) {
+                     final Writer writer = AbstractSerializer.createWriter(os, getEncoding(parameters))) {
                     handler.setOutput(writer, toProperties(parameters));
 
                     // serialize results
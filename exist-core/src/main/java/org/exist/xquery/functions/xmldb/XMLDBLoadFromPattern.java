@@ -24,19 +24,34 @@ package org.exist.xquery.functions.xmldb;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.StringTokenizer;
+
+import javax.annotation.Nullable;
 
 import org.apache.tools.ant.DirectoryScanner;
+import org.exist.EXistException;
 import org.exist.dom.QName;
+import org.exist.indexing.IndexController;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionException;
+import org.exist.storage.txn.Txn;
+import org.exist.util.FileInputSource;
 import org.exist.util.FileUtils;
+import org.exist.util.LockException;
 import org.exist.util.MimeTable;
 import org.exist.util.MimeType;
 import org.exist.xmldb.EXistResource;
+import org.exist.xmldb.LocalCollection;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.AnyURIValue;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.Sequence;
@@ -47,6 +62,9 @@ import org.exist.xquery.value.ValueSequence;
 import org.xmldb.api.base.Collection;
 import org.xmldb.api.base.Resource;
 import org.xmldb.api.base.XMLDBException;
+import org.xml.sax.SAXException;
+
+import static org.exist.xquery.XPathException.execAndAddErrorIfMissing;
 
 /**
  * @author wolf
@@ -158,8 +176,12 @@ public class XMLDBLoadFromPattern extends XMLDBAbstractCollectionManipulator {
         directoryScanner.setCaseSensitive(true);
         directoryScanner.scan();
 
+        if (collection instanceof LocalCollection) {
+            storeLocal(((LocalCollection) collection).getPathURI(), baseDir, directoryScanner.getIncludedFiles(), mimeTypeFromArgs, keepDirStructure, stored);
+            return stored;
+        }
+
         Collection col = collection;
-        String relDir;
         String prevDir = null;
 
         // store according to each pattern
@@ -170,28 +192,13 @@ public class XMLDBLoadFromPattern extends XMLDBAbstractCollectionManipulator {
                     logger.debug(file.toAbsolutePath().toString());
                 }
 
-                String relPath = file.toString().substring(baseDir.toString().length());
-                final int p = relPath.lastIndexOf(java.io.File.separatorChar);
-
-                if (p >= 0) {
-                    relDir = relPath.substring(0, p);
-                    relDir = relDir.replace(java.io.File.separatorChar, '/');
-                } else {
-                    relDir = relPath;
-                }
-
+                final String relDir = getRelativeDir(baseDir, file);
                 if (keepDirStructure && (prevDir == null || (!relDir.equals(prevDir)))) {
                     col = createCollectionPath(collection, relDir);
                     prevDir = relDir;
                 }
 
-                MimeType mimeType = mimeTypeFromArgs;
-                if (mimeType == null) {
-                    mimeType = MimeTable.getInstance().getContentTypeFor(FileUtils.fileName(file));
-                    if (mimeType == null) {
-                        mimeType = MimeType.BINARY_TYPE;
-                    }
-                }
+                final MimeType mimeType = getMimeType(file, mimeTypeFromArgs);
 
                 //TODO  : these probably need to be encoded and checked for right mime type
                 final Resource resource = col.createResource(FileUtils.fileName(file), mimeType.getXMLDBType());
@@ -210,4 +217,93 @@ public class XMLDBLoadFromPattern extends XMLDBAbstractCollectionManipulator {
 
         return stored;
     }
+
+    /**
+     * Stores the files into a collection of this database through the broker.
+     *
+     * All of the files are stored in one transaction within an index batch, see
+     * {@link IndexController#startBatch()}, so that the structural index entries
+     * of all the documents are written together when the transaction completes.
+     * As when storing through the XML:DB API, a file which cannot be stored is
+     * logged and skipped.
+     */
+    private void storeLocal(final XmldbURI collectionUri, final Path baseDir, final String[] includedFiles,
+            @Nullable final MimeType mimeTypeFromArgs, final boolean keepDirStructure, final ValueSequence stored)
+            throws XPathException {
+        final DBBroker broker = context.getBroker();
+        final IndexController indexController = broker.getIndexController();
+        try (final Txn transaction = broker.continueOrBeginTransaction()) {
+            indexController.startBatch();
+            try {
+                XmldbURI targetUri = collectionUri;
+                org.exist.collections.Collection target = null;
+                String prevDir = null;
+
+                // store according to each pattern
+                for (final String includedFile : includedFiles) {
+                    final Path file = baseDir.resolve(includedFile);
+                    try {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug(file.toAbsolutePath().toString());
+                        }
+
+                        final String relDir = getRelativeDir(baseDir, file);
+                        if (target == null || (keepDirStructure && !relDir.equals(prevDir))) {
+                            targetUri = keepDirStructure ? appendCollectionPath(collectionUri, relDir) : collectionUri;
+                            target = broker.getOrCreateCollection(transaction, targetUri);
+                            broker.saveCollection(transaction, target);
+                            prevDir = relDir;
+                        }
+
+                        final XmldbURI name = XmldbURI.create(FileUtils.fileName(file));
+                        try (final FileInputSource is = new FileInputSource(file)) {
+                            broker.storeDocument(transaction, name, is, getMimeType(file, mimeTypeFromArgs), target);
+                        }
+
+                        stored.add(new StringValue(this, targetUri.append(name).toString()));
+                    } catch (final EXistException | PermissionDeniedException | LockException | SAXException | IOException e) {
+                        // the collection may not have been created
+                        target = null;
+                        logger.error("Could not store file {}: {}", file.toAbsolutePath(), e.getMessage());
+                    }
+                }
+            } finally {
+                indexController.endBatch();
+            }
+
+            transaction.commit();
+        } catch (final TransactionException | IOException e) {
+            throw new XPathException(this, "Could not store files: " + e.getMessage(), e);
+        }
+    }
+
+    private static String getRelativeDir(final Path baseDir, final Path file) {
+        final String relPath = file.toString().substring(baseDir.toString().length());
+        final int p = relPath.lastIndexOf(java.io.File.separatorChar);
+        if (p >= 0) {
+            return relPath.substring(0, p).replace(java.io.File.separatorChar, '/');
+        } else {
+            return relPath;
+        }
+    }
+
+    private static MimeType getMimeType(final Path file, @Nullable final MimeType mimeTypeFromArgs) {
+        MimeType mimeType = mimeTypeFromArgs;
+        if (mimeType == null) {
+            mimeType = MimeTable.getInstance().getContentTypeFor(FileUtils.fileName(file));
+            if (mimeType == null) {
+                mimeType = MimeType.BINARY_TYPE;
+            }
+        }
+        return mimeType;
+    }
+
+    private XmldbURI appendCollectionPath(final XmldbURI parentUri, final String relPath) throws XPathException {
+        XmldbURI current = parentUri;
+        final StringTokenizer tok = new StringTokenizer(execAndAddErrorIfMissing(this, () -> new AnyURIValue(relPath).toXmldbURI().toString()), "/");
+        while (tok.hasMoreTokens()) {
+            current = current.append(tok.nextToken());
+        }
+        return current;
+    }
 }
\ No newline at end of file
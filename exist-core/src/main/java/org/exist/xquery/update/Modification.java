@@ -154,6 +154,11 @@ public abstract class Modification extends AbstractExpression
             // during the modification
             lockedDocumentsLocks = lockedDocuments.lock(context.getBroker(), true);
 
+            // invalidate any snapshot of the documents before they are modified
+            for (final Iterator<DocumentImpl> i = lockedDocuments.getDocumentIterator(); i.hasNext(); ) {
+                i.next().incrementModificationCount();
+            }
+
             final StoredNode ql[] = new StoredNode[nodes.getItemCount()];
             for (int i = 0; i < ql.length; i++) {
                 final Item item = nodes.itemAt(i);
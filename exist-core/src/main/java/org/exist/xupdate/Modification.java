@@ -239,6 +239,11 @@ public abstract class Modification {
 	        // we have to avoid that node positions change
 	        // during the modification
 	        lockedDocumentsLocks = lockedDocuments.lock(broker, true);
+
+	        // invalidate any snapshot of the documents before they are modified
+	        for (final Iterator<DocumentImpl> i = lockedDocuments.getDocumentIterator(); i.hasNext(); ) {
+	            i.next().incrementModificationCount();
+	        }
 	        
 		    final StoredNode ql[] = new StoredNode[nl.getLength()];		    
 			for (int i = 0; i < ql.length; i++) {
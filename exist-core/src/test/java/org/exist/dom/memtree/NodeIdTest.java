@@ -0,0 +1,186 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.memtree;
+
+import org.exist.Namespaces;
+import org.exist.dom.QName;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.ExistSAXParserFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the node ids computed on demand by {@link DocumentImpl#getNodeIdFor(int)} and
+ * {@link DocumentImpl#getAttrNodeIdFor(int)} against the ids computed for the whole document.
+ */
+public class NodeIdTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private static final String XML =
+            "<a x='1' y='2'>" +
+                "text<b z='3'><c/><c w='4'>deep<d/></c></b>" +
+                "<!-- comment --><?pi data?>" +
+                "<b><c v='5'/></b>" +
+            "</a>";
+
+    /**
+     * Node ids of the nodes of {@link #XML} in document order, without the document node.
+     */
+    private static final List<String> NODE_IDS = Arrays.asList(
+            "1", "1.3", "1.4", "1.4.2", "1.4.3", "1.4.3.2", "1.4.3.3", "1.5", "1.6", "1.7", "1.7.1");
+
+    private static final List<String> ATTR_NODE_IDS = Arrays.asList(
+            "1.1", "1.2", "1.4.1", "1.4.3.1", "1.7.1.1");
+
+    @Test
+    public void nestedElements() throws Exception {
+        final DocumentImpl eager = computeAll(parse(XML));
+        final List<String> eagerIds = new ArrayList<>();
+        for (int nodeNum = 1; nodeNum < eager.getSize(); nodeNum++) {
+            eagerIds.add(eager.getNodeIdFor(nodeNum).toString());
+
+            // a single lookup in a new document computes just that id
+            assertEquals(eager.getNodeIdFor(nodeNum), parse(XML).getNodeIdFor(nodeNum));
+        }
+        assertEquals(NODE_IDS, eagerIds);
+        assertEquals(eager.getNodeIdFor(0), parse(XML).getNodeIdFor(0));
+    }
+
+    @Test
+    public void attributes() throws Exception {
+        final DocumentImpl eager = computeAll(parse(XML));
+        final List<String> eagerIds = new ArrayList<>();
+        for (int attr = 0; attr < eager.nextAttr; attr++) {
+            eagerIds.add(eager.getAttrNodeIdFor(attr).toString());
+            assertEquals(eager.getAttrNodeIdFor(attr), parse(XML).getAttrNodeIdFor(attr));
+        }
+        assertEquals(ATTR_NODE_IDS, eagerIds);
+    }
+
+    @Test
+    public void repeatedLookups() throws Exception {
+        // enough lookups on the same document to switch to computing all ids part way through
+        final DocumentImpl eager = computeAll(parse(XML));
+        final DocumentImpl lazy = parse(XML);
+        for (int round = 0; round < 3; round++) {
+            for (int nodeNum = lazy.getSize() - 1; nodeNum > 0; nodeNum--) {
+                assertEquals(eager.getNodeIdFor(nodeNum), lazy.getNodeIdFor(nodeNum));
+            }
+            for (int attr = 0; attr < lazy.nextAttr; attr++) {
+                assertEquals(eager.getAttrNodeIdFor(attr), lazy.getAttrNodeIdFor(attr));
+            }
+        }
+    }
+
+    @Test
+    public void memTreeBuilder() {
+        final int[] nodes = new int[7];
+        final DocumentImpl eager = computeAll(build(nodes));
+        final List<String> eagerIds = new ArrayList<>();
+        for (final int nodeNum : nodes) {
+            eagerIds.add(eager.getNodeIdFor(nodeNum).toString());
+        }
+        assertEquals(Arrays.asList("1", "1.2", "1.3", "1.4", "1.4.2", "1.4.2.1", "1.4.3"), eagerIds);
+        assertEquals("1.1", eager.getAttrNodeIdFor(0).toString());
+        assertEquals("1.4.1", eager.getAttrNodeIdFor(1).toString());
+
+        for (int nodeNum = 0; nodeNum < eager.getSize(); nodeNum++) {
+            assertEquals(eager.getNodeIdFor(nodeNum), build(null).getNodeIdFor(nodeNum));
+        }
+        for (int attr = 0; attr < eager.nextAttr; attr++) {
+            assertEquals(eager.getAttrNodeIdFor(attr), build(null).getAttrNodeIdFor(attr));
+        }
+    }
+
+    /**
+     * Builds {@code <a x="1">text<b/><b y="2"><c><d/></c>tail</b></a>}.
+     *
+     * @param nodes if not null, receives the node numbers of a, text, b, b, c, d and tail
+     */
+    private static DocumentImpl build(final int[] nodes) {
+        final int[] nodeNums = new int[7];
+        final MemTreeBuilder builder = new MemTreeBuilder();
+        builder.startDocument();
+        nodeNums[0] = builder.startElement(new QName("a"), null);
+        builder.addAttribute(new QName("x"), "1");
+        nodeNums[1] = builder.characters("text");
+        nodeNums[2] = builder.startElement(new QName("b"), null);
+        builder.endElement();
+        nodeNums[3] = builder.startElement(new QName("b"), null);
+        builder.addAttribute(new QName("y"), "2");
+        nodeNums[4] = builder.startElement(new QName("c"), null);
+        nodeNums[5] = builder.startElement(new QName("d"), null);
+        builder.endElement();
+        builder.endElement();
+        nodeNums[6] = builder.characters("tail");
+        builder.endElement();
+        builder.endElement();
+        builder.endDocument();
+        if (nodes != null) {
+            System.arraycopy(nodeNums, 0, nodes, 0, nodeNums.length);
+        }
+        return builder.getDocument();
+    }
+
+    /**
+     * Computes the ids of all nodes of the document at once, as a lookup by id does.
+     */
+    private static DocumentImpl computeAll(final DocumentImpl doc) {
+        doc.getNodeById(doc.getNodeIdFor(1));
+        return doc;
+    }
+
+    private static DocumentImpl parse(final String xml) throws ParserConfigurationException, SAXException, IOException {
+        final SAXParserFactory saxParserFactory = ExistSAXParserFactory.getSAXParserFactory();
+        saxParserFactory.setNamespaceAware(true);
+
+        final SAXAdapter saxAdapter = new SAXAdapter();
+        final SAXParser saxParser = saxParserFactory.newSAXParser();
+        final XMLReader xmlReader = saxParser.getXMLReader();
+
+        xmlReader.setContentHandler(saxAdapter);
+        xmlReader.setProperty(Namespaces.SAX_LEXICAL_HANDLER, saxAdapter);
+
+        try (final Reader reader = new StringReader(xml)) {
+            xmlReader.parse(new InputSource(reader));
+        }
+
+        return saxAdapter.getDocument();
+    }
+}
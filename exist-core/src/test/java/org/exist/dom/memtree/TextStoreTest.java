@@ -0,0 +1,102 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.memtree;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class TextStoreTest {
+
+    @Test
+    public void valuesStayContiguousAcrossChunks() {
+        final TextStore text = new TextStore();
+        final String value = "x".repeat(1000);
+        final int[] addresses = new int[100];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = text.add(value + i);
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            final String expected = value + i;
+            assertEquals(expected, text.getString(addresses[i], expected.length()));
+        }
+    }
+
+    @Test
+    public void largeValue() {
+        final TextStore text = new TextStore();
+        final int small = text.add("abc");
+        final String large = "y".repeat(100_000);
+        final int address = text.add(large.toCharArray(), 0, large.length());
+        final int after = text.add("def");
+
+        assertEquals(large, text.getString(address, large.length()));
+        assertEquals("abc", text.getString(small, 3));
+        assertEquals("def", text.getString(after, 3));
+    }
+
+    @Test
+    public void append() {
+        final TextStore text = new TextStore();
+        int address = text.add("a");
+        final StringBuilder expected = new StringBuilder("a");
+        for (int i = 0; i < 50_000; i++) {
+            address = text.append(address, expected.length(), "bc");
+            expected.append("bc");
+        }
+        assertEquals(expected.toString(), text.getString(address, expected.length()));
+    }
+
+    @Test
+    public void appendToSharedValue() {
+        final TextStore text = new TextStore();
+        final int first = text.add("shared");
+        final int second = text.add("shared".toCharArray(), 0, 6);
+        assertEquals(first, second);
+
+        final int appended = text.append(second, 6, " and more");
+        assertEquals("shared and more", text.getString(appended, 15));
+        assertEquals("shared", text.getString(first, 6));
+    }
+
+    @Test
+    public void appendToEarlierValue() {
+        final TextStore text = new TextStore();
+        final int first = text.add("first");
+        final int second = text.add("second");
+
+        final int appended = text.append(first, 5, "!");
+        assertNotEquals(first, appended);
+        assertEquals("first!", text.getString(appended, 6));
+        assertEquals("second", text.getString(second, 6));
+    }
+
+    @Test
+    public void shareString() {
+        final TextStore text = new TextStore();
+        final String value = new String("value");
+        assertSame(value, text.shareString(value));
+        assertSame(value, text.shareString(new String("value")));
+    }
+}
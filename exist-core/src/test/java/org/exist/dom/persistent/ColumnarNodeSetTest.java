@@ -0,0 +1,172 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.dom.persistent;
+
+import org.exist.collections.Collection;
+import org.exist.numbering.DLN;
+import org.exist.numbering.NodeId;
+import org.exist.storage.RangeIndexSpec;
+import org.exist.storage.StorageAddress;
+import org.exist.xquery.Expression;
+import org.exist.xquery.value.Type;
+import org.junit.Test;
+import org.w3c.dom.Node;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+public class ColumnarNodeSetTest {
+
+    @Test
+    public void sortsAndRemovesDuplicates() {
+        final DocumentImpl doc1 = mockDocument(1);
+        final DocumentImpl doc2 = mockDocument(2);
+
+        final ColumnarNodeSet set = new ColumnarNodeSet();
+        add(set, doc2, "1.1");
+        add(set, doc1, "1.2");
+        add(set, doc1, "1.1");
+        add(set, doc1, "1.2");
+
+        assertEquals(3, set.getLength());
+        assertEquals(2, set.getDocumentCount());
+        assertNodeIs(set.get(0), doc1, "1.1");
+        assertNodeIs(set.get(1), doc1, "1.2");
+        assertNodeIs(set.get(2), doc2, "1.1");
+    }
+
+    @Test
+    public void getMaterializesOnce() {
+        final DocumentImpl doc = mockDocument(1);
+
+        final ColumnarNodeSet set = new ColumnarNodeSet();
+        add(set, doc, "1.1");
+        add(set, doc, "1.2");
+
+        final NodeProxy proxy = set.get(doc, new DLN("1.2"));
+        assertNotNull(proxy);
+        assertSame(proxy, set.get(1));
+        assertTrue(set.contains(new NodeProxy(doc, new DLN("1.2"))));
+        assertNull(set.get(doc, new DLN("1.3")));
+    }
+
+    @Test
+    public void selectParentChild() {
+        final DocumentImpl doc = mockDocument(1);
+
+        final ColumnarNodeSet set = new ColumnarNodeSet();
+        add(set, doc, "1.1");
+        add(set, doc, "1.1.1");
+        add(set, doc, "1.1.2.1");
+        add(set, doc, "1.2");
+        add(set, doc, "1.2.1");
+
+        final NewArrayNodeSet context = new NewArrayNodeSet();
+        context.add(new NodeProxy(doc, new DLN("1.1")));
+
+        final NodeSet children = set.selectParentChild(context, NodeSet.DESCENDANT, Expression.NO_CONTEXT_ID);
+        assertEquals(1, children.getLength());
+        assertNodeIs(children.get(0), doc, "1.1.1");
+
+        final NodeSet descendants = set.selectAncestorDescendant(context, NodeSet.DESCENDANT, false,
+                Expression.NO_CONTEXT_ID, true);
+        assertEquals(2, descendants.getLength());
+        assertNodeIs(descendants.get(0), doc, "1.1.1");
+        assertNodeIs(descendants.get(1), doc, "1.1.2.1");
+
+        final NodeSet descendantsOrSelf = set.selectAncestorDescendant(context, NodeSet.DESCENDANT, true,
+                Expression.NO_CONTEXT_ID, true);
+        assertEquals(3, descendantsOrSelf.getLength());
+        assertNodeIs(descendantsOrSelf.get(0), doc, "1.1");
+    }
+
+    @Test
+    public void selectParentChild_documentNode() {
+        final DocumentImpl doc = mockDocument(1);
+
+        final ColumnarNodeSet set = new ColumnarNodeSet();
+        add(set, doc, "1");
+        add(set, doc, "1.1");
+
+        final NewArrayNodeSet context = new NewArrayNodeSet();
+        context.add(new NodeProxy(doc, NodeId.DOCUMENT_NODE));
+
+        final NodeSet children = set.selectParentChild(context, NodeSet.DESCENDANT, Expression.NO_CONTEXT_ID);
+        assertEquals(1, children.getLength());
+        assertNodeIs(children.get(0), doc, "1");
+    }
+
+    @Test
+    public void getIndexType() {
+        final DocumentImpl doc = mockDocument(1);
+        final long integerAddress = StorageAddress.setIndexType(StorageAddress.createPointer(1, (short) 1),
+                (short) RangeIndexSpec.INTEGER);
+
+        final ColumnarNodeSet set = new ColumnarNodeSet();
+        set.add(doc, new DLN("1.1"), Node.ELEMENT_NODE, integerAddress, null);
+        set.add(doc, new DLN("1.2"), Node.ELEMENT_NODE, integerAddress, null);
+        assertEquals(Type.INTEGER, set.getIndexType());
+
+        final ColumnarNodeSet mixed = new ColumnarNodeSet();
+        mixed.add(doc, new DLN("1.1"), Node.ELEMENT_NODE, integerAddress, null);
+        add(mixed, doc, "1.2");
+        assertEquals(Type.ITEM, mixed.getIndexType());
+    }
+
+    @Test
+    public void getContextNodes() {
+        final DocumentImpl doc = mockDocument(1);
+        final int contextId = 1;
+
+        final ColumnarNodeSet set = new ColumnarNodeSet();
+        add(set, doc, "1.1");
+        add(set, doc, "1.1.1");
+        add(set, doc, "1.2.1");
+        assertTrue(set.getContextNodes(contextId).isEmpty());
+
+        final NodeProxy context = new NodeProxy(doc, new DLN("1.2"));
+        set.get(2).addContextNode(contextId, context);
+
+        final NodeSet contextNodes = set.getContextNodes(contextId);
+        assertEquals(1, contextNodes.getLength());
+        assertNodeIs(contextNodes.get(0), doc, "1.2");
+    }
+
+    private static void add(final ColumnarNodeSet set, final DocumentImpl doc, final String nodeId) {
+        set.add(doc, new DLN(nodeId), Node.ELEMENT_NODE, StoredNode.UNKNOWN_NODE_IMPL_ADDRESS, null);
+    }
+
+    private static void assertNodeIs(final NodeProxy proxy, final DocumentImpl doc, final String nodeId) {
+        assertEquals(doc.getDocId(), proxy.getOwnerDocument().getDocId());
+        assertEquals(new DLN(nodeId), proxy.getNodeId());
+    }
+
+    private static DocumentImpl mockDocument(final int docId) {
+        final Collection collection = createNiceMock(Collection.class);
+        final DocumentImpl doc = createNiceMock(DocumentImpl.class);
+        expect(doc.getDocId()).andReturn(docId).anyTimes();
+        expect(doc.getCollection()).andReturn(collection).anyTimes();
+        replay(collection, doc);
+        return doc;
+    }
+}
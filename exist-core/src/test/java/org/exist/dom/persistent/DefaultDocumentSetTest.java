@@ -34,6 +34,8 @@ import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -372,6 +374,94 @@ public class DefaultDocumentSetTest {
         verify(col, doc1, doc6, doc9, doc15, doc34);
     }
 
+    @Test
+    public void intersection() {
+        final Collection col = mockCollection(1);
+
+        final DocumentImpl doc1 = mockDoc(col, 1);
+        final DocumentImpl doc6 = mockDoc(col, 6);
+        final DocumentImpl doc9 = mockDoc(col, 9);
+        final DocumentImpl doc15 = mockDoc(col, 15);
+
+        replay(col, doc1, doc6, doc9, doc15);
+
+        final DefaultDocumentSet set1 = new DefaultDocumentSet();
+        set1.add(doc1);
+        set1.add(doc6);
+        set1.add(doc9);
+
+        final DefaultDocumentSet set2 = new DefaultDocumentSet();
+        set2.add(doc15);
+        set2.add(doc9);
+        set2.add(doc1);
+
+        // functions under test
+        final DocumentSet result = set1.intersection(set2);
+        assertEquals(2, result.getDocumentCount());
+        assertTrue(result.contains(1));
+        assertTrue(result.contains(9));
+        assertFalse(result.contains(6));
+        assertSame(doc9, result.getDoc(9));
+
+        verify(col, doc1, doc6, doc9, doc15);
+    }
+
+    @Test
+    public void intersection_nonOptimized() {
+        final Collection col = mockCollection(1);
+
+        final DocumentImpl doc1 = mockDoc(col, 1);
+        final DocumentImpl doc6 = mockDoc(col, 6);
+        final DocumentImpl doc9 = mockDoc(col, 9);
+
+        replay(col, doc1, doc6, doc9);
+
+        final DefaultDocumentSet set1 = new DefaultDocumentSet();
+        set1.add(doc1);
+        set1.add(doc6);
+        set1.add(doc9);
+
+        final DocumentSet set2 = testableDocumentSet(doc6);
+        replay(set2);
+
+        // functions under test
+        final DocumentSet result = set1.intersection(set2);
+        assertEquals(1, result.getDocumentCount());
+        assertTrue(result.contains(6));
+
+        verify(col, doc1, doc6, doc9);
+    }
+
+    @Test
+    public void union() {
+        final Collection col = mockCollection(1);
+
+        final DocumentImpl doc1 = mockDoc(col, 1);
+        final DocumentImpl doc6 = mockDoc(col, 6);
+        final DocumentImpl doc9 = mockDoc(col, 9);
+
+        replay(col, doc1, doc6, doc9);
+
+        final DefaultDocumentSet set1 = new DefaultDocumentSet();
+        set1.add(doc1);
+        set1.add(doc6);
+
+        final DefaultDocumentSet set2 = new DefaultDocumentSet();
+        set2.add(doc6);
+        set2.add(doc9);
+
+        // functions under test
+        final DocumentSet union = set1.union(set2);
+        assertEquals(3, union.getDocumentCount());
+        assertTrue(union.contains(1));
+        assertTrue(union.contains(6));
+        assertTrue(union.contains(9));
+
+        assertEquals(9, set2.getMaxDocId());
+
+        verify(col, doc1, doc6, doc9);
+    }
+
     private final Collection mockCollection(final int colId) {
         final Collection col = createMock(Collection.class);
         expect(col.compareTo(col)).andReturn(0).anyTimes();
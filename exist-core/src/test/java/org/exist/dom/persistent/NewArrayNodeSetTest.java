@@ -22,12 +22,17 @@
 
 package org.exist.dom.persistent;
 
+import org.exist.numbering.DLN;
 import org.exist.xquery.Constants;
 import org.exist.xquery.value.SequenceIterator;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class NewArrayNodeSetTest {
 
@@ -93,6 +98,91 @@ public class NewArrayNodeSetTest {
         assertEquals(69, count);
     }
 
+    @Test
+    public void intersection() {
+        final DocumentImpl doc1 = mockDocument(1);
+        final DocumentImpl doc2 = mockDocument(2);
+        final DocumentImpl doc3 = mockDocument(3);
+
+        final NewArrayNodeSet left = nodeSet(doc3, "1.1", doc1, "1.2", doc1, "1.3", doc2, "1.1");
+        final NewArrayNodeSet right = nodeSet(doc1, "1.3", doc1, "1.1", doc3, "1.1", doc3, "1.2");
+
+        assertEquals(asList("1/1.3", "3/1.1"), asList(left.intersection(right)));
+        assertEquals(asList("1/1.3", "3/1.1"), asList(right.intersection(left)));
+        assertTrue(left.intersection(new NewArrayNodeSet()).isEmpty());
+    }
+
+    @Test
+    public void union() {
+        final DocumentImpl doc1 = mockDocument(1);
+        final DocumentImpl doc2 = mockDocument(2);
+
+        final NewArrayNodeSet left = nodeSet(doc2, "1.1", doc1, "1.2");
+        final NewArrayNodeSet right = nodeSet(doc1, "1.2", doc1, "1.3.1", doc2, "1");
+
+        final NodeSet union = left.union(right);
+        assertEquals(asList("1/1.2", "1/1.3.1", "2/1", "2/1.1"), asList(union));
+        assertEquals(2, union.getDocumentSet().getDocumentCount());
+    }
+
+    @Test
+    public void except() {
+        final DocumentImpl doc1 = mockDocument(1);
+        final DocumentImpl doc2 = mockDocument(2);
+        final DocumentImpl doc3 = mockDocument(3);
+
+        final NewArrayNodeSet left = nodeSet(doc1, "1.1", doc1, "1.2", doc2, "1.1", doc3, "1.4");
+        final NewArrayNodeSet right = nodeSet(doc1, "1.2", doc3, "1.1", doc3, "1.4");
+
+        assertEquals(asList("1/1.1", "2/1.1"), asList(left.except(right)));
+    }
+
+    @Test
+    public void documentIntersection() {
+        final DocumentImpl doc1 = mockDocument(1);
+        final DocumentImpl doc2 = mockDocument(2);
+        final DocumentImpl doc3 = mockDocument(3);
+
+        final NewArrayNodeSet left = nodeSet(doc1, "1.1", doc2, "1.1", doc3, "1.1");
+        final NewArrayNodeSet right = nodeSet(doc3, "1.2", doc1, "1.2");
+
+        final DocumentSet docs = left.intersection((DocumentSet) right);
+        assertEquals(2, docs.getDocumentCount());
+        assertTrue(docs.contains(1));
+        assertTrue(docs.contains(3));
+    }
+
+    private static NewArrayNodeSet nodeSet(final Object... docsAndNodeIds) {
+        final NewArrayNodeSet set = new NewArrayNodeSet();
+        for (int i = 0; i < docsAndNodeIds.length; i += 2) {
+            set.add(new NodeProxy(null, (DocumentImpl) docsAndNodeIds[i], new DLN((String) docsAndNodeIds[i + 1])));
+        }
+        return set;
+    }
+
+    private static List<String> asList(final NodeSet set) {
+        final List<String> nodes = new ArrayList<>();
+        for (final NodeProxy node : set) {
+            nodes.add(node.getOwnerDocument().getDocId() + "/" + node.getNodeId());
+        }
+        return nodes;
+    }
+
+    private static List<String> asList(final String... nodes) {
+        final List<String> list = new ArrayList<>();
+        for (final String node : nodes) {
+            list.add(node);
+        }
+        return list;
+    }
+
+    private static DocumentImpl mockDocument(final int docId) {
+        final DocumentImpl doc = createNiceMock(DocumentImpl.class);
+        expect(doc.getDocId()).andReturn(docId).anyTimes();
+        replay(doc);
+        return doc;
+    }
+
     private static NewArrayNodeSet mockNewArrayNodeSet(final int size) {
         final NodeProxy mockNodes[] = new NodeProxy[size];
         for (int i = 0; i < mockNodes.length; i++) {
@@ -0,0 +1,173 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing;
+
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.numbering.DLN;
+import org.exist.numbering.DLNFactory;
+import org.exist.numbering.NodeId;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolServiceException;
+import org.exist.util.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IndexQueryCacheTest {
+
+    private static final String INDEX_ID = "test-index";
+
+    @Test
+    public void disabledByDefault() throws BrokerPoolServiceException {
+        final IndexQueryCache cache = newCache(-1);
+        assertFalse(cache.isEnabled());
+
+        final IndexQueryCache.Key key = IndexQueryCache.key(INDEX_ID, "query", docs(1));
+        final IndexQueryCache.HitsBuilder builder = cache.newHits();
+        builder.add(1, new DLN("1.2"), 42);
+        assertNull(builder.build());
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void hit() throws BrokerPoolServiceException {
+        final IndexQueryCache cache = newCache(1024 * 1024);
+        assertTrue(cache.isEnabled());
+
+        final long generation = cache.getGeneration();
+        final IndexQueryCache.HitsBuilder builder = cache.newHits();
+        builder.add(1, new DLN("1.2"), 42);
+        builder.add(2, new DLN("1.3.5"), -1);
+        cache.put(IndexQueryCache.key(INDEX_ID, "query", docs(2, 1)), builder.build(), generation);
+
+        // same documents in a different order
+        final IndexQueryCache.Hits hits = cache.get(IndexQueryCache.key(INDEX_ID, "query", docs(1, 2)));
+        assertNotNull(hits);
+        assertEquals(2, hits.getCount());
+
+        final List<String> replayed = new ArrayList<>();
+        hits.forEach(new DLNFactory(), (docId, nodeId, address) -> replayed.add(docId + "/" + nodeId + "/" + address));
+        assertEquals("1/1.2/42", replayed.get(0));
+        assertEquals("2/1.3.5/-1", replayed.get(1));
+
+        assertEquals(1, cache.getStatistics().getHitCount());
+        assertEquals(0, cache.getStatistics().getMissCount());
+    }
+
+    @Test
+    public void missOnOtherQueryOrDocuments() throws BrokerPoolServiceException {
+        final IndexQueryCache cache = newCache(1024 * 1024);
+
+        cache.put(IndexQueryCache.key(INDEX_ID, "query", docs(1)), hits(cache, 1), cache.getGeneration());
+
+        assertNull(cache.get(IndexQueryCache.key(INDEX_ID, "other", docs(1))));
+        assertNull(cache.get(IndexQueryCache.key(INDEX_ID, "query", docs(1, 2))));
+        assertNull(cache.get(IndexQueryCache.key("other-index", "query", docs(1))));
+        assertNotNull(cache.get(IndexQueryCache.key(INDEX_ID, "query", docs(1))));
+    }
+
+    @Test
+    public void invalidateDocument() throws BrokerPoolServiceException {
+        final IndexQueryCache cache = newCache(1024 * 1024);
+
+        cache.put(IndexQueryCache.key(INDEX_ID, "a", docs(1, 2)), hits(cache, 1), cache.getGeneration());
+        cache.put(IndexQueryCache.key(INDEX_ID, "b", docs(3)), hits(cache, 3), cache.getGeneration());
+        cache.put(IndexQueryCache.key("other-index", "a", docs(2)), hits(cache, 2), cache.getGeneration());
+
+        // document 2 has no hits for "a", but the lookup covered it
+        cache.invalidate(INDEX_ID, 2);
+
+        assertNull(cache.get(IndexQueryCache.key(INDEX_ID, "a", docs(1, 2))));
+        assertNotNull(cache.get(IndexQueryCache.key(INDEX_ID, "b", docs(3))));
+        assertNotNull(cache.get(IndexQueryCache.key("other-index", "a", docs(2))));
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void noPutAfterInvalidation() throws BrokerPoolServiceException {
+        final IndexQueryCache cache = newCache(1024 * 1024);
+
+        final long generation = cache.getGeneration();
+        // the document is changed whilst the lookup is running
+        cache.invalidate(INDEX_ID, 1);
+        cache.put(IndexQueryCache.key(INDEX_ID, "query", docs(1)), hits(cache, 1), generation);
+
+        assertNull(cache.get(IndexQueryCache.key(INDEX_ID, "query", docs(1))));
+    }
+
+    @Test
+    public void tooLarge() throws BrokerPoolServiceException {
+        final IndexQueryCache cache = newCache(4096);
+
+        final IndexQueryCache.HitsBuilder builder = cache.newHits();
+        for (int i = 1; i <= 1000; i++) {
+            builder.add(1, new DLN(i), i);
+        }
+        assertNull(builder.build());
+    }
+
+    private static IndexQueryCache newCache(final int size) throws BrokerPoolServiceException {
+        final Configuration configuration = createMock(Configuration.class);
+        expect(configuration.getInteger(IndexQueryCache.PROPERTY_CACHE_SIZE_BYTES)).andReturn(size);
+        final BrokerPool brokerPool = createMock(BrokerPool.class);
+        replay(configuration, brokerPool);
+
+        final IndexQueryCache cache = new IndexQueryCache();
+        cache.configure(configuration);
+        cache.prepare(brokerPool);
+
+        verify(configuration, brokerPool);
+        return cache;
+    }
+
+    private static IndexQueryCache.Hits hits(final IndexQueryCache cache, final int docId) {
+        final IndexQueryCache.HitsBuilder builder = cache.newHits();
+        final NodeId nodeId = new DLN("1.1");
+        builder.add(docId, nodeId, -1);
+        return builder.build();
+    }
+
+    private static DocumentSet docs(final int... docIds) {
+        final DefaultDocumentSet docs = new DefaultDocumentSet();
+        for (final int docId : docIds) {
+            final DocumentImpl doc = createMock(DocumentImpl.class);
+            expect(doc.getDocId()).andReturn(docId).anyTimes();
+            expect(doc.getCollection()).andReturn(null).anyTimes();
+            replay(doc);
+            docs.add(doc);
+        }
+        return docs;
+    }
+}
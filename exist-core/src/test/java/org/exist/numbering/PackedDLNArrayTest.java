@@ -0,0 +1,117 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.numbering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PackedDLNArrayTest {
+
+    private static final String[] IDS = {
+            "1", "1.1", "1.1.1", "1.1.1.1", "1.1.2", "1.1/1", "1.1/1.1", "1.2", "1.2.7", "1.2.8", "1.2.71",
+            "1.2.72", "1.2.583", "1.2.583.1", "1.2.584.1", "1.3", "1.100000.1", "1.100000.1.2", "2"
+    };
+
+    @Test
+    public void compareAsDLN() {
+        final PackedDLNArray packed = pack();
+        for (int i = 0; i < IDS.length; i++) {
+            for (int j = 0; j < IDS.length; j++) {
+                final int expected = Integer.signum(new DLN(IDS[i]).compareTo(new DLN(IDS[j])));
+                assertEquals(IDS[i] + " <> " + IDS[j], expected, Integer.signum(packed.compare(i, packed, j)));
+            }
+        }
+    }
+
+    @Test
+    public void computeRelationAsDLN() {
+        final PackedDLNArray packed = pack();
+        for (int i = 0; i < IDS.length; i++) {
+            for (int j = 0; j < IDS.length; j++) {
+                final int expected = new DLN(IDS[i]).computeRelation(new DLN(IDS[j]));
+                assertEquals(IDS[i] + " -> " + IDS[j], expected, packed.computeRelation(i, packed, j));
+            }
+        }
+    }
+
+    @Test
+    public void documentNode() {
+        final PackedDLNArray packed = new PackedDLNArray();
+        final int doc = packed.add(NodeId.DOCUMENT_NODE);
+        final int root = packed.add(new DLN("1"));
+        final int child = packed.add(new DLN("1.1"));
+
+        assertEquals(NodeId.IS_SELF, packed.computeRelation(doc, packed, doc));
+        assertEquals(NodeId.IS_CHILD, packed.computeRelation(root, packed, doc));
+        assertEquals(NodeId.IS_DESCENDANT, packed.computeRelation(child, packed, doc));
+        assertEquals(-1, packed.computeRelation(doc, packed, root));
+        assertEquals(-1, Integer.signum(packed.compare(doc, packed, root)));
+    }
+
+    @Test
+    public void getAndNull() {
+        final PackedDLNArray packed = new PackedDLNArray();
+        packed.add(new DLN("1.2"));
+        packed.add(null);
+        packed.add(NodeId.DOCUMENT_NODE);
+
+        assertEquals(new DLN("1.2"), packed.get(0));
+        assertTrue(packed.isNull(1));
+        assertNull(packed.get(1));
+        assertSame(NodeId.DOCUMENT_NODE, packed.get(2));
+        assertEquals(0, packed.compare(0, new DLN("1.2")));
+    }
+
+    @Test
+    public void compareAndRelateNull() {
+        final PackedDLNArray packed = new PackedDLNArray();
+        final int doc = packed.add(NodeId.DOCUMENT_NODE);
+        final int id = packed.add(new DLN("1.2"));
+        final int nullId = packed.add(null);
+        final int otherNullId = packed.add(null);
+
+        // a null id precedes all other ids
+        assertEquals(0, packed.compare(nullId, packed, otherNullId));
+        assertEquals(-1, Integer.signum(packed.compare(nullId, packed, id)));
+        assertEquals(1, Integer.signum(packed.compare(id, packed, nullId)));
+        assertEquals(-1, Integer.signum(packed.compare(nullId, packed, doc)));
+        assertEquals(0, packed.compare(nullId, null));
+        assertEquals(1, Integer.signum(packed.compare(id, null)));
+        assertEquals(-1, Integer.signum(packed.compare(nullId, new DLN("1.2"))));
+        assertEquals(-1, Integer.signum(packed.compare(nullId, NodeId.DOCUMENT_NODE)));
+
+        // and is not related to any id
+        assertEquals(-1, packed.computeRelation(nullId, packed, doc));
+        assertEquals(-1, packed.computeRelation(id, packed, nullId));
+        assertEquals(-1, packed.computeRelation(nullId, packed, otherNullId));
+    }
+
+    private static PackedDLNArray pack() {
+        // start small, so that the buffers have to grow
+        final PackedDLNArray packed = new PackedDLNArray(1);
+        for (final String id : IDS) {
+            packed.add(new DLN(id));
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.numbering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PackedDLNTest {
+
+    private static final String[] IDS = {
+            "1", "1.1", "1.1.1", "1.1.1.1", "1.1.2", "1.1/1", "1.1/1.1", "1.2", "1.2.7", "1.2.8", "1.2.71",
+            "1.2.72", "1.2.583", "1.2.583.1", "1.2.584.1", "1.3", "1.100000.1", "1.5.3.2.7.1.1.1.1"
+    };
+
+    @Test
+    public void sameAsDLN() {
+        final List<NodeId> ids = new ArrayList<>();
+        final PackedDLNArray packed = new PackedDLNArray();
+        for (final String id : IDS) {
+            final NodeId packedId = packed.get(packed.add(new DLN(id)));
+            assertTrue(packedId instanceof PackedDLN);
+            ids.add(packedId);
+            ids.add(packedId.getParentId());
+            ids.add(new DLN(id));
+        }
+
+        for (final NodeId id : ids) {
+            if (id == NodeId.DOCUMENT_NODE) {
+                continue;
+            }
+            final DLN dln = toDLN(id);
+            assertEquals(dln.toString(), id.toString());
+            assertEquals(dln.getTreeLevel(), id.getTreeLevel());
+            assertEquals(dln.units(), id.units());
+            assertEquals(dln.size(), id.size());
+            assertEquals(dln.getParentId(), id.getParentId());
+            assertEquals(dln.nextSibling(), id.nextSibling());
+
+            for (final NodeId other : ids) {
+                if (other == NodeId.DOCUMENT_NODE) {
+                    continue;
+                }
+                final DLN otherDln = toDLN(other);
+                final String msg = id + " <> " + other;
+                assertEquals(msg, Integer.signum(dln.compareTo(otherDln)), Integer.signum(id.compareTo(other)));
+                assertEquals(msg, dln.computeRelation(otherDln), id.computeRelation(other));
+                assertEquals(msg, dln.isDescendantOf(otherDln), id.isDescendantOf(other));
+                assertEquals(msg, dln.isDescendantOrSelfOf(otherDln), id.isDescendantOrSelfOf(other));
+                assertEquals(msg, dln.isChildOf(otherDln), id.isChildOf(other));
+                assertEquals(msg, dln.equals(otherDln), id.equals(other));
+                assertEquals(msg, other.equals(id), id.equals(other));
+                if (id.equals(other)) {
+                    assertEquals(msg, other.hashCode(), id.hashCode());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parentSharesBits() {
+        final PackedDLNArray packed = new PackedDLNArray();
+        final NodeId id = packed.get(packed.add(new DLN("1.2.3")));
+
+        final NodeId parent = id.getParentId();
+        assertTrue(parent instanceof PackedDLN);
+        assertEquals(new DLN("1.2"), parent);
+        assertEquals(NodeId.IS_CHILD, id.computeRelation(parent));
+        assertEquals(NodeId.DOCUMENT_NODE, parent.getParentId().getParentId());
+
+        // the bits of the child which follow the parent are ignored
+        final byte[] serialized = new byte[parent.size()];
+        parent.serialize(serialized, 0);
+        assertEquals(new DLN(parent.units(), serialized, 0), parent);
+    }
+
+    private static DLN toDLN(final NodeId id) {
+        return id instanceof PackedDLN ? ((PackedDLN) id).toDLN() : (DLN) id;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.numbering.DLN;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContextNodeIndexTest {
+
+    @Test
+    public void groupsByDocument() {
+        final DocumentImpl doc1 = mockDocument(1);
+        final DocumentImpl doc2 = mockDocument(2);
+
+        final NewArrayNodeSet contextSet = new NewArrayNodeSet();
+        contextSet.add(new NodeProxy(null, doc2, new DLN("1.3")));
+        contextSet.add(new NodeProxy(null, doc1, new DLN("1.2")));
+        contextSet.add(new NodeProxy(null, doc2, new DLN("1.1")));
+
+        final ContextNodeIndex index = ContextNodeIndex.of(contextSet);
+
+        final NodeProxy[] nodes1 = index.get(1);
+        assertEquals(1, nodes1.length);
+        assertEquals(new DLN("1.2"), nodes1[0].getNodeId());
+
+        final NodeProxy[] nodes2 = index.get(2);
+        assertEquals(2, nodes2.length);
+        assertEquals(new DLN("1.1"), nodes2[0].getNodeId());
+        assertEquals(new DLN("1.3"), nodes2[1].getNodeId());
+
+        assertNull(index.get(3));
+    }
+
+    @Test
+    public void gallop() {
+        final DocumentImpl doc = mockDocument(1);
+        final NodeProxy[] nodes = new NodeProxy[20];
+        for (int i = 0; i < nodes.length; i++) {
+            // 1.2, 1.4, ..., 1.40
+            nodes[i] = new NodeProxy(null, doc, new DLN("1." + (2 * (i + 1))));
+        }
+
+        assertEquals(0, ContextNodeIndex.gallop(nodes, 0, new DLN("1.1")));
+        assertEquals(0, ContextNodeIndex.gallop(nodes, 0, new DLN("1.2")));
+        assertEquals(1, ContextNodeIndex.gallop(nodes, 0, new DLN("1.2.1")));
+        assertEquals(9, ContextNodeIndex.gallop(nodes, 0, new DLN("1.20")));
+        assertEquals(10, ContextNodeIndex.gallop(nodes, 3, new DLN("1.21")));
+        assertEquals(19, ContextNodeIndex.gallop(nodes, 10, new DLN("1.40")));
+        assertEquals(20, ContextNodeIndex.gallop(nodes, 0, new DLN("1.41")));
+        assertEquals(20, ContextNodeIndex.gallop(nodes, 20, new DLN("1.1")));
+
+        // never moves back before the position it starts from
+        assertEquals(5, ContextNodeIndex.gallop(nodes, 5, new DLN("1.1")));
+    }
+
+    private static DocumentImpl mockDocument(final int docId) {
+        final DocumentImpl doc = createNiceMock(DocumentImpl.class);
+        expect(doc.getDocId()).andReturn(docId).anyTimes();
+        replay(doc);
+        return doc;
+    }
+}
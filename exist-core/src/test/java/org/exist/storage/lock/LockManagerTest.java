@@ -34,6 +34,9 @@ package org.exist.storage.lock;
 
 import com.evolvedbinary.j8fu.function.RunnableE;
 import net.jcip.annotations.ThreadSafe;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.DeadlockException;
 import org.exist.util.LockException;
 import org.exist.xmldb.XmldbURI;
 import org.junit.*;
@@ -44,7 +47,12 @@ import uk.ac.ic.doc.slurp.multilock.MultiLock;
 import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Stack;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.junit.Assert.*;
@@ -587,6 +595,188 @@ public class LockManagerTest {
         assertIntentionWriteOrWriteMode(event9.mode);
     }
 
+    /**
+     * When acquiring an INTENTION_WRITE lock on a descendant-collection of the root
+     * ensure that we hold INTENTION_WRITE locks on the descendant-collection and all of its
+     * ancestors. In single-writer/multi-reader mode the lock must be refused.
+     */
+    @Test
+    public void acquireCollectionIntentionWriteLock_depth3() throws LockException {
+        final String collectionAPath = "/db/colA";
+        final String collectionBPath = collectionAPath + "/colB";
+
+        final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
+
+        if (!enablePathsMultiWriterState) {
+            try (final ManagedCollectionLock colBLock
+                         = lockManager.acquireCollectionIntentionWriteLock(XmldbURI.create(collectionBPath))) {
+                fail("Expected LockException");
+            } catch (final LockException e) {
+                // expected
+            }
+            return;
+        }
+
+        final Stack<LockAction> events = recordLockEvents(lockManager, () -> {
+            try (final ManagedCollectionLock colBLock
+                         = lockManager.acquireCollectionIntentionWriteLock(XmldbURI.create(collectionBPath))) {
+                assertNotNull(colBLock);
+            }
+        });
+
+        assertEquals(9, events.size());
+        final String[] expectedIds = { XmldbURI.ROOT_COLLECTION, collectionAPath, collectionBPath };
+        // locks are released bottom-up, so the last event is the release of /db
+        for (int i = 0; i < expectedIds.length; i++) {
+            final LockAction released = events.pop();
+            assertEquals(LockTable.LockEventType.Released, released.lockEventType);
+            assertEquals(expectedIds[i], released.id);
+            assertEquals(Lock.LockMode.INTENTION_WRITE, released.mode);
+        }
+        for (int i = expectedIds.length - 1; i >= 0; i--) {
+            final LockAction acquired = events.pop();
+            final LockAction attempt = events.pop();
+
+            assertEquals(LockTable.LockEventType.Attempt, attempt.lockEventType);
+            assertEquals(expectedIds[i], attempt.id);
+            assertEquals(Lock.LockMode.INTENTION_WRITE, attempt.mode);
+
+            assertEquals(LockTable.LockEventType.Acquired, acquired.lockEventType);
+            assertEquals(expectedIds[i], acquired.id);
+            assertEquals(Lock.LockMode.INTENTION_WRITE, acquired.mode);
+        }
+    }
+
+    /**
+     * Writers to sibling Collections should not serialise on
+     * their common ancestors when in multi-writer/multi-reader mode.
+     */
+    @Test
+    public void acquireCollectionWriteLock_siblings() throws LockException, InterruptedException {
+        final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
+        final CountDownLatch siblingAcquired = new CountDownLatch(1);
+
+        final Thread sibling;
+        try (final ManagedCollectionLock colXLock = lockManager.acquireCollectionWriteLock(XmldbURI.create("/db/colA/colX"))) {
+            assertNotNull(colXLock);
+
+            sibling = new Thread(() -> {
+                try (final ManagedCollectionLock colYLock = lockManager.acquireCollectionWriteLock(XmldbURI.create("/db/colA/colY"))) {
+                    siblingAcquired.countDown();
+                } catch (final LockException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            sibling.start();
+
+            // in single-writer/multi-reader mode the sibling has to wait for us to release /db and /db/colA
+            assertEquals(enablePathsMultiWriterState, siblingAcquired.await(2, TimeUnit.SECONDS));
+        }
+
+        sibling.join();
+        assertEquals(0, siblingAcquired.getCount());
+    }
+
+    @Test
+    public void relativeCollectionLockMode_separateDocumentLocks() {
+        final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
+        assertEquals(Lock.LockMode.READ_LOCK, lockManager.relativeCollectionLockMode(Lock.LockMode.READ_LOCK, Lock.LockMode.WRITE_LOCK));
+        assertEquals(Lock.LockMode.READ_LOCK, lockManager.relativeCollectionLockMode(Lock.LockMode.READ_LOCK, Lock.LockMode.READ_LOCK));
+        assertEquals(Lock.LockMode.WRITE_LOCK, lockManager.relativeCollectionLockMode(Lock.LockMode.WRITE_LOCK, Lock.LockMode.READ_LOCK));
+    }
+
+    @Test
+    public void relativeCollectionLockMode_pathLocksForDocuments() throws DatabaseConfigurationException {
+        final LockManager lockManager = newPathLocksForDocumentsLockManager();
+        if (enablePathsMultiWriterState) {
+            assertEquals(Lock.LockMode.INTENTION_READ, lockManager.relativeCollectionLockMode(Lock.LockMode.READ_LOCK, Lock.LockMode.READ_LOCK));
+            assertEquals(Lock.LockMode.INTENTION_WRITE, lockManager.relativeCollectionLockMode(Lock.LockMode.READ_LOCK, Lock.LockMode.WRITE_LOCK));
+        } else {
+            assertEquals(Lock.LockMode.READ_LOCK, lockManager.relativeCollectionLockMode(Lock.LockMode.READ_LOCK, Lock.LockMode.READ_LOCK));
+            assertEquals(Lock.LockMode.WRITE_LOCK, lockManager.relativeCollectionLockMode(Lock.LockMode.READ_LOCK, Lock.LockMode.WRITE_LOCK));
+        }
+        assertEquals(Lock.LockMode.WRITE_LOCK, lockManager.relativeCollectionLockMode(Lock.LockMode.WRITE_LOCK, Lock.LockMode.READ_LOCK));
+    }
+
+    @Test
+    public void enumeratedCollectionLockMode_separateDocumentLocks() {
+        final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
+        assertEquals(Lock.LockMode.READ_LOCK, lockManager.enumeratedCollectionLockMode(Lock.LockMode.READ_LOCK));
+        assertEquals(Lock.LockMode.READ_LOCK, lockManager.enumeratedCollectionLockMode(Lock.LockMode.WRITE_LOCK));
+    }
+
+    /**
+     * An enumerated Collection is never only intention locked, also
+     * not in multi-writer/multi-reader mode.
+     */
+    @Test
+    public void enumeratedCollectionLockMode_pathLocksForDocuments() throws DatabaseConfigurationException {
+        final LockManager lockManager = newPathLocksForDocumentsLockManager();
+        assertEquals(Lock.LockMode.READ_LOCK, lockManager.enumeratedCollectionLockMode(Lock.LockMode.READ_LOCK));
+        assertEquals(Lock.LockMode.WRITE_LOCK, lockManager.enumeratedCollectionLockMode(Lock.LockMode.WRITE_LOCK));
+    }
+
+    /**
+     * Whilst the Documents of a Collection are enumerated, other threads
+     * may not write to the Documents of the Collection.
+     */
+    @Test
+    public void enumeratedCollectionLock_excludesDocumentWriters() throws DatabaseConfigurationException, LockException, InterruptedException {
+        final LockManager lockManager = newPathLocksForDocumentsLockManager();
+        final XmldbURI collectionUri = XmldbURI.create("/db/colA");
+        final CountDownLatch writerAcquired = new CountDownLatch(1);
+
+        final Thread writer;
+        try (final ManagedCollectionLock colLock = lockManager.acquireCollectionLock(collectionUri,
+                lockManager.enumeratedCollectionLockMode(Lock.LockMode.READ_LOCK))) {
+            assertNotNull(colLock);
+
+            writer = new Thread(() -> {
+                try (final ManagedDocumentLock docLock = lockManager.acquireDocumentWriteLock(collectionUri.append("1.xml"))) {
+                    writerAcquired.countDown();
+                } catch (final LockException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            writer.start();
+
+            assertFalse(writerAcquired.await(1, TimeUnit.SECONDS));
+        }
+
+        writer.join();
+        assertEquals(0, writerAcquired.getCount());
+    }
+
+    /**
+     * The Documents of an enumerated Collection can be locked
+     * by the thread holding the lock of the Collection.
+     */
+    @Test
+    public void enumeratedCollectionLock_documentLocks() throws DatabaseConfigurationException, InterruptedException {
+        final LockManager lockManager = newPathLocksForDocumentsLockManager();
+        final XmldbURI collectionUri = XmldbURI.create("/db/colA");
+
+        for (final Lock.LockMode documentLockMode : new Lock.LockMode[] { Lock.LockMode.READ_LOCK, Lock.LockMode.WRITE_LOCK }) {
+            final CountDownLatch documentsLocked = new CountDownLatch(1);
+            final Thread thread = new Thread(() -> {
+                try (final ManagedCollectionLock colLock = lockManager.acquireCollectionLock(collectionUri,
+                            lockManager.enumeratedCollectionLockMode(documentLockMode));
+                        final ManagedDocumentLock doc1Lock = acquireDocumentLock(lockManager, collectionUri.append("1.xml"), documentLockMode);
+                        final ManagedDocumentLock doc2Lock = acquireDocumentLock(lockManager, collectionUri.append("2.xml"), documentLockMode)) {
+                    documentsLocked.countDown();
+                } catch (final LockException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+
+            assertTrue("Documents not " + documentLockMode + "'ed under the Collection lock",
+                    documentsLocked.await(5, TimeUnit.SECONDS));
+            thread.join();
+        }
+    }
+
     @Test
     public void getDocumentLock_isStripedByPath() {
         final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
@@ -682,6 +872,222 @@ public class LockManagerTest {
         assertEquals(Lock.LockMode.WRITE_LOCK, event3.mode);
     }
 
+    /**
+     * Two threads which lock the same Documents in the opposite
+     * order should not wait forever, instead exactly one of the
+     * threads in the cycle of the wait-for graph is aborted.
+     */
+    @Test
+    public void acquireDocumentWriteLock_deadlockDetected() throws DatabaseConfigurationException, InterruptedException {
+        final LockManager lockManager = newDeadlockDetectingLockManager();
+        final XmldbURI doc1 = XmldbURI.create("/db/1.xml");
+        final XmldbURI doc2 = XmldbURI.create("/db/2.xml");
+        final CyclicBarrier firstLocked = new CyclicBarrier(2);
+        final AtomicInteger deadlocks = new AtomicInteger();
+
+        final Thread thread1 = new Thread(() -> lockInOrder(lockManager, doc1, doc2, firstLocked, 0, deadlocks));
+        final Thread thread2 = new Thread(() -> lockInOrder(lockManager, doc2, doc1, firstLocked, 0, deadlocks));
+        thread1.start();
+        thread2.start();
+
+        thread1.join(10_000);
+        thread2.join(10_000);
+
+        assertFalse(thread1.isAlive());
+        assertFalse(thread2.isAlive());
+        assertEquals(1, deadlocks.get());
+    }
+
+    /**
+     * The victim of a deadlock is the thread of the
+     * cycle which started waiting most recently.
+     */
+    @Test
+    public void acquireDocumentWriteLock_deadlockVictimIsMostRecentWaiter() throws DatabaseConfigurationException, InterruptedException {
+        final LockManager lockManager = newDeadlockDetectingLockManager();
+        final XmldbURI doc1 = XmldbURI.create("/db/1.xml");
+        final XmldbURI doc2 = XmldbURI.create("/db/2.xml");
+        final CyclicBarrier firstLocked = new CyclicBarrier(2);
+        final AtomicInteger olderDeadlocks = new AtomicInteger();
+        final AtomicInteger recentDeadlocks = new AtomicInteger();
+
+        final Thread older = new Thread(() -> lockInOrder(lockManager, doc1, doc2, firstLocked, 0, olderDeadlocks));
+        final Thread recent = new Thread(() -> lockInOrder(lockManager, doc2, doc1, firstLocked, 500, recentDeadlocks));
+        older.start();
+        recent.start();
+
+        older.join(10_000);
+        recent.join(10_000);
+
+        assertFalse(older.isAlive());
+        assertFalse(recent.isAlive());
+        assertEquals(0, olderDeadlocks.get());
+        assertEquals(1, recentDeadlocks.get());
+    }
+
+    @Test
+    public void acquireDocumentWriteLock_contendedWithoutDeadlock() throws DatabaseConfigurationException, InterruptedException {
+        final LockManager lockManager = newDeadlockDetectingLockManager();
+        final XmldbURI doc1 = XmldbURI.create("/db/1.xml");
+        final CountDownLatch locked = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean();
+
+        final Thread holder = new Thread(() -> {
+            try (final ManagedDocumentLock lock = lockManager.acquireDocumentWriteLock(doc1)) {
+                locked.countDown();
+                // hold the lock for longer than the deadlock detection interval
+                Thread.sleep(500);
+            } catch (final LockException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        final Thread waiter = new Thread(() -> {
+            try {
+                locked.await();
+                try (final ManagedDocumentLock lock = lockManager.acquireDocumentWriteLock(doc1)) {
+                    acquired.set(true);
+                }
+            } catch (final LockException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        holder.start();
+        waiter.start();
+
+        holder.join(10_000);
+        waiter.join(10_000);
+
+        assertTrue(acquired.get());
+    }
+
+    @Test
+    public void deadlockDetection_disabledByDefault() throws DatabaseConfigurationException {
+        final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
+        assertFalse(lockManager.getLockTable().isDeadlockDetectionEnabled(Lock.LockType.COLLECTION));
+        assertFalse(lockManager.getLockTable().isDeadlockDetectionEnabled(Lock.LockType.DOCUMENT));
+
+        final LockManager detectingLockManager = newDeadlockDetectingLockManager();
+        assertTrue(detectingLockManager.getLockTable().isDeadlockDetectionEnabled(Lock.LockType.COLLECTION));
+        assertTrue(detectingLockManager.getLockTable().isDeadlockDetectionEnabled(Lock.LockType.DOCUMENT));
+        assertFalse(detectingLockManager.getLockTable().isDeadlockDetectionEnabled(Lock.LockType.BTREE));
+    }
+
+    /**
+     * Two threads which write lock sibling Collections in the opposite order.
+     * With a single writer the first thread holds the root Collection, so the
+     * second thread just waits; with multiple writers there is a cycle.
+     */
+    @Test
+    public void acquireCollectionWriteLock_deadlockDetected() throws DatabaseConfigurationException, InterruptedException {
+        final LockManager lockManager = newDeadlockDetectingLockManager();
+        final XmldbURI col1 = XmldbURI.create("/db/1");
+        final XmldbURI col2 = XmldbURI.create("/db/2");
+        final CyclicBarrier firstLocked = new CyclicBarrier(enablePathsMultiWriterState ? 2 : 1);
+        final AtomicInteger deadlocks = new AtomicInteger();
+
+        final Thread thread1 = new Thread(() -> lockCollectionsInOrder(lockManager, col1, col2, firstLocked, deadlocks));
+        final Thread thread2 = new Thread(() -> lockCollectionsInOrder(lockManager, col2, col1, firstLocked, deadlocks));
+        thread1.start();
+        thread2.start();
+
+        thread1.join(10_000);
+        thread2.join(10_000);
+
+        assertFalse(thread1.isAlive());
+        assertFalse(thread2.isAlive());
+        assertEquals(enablePathsMultiWriterState ? 1 : 0, deadlocks.get());
+    }
+
+    /**
+     * A thread holding a Collection lock waits for a Document lock, whose
+     * holder waits for the Collection lock.
+     */
+    @Test
+    public void acquireCollectionAndDocumentWriteLock_deadlockDetected() throws DatabaseConfigurationException, InterruptedException {
+        final LockManager lockManager = newDeadlockDetectingLockManager();
+        final XmldbURI col = XmldbURI.create("/db/col");
+        final XmldbURI doc = XmldbURI.create("/db/other/1.xml");
+        final CyclicBarrier firstLocked = new CyclicBarrier(2);
+        final AtomicInteger deadlocks = new AtomicInteger();
+
+        final Thread thread1 = new Thread(() -> {
+            try (final ManagedCollectionLock colLock = lockManager.acquireCollectionWriteLock(col)) {
+                firstLocked.await();
+                try (final ManagedDocumentLock docLock = lockManager.acquireDocumentWriteLock(doc)) {
+                    assertNotNull(docLock);
+                }
+            } catch (final DeadlockException e) {
+                deadlocks.incrementAndGet();
+            } catch (final LockException | InterruptedException | BrokenBarrierException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        final Thread thread2 = new Thread(() -> {
+            try (final ManagedDocumentLock docLock = lockManager.acquireDocumentWriteLock(doc)) {
+                firstLocked.await();
+                try (final ManagedCollectionLock colLock = lockManager.acquireCollectionWriteLock(col)) {
+                    assertNotNull(colLock);
+                }
+            } catch (final DeadlockException e) {
+                deadlocks.incrementAndGet();
+            } catch (final LockException | InterruptedException | BrokenBarrierException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread1.start();
+        thread2.start();
+
+        thread1.join(10_000);
+        thread2.join(10_000);
+
+        assertFalse(thread1.isAlive());
+        assertFalse(thread2.isAlive());
+        assertEquals(1, deadlocks.get());
+    }
+
+    private static void lockCollectionsInOrder(final LockManager lockManager, final XmldbURI first, final XmldbURI second,
+            final CyclicBarrier firstLocked, final AtomicInteger deadlocks) {
+        try (final ManagedCollectionLock firstLock = lockManager.acquireCollectionWriteLock(first)) {
+            firstLocked.await();
+            try (final ManagedCollectionLock secondLock = lockManager.acquireCollectionWriteLock(second)) {
+                assertNotNull(secondLock);
+            }
+        } catch (final DeadlockException e) {
+            deadlocks.incrementAndGet();
+        } catch (final LockException | InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void lockInOrder(final LockManager lockManager, final XmldbURI first, final XmldbURI second,
+            final CyclicBarrier firstLocked, final long delaySecondMillis, final AtomicInteger deadlocks) {
+        try (final ManagedDocumentLock firstLock = lockManager.acquireDocumentWriteLock(first)) {
+            firstLocked.await();
+            if (delaySecondMillis > 0) {
+                Thread.sleep(delaySecondMillis);
+            }
+            try (final ManagedDocumentLock secondLock = lockManager.acquireDocumentWriteLock(second)) {
+                assertNotNull(secondLock);
+            }
+        } catch (final DeadlockException e) {
+            deadlocks.incrementAndGet();
+        } catch (final LockException | InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void isCompatible() {
+        assertTrue(LockTable.isCompatible(Lock.LockMode.INTENTION_READ, Lock.LockMode.INTENTION_WRITE));
+        assertTrue(LockTable.isCompatible(Lock.LockMode.INTENTION_READ, Lock.LockMode.READ_LOCK));
+        assertFalse(LockTable.isCompatible(Lock.LockMode.INTENTION_READ, Lock.LockMode.WRITE_LOCK));
+        assertTrue(LockTable.isCompatible(Lock.LockMode.INTENTION_WRITE, Lock.LockMode.INTENTION_WRITE));
+        assertFalse(LockTable.isCompatible(Lock.LockMode.INTENTION_WRITE, Lock.LockMode.READ_LOCK));
+        assertTrue(LockTable.isCompatible(Lock.LockMode.READ_LOCK, Lock.LockMode.READ_LOCK));
+        assertFalse(LockTable.isCompatible(Lock.LockMode.READ_LOCK, Lock.LockMode.INTENTION_WRITE));
+        assertFalse(LockTable.isCompatible(Lock.LockMode.WRITE_LOCK, Lock.LockMode.INTENTION_READ));
+    }
+
     @Test
     public void getBtreeLock_isStripedByPath() {
         final LockManager lockManager = new LockManager(CONCURRENCY_LEVEL);
@@ -796,6 +1202,32 @@ public class LockManagerTest {
         return lockEventRecordingListener.getEvents();
     }
 
+    /**
+     * Creates a LockManager which uses the path locks of the Collections for the Documents,
+     * the paths-multi-writer mode is set by the test parameters.
+     */
+    private static LockManager newPathLocksForDocumentsLockManager() throws DatabaseConfigurationException {
+        final Configuration configuration = new Configuration();
+        configuration.setProperty(LockManager.CONFIGURATION_PATH_LOCKS_FOR_DOCUMENTS, true);
+        return new LockManager(configuration, CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a LockManager which detects deadlocks,
+     * the paths-multi-writer mode is set by the test parameters.
+     */
+    private static LockManager newDeadlockDetectingLockManager() throws DatabaseConfigurationException {
+        final Configuration configuration = new Configuration();
+        configuration.setProperty(LockTable.CONFIGURATION_DEADLOCK_DETECTION, true);
+        return new LockManager(configuration, CONCURRENCY_LEVEL);
+    }
+
+    private static ManagedDocumentLock acquireDocumentLock(final LockManager lockManager, final XmldbURI documentUri,
+            final Lock.LockMode lockMode) throws LockException {
+        return lockMode == Lock.LockMode.WRITE_LOCK ? lockManager.acquireDocumentWriteLock(documentUri)
+                : lockManager.acquireDocumentReadLock(documentUri);
+    }
+
     private void assertIntentionWriteOrWriteMode(final Lock.LockMode lockMode) {
         final Lock.LockMode writeMode = enablePathsMultiWriterState ? Lock.LockMode.INTENTION_WRITE : Lock.LockMode.WRITE_LOCK;
         assertEquals(writeMode, lockMode);
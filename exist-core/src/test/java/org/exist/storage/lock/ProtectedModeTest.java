@@ -22,10 +22,16 @@
 package org.exist.storage.lock;
 
 import org.exist.TestDataGenerator;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
 import org.exist.test.ExistXmldbEmbeddedServer;
 import org.exist.xmldb.EXistXPathQueryService;
+import org.exist.xmldb.XmldbURI;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Test;
@@ -38,7 +44,14 @@ import org.xmldb.api.modules.CollectionManagementService;
 import org.xmldb.api.modules.XMLResource;
 
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ProtectedModeTest {
 
@@ -114,6 +127,92 @@ public class ProtectedModeTest {
         }
     }
 
+    @Test
+    public void querySnapshot() throws XMLDBException {
+        final Collection root = DatabaseManager.getCollection("xmldb:exist:///db/protected", "admin", "");
+        final EXistXPathQueryService service = root.getService(EXistXPathQueryService.class);
+        try {
+            service.beginSnapshot();
+            final ResourceSet result = service.query("//book");
+            assertEquals(COLLECTION_COUNT * DOCUMENT_COUNT, result.getSize());
+        } finally {
+            service.endProtected();
+        }
+    }
+
+    @Test
+    public void snapshotDoesNotBlockWriters() throws XMLDBException, InterruptedException, ExecutionException, TimeoutException {
+        final Collection root = DatabaseManager.getCollection("xmldb:exist:///db/protected", "admin", "");
+        final EXistXPathQueryService service = root.getService(EXistXPathQueryService.class);
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            service.beginSnapshot();
+
+            // a writer must be able to proceed whilst the snapshot is open
+            final Future<Long> writer = executorService.submit(() -> {
+                final Collection writerRoot = DatabaseManager.getCollection("xmldb:exist:///db/protected", "admin", "");
+                final EXistXPathQueryService writerService = writerRoot.getService(EXistXPathQueryService.class);
+                return writerService.query("update insert <note/> into doc('/db/protected/test0/xdb0.xml')/book").getSize();
+            });
+            writer.get(30, TimeUnit.SECONDS);
+
+            // the snapshot is now stale, so the query must be transparently re-executed
+            final ResourceSet result = service.query("//book");
+            assertEquals(COLLECTION_COUNT * DOCUMENT_COUNT, result.getSize());
+        } finally {
+            service.endProtected();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void snapshotQueryConcurrentWithUpdate() throws XMLDBException, InterruptedException, ExecutionException, TimeoutException {
+        final Collection root = DatabaseManager.getCollection("xmldb:exist:///db/protected", "admin", "");
+        final EXistXPathQueryService service = root.getService(EXistXPathQueryService.class);
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            service.beginSnapshot();
+
+            // the update happens whilst the query is waiting, after it has read the document
+            final Future<Long> writer = executorService.submit(() -> {
+                Thread.sleep(250);
+                final Collection writerRoot = DatabaseManager.getCollection("xmldb:exist:///db/protected", "admin", "");
+                final EXistXPathQueryService writerService = writerRoot.getService(EXistXPathQueryService.class);
+                return writerService.query("update insert <concurrent/> into doc('/db/protected/test5/xdb2.xml')/book").getSize();
+            });
+            final ResourceSet result = service.query(
+                    "let $count := count(doc('/db/protected/test5/xdb2.xml')/book/concurrent)\n" +
+                    "return (util:wait(2000), $count)");
+            writer.get(30, TimeUnit.SECONDS);
+
+            // the first execution read the document before the update, so must have been re-executed
+            assertEquals(1, result.getSize());
+            assertEquals("1", result.getResource(0).getContent().toString());
+        } finally {
+            service.endProtected();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void snapshotInvalidatedByUpdate() throws Exception {
+        final BrokerPool pool = BrokerPool.getInstance();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final LockedDocumentMap snapshot = new LockedDocumentMap(true);
+            final org.exist.collections.Collection collection = broker.getCollection(XmldbURI.create("/db/protected/test3"));
+            collection.allDocs(broker, new DefaultDocumentSet(), false, snapshot, LockMode.READ_LOCK);
+            assertEquals(DOCUMENT_COUNT, snapshot.size());
+            assertTrue(snapshot.isSnapshotValid(broker));
+
+            // may happen within the same millisecond as the snapshot was taken, which must not matter
+            final Collection root = DatabaseManager.getCollection("xmldb:exist:///db/protected", "admin", "");
+            final EXistXPathQueryService service = root.getService(EXistXPathQueryService.class);
+            service.query("update insert <note/> into doc('/db/protected/test3/xdb1.xml')/book");
+
+            assertFalse(snapshot.isSnapshotValid(broker));
+        }
+    }
+
     @BeforeClass
     public static void setupDb() throws XMLDBException, SAXException {
         CollectionManagementService mgmt = existEmbeddedServer.getRoot().getService(CollectionManagementService.class);
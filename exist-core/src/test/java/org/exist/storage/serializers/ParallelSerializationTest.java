@@ -0,0 +1,114 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.serializers;
+
+import org.exist.collections.Collection;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.util.serializer.XQuerySerializer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelSerializationTest {
+
+    private static final XmldbURI TEST_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("test-parallel-serialization");
+    private static final int ITEMS = 50;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .set(ParallelSerializationService.PROPERTY_THREADS, 4)
+                    .build(),
+            true,
+            true);
+
+    @BeforeClass
+    public static void storeDocuments() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            for (int doc = 0; doc < 3; doc++) {
+                final StringBuilder xml = new StringBuilder("<r xmlns='urn:default' xmlns:p='urn:p").append(doc).append("'>");
+                for (int i = 0; i < ITEMS; i++) {
+                    xml.append("<p:i n='").append(i).append("'><e xmlns:q='urn:q'><q:f>").append(doc).append('-').append(i)
+                            .append("</q:f></e></p:i>");
+                }
+                xml.append("</r>");
+                broker.storeDocument(transaction, XmldbURI.create("doc" + doc + ".xml"), new StringInputSource(xml.toString()), MimeType.XML_TYPE, collection);
+            }
+            transaction.commit();
+        }
+    }
+
+    @Test
+    public void sameAsSerial() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        assertTrue(pool.getParallelSerializationService().isEnabled());
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            // items of several documents, not in document order, mixed with atomic values
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence result = xquery.execute(broker,
+                    "for $i in collection('" + TEST_COLLECTION_URI + "')//*:i " +
+                    "order by xs:integer($i/@n) descending, document-uri(root($i)) " +
+                    "return ($i, $i/*, string($i/@n))", null);
+            assertTrue(result.getItemCount() > ITEMS);
+
+            final String parallel = serialize(broker, result, false);
+            final String serial = serialize(broker, result, true);
+            assertEquals(serial, parallel);
+            assertTrue(parallel.contains("xmlns:p=\"urn:p2\""));
+            assertTrue(parallel.contains("xmlns:q=\"urn:q\""));
+        }
+    }
+
+    private static String serialize(final DBBroker broker, final Sequence seq, final boolean serial) throws Exception {
+        final Properties outputProperties = new Properties();
+        if (serial) {
+            // there are no xml-stylesheet processing instructions, but checking for them disables the parallel path
+            outputProperties.setProperty(EXistOutputKeys.PROCESS_XSL_PI, "yes");
+        }
+        try (final StringWriter writer = new StringWriter()) {
+            final XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, writer);
+            serializer.serialize(seq, 1, seq.getItemCount(), true, false, 0, 0);
+            return writer.toString();
+        }
+    }
+}
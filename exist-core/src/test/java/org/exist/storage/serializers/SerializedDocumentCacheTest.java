@@ -0,0 +1,172 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.serializers;
+
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolServiceException;
+import org.exist.util.Configuration;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SerializedDocumentCacheTest {
+
+    private static final String CONTENT_TYPE = "application/xml; charset=UTF-8";
+    private static final byte[] DATA = "<doc>hello</doc>".getBytes(UTF_8);
+
+    @Test
+    public void disabledByDefault() throws BrokerPoolServiceException {
+        final SerializedDocumentCache cache = newCache(-1);
+        assertFalse(cache.isEnabled());
+
+        final DocumentImpl doc = mockDoc(1, 1000);
+        replay(doc);
+
+        cache.put(doc, variant("no"), CONTENT_TYPE, DATA);
+        assertNull(cache.get(doc, variant("no")));
+    }
+
+    @Test
+    public void hit() throws BrokerPoolServiceException {
+        final SerializedDocumentCache cache = newCache(1024 * 1024);
+        assertTrue(cache.isEnabled());
+
+        final DocumentImpl doc = mockDoc(1, 1000);
+        replay(doc);
+
+        cache.put(doc, variant("no"), CONTENT_TYPE, DATA);
+        final SerializedDocumentCache.Entry entry = cache.get(doc, variant("no"));
+        assertNotNull(entry);
+        assertEquals(CONTENT_TYPE, entry.getContentType());
+        assertArrayEquals(DATA, entry.getData());
+
+        assertEquals(1, cache.getStatistics().getHitCount());
+        assertEquals(0, cache.getStatistics().getMissCount());
+    }
+
+    @Test
+    public void missOnOtherVariant() throws BrokerPoolServiceException {
+        final SerializedDocumentCache cache = newCache(1024 * 1024);
+
+        final DocumentImpl doc = mockDoc(1, 1000);
+        replay(doc);
+
+        cache.put(doc, variant("no"), CONTENT_TYPE, DATA);
+        assertNull(cache.get(doc, variant("yes")));
+        assertNotNull(cache.get(doc, variant("no")));
+
+        assertEquals(1, cache.getStatistics().getHitCount());
+        assertEquals(1, cache.getStatistics().getMissCount());
+    }
+
+    @Test
+    public void missWhenModified() throws BrokerPoolServiceException {
+        final SerializedDocumentCache cache = newCache(1024 * 1024);
+
+        final DocumentImpl doc = mockDoc(1, 1000);
+        final DocumentImpl modifiedDoc = mockDoc(1, 2000);
+        replay(doc, modifiedDoc);
+
+        cache.put(doc, variant("no"), CONTENT_TYPE, DATA);
+        assertNull(cache.get(modifiedDoc, variant("no")));
+    }
+
+    @Test
+    public void invalidate() throws BrokerPoolServiceException {
+        final SerializedDocumentCache cache = newCache(1024 * 1024);
+
+        final DocumentImpl doc = mockDoc(1, 1000);
+        final DocumentImpl otherDoc = mockDoc(2, 1000);
+        replay(doc, otherDoc);
+
+        cache.put(doc, variant("no"), CONTENT_TYPE, DATA);
+        cache.put(doc, variant("yes"), CONTENT_TYPE, DATA);
+        cache.put(otherDoc, variant("no"), CONTENT_TYPE, DATA);
+
+        cache.invalidate(1);
+
+        assertNull(cache.get(doc, variant("no")));
+        assertNull(cache.get(doc, variant("yes")));
+        assertNotNull(cache.get(otherDoc, variant("no")));
+    }
+
+    @Test
+    public void recorder() throws BrokerPoolServiceException, IOException {
+        final SerializedDocumentCache cache = newCache(4 * DATA.length);
+
+        try (final UnsynchronizedByteArrayOutputStream os = new UnsynchronizedByteArrayOutputStream()) {
+            final SerializedDocumentCache.Recorder recorder = cache.record(os);
+            recorder.write(DATA, 0, DATA.length);
+            assertArrayEquals(DATA, recorder.getRecorded());
+
+            // larger than the maximum entry size, passed through but no longer recorded
+            recorder.write('x');
+            assertNull(recorder.getRecorded());
+            assertEquals(DATA.length + 1, os.size());
+        }
+    }
+
+    private static SerializedDocumentCache newCache(final int size) throws BrokerPoolServiceException {
+        final Configuration configuration = createMock(Configuration.class);
+        expect(configuration.getInteger(SerializedDocumentCache.PROPERTY_CACHE_SIZE_BYTES)).andReturn(size);
+        final BrokerPool brokerPool = createMock(BrokerPool.class);
+        if (size > 0) {
+            brokerPool.registerDocumentTrigger(SerializedDocumentCacheTrigger.class);
+        }
+        replay(configuration, brokerPool);
+
+        final SerializedDocumentCache cache = new SerializedDocumentCache();
+        cache.configure(configuration);
+        cache.prepare(brokerPool);
+
+        verify(configuration, brokerPool);
+        return cache;
+    }
+
+    private static DocumentImpl mockDoc(final int docId, final long lastModified) {
+        final DocumentImpl doc = createMock(DocumentImpl.class);
+        expect(doc.getDocId()).andReturn(docId).anyTimes();
+        expect(doc.getLastModified()).andReturn(lastModified).anyTimes();
+        return doc;
+    }
+
+    private static String variant(final String indent) {
+        final Properties outputProperties = new Properties();
+        outputProperties.setProperty("indent", indent);
+        return SerializedDocumentCache.variant("UTF-8", null, outputProperties);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.structural;
+
+import org.exist.collections.Collection;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.indexing.IndexController;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.NodeSelector;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.exist.storage.ElementValue.ATTRIBUTE;
+import static org.exist.storage.ElementValue.ELEMENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class NativeStructuralIndexBatchTest {
+
+    private static final XmldbURI TEST_COLLECTION_URI = XmldbURI.ROOT_COLLECTION_URI.append("test-structural-batch");
+    private static final int DOCUMENTS = 20;
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Rule
+    public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @After
+    public void removeTestCollection() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection collection = broker.getCollection(TEST_COLLECTION_URI);
+            if (collection != null) {
+                broker.removeCollection(transaction, collection);
+            }
+            transaction.commit();
+        }
+    }
+
+    @Test
+    public void storeInBatch() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final IndexController indexController = broker.getIndexController();
+            indexController.startBatch();
+            try {
+                storeDocuments(broker, "<a><b/><b/></a>");
+            } finally {
+                indexController.endBatch();
+            }
+            assertFalse(indexController.isBatching());
+
+            assertEquals(DOCUMENTS * 2, findElements(broker, "b").getLength());
+            assertEquals(DOCUMENTS, findElements(broker, "a").getLength());
+        }
+    }
+
+    @Test
+    public void queryWithinBatch() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final IndexController indexController = broker.getIndexController();
+            indexController.startBatch();
+            try {
+                storeDocuments(broker, "<a><b/></a>");
+
+                // the batched entries must be written before the index is queried
+                assertEquals(DOCUMENTS, findElements(broker, "b").getLength());
+            } finally {
+                indexController.endBatch();
+            }
+        }
+    }
+
+    @Test
+    public void committedVisibleToOtherBrokersWithinBatch() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final IndexController indexController = broker.getIndexController();
+            indexController.startBatch();
+            try {
+                storeDocuments(broker, "<a><b/></a>");
+
+                // the entries must be written when the transaction commits, not when the batch ends
+                final int found = executor.submit(() -> {
+                    try (final DBBroker otherBroker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+                        return findElements(otherBroker, "b").getLength();
+                    }
+                }).get();
+                assertEquals(DOCUMENTS, found);
+            } finally {
+                indexController.endBatch();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void replaceWithinBatch() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final IndexController indexController = broker.getIndexController();
+            indexController.startBatch();
+            try {
+                storeDocuments(broker, "<a><b/></a>");
+                storeDocuments(broker, "<a><c/></a>");
+            } finally {
+                indexController.endBatch();
+            }
+
+            assertEquals(0, findElements(broker, "b").getLength());
+            assertEquals(DOCUMENTS, findElements(broker, "c").getLength());
+        }
+    }
+
+    @Test
+    public void storeFilesFromPatternSameAsUnbatched() throws Exception {
+        final Path dir = tempFolder.newFolder().toPath();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            Files.write(dir.resolve("doc" + i + ".xml"), variedDocument(i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        final XmldbURI batchedUri = TEST_COLLECTION_URI.append("batched");
+        final XmldbURI unbatchedUri = TEST_COLLECTION_URI.append("unbatched");
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            // stores all of the files in one transaction and index batch
+            final XQuery xquery = pool.getXQueryService();
+            final Sequence stored = xquery.execute(broker, "xmldb:store-files-from-pattern('" + batchedUri
+                    + "', '" + dir.toAbsolutePath() + "', '*.xml')", null);
+            assertEquals(DOCUMENTS, stored.getItemCount());
+            assertFalse(broker.getIndexController().isBatching());
+
+            // stores each document in its own transaction
+            for (int i = 0; i < DOCUMENTS; i++) {
+                try (final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+                    final Collection collection = broker.getOrCreateCollection(transaction, unbatchedUri);
+                    broker.saveCollection(transaction, collection);
+                    broker.storeDocument(transaction, XmldbURI.create("doc" + i + ".xml"), new StringInputSource(variedDocument(i)), MimeType.XML_TYPE, collection);
+                    transaction.commit();
+                }
+            }
+
+            for (final String localName : new String[] { "a", "b", "c" }) {
+                final List<String> expected = indexEntries(broker, unbatchedUri, ELEMENT, localName);
+                assertFalse(expected.isEmpty());
+                assertEquals(expected, indexEntries(broker, batchedUri, ELEMENT, localName));
+            }
+            for (final String localName : new String[] { "n", "x" }) {
+                final List<String> expected = indexEntries(broker, unbatchedUri, ATTRIBUTE, localName);
+                assertFalse(expected.isEmpty());
+                assertEquals(expected, indexEntries(broker, batchedUri, ATTRIBUTE, localName));
+            }
+        }
+    }
+
+    private static String variedDocument(final int i) {
+        final StringBuilder builder = new StringBuilder("<a n='").append(i).append("'><b><c x='1'/></b>");
+        for (int j = 0; j < i % 3; j++) {
+            builder.append("<b><c/></b>");
+        }
+        return builder.append("<c/></a>").toString();
+    }
+
+    /**
+     * Returns the entries of the structural index for a name as the document name and node id
+     * of each entry, sorted so as not to depend on the document ids.
+     */
+    private static List<String> indexEntries(final DBBroker broker, final XmldbURI collectionUri, final byte type, final String localName) throws Exception {
+        final List<String> entries = new ArrayList<>();
+        for (final NodeProxy node : findElements(broker, collectionUri, type, localName)) {
+            entries.add(node.getOwnerDocument().getFileURI() + "#" + node.getNodeId());
+        }
+        Collections.sort(entries);
+        return entries;
+    }
+
+    private static void storeDocuments(final DBBroker broker, final String xml) throws Exception {
+        try (final Txn transaction = broker.getBrokerPool().getTransactionManager().beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                broker.storeDocument(transaction, XmldbURI.create("doc" + i + ".xml"), new StringInputSource(xml), MimeType.XML_TYPE, collection);
+            }
+            transaction.commit();
+        }
+    }
+
+    private static NodeSet findElements(final DBBroker broker, final String localName) throws Exception {
+        return findElements(broker, TEST_COLLECTION_URI, ELEMENT, localName);
+    }
+
+    private static NodeSet findElements(final DBBroker broker, final XmldbURI collectionUri, final byte type, final String localName) throws Exception {
+        final Collection collection = broker.getCollection(collectionUri);
+        final DocumentSet docs = collection.allDocs(broker, new DefaultDocumentSet(), false);
+        final NodeSelector selector = (doc, nodeId) -> new NodeProxy(null, doc, nodeId);
+        return broker.getStructuralIndex().findElementsByTagName(type, docs, new QName(localName), selector);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.serializer;
+
+import java.io.StringWriter;
+import java.util.Properties;
+
+import javax.xml.transform.OutputKeys;
+
+import org.exist.dom.QName;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReceiverEventBufferTest {
+
+    private static final QName ROOT = new QName("root", "http://example.com/ns", "ex");
+    private static final QName CHILD = new QName("child", "http://example.com/ns", "ex");
+    private static final QName ID = new QName("id");
+
+    @Test
+    public void replayProducesSameOutput() throws SAXException {
+        final String expected = serialize(new StringWriter(), ReceiverEventBufferTest::emit);
+
+        final ReceiverEventBuffer buffer = new ReceiverEventBuffer();
+        emit(buffer);
+        final String actual = serialize(new StringWriter(), buffer::replay);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void copiesReusedArguments() throws SAXException {
+        final String expected = serialize(new StringWriter(), receiver -> {
+            final AttrList attribs = new AttrList();
+            attribs.addAttribute(ID, "1");
+            final char[] comment = "first comment".toCharArray();
+            receiver.startElement(ROOT, attribs);
+            receiver.characters("first");
+            receiver.comment(comment, 0, comment.length);
+            receiver.endElement(ROOT);
+        });
+
+        final ReceiverEventBuffer buffer = new ReceiverEventBuffer();
+        final StringBuilder text = new StringBuilder("first");
+        final char[] comment = "first comment".toCharArray();
+        final AttrList attribs = new AttrList();
+        attribs.addAttribute(ID, "1");
+
+        buffer.startElement(ROOT, attribs);
+        buffer.characters(text);
+        buffer.comment(comment, 0, comment.length);
+        buffer.endElement(ROOT);
+
+        // serializers reuse their buffers once an event has been passed on
+        text.setLength(0);
+        text.append("second");
+        comment[0] = 'F';
+        attribs.addAttribute(ID, "2");
+
+        assertEquals(expected, serialize(new StringWriter(), buffer::replay));
+    }
+
+    private static void emit(final Receiver receiver) throws SAXException {
+        final AttrList attribs = new AttrList();
+        attribs.addAttribute(ID, "r1");
+        receiver.startPrefixMapping("ex", "http://example.com/ns");
+        receiver.startElement(ROOT, attribs);
+        receiver.characters("a < b");
+        receiver.startElement(CHILD, new AttrList());
+        final char[] cdata = "x & y".toCharArray();
+        receiver.cdataSection(cdata, 0, cdata.length);
+        receiver.endElement(CHILD);
+        receiver.processingInstruction("pi", "data");
+        receiver.endElement(ROOT);
+        receiver.endPrefixMapping("ex");
+    }
+
+    @FunctionalInterface
+    private interface Emitter {
+        void emit(Receiver receiver) throws SAXException;
+    }
+
+    private static String serialize(final StringWriter writer, final Emitter emitter) throws SAXException {
+        final Properties outputProperties = new Properties();
+        outputProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        outputProperties.setProperty(OutputKeys.INDENT, "no");
+        final SAXSerializer serializer = new SAXSerializer(writer, outputProperties);
+        emitter.emit(serializer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.exist.dom.QName;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class UTF8WriterTest {
+
+    private static final String TEXT = "a < b & c > d \u00e9\u20ac\ud83d\ude00 \ud800x \udc00";
+
+    @Test
+    public void encodesLikeOutputStreamWriter() throws Exception {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (final Writer writer = new OutputStreamWriter(expected, UTF_8)) {
+            writer.write(TEXT);
+        }
+
+        // small buffer and single chars, so that surrogate pairs are split between calls
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (final UTF8Writer writer = new UTF8Writer(actual, 4)) {
+            for (int i = 0; i < TEXT.length(); i++) {
+                writer.write(TEXT.charAt(i));
+            }
+        }
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void appendCharSequence() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append(TEXT);
+        }
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (final UTF8Writer writer = new UTF8Writer(actual)) {
+            writer.append(text, 0, 7).append(text, 7, text.length());
+        }
+
+        assertArrayEquals(text.toString().getBytes(UTF_8), actual.toByteArray());
+    }
+
+    @Test
+    public void writeUTF8() throws Exception {
+        final byte[] utf8 = TEXT.getBytes(UTF_8);
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (final UTF8Writer writer = new UTF8Writer(actual, 8)) {
+            writer.write("<t>");
+            writer.writeUTF8(utf8, 0, 3);
+            writer.writeUTF8(utf8, 3, utf8.length - 3);
+            writer.write("</t>");
+        }
+
+        assertEquals("<t>" + new String(utf8, UTF_8) + "</t>", new String(actual.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void writeAfterClose() throws Exception {
+        final UTF8Writer closed = new UTF8Writer(new ByteArrayOutputStream());
+        closed.write("a");
+        closed.close();
+        closed.close();
+
+        // the next writer of this thread takes over the buffer of the closed one
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (final UTF8Writer writer = new UTF8Writer(actual)) {
+            writer.write("<t>");
+            try {
+                closed.write("b");
+                fail("Expected IOException");
+            } catch (final IOException e) {
+                assertEquals("Stream closed", e.getMessage());
+            }
+            try {
+                closed.flush();
+                fail("Expected IOException");
+            } catch (final IOException e) {
+                assertEquals("Stream closed", e.getMessage());
+            }
+            writer.write("</t>");
+        }
+
+        assertEquals("<t></t>", new String(actual.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void xmlWriterEscapesUTF8Text() throws Exception {
+        final byte[] utf8 = TEXT.getBytes(UTF_8);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (final UTF8Writer writer = new UTF8Writer(expected)) {
+            final XMLWriter xmlWriter = new XMLWriter(writer);
+            xmlWriter.startElement(new QName("t"));
+            xmlWriter.characters(new String(utf8, UTF_8));
+            xmlWriter.endElement(new QName("t"));
+        }
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (final UTF8Writer writer = new UTF8Writer(actual)) {
+            final XMLWriter xmlWriter = new XMLWriter(writer);
+            xmlWriter.startElement(new QName("t"));
+            xmlWriter.utf8Characters(utf8, 0, utf8.length);
+            xmlWriter.endElement(new QName("t"));
+        }
+
+        assertEquals(new String(expected.toByteArray(), UTF_8), new String(actual.toByteArray(), UTF_8));
+        assertEquals("<t>a &lt; b &amp; c &gt; d ", new String(actual.toByteArray(), UTF_8).substring(0, 27));
+    }
+
+    @Test
+    public void xmlWriterUTF8TextInCdataSection() throws Exception {
+        final byte[] utf8 = TEXT.getBytes(UTF_8);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (final UTF8Writer writer = new UTF8Writer(expected)) {
+            final XMLWriter xmlWriter = new XMLWriter(writer);
+            xmlWriter.startElement(new QName("t"));
+            xmlWriter.startCdataSection();
+            final char[] ch = new String(utf8, UTF_8).toCharArray();
+            xmlWriter.characters(ch, 0, ch.length);
+            xmlWriter.endCdataSection();
+            xmlWriter.endElement(new QName("t"));
+        }
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (final UTF8Writer writer = new UTF8Writer(actual)) {
+            final XMLWriter xmlWriter = new XMLWriter(writer);
+            xmlWriter.startElement(new QName("t"));
+            xmlWriter.startCdataSection();
+            xmlWriter.utf8Characters(utf8, 0, utf8.length);
+            xmlWriter.endCdataSection();
+            xmlWriter.endElement(new QName("t"));
+        }
+
+        assertEquals(new String(expected.toByteArray(), UTF_8), new String(actual.toByteArray(), UTF_8));
+        assertEquals("<t><![CDATA[a < b & c > d ", new String(actual.toByteArray(), UTF_8).substring(0, 26));
+    }
+}
@@ -130,6 +130,23 @@ public class JSONObjectTest {
         }
     }
 
+    @Test
+    public void interleavedArray() throws IOException {
+        final JSONObject root = new JSONObject("root");
+
+        final String[] names = { "hello", "bye", "hello", "hello", "bye" };
+        for (int i = 0; i < names.length; i++) {
+            final JSONObject node = new JSONObject(names[i]);
+            node.addObject(new JSONValue(Integer.toString(i)));
+            root.addObject(node);
+        }
+
+        try(final StringWriter writer = new StringWriter()) {
+            root.serialize(writer, true);
+            assertEquals("{\"hello\":[\"0\",\"2\",\"3\"],\"bye\":[\"1\",\"4\"]}", writer.toString());
+        }
+    }
+
     @Test
     public void literalArray() throws IOException {
         final JSONObject root = new JSONObject("root");
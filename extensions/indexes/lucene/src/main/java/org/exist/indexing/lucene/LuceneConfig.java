@@ -28,6 +28,7 @@ import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.facet.FacetsConfig;
 import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.search.SortField;
 import org.exist.dom.QName;
 import org.exist.indexing.lucene.analyzers.NoDiacriticsStandardAnalyzer;
 import org.exist.storage.NodePath;
@@ -37,6 +38,8 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import javax.annotation.Nullable;
+
 public class LuceneConfig {
 
     public final static LuceneConfig DEFAULT_CONFIG = new LuceneConfig();
@@ -289,6 +292,51 @@ public class LuceneConfig {
         return fieldTypes.get(name);
     }
 
+    /**
+     * Returns the type to sort by for a field declared sortable within the index
+     * of the given element or attribute.
+     *
+     * @param qname the element or attribute queried, or null to look at all indexes
+     *              of this configuration, as a query on the field alone does
+     * @param field the field name
+     * @return the sort type or null if the field is not declared sortable there
+     */
+    public @Nullable SortField.Type getSortType(@Nullable QName qname, String field) {
+        for (final Map.Entry<QName, LuceneIndexConfig> entry : paths.entrySet()) {
+            if (qname == null || qname.equals(entry.getKey())) {
+                for (LuceneIndexConfig config = entry.getValue(); config != null; config = config.getNext()) {
+                    final SortField.Type type = getSortType(config, field);
+                    if (type != null) {
+                        return type;
+                    }
+                }
+            }
+        }
+        final NodePath2 path = new NodePath2();
+        if (qname != null) {
+            path.addComponent(qname);
+        }
+        for (final LuceneIndexConfig config : wildcardPaths) {
+            if (qname == null || config.match(path)) {
+                final SortField.Type type = getSortType(config, field);
+                if (type != null) {
+                    return type;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static @Nullable SortField.Type getSortType(LuceneIndexConfig config, String field) {
+        for (AbstractFieldConfig fieldConfig : config.getFacetsAndFields()) {
+            if (fieldConfig instanceof LuceneFieldConfig && ((LuceneFieldConfig) fieldConfig).isSortable()
+                    && field.equals(((LuceneFieldConfig) fieldConfig).getName())) {
+                return ((LuceneFieldConfig) fieldConfig).getSortType();
+            }
+        }
+        return null;
+    }
+
     protected Optional<List<ModuleImport>> getImports() {
         return Optional.ofNullable(imports);
     }
@@ -24,6 +24,8 @@ package org.exist.indexing.lucene;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.*;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.util.BytesRef;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.NodeProxy;
@@ -53,6 +55,7 @@ import java.util.Optional;
  * boolean value of the result is false, the field will not be created.
  *
  * A field may also be associated with an analyzer, could have a type and may be stored or not.
+ * A sortable field additionally gets a doc value, so hits can be ranked by it in Lucene.
  *
  * @author Wolfgang Meier
  */
@@ -64,11 +67,15 @@ public class LuceneFieldConfig extends AbstractFieldConfig {
     private static final String ATTR_STORE = "store";
     private static final String ATTR_ANALYZER = "analyzer";
     private static final String ATTR_IF = "if";
+    private static final String ATTR_SORTABLE = "sortable";
+
+    private static final int MAX_SORT_STRING_LENGTH = 1024;
 
     protected String fieldName;
     protected int type = Type.STRING;
     protected boolean binary = false;
     protected boolean store = true;
+    protected boolean sortable = false;
     protected Analyzer analyzer= null;
     protected Optional<String> condition = Optional.empty();
     protected CompiledXQuery compiledCondition = null;
@@ -112,6 +119,14 @@ public class LuceneFieldConfig extends AbstractFieldConfig {
         if (StringUtils.isNotEmpty(binaryStr)) {
             this.binary = StringUtils.equalsAnyIgnoreCase(binaryStr, "true", "yes");
         }
+
+        final String sortableStr = configElement.getAttribute(ATTR_SORTABLE);
+        if (StringUtils.isNotEmpty(sortableStr)) {
+            this.sortable = StringUtils.equalsAnyIgnoreCase(sortableStr, "true", "yes");
+            if (sortable && binary) {
+                throw new DatabaseConfigurationException("Invalid config: field " + fieldName + " cannot be both binary and sortable");
+            }
+        }
     }
 
     @Nonnull
@@ -125,6 +140,36 @@ public class LuceneFieldConfig extends AbstractFieldConfig {
         return analyzer;
     }
 
+    public boolean isSortable() {
+        return sortable;
+    }
+
+    /**
+     * @return the type of the doc value added for a sortable field
+     */
+    public SortField.Type getSortType() {
+        switch (type) {
+            case Type.INTEGER:
+            case Type.LONG:
+            case Type.UNSIGNED_LONG:
+            case Type.INT:
+            case Type.UNSIGNED_INT:
+            case Type.SHORT:
+            case Type.UNSIGNED_SHORT:
+            case Type.DATE:
+            case Type.TIME:
+            case Type.DATE_TIME:
+                return SortField.Type.LONG;
+            case Type.DECIMAL:
+            case Type.DOUBLE:
+                return SortField.Type.DOUBLE;
+            case Type.FLOAT:
+                return SortField.Type.FLOAT;
+            default:
+                return SortField.Type.STRING;
+        }
+    }
+
     @Override
     protected void build(DBBroker broker, DocumentImpl document, NodeId nodeId, Document luceneDoc, CharSequence text) {
         try {
@@ -171,6 +216,7 @@ public class LuceneFieldConfig extends AbstractFieldConfig {
             final Field field = binary ? convertToDocValue(text) : convertToField(text);
             if (field != null) {
                 luceneDoc.add(field);
+                addSortValue(text, luceneDoc);
             }
         }
     }
@@ -185,6 +231,52 @@ public class LuceneFieldConfig extends AbstractFieldConfig {
         }
         if (field != null) {
             luceneDoc.add(field);
+            addSortValue(text.toString(), luceneDoc);
+        }
+    }
+
+    /**
+     * Adds the doc value of a sortable field. Lucene allows only one sort value per
+     * document, so for a field with several values the first one is used.
+     */
+    private void addSortValue(final String content, final Document luceneDoc) {
+        if (!sortable) {
+            return;
+        }
+        for (final IndexableField existing : luceneDoc.getFields(fieldName)) {
+            if (existing.fieldType().docValueType() != null) {
+                return;
+            }
+        }
+        try {
+            switch (getSortType()) {
+                case LONG:
+                    final long value;
+                    if (type == Type.DATE) {
+                        value = dateToLong(new DateValue(content));
+                    } else if (type == Type.TIME) {
+                        value = timeToLong(new TimeValue(content));
+                    } else if (type == Type.DATE_TIME) {
+                        value = new DateTimeValue(content).getTimeInMillis();
+                    } else {
+                        value = Long.parseLong(content);
+                    }
+                    luceneDoc.add(new NumericDocValuesField(fieldName, value));
+                    break;
+                case DOUBLE:
+                    luceneDoc.add(new DoubleDocValuesField(fieldName, Double.parseDouble(content)));
+                    break;
+                case FLOAT:
+                    luceneDoc.add(new FloatDocValuesField(fieldName, Float.parseFloat(content)));
+                    break;
+                default:
+                    // doc values are limited in size, and a prefix is enough for sorting
+                    luceneDoc.add(new SortedDocValuesField(fieldName, new BytesRef(StringUtils.left(content, MAX_SORT_STRING_LENGTH))));
+                    break;
+            }
+        } catch (final NumberFormatException | XPathException e) {
+            // wrong type: ignore
+            LOG.trace("Cannot convert sort value of field {} to type {}. Content was: {}", fieldName, Type.getTypeName(type), content);
         }
     }
 
@@ -31,29 +31,61 @@ import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
 import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
 import org.exist.backup.RawDataBackup;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.IStoredNode;
 import org.exist.indexing.AbstractIndex;
+import org.exist.indexing.IndexUtils;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.indexing.RecoverySupport;
+import org.exist.indexing.StreamListener;
+import org.exist.indexing.StreamListener.ReindexMode;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.lock.ManagedDocumentLock;
+import org.exist.storage.txn.Txn;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+import org.exist.util.NamedThreadFactory;
 import org.exist.xquery.XPathException;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 
-public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+public class LuceneIndex extends AbstractIndex implements RawBackupSupport, RecoverySupport {
     
     public final static Version LUCENE_VERSION_IN_USE = Version.LUCENE_4_10_4;
 
@@ -63,6 +95,7 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
 	private static final String DIR_NAME = "lucene";
 	private static final String TAXONOMY_DIR_NAME = "taxonomy";
+    static final String PENDING_COMMIT_FILE_NAME = "pending-commit.log";
 
     protected Directory directory;
     protected Directory taxoDirectory;
@@ -71,6 +104,35 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     protected double bufferSize = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
 
+    /**
+     * Minimum time in milliseconds between two commits of the index writers.
+     * Syncs falling within this time only record the changed documents in the
+     * pending commit log. 0 commits on every sync.
+     */
+    protected long commitInterval = 0;
+    private long lastCommit = System.currentTimeMillis();
+    private boolean commitRequired = false;
+
+    /**
+     * Ids of the documents changed since the last sync, which are not yet
+     * recorded in the pending commit log.
+     */
+    private final Set<Integer> uncommitted = new HashSet<>();
+
+    /**
+     * Ids of the documents found in the pending commit log when the index was
+     * opened, i.e. changes lost by a crash, or null if there are none. Documents
+     * keep their id when they are moved or renamed, so they are found again by id.
+     */
+    private Set<Integer> pendingRecovery = null;
+
+    /**
+     * Number of threads used to search the segments of the index in parallel.
+     * 0 searches all segments in the calling thread.
+     */
+    protected int searchThreads = 0;
+    ExecutorService searchExecutor = null;
+
     protected IndexWriter cachedWriter = null;
     protected DirectoryTaxonomyWriter cachedTaxonomyWriter = null;
 
@@ -97,6 +159,22 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: {}", bufferSize);
+
+        final String commitIntervalParam = config.getAttribute("commit-interval");
+        if (commitIntervalParam != null && !commitIntervalParam.isEmpty())
+            try {
+                commitInterval = Long.parseLong(commitIntervalParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid commit interval setting for Lucene index: {}", commitIntervalParam, e);
+            }
+
+        final String searchThreadsParam = config.getAttribute("search-threads");
+        if (searchThreadsParam != null && !searchThreadsParam.isEmpty())
+            try {
+                searchThreads = Integer.parseInt(searchThreadsParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid search threads setting for Lucene index: {}", searchThreadsParam, e);
+            }
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -135,8 +213,24 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
             cachedWriter = new IndexWriter(directory, idxWriterConfig);
             cachedTaxonomyWriter = new DirectoryTaxonomyWriter(taxoDirectory);
 
-            searcherManager = new SearcherTaxonomyManager(cachedWriter, true, null, cachedTaxonomyWriter);
+            SearcherFactory searcherFactory = null;
+            if (searchThreads > 0) {
+                searchExecutor = Executors.newFixedThreadPool(searchThreads, new NamedThreadFactory(pool, "lucene-search"));
+                searcherFactory = new SearcherFactory() {
+                    @Override
+                    public IndexSearcher newSearcher(IndexReader reader) {
+                        return new IndexSearcher(reader, searchExecutor);
+                    }
+                };
+            }
+
+            searcherManager = new SearcherTaxonomyManager(cachedWriter, true, searcherFactory, cachedTaxonomyWriter);
             readerManager = new ReaderManager(cachedWriter, true);
+
+            pendingRecovery = readPendingCommits(dir.resolve(PENDING_COMMIT_FILE_NAME));
+            if (pendingRecovery != null)
+                LOG.warn("Lucene index in {} was not committed before shutdown. {} documents will be reindexed.",
+                    dir.toAbsolutePath().toString(), pendingRecovery.size());
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading Lucene index directory: " +
                 e.getMessage(), e);
@@ -156,6 +250,10 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
                 readerManager.close();
                 readerManager = null;
             }
+            if (searchExecutor != null) {
+                searchExecutor.shutdownNow();
+                searchExecutor = null;
+            }
             if (cachedWriter != null) {
             	commit();
             	cachedTaxonomyWriter.close();
@@ -173,13 +271,20 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public synchronized void sync() throws DBException {
-        //Nothing special to do
-        commit();
+        if (commitInterval > 0 && !commitRequired && System.currentTimeMillis() - lastCommit < commitInterval) {
+            deferCommit();
+        } else {
+            commit();
+        }
     }
 
     @Override
     public void remove() throws DBException {
         close();
+        synchronized (this) {
+            uncommitted.clear();
+            pendingRecovery = null;
+        }
         Path dir = getDataDir().resolve(getDirName());
         try (Stream<Path> stream = Files.list(dir)) {
             stream.forEach(FileUtils::deleteQuietly);
@@ -217,12 +322,40 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         return cachedTaxonomyWriter;
     }
 
+    /**
+     * @return the executor for searching segments in parallel, or null if searches
+     *     should run in the calling thread
+     */
+    public ExecutorService getSearchExecutor() {
+        return searchExecutor;
+    }
+
     public synchronized void releaseWriter(IndexWriter writer) {
         if (writer == null)
             return;
         needsCommit = true;
     }
 
+    /**
+     * Called by the workers for every document whose index entries they change. If commits
+     * are deferred, the document is written to the pending commit log on the next sync, so it
+     * can be reindexed if the database crashes before the changes are committed.
+     *
+     * @param document the changed document
+     */
+    public synchronized void markUncommitted(DocumentImpl document) {
+        if (commitInterval > 0)
+            uncommitted.add(document.getDocId());
+    }
+
+    /**
+     * Forces a commit on the next sync. Used for changes which cannot be recovered
+     * by reindexing a document, e.g. plain text indexes of binary resources.
+     */
+    public synchronized void requireCommit() {
+        commitRequired = true;
+    }
+
     protected void commit() {
     	if (!needsCommit) {
             return;
@@ -236,6 +369,12 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
                 cachedWriter.commit();
             }
             needsCommit = false;
+            commitRequired = false;
+            lastCommit = System.currentTimeMillis();
+            uncommitted.clear();
+            // keep the log until the documents found in it at startup are reindexed
+            if (pendingRecovery == null)
+                Files.deleteIfExists(getDataDir().resolve(getDirName()).resolve(PENDING_COMMIT_FILE_NAME));
         } catch(CorruptIndexException cie) {
             LOG.error("Detected corrupt Lucene index on writer release and commit: {}", cie.getMessage(), cie);
         } catch(IOException ioe) {
@@ -243,6 +382,118 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         }
     }
 
+    private void deferCommit() {
+        if (uncommitted.isEmpty())
+            return;
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (final DataOutputStream os = new DataOutputStream(bytes)) {
+                for (final int docId : uncommitted) {
+                    os.writeInt(docId);
+                }
+            }
+            final Path file = getDataDir().resolve(getDirName()).resolve(PENDING_COMMIT_FILE_NAME);
+            try (final FileChannel channel = FileChannel.open(file, CREATE, WRITE, APPEND)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(false);
+            }
+            uncommitted.clear();
+        } catch (IOException e) {
+            LOG.warn("Failed to write pending commit log for Lucene index, committing instead: {}", e.getMessage(), e);
+            commit();
+        }
+    }
+
+    static Set<Integer> readPendingCommits(Path file) throws IOException {
+        if (!Files.exists(file))
+            return null;
+        final Set<Integer> docIds = new HashSet<>();
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                try {
+                    docIds.add(is.readInt());
+                } catch (EOFException e) {
+                    // end of log, or an entry torn by a crash during sync. The journal
+                    // still covers the latter, as no checkpoint followed it
+                    break;
+                }
+            }
+        }
+        return docIds;
+    }
+
+    /**
+     * Reindexes the documents found in the pending commit log when the index was opened.
+     * Their entries are removed first, as the index may hold any state between the last
+     * commit and the crash. The documents are looked up by id, as they may have been moved
+     * or renamed since they were logged.
+     */
+    @Override
+    public void recover(DBBroker broker, Txn transaction) throws DBException {
+        final Set<Integer> docIds;
+        synchronized (this) {
+            docIds = pendingRecovery;
+        }
+        if (docIds == null)
+            return;
+
+        final DocumentSet docs;
+        try {
+            docs = broker.getAllXMLResources(new DefaultDocumentSet());
+        } catch (PermissionDeniedException | LockException e) {
+            throw new DBException("Failed to recover Lucene index: " + e.getMessage());
+        }
+
+        final IndexWorker worker = getWorker(broker);
+        for (final int docId : docIds) {
+            final DocumentImpl doc = docs.getDoc(docId);
+            if (doc != null && doc.getResourceType() != DocumentImpl.XML_FILE)
+                continue;
+
+            try {
+                deleteDocument(docId);
+                if (doc == null)
+                    continue;
+
+                try (final ManagedDocumentLock docLock = broker.getBrokerPool().getLockManager().acquireDocumentReadLock(doc.getURI())) {
+                    worker.setDocument(doc, ReindexMode.STORE);
+                    final StreamListener listener = worker.getListener();
+                    listener.startIndexDocument(transaction);
+                    final NodeList nodes = doc.getChildNodes();
+                    for (int i = 0; i < nodes.getLength(); i++) {
+                        IndexUtils.scanNode(broker, transaction, (IStoredNode) nodes.item(i), listener);
+                    }
+                    listener.endIndexDocument(transaction);
+                    worker.flush();
+                }
+            } catch (LockException e) {
+                LOG.warn("Unable to reindex {}: {}", doc.getURI(), e.getMessage(), e);
+            } catch (IOException e) {
+                throw new DBException("Failed to recover Lucene index: " + e.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            pendingRecovery = null;
+            needsCommit = true;
+            commit();
+        }
+        LOG.info("Reindexed {} documents with uncommitted Lucene changes", docIds.size());
+    }
+
+    private void deleteDocument(int docId) throws IOException {
+        final BytesRefBuilder bytes = new BytesRefBuilder();
+        NumericUtils.intToPrefixCoded(docId, 0, bytes);
+        final IndexWriter writer = getWriter();
+        try {
+            writer.deleteDocuments(new Term(LuceneUtil.FIELD_DOC_ID, bytes.toBytesRef()));
+        } finally {
+            releaseWriter(writer);
+        }
+    }
+
     public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
         readerManager.maybeRefreshBlocking();
         final DirectoryReader reader = readerManager.acquire();
@@ -67,6 +67,7 @@ import org.exist.xquery.Expression;
 import org.exist.xquery.QueryRewriter;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.modules.lucene.LuceneModule;
 import org.exist.xquery.modules.lucene.QueryOptions;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.NodeValue;
@@ -77,6 +78,9 @@ import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -159,6 +163,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 write();
                 break;
             case REMOVE_ALL_NODES:
+                index.markUncommitted(currentDoc);
                 removeDocument(currentDoc.getDocId());
                 break;
             case REMOVE_SOME_NODES:
@@ -327,6 +332,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     protected void removePlainTextIndexes() {
+        index.requireCommit();
     	IndexWriter writer = null;
         try {
             writer = index.getWriter();
@@ -350,6 +356,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             writer = index.getWriter();
             for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
                 DocumentImpl doc = i.next();
+                index.markUncommitted(doc);
                 final BytesRefBuilder bytes = new BytesRefBuilder();
                 NumericUtils.intToPrefixCoded(doc.getDocId(), 0, bytes);
                 Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
@@ -380,6 +387,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     protected void removeNodes() {
     	if (nodesToRemove == null)
             return;
+        index.markUncommitted(currentDoc);
         IndexWriter writer = null;
         try {
             writer = index.getWriter();
@@ -455,7 +463,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     query = drilldown(facets.get(), query, config);
                 }
                 searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, config);
+                        returnAncestor, searcher, query, config, options);
             }
             return resultSet;
         });
@@ -499,7 +507,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 }
                 if (query != null) {
                     searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, config);
+                            returnAncestor, searcher, query, config, options);
                 }
             }
             return resultSet;
@@ -517,7 +525,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             final Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, config);
+                        returnAncestor, searcher, query, config, options);
             }
             return resultSet;
         });
@@ -535,16 +543,64 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     private void searchAndProcess(final int contextId, final QName qname, final DocumentSet docs,
                                   @Nullable final NodeSet contextSet, final NodeSet resultSet, final boolean returnAncestor,
                                   final SearcherTaxonomyManager.SearcherAndTaxonomy searcher, final Query query,
-                                  final LuceneConfig config) throws IOException {
+                                  final LuceneConfig config, final QueryOptions options) throws IOException, XPathException {
         final LuceneFacets facets = new LuceneFacets();
         final FacetsCollector facetsCollector = new FacetsCollector();
         final LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, facets, facetsCollector);
-        searcher.searcher.search(query, collector);
+        final ExecutorService executor = index.getSearchExecutor();
+        final List<AtomicReaderContext> leaves = searcher.searcher.getIndexReader().leaves();
+        if (options.getLimit().isPresent()) {
+            collector.searchTopHits(searcher.searcher, query, options.getLimit().get(), getSort(config, qname, options));
+        } else if (executor == null || leaves.size() < 2) {
+            searcher.searcher.search(query, collector);
+        } else {
+            collector.search(searcher.searcher, query, leaves, executor);
+        }
 
         // compute facets
         facets.compute(searcher.taxonomyReader, config.facetsConfig, facetsCollector);
     }
 
+    /**
+     * Creates the sort requested by the query options, or returns null to rank hits by score.
+     * Only fields declared sortable in the index of the queried qname have the doc values to
+     * sort on. Hits without a value for the field come last in either direction.
+     */
+    private @Nullable Sort getSort(@Nullable final LuceneConfig config, @Nullable final QName qname,
+                                   final QueryOptions options) throws XPathException {
+        final Optional<String> field = options.getSortField();
+        if (!field.isPresent()) {
+            return null;
+        }
+        final SortField.Type type = config == null ? null : config.getSortType(qname, field.get());
+        if (type == null) {
+            throw new XPathException((Expression) null, LuceneModule.EXXQDYFT0004,
+                    "Cannot sort by field " + field.get() + ": it is not declared sortable in the index configuration");
+        }
+        final boolean descending = options.isSortDescending();
+        final SortField sortField = new SortField(field.get(), type, descending);
+        sortField.setMissingValue(getMissingLast(type, descending));
+        return new Sort(sortField);
+    }
+
+    /**
+     * Value sorting hits without the sort field after all others, whatever the direction.
+     * Lucene applies the missing value before reversing the order, hence the opposite
+     * extreme for a descending sort.
+     */
+    private static Object getMissingLast(final SortField.Type type, final boolean descending) {
+        switch (type) {
+            case LONG:
+                return descending ? Long.MIN_VALUE : Long.MAX_VALUE;
+            case DOUBLE:
+                return descending ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            case FLOAT:
+                return descending ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+            default:
+                return descending ? SortField.STRING_FIRST : SortField.STRING_LAST;
+        }
+    }
+
     /**
      * Wrapper around Lucene {@link Facets}, which are computed after the search has finished.
      */
@@ -600,7 +656,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             options.configureParser(parser.getConfiguration());
             Query query = parser.parse(queryString);
             searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                    returnAncestor, searcher, query, config);
+                    returnAncestor, searcher, query, config, options);
             return resultSet;
         });
     }
@@ -678,6 +734,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
     
     public void writeNonXML() {
+        index.requireCommit();
     	IndexWriter writer = null;
         try {
             writer = index.getWriter();
@@ -995,47 +1052,160 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 if (storedDocument == null)
                     return;
                 final BytesRef ref = this.nodeIdValues.get(doc);
-                int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
-                NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
-                //LOG.info("doc: " + docId + "; node: " + nodeId.toString() + "; units: " + units);
-
-                NodeProxy storedNode = new NodeProxy(null, storedDocument, nodeId);
-                if (qname != null) {
-                    storedNode.setNodeType(qname.getNameType() == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
+                if (process(doc, score, storedDocument, readNodeId(ref))) {
+                    chainedCollector.collect(doc);
                 }
-                // if a context set is specified, we can directly check if the
-                // matching node is a descendant of one of the nodes
-                // in the context set.
-                if (contextSet != null) {
-                    int sizeHint = contextSet.getSizeHint(storedDocument);
-                    if (returnAncestor) {
-                        NodeProxy parentNode = contextSet.get(storedNode);
-                        // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
-                        if (parentNode != null) {
-                            LuceneMatch match = createMatch(doc, score, nodeId);
-                            parentNode.addMatch(match);
-                            resultSet.add(parentNode, sizeHint);
-                            if (Expression.NO_CONTEXT_ID != contextId) {
-                                parentNode.deepCopyContext(storedNode, contextId);
-                            } else
-                                parentNode.copyContext(storedNode);
-                            chainedCollector.collect(doc);
+            } catch (final IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Searches the segments in parallel. Each task scores the hits of one segment and
+         * decodes their node ids, which is where most of the time goes for large result sets.
+         * Matches are then created and added to the result set in the calling thread, segment
+         * by segment, as the context set and its nodes must not be modified concurrently.
+         */
+        private void search(final IndexSearcher searcher, final Query query, final List<AtomicReaderContext> leaves,
+                final ExecutorService executor) throws IOException {
+            final Weight weight = searcher.createNormalizedWeight(query);
+            final List<Future<SegmentHits>> results = new ArrayList<>(leaves.size());
+            for (final AtomicReaderContext leaf : leaves) {
+                results.add(executor.submit(() -> {
+                    final SegmentHits hits = new SegmentHits(leaf);
+                    final BulkScorer bulkScorer = weight.bulkScorer(leaf, true, leaf.reader().getLiveDocs());
+                    if (bulkScorer != null) {
+                        bulkScorer.score(hits);
+                    }
+                    return hits;
+                }));
+            }
+
+            try {
+                for (final Future<SegmentHits> result : results) {
+                    final SegmentHits hits = result.get();
+                    this.docBase = hits.context.docBase;
+                    chainedCollector.setNextReader(hits.context);
+                    for (int i = 0; i < hits.size; i++) {
+                        if (process(hits.hitDocs[i], hits.scores[i], hits.documents[i], hits.nodeIds[i])) {
+                            chainedCollector.collect(hits.hitDocs[i]);
                         }
-                    } else {
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while searching Lucene index", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                for (final Future<SegmentHits> result : results) {
+                    result.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * Only keeps the best {@code limit} hits, ranked by the given sort or by score. Hits
+         * outside the document set or context set are skipped while collecting, so the limit
+         * applies to hits which are actually returned. Facets are still counted for all hits.
+         */
+        private void searchTopHits(final IndexSearcher searcher, final Query query, final int limit,
+                @Nullable final Sort sort) throws IOException {
+            final TopDocsCollector<?> topCollector = sort == null
+                    ? TopScoreDocCollector.create(limit, true)
+                    : TopFieldCollector.create(sort, limit, false, true, false, true);
+            searcher.search(query, new Collector() {
+                private NumericDocValues docIdValues;
+                private BinaryDocValues nodeIdValues;
+
+                @Override
+                public void setScorer(final Scorer scorer) throws IOException {
+                    topCollector.setScorer(scorer);
+                    chainedCollector.setScorer(scorer);
+                }
+
+                @Override
+                public void setNextReader(final AtomicReaderContext context) throws IOException {
+                    docIdValues = context.reader().getNumericDocValues(FIELD_DOC_ID);
+                    nodeIdValues = context.reader().getBinaryDocValues(LuceneUtil.FIELD_NODE_ID);
+                    topCollector.setNextReader(context);
+                    chainedCollector.setNextReader(context);
+                }
+
+                @Override
+                public boolean acceptsDocsOutOfOrder() {
+                    return false;
+                }
+
+                @Override
+                public void collect(final int doc) throws IOException {
+                    final DocumentImpl storedDocument = docs.getDoc((int) docIdValues.get(doc));
+                    if (storedDocument == null) {
+                        return;
+                    }
+                    if (contextSet != null && returnAncestor
+                            && contextSet.get(new NodeProxy(null, storedDocument, readNodeId(nodeIdValues.get(doc)))) == null) {
+                        return;
+                    }
+                    topCollector.collect(doc);
+                    chainedCollector.collect(doc);
+                }
+            });
+
+            final List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+            for (final ScoreDoc hit : topCollector.topDocs().scoreDocs) {
+                final AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(hit.doc, leaves));
+                final int doc = hit.doc - leaf.docBase;
+                final int docId = (int) leaf.reader().getNumericDocValues(FIELD_DOC_ID).get(doc);
+                final NodeId nodeId = readNodeId(leaf.reader().getBinaryDocValues(LuceneUtil.FIELD_NODE_ID).get(doc));
+                this.docBase = leaf.docBase;
+                process(doc, hit.score, docs.getDoc(docId), nodeId);
+            }
+        }
+
+        /**
+         * Adds a hit to the result set.
+         *
+         * @return true if the hit was added, false if it is outside the context set
+         */
+        private boolean process(final int doc, final float score, final DocumentImpl storedDocument, final NodeId nodeId) {
+            NodeProxy storedNode = new NodeProxy(null, storedDocument, nodeId);
+            if (qname != null) {
+                storedNode.setNodeType(qname.getNameType() == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
+            }
+            // if a context set is specified, we can directly check if the
+            // matching node is a descendant of one of the nodes
+            // in the context set.
+            if (contextSet != null) {
+                int sizeHint = contextSet.getSizeHint(storedDocument);
+                if (returnAncestor) {
+                    NodeProxy parentNode = contextSet.get(storedNode);
+                    // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
+                    if (parentNode != null) {
                         LuceneMatch match = createMatch(doc, score, nodeId);
-                        storedNode.addMatch(match);
-                        resultSet.add(storedNode, sizeHint);
-                        chainedCollector.collect(doc);
+                        parentNode.addMatch(match);
+                        resultSet.add(parentNode, sizeHint);
+                        if (Expression.NO_CONTEXT_ID != contextId) {
+                            parentNode.deepCopyContext(storedNode, contextId);
+                        } else
+                            parentNode.copyContext(storedNode);
+                        return true;
                     }
+                    return false;
                 } else {
                     LuceneMatch match = createMatch(doc, score, nodeId);
                     storedNode.addMatch(match);
-                    resultSet.add(storedNode);
-                    chainedCollector.collect(doc);
+                    resultSet.add(storedNode, sizeHint);
                 }
-            } catch (final IOException e) {
-                e.printStackTrace();
+            } else {
+                LuceneMatch match = createMatch(doc, score, nodeId);
+                storedNode.addMatch(match);
+                resultSet.add(storedNode);
             }
+            return true;
         }
 
         private LuceneMatch createMatch(final int docId, final float score, final NodeId nodeId) {
@@ -1043,6 +1213,70 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             match.setScore(score);
             return match;
         }
+
+        /**
+         * Collects the hits of a single segment, without touching any shared state.
+         */
+        private class SegmentHits extends Collector {
+
+            private final AtomicReaderContext context;
+            private final NumericDocValues docIdValues;
+            private final BinaryDocValues nodeIdValues;
+            private Scorer scorer;
+
+            private int size = 0;
+            private int[] hitDocs = new int[16];
+            private float[] scores = new float[16];
+            private DocumentImpl[] documents = new DocumentImpl[16];
+            private NodeId[] nodeIds = new NodeId[16];
+
+            private SegmentHits(final AtomicReaderContext context) throws IOException {
+                this.context = context;
+                this.docIdValues = context.reader().getNumericDocValues(FIELD_DOC_ID);
+                this.nodeIdValues = context.reader().getBinaryDocValues(LuceneUtil.FIELD_NODE_ID);
+            }
+
+            @Override
+            public void setScorer(final Scorer scorer) {
+                this.scorer = scorer;
+            }
+
+            @Override
+            public void setNextReader(final AtomicReaderContext atomicReaderContext) {
+                // bound to a single segment
+            }
+
+            @Override
+            public boolean acceptsDocsOutOfOrder() {
+                return false;
+            }
+
+            @Override
+            public void collect(final int doc) throws IOException {
+                final int docId = (int) docIdValues.get(doc);
+                final DocumentImpl storedDocument = docs.getDoc(docId);
+                if (storedDocument == null) {
+                    return;
+                }
+                if (size == hitDocs.length) {
+                    final int newLength = size * 2;
+                    hitDocs = Arrays.copyOf(hitDocs, newLength);
+                    scores = Arrays.copyOf(scores, newLength);
+                    documents = Arrays.copyOf(documents, newLength);
+                    nodeIds = Arrays.copyOf(nodeIds, newLength);
+                }
+                hitDocs[size] = doc;
+                scores[size] = scorer.score();
+                documents[size] = storedDocument;
+                nodeIds[size] = readNodeId(nodeIdValues.get(doc));
+                size++;
+            }
+        }
+    }
+
+    private NodeId readNodeId(final BytesRef ref) {
+        final int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
+        return index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
     }
 
     /**
@@ -1381,6 +1615,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         if (nodesToWrite == null || nodesToWrite.isEmpty() || !canFlush) {
             return;
 	    }
+        index.markUncommitted(currentDoc);
 
         if (broker.getIndexController().isReindexing()) {
             // remove old indexed nodes
@@ -78,7 +78,10 @@ public class Query extends Function implements Optimizable {
                                            <leading-wildcard>yes|no</leading-wildcard>
                                            <filter-rewrite>yes|no</filter-rewrite>
                                            <lowercase-expanded-terms>yes|no</lowercase-expanded-terms>
-                                        </options>"""
+                                           <limit>number</limit>
+                                           <sort>field-name ascending|descending</sort>
+                                        </options>
+                                        With limit, only the best hits are returned, ranked by score or by the given field, which must be declared sortable in the index configuration. A sort requires a limit."""
                         )
                     )
             )
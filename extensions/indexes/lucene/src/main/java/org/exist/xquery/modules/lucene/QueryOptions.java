@@ -54,6 +54,8 @@ public class QueryOptions {
     public static final String OPTION_LOWERCASE_EXPANDED_TERMS = "lowercase-expanded-terms";
     public static final String OPTION_FACETS = "facets";
     public static final String OPTION_QUERY_ANALYZER_ID = "query-analyzer-id";
+    public static final String OPTION_SORT = "sort";
+    public static final String OPTION_LIMIT = "limit";
 
     protected enum DefaultOperator {
         OR,
@@ -69,6 +71,9 @@ public class QueryOptions {
     protected boolean lowercaseExpandedTerms = false;
     protected Optional<Map<String, FacetQuery>> facets = Optional.empty();
     protected Set<String> fields = null;
+    protected Optional<String> sortField = Optional.empty();
+    protected boolean sortDescending = false;
+    protected Optional<Integer> limit = Optional.empty();
 
     public QueryOptions() {
         // default options
@@ -96,6 +101,7 @@ public class QueryOptions {
         } catch (XMLStreamException | IOException e) {
             throw new XPathException((Expression) null, LuceneModule.EXXQDYFT0004, "Error while parsing options to ft:query: " + e.getMessage(), e);
         }
+        checkSort();
     }
 
     public QueryOptions(final AbstractMapType map) throws XPathException {
@@ -124,6 +130,18 @@ public class QueryOptions {
                 set(key, entry.value().getStringValue());
             }
         }
+        checkSort();
+    }
+
+    /**
+     * Hits are always returned in document order, the sort only selects which hits are
+     * kept up to the limit, so it means nothing without one.
+     */
+    private void checkSort() throws XPathException {
+        if (sortField.isPresent() && !limit.isPresent()) {
+            throw new XPathException((Expression) null, LuceneModule.EXXQDYFT0004, "Option " + OPTION_SORT +
+                    " requires option " + OPTION_LIMIT + ": it selects the best hits up to the limit, use an order by clause to sort all hits");
+        }
     }
 
     /**
@@ -207,6 +225,24 @@ public class QueryOptions {
         return filterRewrite;
     }
 
+    /**
+     * @return the sortable field by which the best hits are selected, only given together with a limit
+     */
+    public Optional<String> getSortField() {
+        return sortField;
+    }
+
+    public boolean isSortDescending() {
+        return sortDescending;
+    }
+
+    /**
+     * @return the maximum number of hits to return
+     */
+    public Optional<Integer> getLimit() {
+        return limit;
+    }
+
     private void set(String key, String value) throws XPathException {
         switch (key) {
             case OPTION_DEFAULT_OPERATOR:
@@ -230,6 +266,22 @@ public class QueryOptions {
             case OPTION_LOWERCASE_EXPANDED_TERMS:
                 lowercaseExpandedTerms = value.equalsIgnoreCase("yes");
                 break;
+            case OPTION_SORT:
+                // field name, optionally followed by "ascending" or "descending"
+                final String[] sortSpec = value.trim().split("\\s+");
+                sortField = Optional.of(sortSpec[0]);
+                sortDescending = sortSpec.length > 1 && sortSpec[1].equalsIgnoreCase("descending");
+                break;
+            case OPTION_LIMIT:
+                try {
+                    limit = Optional.of(Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    throw new XPathException((Expression) null, LuceneModule.EXXQDYFT0004, "Option " + OPTION_LIMIT + " must be an integer");
+                }
+                if (limit.get() < 1) {
+                    throw new XPathException((Expression) null, LuceneModule.EXXQDYFT0004, "Option " + OPTION_LIMIT + " must be greater than 0");
+                }
+                break;
             case OPTION_QUERY_ANALYZER_ID:
                 queryAnalyzerId = value;
             default:
@@ -0,0 +1,194 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests deferred commits of the Lucene index, see the commit-interval setting,
+ * and the reindexing of the documents recorded in the pending commit log after a crash.
+ */
+public class CommitIntervalTest {
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <text qname=\"p\"/>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
+    private static final String XML = "<section><p>An apple a day keeps the doctor away.</p></section>";
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void deferredCommitIsLogged() throws Exception {
+        final LuceneIndex index = getIndex();
+        index.commitInterval = 60 * 60 * 1000;
+
+        final int docId = store(TestConstants.TEST_COLLECTION_URI, "a.xml");
+        index.sync();
+
+        // not committed, but visible to queries
+        final Path log = getPendingCommitLog(index);
+        assertTrue(Files.exists(log));
+        final Set<Integer> logged = LuceneIndex.readPendingCommits(log);
+        assertNotNull(logged);
+        assertTrue(logged.contains(docId));
+        assertEquals(1, countMatches("apple"));
+
+        // a commit removes the log
+        index.commitInterval = 0;
+        index.sync();
+        assertFalse(Files.exists(log));
+        assertEquals(1, countMatches("apple"));
+    }
+
+    @Test
+    public void noLogWithoutCommitInterval() throws Exception {
+        final LuceneIndex index = getIndex();
+        store(TestConstants.TEST_COLLECTION_URI, "a.xml");
+        index.sync();
+        assertFalse(Files.exists(getPendingCommitLog(index)));
+        assertEquals(1, countMatches("apple"));
+    }
+
+    @Test
+    public void movedDocumentRecoveredAfterCrash() throws Exception {
+        LuceneIndex index = getIndex();
+        index.commitInterval = 60 * 60 * 1000;
+
+        final int docId = store(TestConstants.TEST_COLLECTION_URI, "a.xml");
+        index.sync();
+        final Path log = getPendingCommitLog(index);
+        final byte[] logged = Files.readAllBytes(log);
+
+        // the document is moved and renamed after it was logged
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection source = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            final Collection target = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI2);
+            final DocumentImpl doc = source.getDocument(broker, XmldbURI.create("a.xml"));
+            broker.moveResource(transaction, doc, target, XmldbURI.create("b.xml"));
+            transact.commit(transaction);
+        }
+
+        // simulate a crash: the changes since the last commit are lost, the log is left behind
+        final Path dir = index.getDataDir().resolve(index.getDirName());
+        existEmbeddedServer.stopDb(false);
+        deleteDocument(dir, docId);
+        Files.write(log, logged);
+
+        existEmbeddedServer.startDb();
+        index = getIndex();
+        assertFalse(Files.exists(getPendingCommitLog(index)));
+        assertEquals(1, countMatches("apple"));
+        try (final DBBroker broker = existEmbeddedServer.getBrokerPool().get(Optional.of(existEmbeddedServer.getBrokerPool().getSecurityManager().getSystemSubject()))) {
+            final Sequence seq = existEmbeddedServer.getBrokerPool().getXQueryService().execute(broker,
+                    "//p[ft:query(., 'apple')]/document-uri(root(.))", null);
+            assertEquals(TestConstants.TEST_COLLECTION_URI2.append("b.xml").toString(), seq.itemAt(0).getStringValue());
+        }
+    }
+
+    private LuceneIndex getIndex() {
+        return (LuceneIndex) existEmbeddedServer.getBrokerPool().getIndexManager().getIndexById(LuceneIndex.ID);
+    }
+
+    private static Path getPendingCommitLog(final LuceneIndex index) {
+        return index.getDataDir().resolve(index.getDirName()).resolve(LuceneIndex.PENDING_COMMIT_FILE_NAME);
+    }
+
+    private int store(final XmldbURI collectionUri, final String docName) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, collectionUri);
+            final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+            mgr.addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+            broker.storeDocument(transaction, XmldbURI.create(docName), new StringInputSource(XML), MimeType.XML_TYPE, collection);
+            final int docId = collection.getDocument(broker, XmldbURI.create(docName)).getDocId();
+            transact.commit(transaction);
+            return docId;
+        }
+    }
+
+    private int countMatches(final String term) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence seq = pool.getXQueryService().execute(broker, "//p[ft:query(., '" + term + "')]", null);
+            return seq.getItemCount();
+        }
+    }
+
+    /**
+     * Removes the entries of a document from a closed index, as if they had never been committed.
+     */
+    private static void deleteDocument(final Path dir, final int docId) throws IOException {
+        final BytesRefBuilder bytes = new BytesRefBuilder();
+        NumericUtils.intToPrefixCoded(docId, 0, bytes);
+        try (final Directory directory = FSDirectory.open(dir.toFile());
+                final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(LuceneIndex.LUCENE_VERSION_IN_USE,
+                        new StandardAnalyzer(LuceneIndex.LUCENE_VERSION_IN_USE)))) {
+            writer.deleteDocuments(new Term(LuceneUtil.FIELD_DOC_ID, bytes.toBytesRef()));
+            writer.commit();
+        }
+    }
+}
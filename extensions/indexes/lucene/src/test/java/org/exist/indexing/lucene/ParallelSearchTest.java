@@ -0,0 +1,173 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that searching the segments of the index in parallel, see the search-threads
+ * setting, returns the same hits, scores, matches and facets as a serial search.
+ */
+public class ParallelSearchTest {
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <text qname=\"p\">" +
+            "               <facet dimension=\"cat\" expression=\"@cat\"/>" +
+            "           </text>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
+    private static final int DOCUMENTS = 5;
+
+    private static final XmldbURI COLLECTION_URI = TestConstants.TEST_COLLECTION_URI;
+
+    private static final String HITS =
+            "declare namespace exist='http://exist.sourceforge.net/NS/exist';" +
+            "for $p in %s " +
+            "return string-join((document-uri(root($p)), util:node-id($p), string(ft:score($p))," +
+            "   util:expand($p)//exist:match/string()), '|')";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    /**
+     * Stores each document in its own commit of the index, i.e. in its own segment.
+     */
+    @BeforeClass
+    public static void storeDocuments() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            final StringBuilder xml = new StringBuilder("<section>");
+            for (int j = 0; j <= i; j++) {
+                xml.append("<p cat=\"c").append(j % 2).append("\">");
+                for (int k = 0; k <= j; k++) {
+                    xml.append("apple ");
+                }
+                xml.append("pear doc").append(i).append("</p>");
+            }
+            xml.append("<p cat=\"c2\">orange</p></section>");
+            try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                    final Txn transaction = transact.beginTransaction()) {
+                final Collection collection = broker.getOrCreateCollection(transaction, COLLECTION_URI);
+                if (i == 0) {
+                    final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+                    mgr.addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+                }
+                broker.storeDocument(transaction, XmldbURI.create("doc" + i + ".xml"),
+                        new StringInputSource(xml.toString()), MimeType.XML_TYPE, collection);
+                transact.commit(transaction);
+            }
+            getIndex().sync();
+        }
+    }
+
+    @Test
+    public void indexHasSeveralSegments() throws Exception {
+        final int segments = getIndex().withSearcher(searcher -> searcher.searcher.getIndexReader().leaves().size());
+        assertTrue(segments > 1);
+    }
+
+    @Test
+    public void contextSet() throws Exception {
+        assertSameResults(String.format(HITS, "collection('" + COLLECTION_URI + "')//p[ft:query(., 'apple')]"));
+    }
+
+    @Test
+    public void withoutContextSet() throws Exception {
+        assertSameResults(String.format(HITS, "ft:query(collection('" + COLLECTION_URI + "')//p, 'apple pear')"));
+    }
+
+    @Test
+    public void documentSubset() throws Exception {
+        assertSameResults(String.format(HITS, "(doc('" + COLLECTION_URI + "/doc1.xml'), doc('" + COLLECTION_URI +
+                "/doc3.xml'))//p[ft:query(., 'apple OR doc3')]"));
+    }
+
+    @Test
+    public void facets() throws Exception {
+        assertSameResults(
+                "let $hits := collection('" + COLLECTION_URI + "')//p[ft:query(., 'apple')] " +
+                "let $facets := ft:facets($hits, 'cat', ()) " +
+                "for $cat in map:keys($facets) order by $cat return $cat || '=' || $facets($cat)");
+    }
+
+    private static void assertSameResults(final String query) throws Exception {
+        final LuceneIndex index = getIndex();
+        final List<String> serial = execute(query);
+        assertFalse(serial.isEmpty());
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        index.searchExecutor = executor;
+        try {
+            assertEquals(serial, execute(query));
+        } finally {
+            index.searchExecutor = null;
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> execute(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence seq = pool.getXQueryService().execute(broker, query, null);
+            final List<String> results = new ArrayList<>(seq.getItemCount());
+            for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+                results.add(i.nextItem().getStringValue());
+            }
+            return results;
+        }
+    }
+
+    private static LuceneIndex getIndex() {
+        return (LuceneIndex) existEmbeddedServer.getBrokerPool().getIndexManager().getIndexById(LuceneIndex.ID);
+    }
+}
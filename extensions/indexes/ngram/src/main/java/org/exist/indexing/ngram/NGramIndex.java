@@ -34,17 +34,20 @@ import org.exist.storage.btree.DBException;
 import org.exist.storage.index.BFile;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
+import org.exist.util.NamedThreadFactory;
 import org.w3c.dom.Element;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  */
 public class NGramIndex extends AbstractIndex implements RawBackupSupport {
 
-    public static final short FILE_FORMAT_VERSION_ID = 14;
+    public static final short FILE_FORMAT_VERSION_ID = 15;
 
     public final static String ID = NGramIndex.class.getName();
 
@@ -54,6 +57,13 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
     private int gramSize = 3;
     private Path dataFile = null;
 
+    /**
+     * Number of threads used to verify the candidate matches of a search in parallel.
+     * 0 verifies them in the calling thread.
+     */
+    private int verifyThreads = 0;
+    ExecutorService verifyExecutor = null;
+
     @Override
     public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
         super.configure(pool, dataDir, config);
@@ -66,6 +76,12 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
             } catch (NumberFormatException e) {
                 throw new DatabaseConfigurationException("Configuration parameter 'n' should be an integer.");
             }
+        if (config.hasAttribute("verify-threads"))
+            try {
+                verifyThreads = Integer.parseInt(config.getAttribute("verify-threads"));
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid verify threads setting for NGram index: {}", config.getAttribute("verify-threads"), e);
+            }
         dataFile = dataDir.resolve(fileName);
     }
 
@@ -77,6 +93,8 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
             throw new DatabaseConfigurationException("Failed to create index file: " + dataFile.toAbsolutePath().toString() + ": " +
                 e.getMessage());
         }
+        if (verifyThreads > 0)
+            verifyExecutor = Executors.newFixedThreadPool(verifyThreads, new NamedThreadFactory(pool, "ngram-verify"));
         if (LOG.isDebugEnabled())
             LOG.debug("Created NGram index: {}", dataFile.toAbsolutePath().toString());
     }
@@ -84,9 +102,17 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
     @Override
     public void close() throws DBException {
         LOG.debug("SYNC NGRAM");
+        shutdownVerifyExecutor();
         db.close();
     }
 
+    private void shutdownVerifyExecutor() {
+        if (verifyExecutor != null) {
+            verifyExecutor.shutdownNow();
+            verifyExecutor = null;
+        }
+    }
+
     @Override
     public void sync() throws DBException {
         LOG.debug("SYNC NGRAM");
@@ -95,6 +121,7 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public void remove() throws DBException {
+        shutdownVerifyExecutor();
         db.closeAndRemove();
     }
 
@@ -113,6 +140,14 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
         return gramSize;
     }
 
+    /**
+     * @return the executor for verifying candidate matches in parallel, or null if they
+     *     should be verified in the calling thread
+     */
+    public ExecutorService getVerifyExecutor() {
+        return verifyExecutor;
+    }
+
     public BTree getStorage() {
         return db;
     }
@@ -23,6 +23,7 @@ package org.exist.indexing.ngram;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.stream.XMLStreamConstants;
@@ -140,6 +141,13 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return index.getN();
     }
 
+    /**
+     * @return the executor for verifying candidate matches in parallel, or null
+     */
+    public ExecutorService getVerifyExecutor() {
+        return index.getVerifyExecutor();
+    }
+
     @Override
     public Object configure(final IndexController controller, final NodeList configNodes, final Map<String, String> namespaces) throws DatabaseConfigurationException {
         this.controller = controller;
@@ -194,17 +202,7 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
             // write nodeids, freq, and offsets to a `temp` buf
             try {
-                NodeId previous = null;
-                for (int m = 0; m < occurences.getSize(); ) {
-                    previous = occurences.getNode(m).write(previous, buf);
-
-                    final int freq = occurences.getOccurrences(m);
-                    buf.writeInt(freq);
-                    for (int n = 0; n < freq; n++) {
-                        buf.writeInt(occurences.getOffset(m + n));
-                    }
-                    m += freq;
-                }
+                writeOccurrences(occurences, buf);
 
                 final byte[] bufData = buf.toByteArray();
 
@@ -242,6 +240,45 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         ngrams.clear();
     }
 
+    /**
+     * Writes the node ids of a sorted occurrence list, each followed by its frequency and offsets.
+     *
+     * A node id is written relative to the previous one, and the offsets of a node are written
+     * in ascending order as the gaps between them, so that most of them fit in a single byte
+     * of the variable byte encoding.
+     *
+     * @param occurrences the occurrence list, sorted by node id
+     * @param buf the stream to write to
+     *
+     * @throws IOException if the node ids cannot be written
+     */
+    private static void writeOccurrences(final OccurrenceList occurrences, final VariableByteOutputStream buf)
+            throws IOException {
+        NodeId previous = null;
+        int[] offsets = new int[16];
+        for (int m = 0; m < occurrences.getSize(); ) {
+            previous = occurrences.getNode(m).write(previous, buf);
+
+            final int freq = occurrences.getOccurrences(m);
+            buf.writeInt(freq);
+
+            if (offsets.length < freq) {
+                offsets = new int[freq];
+            }
+            for (int n = 0; n < freq; n++) {
+                offsets[n] = occurrences.getOffset(m + n);
+            }
+            Arrays.sort(offsets, 0, freq);
+
+            int last = 0;
+            for (int n = 0; n < freq; n++) {
+                buf.writeInt(offsets[n] - last);
+                last = offsets[n];
+            }
+            m += freq;
+        }
+    }
+
     private void dropIndex(final ReindexMode mode) {
         if (ngrams.isEmpty()) {
             return;
@@ -296,8 +333,10 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                                 // add the node to the new list if it is not
                                 // in the list of removed nodes
                                 if (!occurencesList.contains(nodeId)) {
+                                    int offset = 0;
                                     for (int n = 0; n < freq; n++) {
-                                        newOccurrences.add(nodeId, is.readInt());
+                                        offset += is.readInt();
+                                        newOccurrences.add(nodeId, offset);
                                     }
                                 } else {
                                     is.skip(freq);
@@ -312,16 +351,7 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                                 os.writeInt(newOccurrences.getTermCount());
 
                                 // write nodeids, freq, and offsets to a `temp` buf
-                                previous = null;
-                                for (int m = 0; m < newOccurrences.getSize(); ) {
-                                    previous = newOccurrences.getNode(m).write(previous, buf);
-                                    final int freq = newOccurrences.getOccurrences(m);
-                                    buf.writeInt(freq);
-                                    for (int n = 0; n < freq; n++) {
-                                        buf.writeInt(newOccurrences.getOffset(m + n));
-                                    }
-                                    m += freq;
-                                }
+                                writeOccurrences(newOccurrences, buf);
 
                                 final byte[] bufData = buf.toByteArray();
 
@@ -1058,12 +1088,11 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 diff = current.lastIndexOf(ngram);
             }
             final Match match = new NGramMatch(contextId, nodeId, ngram, freq);
+            int offset = 0;
             for (int n = 0; n < freq; n++) {
-                int offset = is.readInt();
-                if (diff > 0) {
-                    offset += diff;
-                }
-                match.addOffset(offset, ngram.length());
+                // offsets are stored as the gaps between them
+                offset += is.readInt();
+                match.addOffset(diff > 0 ? offset + diff : offset, ngram.length());
             }
             parentNode.addMatch(match);
         }
@@ -528,7 +528,7 @@ public class NGramSearch extends Function implements Optimizable {
             result = NodeSets.transformNodes(nodes, proxy ->
                     Optional.ofNullable(nodesContainingFirstINgrams.get(proxy))
                             .map(before -> getContinuousMatches(before, proxy))
-                            .orElse(null));
+                            .orElse(null), index.getVerifyExecutor());
         }
         return result;
 	}
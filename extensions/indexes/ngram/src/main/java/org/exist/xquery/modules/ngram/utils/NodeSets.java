@@ -25,12 +25,24 @@ import org.exist.dom.persistent.ExtArrayNodeSet;
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.dom.persistent.NodeSet;
 import org.exist.dom.persistent.NodeSetIterator;
+import org.exist.xquery.Expression;
 import org.exist.xquery.XPathException;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 public final class NodeSets {
 
+    /**
+     * The least number of nodes handed to a single task by
+     * {@link #transformNodes(NodeSet, Function, ExecutorService)}.
+     */
+    private static final int MIN_SLICE_SIZE = 512;
+
     private NodeSets() {
     }
 
@@ -58,6 +70,77 @@ public final class NodeSets {
         return result;
     }
 
+    /**
+     * Like {@link #transformNodes(NodeSet, Function)}, but applies the function to slices of the supplied
+     * NodeSet in parallel, when an executor is given and there is more than one slice. The results are
+     * added to the new NodeSet in the order of the supplied NodeSet, by the calling thread.
+     *
+     * The function may only modify the NodeProxy it is applied to, and must not access the database,
+     * as the tasks do not hold a broker.
+     *
+     * @param nodes
+     *            the NodeSet containig the NodeProys to be transformed
+     * @param transform
+     *            the function to be applied to all NodeProxys in nodes
+     * @param executor
+     *            the executor to run the slices on, or null to transform the nodes in the calling thread
+     * @return a new NodeSet containing the non-null results of f applied to the NodeProxys in nodes
+     *
+     * @throws XPathException if an error occurs with the query.
+     */
+    public static NodeSet transformNodes(final NodeSet nodes, final Function<NodeProxy, NodeProxy> transform,
+            final ExecutorService executor) throws XPathException {
+        final int size = nodes.getLength();
+        if (executor == null || size < 2 * MIN_SLICE_SIZE) {
+            return transformNodes(nodes, transform);
+        }
+
+        final NodeProxy[] candidates = new NodeProxy[size];
+        int i = 0;
+        for (final NodeProxy nodeProxy : nodes) {
+            candidates[i++] = nodeProxy;
+        }
+
+        final List<Future<?>> slices = new ArrayList<>(size / MIN_SLICE_SIZE);
+        try {
+            // the calling thread transforms the first slice itself
+            for (int start = MIN_SLICE_SIZE; start < size; start += MIN_SLICE_SIZE) {
+                final int from = start;
+                final int to = Math.min(start + MIN_SLICE_SIZE, size);
+                slices.add(executor.submit(() -> transformSlice(candidates, from, to, transform)));
+            }
+            transformSlice(candidates, 0, MIN_SLICE_SIZE, transform);
+            for (final Future<?> slice : slices) {
+                slice.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XPathException((Expression) null, "Interrupted while transforming nodes", e);
+        } catch (final ExecutionException e) {
+            throw new XPathException((Expression) null, "Error while transforming nodes: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (final Future<?> slice : slices) {
+                slice.cancel(true);
+            }
+        }
+
+        final NodeSet result = new ExtArrayNodeSet();
+        for (final NodeProxy node : candidates) {
+            if (node != null) {
+                result.add(node);
+            }
+        }
+        result.iterate(); // ensure result is ready to use
+        return result;
+    }
+
+    private static void transformSlice(final NodeProxy[] nodes, final int from, final int to,
+            final Function<NodeProxy, NodeProxy> transform) {
+        for (int i = from; i < to; i++) {
+            nodes[i] = transform.apply(nodes[i]);
+        }
+    }
+
     public static NodeSet getNodesMatchingAtStart(final NodeSet nodes, final int expressionId) throws XPathException {
         return transformNodes(nodes, proxy ->
                 NodeProxies.transformOwnMatches(
@@ -0,0 +1,212 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.ngram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.modules.ngram.utils.NodeSets;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the gap encoded offsets of the n-gram index, when storing and when nodes are removed,
+ * and the verification of candidate matches in parallel, see the verify-threads setting.
+ */
+public class NGramOffsetsTest {
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <ngram qname=\"para\"/>" +
+            "   </index>" +
+            "</collection>";
+
+    /**
+     * Returns the number of each matching para with the offsets of its highlighted matches.
+     */
+    private static final String MATCH_OFFSETS =
+            "declare namespace exist='http://exist.sourceforge.net/NS/exist';" +
+            "for $p in doc('%s')//para[ngram:contains(., 'abcde')] " +
+            "return string-join(($p/@n, " +
+            "   for $m in util:expand($p)/exist:match " +
+            "   return string-length(string-join($m/preceding-sibling::node(), '')) || ':' || $m), ',')";
+
+    /**
+     * Enough paras for the candidates to be verified in several slices.
+     */
+    private static final int PARAS = 3000;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void removeSomeNodesKeepsOffsets() throws Exception {
+        // gaps between the offsets above 127 need more than one byte
+        final StringBuilder xml = new StringBuilder("<section>");
+        for (int n = 1; n <= 5; n++) {
+            xml.append("<para n=\"").append(n).append("\">")
+                    .append(repeat('z', n)).append("abcde")
+                    .append(repeat('x', 150)).append("abcde")
+                    .append(repeat('y', 300)).append("abcde abc cde</para>");
+        }
+        xml.append("</section>");
+        final XmldbURI docUri = store("remove.xml", xml.toString());
+
+        final String query = String.format(MATCH_OFFSETS, docUri);
+        assertEquals(Arrays.asList(
+                "1,1:abcde,156:abcde,461:abcde",
+                "2,2:abcde,157:abcde,462:abcde",
+                "3,3:abcde,158:abcde,463:abcde",
+                "4,4:abcde,159:abcde,464:abcde",
+                "5,5:abcde,160:abcde,465:abcde"), execute(query));
+
+        // rewrites the postings of the document without the removed nodes
+        execute("update delete doc('" + docUri + "')//para[@n = (2, 4)]");
+        assertEquals(Arrays.asList(
+                "1,1:abcde,156:abcde,461:abcde",
+                "3,3:abcde,158:abcde,463:abcde",
+                "5,5:abcde,160:abcde,465:abcde"), execute(query));
+    }
+
+    @Test
+    public void parallelVerificationMatchesSerial() throws Exception {
+        final XmldbURI docUri = store("verify.xml", createParas());
+        final String query = String.format(MATCH_OFFSETS, docUri);
+
+        final List<String> serial = execute(query);
+        assertEquals(PARAS / 3, serial.size());
+
+        final NGramIndex index = getIndex();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        index.verifyExecutor = executor;
+        try {
+            assertEquals(serial, execute(query));
+        } finally {
+            index.verifyExecutor = null;
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void transformNodesWithExecutor() throws Exception {
+        final XmldbURI docUri = store("transform.xml", createParas());
+        final Function<NodeProxy, NodeProxy> transform = proxy -> proxy.getNodeId().toString().endsWith("7") ? null : proxy;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final NodeSet nodes = pool.getXQueryService().execute(broker, "doc('" + docUri + "')//para", null).toNodeSet();
+            assertEquals(PARAS, nodes.getLength());
+
+            final List<String> serial = nodeIds(NodeSets.transformNodes(nodes, transform));
+            assertTrue(serial.size() < PARAS);
+            assertEquals(serial, nodeIds(NodeSets.transformNodes(nodes, transform, executor)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Every para contains the n-grams of abcde, but only every third one contains abcde itself.
+     */
+    private static String createParas() {
+        final StringBuilder xml = new StringBuilder("<section>");
+        for (int n = 0; n < PARAS; n++) {
+            xml.append("<para n=\"").append(n).append("\">").append(repeat('z', n % 50));
+            if (n % 3 == 0) {
+                xml.append("abcde ").append(repeat('x', n % 200)).append(" abcde");
+            } else {
+                xml.append("abcd ").append(repeat('x', n % 200)).append(" bcde");
+            }
+            xml.append("</para>");
+        }
+        return xml.append("</section>").toString();
+    }
+
+    private static String repeat(final char c, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static List<String> nodeIds(final NodeSet nodes) {
+        final List<String> ids = new ArrayList<>(nodes.getLength());
+        for (final NodeProxy node : nodes) {
+            ids.add(node.getNodeId().toString());
+        }
+        return ids;
+    }
+
+    private static XmldbURI store(final String docName, final String xml) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+            mgr.addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+            broker.storeDocument(transaction, XmldbURI.create(docName), new StringInputSource(xml), MimeType.XML_TYPE, collection);
+            transact.commit(transaction);
+        }
+        return TestConstants.TEST_COLLECTION_URI.append(docName);
+    }
+
+    private static List<String> execute(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence seq = pool.getXQueryService().execute(broker, query, null);
+            final List<String> results = new ArrayList<>(seq.getItemCount());
+            for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+                results.add(i.nextItem().getStringValue());
+            }
+            return results;
+        }
+    }
+
+    private static NGramIndex getIndex() {
+        return (NGramIndex) existEmbeddedServer.getBrokerPool().getIndexManager().getIndexById(NGramIndex.ID);
+    }
+}
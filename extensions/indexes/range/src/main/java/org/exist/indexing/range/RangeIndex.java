@@ -21,16 +21,35 @@
  */
 package org.exist.indexing.range;
 
+import com.evolvedbinary.j8fu.function.Function2E;
+import com.evolvedbinary.j8fu.function.FunctionE;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
+import org.exist.storage.btree.DBException;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.NamedThreadFactory;
+import org.exist.xquery.XPathException;
+import org.w3c.dom.Element;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main implementation class for the new range index. This extends the existing LuceneIndex.
@@ -91,11 +110,200 @@ public class RangeIndex extends LuceneIndex {
 
     private Analyzer defaultAnalyzer = new KeywordAnalyzer();
 
+    /**
+     * Number of threads adding the documents written during a batch, e.g. a reindex,
+     * to the index writer concurrently. 0 adds them in the calling thread.
+     */
+    protected int rebuildThreads = 0;
+
+    /**
+     * RAM buffer size in MB of the index writer whilst a batch is open. 0 keeps the
+     * configured buffer size.
+     */
+    protected double rebuildBuffer = 0;
+
+    private ThreadPoolExecutor rebuildExecutor = null;
+    private int openBatches = 0;
+
+    private final Object pendingLock = new Object();
+    private int pendingWrites = 0;
+
+    /**
+     * Failures of the rebuild threads since the open batches started. Reported by
+     * {@link #endBatch()}, as the documents concerned are missing from the index.
+     */
+    private IOException pendingFailure = null;
+
     @Override
     public String getDirName() {
         return DIR_NAME;
     }
 
+    @Override
+    public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
+        super.configure(pool, dataDir, config);
+
+        final String rebuildThreadsParam = config.getAttribute("rebuild-threads");
+        if (rebuildThreadsParam != null && !rebuildThreadsParam.isEmpty())
+            try {
+                rebuildThreads = Integer.parseInt(rebuildThreadsParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid rebuild threads setting for range index: {}", rebuildThreadsParam, e);
+            }
+
+        final String rebuildBufferParam = config.getAttribute("rebuild-buffer");
+        if (rebuildBufferParam != null && !rebuildBufferParam.isEmpty())
+            try {
+                rebuildBuffer = Double.parseDouble(rebuildBufferParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid rebuild buffer setting for range index: {}", rebuildBufferParam, e);
+            }
+    }
+
+    @Override
+    public void open() throws DatabaseConfigurationException {
+        super.open();
+        if (rebuildThreads > 0) {
+            // a full queue makes the worker add the documents itself, which keeps
+            // the number of batches held in memory bounded
+            rebuildExecutor = new ThreadPoolExecutor(rebuildThreads, rebuildThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(rebuildThreads * 2), new NamedThreadFactory(getBrokerPool(), "range-rebuild"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws DBException {
+        awaitPendingWrites();
+        if (rebuildExecutor != null) {
+            rebuildExecutor.shutdown();
+            rebuildExecutor = null;
+        }
+        openBatches = 0;
+        synchronized (pendingLock) {
+            pendingFailure = null;
+        }
+        super.close();
+    }
+
+    @Override
+    public void remove() throws DBException {
+        super.remove();
+        getBrokerPool().getIndexQueryCache().invalidate(ID);
+    }
+
+    @Override
+    public synchronized void sync() throws DBException {
+        awaitPendingWrites();
+        super.sync();
+    }
+
+    @Override
+    public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
+        awaitPendingWrites();
+        return super.withReader(fn);
+    }
+
+    @Override
+    public <R> R withSearcher(final Function2E<SearcherTaxonomyManager.SearcherAndTaxonomy, R, IOException, XPathException> consumer) throws IOException, XPathException {
+        awaitPendingWrites();
+        return super.withSearcher(consumer);
+    }
+
+    /**
+     * Called by a worker when a batch of document stores is started. Switches the index
+     * writer to the larger rebuild buffer, so fewer and larger segments are flushed
+     * and less merging is needed afterwards.
+     */
+    synchronized void startBatch() {
+        if (openBatches++ == 0 && rebuildBuffer > 0 && cachedWriter != null) {
+            cachedWriter.getConfig().setRAMBufferSizeMB(rebuildBuffer);
+        }
+    }
+
+    /**
+     * Called by a worker when a batch of document stores has ended. Waits until all
+     * documents of the batch have been added and restores the configured buffer size.
+     *
+     * @throws IOException if the rebuild threads failed to add documents since the open
+     *     batches started, or if the thread was interrupted whilst waiting for them
+     */
+    synchronized void endBatch() throws IOException {
+        awaitPendingWrites();
+        if (openBatches > 0 && --openBatches == 0 && rebuildBuffer > 0 && cachedWriter != null) {
+            cachedWriter.getConfig().setRAMBufferSizeMB(bufferSize);
+        }
+        final IOException failure;
+        synchronized (pendingLock) {
+            if (pendingWrites > 0)
+                throw new InterruptedIOException("Interrupted whilst waiting for the range index rebuild threads");
+            failure = pendingFailure;
+            // every batch open at the time of the failure is reported
+            if (openBatches == 0)
+                pendingFailure = null;
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Adds a block of documents to the index. Within a batch, and if rebuild threads are
+     * configured, the documents are added by one of these threads and the method returns
+     * right away. A failure is then reported when the batch ends.
+     *
+     * @param writer the index writer
+     * @param docs the documents to add
+     * @param analyzer the analyzer for the documents
+     * @param concurrent true if the documents may be added by a rebuild thread
+     * @throws IOException if adding the documents fails
+     */
+    void addDocuments(final IndexWriter writer, final List<Document> docs, final Analyzer analyzer, final boolean concurrent) throws IOException {
+        final ThreadPoolExecutor executor = rebuildExecutor;
+        if (!concurrent || executor == null) {
+            writer.addDocuments(docs, analyzer);
+            return;
+        }
+        synchronized (pendingLock) {
+            pendingWrites++;
+        }
+        executor.execute(() -> {
+            try {
+                writer.addDocuments(docs, analyzer);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("An exception was caught while adding documents to the range index: {}", e.getMessage(), e);
+                synchronized (pendingLock) {
+                    if (pendingFailure == null)
+                        pendingFailure = e instanceof IOException ? (IOException) e
+                                : new IOException("Failed to add documents to the range index: " + e.getMessage(), e);
+                    else
+                        pendingFailure.addSuppressed(e);
+                }
+            } finally {
+                synchronized (pendingLock) {
+                    if (--pendingWrites == 0)
+                        pendingLock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until the documents handed to the rebuild threads have been added. Called
+     * before deleting, searching or committing, so these see all documents written before.
+     */
+    void awaitPendingWrites() {
+        synchronized (pendingLock) {
+            while (pendingWrites > 0) {
+                try {
+                    pendingLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
     @Override
     public IndexWorker getWorker(DBBroker broker) {
         return new RangeIndexWorker(this, broker);
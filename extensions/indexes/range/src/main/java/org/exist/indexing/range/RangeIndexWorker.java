@@ -33,6 +33,7 @@ import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.QName;
 import org.exist.dom.persistent.AbstractCharacterData;
 import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.StoredNode;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -78,7 +79,7 @@ import java.util.*;
  *
  * @author Wolfgang Meier
  */
-public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
+public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex, BatchingIndexWorker {
 
     private static final Logger LOG = LogManager.getLogger(RangeIndexWorker.class);
 
@@ -104,6 +105,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     private RangeIndexListener listener = new RangeIndexListener();
     private Deque<TextCollector> contentStack = null;
     private int cachedNodesSize = 0;
+    private boolean batching = false;
 
     private int maxCachedNodesSize = 4096 * 1024;
 
@@ -349,24 +351,44 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 removeNodes();
                 break;
             case REMOVE_ALL_NODES:
+                index.markUncommitted(currentDoc);
                 removeDocument(currentDoc.getDocId());
                 break;
         }
     }
 
+    @Override
+    public void startBatch() {
+        if (!batching) {
+            batching = true;
+            index.startBatch();
+        }
+    }
+
+    @Override
+    public void endBatch() throws IOException {
+        if (batching) {
+            batching = false;
+            index.endBatch();
+        }
+    }
+
     @Override
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
         if (LOG.isDebugEnabled())
             LOG.debug("Removing collection {}", collection.getURI());
+        index.awaitPendingWrites();
         IndexWriter writer = null;
         try {
             writer = index.getWriter();
             for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
                 DocumentImpl doc = i.next();
+                index.markUncommitted(doc);
                 final BytesRefBuilder bytes = new BytesRefBuilder();
                 NumericUtils.intToPrefixCoded(doc.getDocId(), 0, bytes);
                 Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
                 writer.deleteDocuments(dt);
+                invalidateCachedQueries(doc.getDocId());
             }
         } catch (IOException | PermissionDeniedException | LockException e) {
             LOG.error("Error while removing lucene index: {}", e.getMessage(), e);
@@ -386,6 +408,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     protected void removeDocument(int docId) {
+        index.awaitPendingWrites();
         IndexWriter writer = null;
         try {
             writer = index.getWriter();
@@ -397,6 +420,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             LOG.warn("Error while removing lucene index: {}", e.getMessage(), e);
         } finally {
             index.releaseWriter(writer);
+            invalidateCachedQueries(docId);
             mode = ReindexMode.STORE;
         }
     }
@@ -409,6 +433,8 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     protected void removeNodes() {
         if (nodesToRemove == null)
             return;
+        index.markUncommitted(currentDoc);
+        index.awaitPendingWrites();
         IndexWriter writer = null;
         try {
             writer = index.getWriter();
@@ -429,9 +455,19 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } finally {
             nodesToRemove = null;
             index.releaseWriter(writer);
+            invalidateCachedQueries(currentDoc.getDocId());
         }
     }
 
+    /**
+     * Drop the cached lookups covering the document. Must be called after the
+     * index writer was changed, so lookups refreshing their searcher after the
+     * invalidation see the changes.
+     */
+    private void invalidateCachedQueries(int docId) {
+        index.getBrokerPool().getIndexQueryCache().invalidate(index.getIndexId(), docId);
+    }
+
     @Override
     public boolean checkIndex(DBBroker broker) {
         return false;  //To change body of implemented methods use File | Settings | File Templates.
@@ -449,33 +485,30 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     private void write() {
         if (nodesToWrite == null || nodesToWrite.isEmpty())
             return;
+        index.markUncommitted(currentDoc);
         IndexWriter writer = null;
         try {
             writer = index.getWriter();
 
-            // docId and nodeId are stored as doc value
-            IntDocValuesField fDocId = new IntDocValuesField(FIELD_DOC_ID, 0);
-            BinaryDocValuesField fNodeId = new BinaryDocValuesField(FIELD_NODE_ID, new BytesRef(8));
-            BinaryDocValuesField fAddress = new BinaryDocValuesField(FIELD_ADDRESS, new BytesRef(8));
-            // docId also needs to be indexed
-            IntField fDocIdIdx = new IntField(FIELD_DOC_ID, 0, IntField.TYPE_NOT_STORED);
+            // the documents are added in blocks, one per analyzer. Field instances cannot be
+            // shared between the documents of a block, as they are only consumed when the
+            // block is added.
+            final Map<Analyzer, List<Document>> docsByAnalyzer = new LinkedHashMap<>();
             for (RangeIndexDoc pending : nodesToWrite) {
                 Document doc = new Document();
 
-                fDocId.setIntValue(currentDoc.getDocId());
-                doc.add(fDocId);
+                // docId and nodeId are stored as doc value
+                doc.add(new IntDocValuesField(FIELD_DOC_ID, currentDoc.getDocId()));
 
                 // store the node id
                 int nodeIdLen = pending.getNodeId().size();
                 byte[] data = new byte[nodeIdLen + 2];
                 ByteConversion.shortToByte((short) pending.getNodeId().units(), data, 0);
                 pending.getNodeId().serialize(data, 2);
-                fNodeId.setBytesValue(data);
-                doc.add(fNodeId);
+                doc.add(new BinaryDocValuesField(FIELD_NODE_ID, new BytesRef(data)));
 
                 if (pending.getCollector().hasFields() && pending.getAddress() != -1) {
-                    fAddress.setBytesValue(ByteConversion.longToByte(pending.getAddress()));
-                    doc.add(fAddress);
+                    doc.add(new BinaryDocValuesField(FIELD_ADDRESS, new BytesRef(ByteConversion.longToByte(pending.getAddress()))));
                 }
 
                 // add separate index for node id
@@ -497,25 +530,30 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                         doc.add(fld);
                     }
                 }
-                fDocIdIdx.setIntValue(currentDoc.getDocId());
-                doc.add(fDocIdIdx);
+                // docId also needs to be indexed
+                doc.add(new IntField(FIELD_DOC_ID, currentDoc.getDocId(), IntField.TYPE_NOT_STORED));
 
                 Analyzer analyzer = pending.getConfig().getAnalyzer();
                 if (analyzer == null) {
                     analyzer = config.getDefaultAnalyzer();
                 }
-                writer.addDocument(doc, analyzer);
+                docsByAnalyzer.computeIfAbsent(analyzer, a -> new ArrayList<>()).add(doc);
+            }
+            for (Map.Entry<Analyzer, List<Document>> entry : docsByAnalyzer.entrySet()) {
+                index.addDocuments(writer, entry.getValue(), entry.getKey(), batching);
             }
         } catch (IOException e) {
             LOG.warn("An exception was caught while indexing document: {}", e.getMessage(), e);
         } finally {
             index.releaseWriter(writer);
+            invalidateCachedQueries(currentDoc.getDocId());
             nodesToWrite = new ArrayList<>();
             cachedNodesSize = 0;
         }
     }
 
     public NodeSet query(int contextId, DocumentSet docs, NodeSet contextSet, List<QName> qnames, AtomicValue[] keys, RangeIndex.Operator operator, int axis) throws IOException, XPathException {
+        final long cacheGeneration = index.getBrokerPool().getIndexQueryCache().getGeneration();
         return index.withSearcher(searcher -> {
             List<QName> definedIndexes = getDefinedIndexes(qnames);
             NodeSet resultSet = new NewArrayNodeSet();
@@ -534,13 +572,14 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 final short nodeType = qname.getNameType() == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node
                         .ELEMENT_NODE;
 
-                resultSet.addAll(doQuery(contextId, docs, contextSet, axis, searcher.searcher, nodeType, query, null));
+                resultSet.addAll(doQuery(contextId, docs, contextSet, axis, searcher.searcher, nodeType, query, cacheGeneration));
             }
             return resultSet;
         });
     }
 
     public NodeSet queryField(int contextId, DocumentSet docs, NodeSet contextSet, Sequence fields, Sequence[] keys, RangeIndex.Operator[] operators, int axis) throws IOException, XPathException {
+        final long cacheGeneration = index.getBrokerPool().getIndexQueryCache().getGeneration();
         return index.withSearcher(searcher -> {
             BooleanQuery query = new BooleanQuery();
             int j = 0;
@@ -566,7 +605,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 qu = clauses[0].getQuery();
             }
             final NodeSet resultSet = new NewArrayNodeSet();
-            resultSet.addAll(doQuery(contextId, docs, contextSet, axis, searcher.searcher, Node.ELEMENT_NODE, qu, null));
+            resultSet.addAll(doQuery(contextId, docs, contextSet, axis, searcher.searcher, Node.ELEMENT_NODE, qu, cacheGeneration));
             return resultSet;
         });
     }
@@ -585,11 +624,41 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 //        return bits;
 //    }
 
+    /**
+     * Run the query, or replay its hits from the {@link IndexQueryCache}. Hits are cached
+     * before they are filtered by the context set, so only the documents searched and
+     * the query itself make up the key.
+     *
+     * @param cacheGeneration the generation of the cache, read before the searcher was acquired
+     */
     private NodeSet doQuery(final int contextId, final DocumentSet docs, final NodeSet contextSet, final int axis,
-                            IndexSearcher searcher, final short nodeType, Query query, Filter filter) throws
+                            IndexSearcher searcher, final short nodeType, Query query, final long cacheGeneration) throws
             IOException {
-        SearchCollector collector = new SearchCollector(docs, contextSet, nodeType, axis, contextId);
-        searcher.search(query, filter, collector);
+        final IndexQueryCache cache = index.getBrokerPool().getIndexQueryCache();
+        final SearchCollector collector = new SearchCollector(docs, contextSet, nodeType, axis, contextId);
+        if (!cache.isEnabled()) {
+            searcher.search(query, collector);
+            return collector.getResultSet();
+        }
+
+        final IndexQueryCache.Key key = IndexQueryCache.key(index.getIndexId(), Arrays.asList(nodeType, query), docs);
+        final IndexQueryCache.Hits cached = cache.get(key);
+        if (cached != null) {
+            cached.forEach(index.getBrokerPool().getNodeFactory(), (docId, nodeId, address) -> {
+                final DocumentImpl storedDocument = docs.getDoc(docId);
+                if (storedDocument != null) {
+                    collector.addHit(storedDocument, nodeId, address);
+                }
+            });
+            return collector.getResultSet();
+        }
+
+        collector.hits = cache.newHits();
+        searcher.search(query, collector);
+        final IndexQueryCache.Hits hits = collector.hits.build();
+        if (hits != null) {
+            cache.put(key, hits, cacheGeneration);
+        }
         return collector.getResultSet();
     }
 
@@ -605,6 +674,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private BinaryDocValues nodeIdValues;
         private BinaryDocValues addressValues;
         private final byte[] buf = new byte[1024];
+        private IndexQueryCache.HitsBuilder hits = null;
 
         public SearchCollector(DocumentSet docs, NodeSet contextSet, short nodeType, int axis, int contextId) {
             this.resultSet = new NewArrayNodeSet();
@@ -635,7 +705,14 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
             int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
             NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
+            final long address = getAddress(doc);
+            if (hits != null) {
+                hits.add(docId, nodeId, address);
+            }
+            addHit(storedDocument, nodeId, address);
+        }
 
+        private void addHit(DocumentImpl storedDocument, NodeId nodeId, long address) {
             // if a context set is specified, we can directly check if the
             // matching node is a descendant of one of the nodes
             // in the context set.
@@ -645,7 +722,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 if (parentNode != null) {
                     NodeProxy storedNode = new NodeProxy(parentNode.getExpression(), storedDocument, nodeId);
                     storedNode.setNodeType(nodeType);
-                    getAddress(doc, storedNode);
+                    setAddress(storedNode, address);
                     if (axis == NodeSet.ANCESTOR) {
                         resultSet.add(parentNode, sizeHint);
                         if (Expression.NO_CONTEXT_ID != contextId) {
@@ -659,19 +736,25 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             } else {
                 NodeProxy storedNode = new NodeProxy(null, storedDocument, nodeId);
                 storedNode.setNodeType(nodeType);
-                getAddress(doc, storedNode);
+                setAddress(storedNode, address);
                 resultSet.add(storedNode);
             }
         }
 
-        private void getAddress(int doc, NodeHandle storedNode) {
+        private long getAddress(int doc) {
             if (addressValues != null) {
                 final BytesRef ref = addressValues.get(doc);
                 if (ref.offset < ref.bytes.length) {
-                    final long address = ByteConversion.byteToLong(ref.bytes, ref.offset);
-                    storedNode.setInternalAddress(address);
+                    return ByteConversion.byteToLong(ref.bytes, ref.offset);
                 }
             }
+            return StoredNode.UNKNOWN_NODE_IMPL_ADDRESS;
+        }
+
+        private void setAddress(NodeHandle storedNode, long address) {
+            if (address != StoredNode.UNKNOWN_NODE_IMPL_ADDRESS) {
+                storedNode.setInternalAddress(address);
+            }
         }
 
         @Override
@@ -907,6 +990,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public void optimize() {
         IndexWriter writer = null;
         try {
+            index.awaitPendingWrites();
             writer = index.getWriter(true);
             writer.forceMerge(1, true);
             writer.commit();
@@ -0,0 +1,168 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.range;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.RAMDirectory;
+import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfigurationManager;
+import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.util.MimeType;
+import org.exist.util.StringInputSource;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the batches of the range index, i.e. reindexing with rebuild threads
+ * and the larger RAM buffer of the index writer, see the test configuration.
+ */
+public class RangeIndexBatchTest {
+
+    private static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <range>" +
+            "           <create qname=\"item\" type=\"xs:string\"/>" +
+            "       </range>" +
+            "   </index>" +
+            "</collection>";
+
+    private static final int DOCUMENTS = 200;
+    private static final int ITEMS = 10;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void reindexWithRebuildThreads() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        final XmldbURI collectionUri = TestConstants.TEST_COLLECTION_URI.append("reindex");
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, collectionUri);
+            final CollectionConfigurationManager mgr = pool.getConfigurationManager();
+            mgr.addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                final StringBuilder xml = new StringBuilder("<items>");
+                for (int j = 0; j < ITEMS; j++) {
+                    xml.append("<item>value").append(j).append("</item>");
+                }
+                xml.append("<item>doc").append(i).append("</item></items>");
+                broker.storeDocument(transaction, XmldbURI.create("doc" + i + ".xml"),
+                        new StringInputSource(xml.toString()), MimeType.XML_TYPE, collection);
+            }
+            transact.commit(transaction);
+        }
+        assertMatches(collectionUri);
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            broker.reindexCollection(transaction, collectionUri);
+            transact.commit(transaction);
+        }
+        assertMatches(collectionUri);
+    }
+
+    @Test
+    public void batchSwitchesRamBuffer() throws Exception {
+        final RangeIndex index = getIndex();
+        final IndexWriter writer = index.getWriter();
+        try {
+            final double bufferSize = writer.getConfig().getRAMBufferSizeMB();
+            assertTrue(index.rebuildBuffer > 0 && index.rebuildBuffer != bufferSize);
+
+            index.startBatch();
+            assertEquals(index.rebuildBuffer, writer.getConfig().getRAMBufferSizeMB(), 0);
+
+            // nested batches, e.g. of concurrent reindexes, keep the rebuild buffer until the last ends
+            index.startBatch();
+            index.endBatch();
+            assertEquals(index.rebuildBuffer, writer.getConfig().getRAMBufferSizeMB(), 0);
+
+            index.endBatch();
+            assertEquals(bufferSize, writer.getConfig().getRAMBufferSizeMB(), 0);
+        } finally {
+            index.releaseWriter(writer);
+        }
+    }
+
+    @Test
+    public void rebuildFailureFailsEndBatch() throws Exception {
+        final RangeIndex index = getIndex();
+        final KeywordAnalyzer analyzer = new KeywordAnalyzer();
+        final IndexWriter closedWriter = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(LuceneIndex.LUCENE_VERSION_IN_USE, analyzer));
+        closedWriter.close();
+
+        index.startBatch();
+        index.addDocuments(closedWriter, Collections.singletonList(new Document()), analyzer, true);
+        try {
+            index.endBatch();
+            fail("Failure of the rebuild thread not reported");
+        } catch (final IOException e) {
+            assertTrue(e.getCause() instanceof AlreadyClosedException);
+        }
+
+        // reported once only
+        index.startBatch();
+        index.endBatch();
+    }
+
+    private static RangeIndex getIndex() {
+        return (RangeIndex) existEmbeddedServer.getBrokerPool().getIndexManager().getIndexById(RangeIndex.ID);
+    }
+
+    private static void assertMatches(final XmldbURI collectionUri) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            Sequence seq = pool.getXQueryService().execute(broker,
+                    "import module namespace range=\"http://exist-db.org/xquery/range\";" +
+                    "count(collection('" + collectionUri + "')//item[range:eq(., 'value7')])", null);
+            assertEquals(DOCUMENTS, Integer.parseInt(seq.itemAt(0).getStringValue()));
+
+            seq = pool.getXQueryService().execute(broker,
+                    "import module namespace range=\"http://exist-db.org/xquery/range\";" +
+                    "count(collection('" + collectionUri + "')//item[range:eq(., 'doc42')])", null);
+            assertEquals(1, Integer.parseInt(seq.itemAt(0).getStringValue()));
+        }
+    }
+}
@@ -49,6 +49,10 @@ import java.util.concurrent.locks.ReentrantLock;
  * The creation and maintenance of the index is handled by the user. XQuery functions
  * are provided to create, delete and query an index.
  *
+ * Indexes can also be declared in collection.xconf, see {@link SortIndexConfig}. Their entries
+ * are kept ordered by value and are updated with the documents of the collection, so that
+ * sort:scan can read a range or a page of the ordered nodes without sorting them.
+ *
  * Every sort index has an id by which it is identified and distinguished from other indexes
  * on the same node set.
  */
@@ -103,7 +107,7 @@ public class SortIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public IndexWorker getWorker(final DBBroker broker) {
-        return new SortIndexWorker(this);
+        return new SortIndexWorker(this, broker);
     }
 
     @Override
@@ -0,0 +1,137 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.sort;
+
+import org.exist.dom.QName;
+import org.exist.storage.ElementValue;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Element;
+
+import java.util.Map;
+
+/**
+ * Configuration of a sort index declared in collection.xconf:
+ *
+ * <pre>
+ * &lt;sort name="by-date" qname="date" type="xs:date" order="descending"/&gt;
+ * </pre>
+ *
+ * The values of the elements or attributes matching the qname are converted to the
+ * given type (xs:string by default) and kept ordered in the index under its name.
+ */
+public class SortIndexConfig {
+
+    private static final String NAME_ATTR = "name";
+    private static final String QNAME_ATTR = "qname";
+    private static final String TYPE_ATTR = "type";
+    private static final String ORDER_ATTR = "order";
+
+    private final String name;
+    private final QName qname;
+    private final int type;
+    private final boolean descending;
+
+    public SortIndexConfig(final Element config, final Map<String, String> namespaces) throws DatabaseConfigurationException {
+        name = config.getAttribute(NAME_ATTR);
+        if (name == null || name.isEmpty()) {
+            throw new DatabaseConfigurationException("Sort index configuration: element " + config.getNodeName() +
+                    " must have an attribute " + NAME_ATTR);
+        }
+
+        String qnameAttr = config.getAttribute(QNAME_ATTR);
+        if (qnameAttr == null || qnameAttr.isEmpty()) {
+            throw new DatabaseConfigurationException("Sort index configuration: element " + config.getNodeName() +
+                    " must have an attribute " + QNAME_ATTR);
+        }
+        boolean isAttribute = false;
+        if (qnameAttr.startsWith("@")) {
+            isAttribute = true;
+            qnameAttr = qnameAttr.substring(1);
+        }
+        try {
+            final String prefix = QName.extractPrefix(qnameAttr);
+            final String localName = QName.extractLocalName(qnameAttr);
+            String namespaceURI = "";
+            if (prefix != null) {
+                namespaceURI = namespaces.get(prefix);
+                if (namespaceURI == null) {
+                    throw new DatabaseConfigurationException("Sort index configuration: no namespace defined for prefix: " +
+                            prefix + " in index definition");
+                }
+            }
+            qname = isAttribute ? new QName(localName, namespaceURI, prefix, ElementValue.ATTRIBUTE) :
+                    new QName(localName, namespaceURI, prefix);
+        } catch (final QName.IllegalQNameException e) {
+            throw new DatabaseConfigurationException("Sort index configuration: " + e.getMessage(), e);
+        }
+
+        final String typeAttr = config.getAttribute(TYPE_ATTR);
+        if (typeAttr == null || typeAttr.isEmpty()) {
+            type = Type.STRING;
+        } else {
+            try {
+                type = Type.getType(typeAttr);
+            } catch (final XPathException e) {
+                throw new DatabaseConfigurationException("Sort index configuration: " + e.getMessage(), e);
+            }
+            if (!isSupported(type)) {
+                throw new DatabaseConfigurationException("Sort index configuration: values of type " + typeAttr +
+                        " can not be kept in order by the sort index");
+            }
+        }
+
+        descending = "descending".equalsIgnoreCase(config.getAttribute(ORDER_ATTR));
+    }
+
+    /**
+     * The types whose serialized keys compare in the order of their values.
+     */
+    static boolean isSupported(final int type) {
+        return Type.subTypeOf(type, Type.STRING) || Type.subTypeOf(type, Type.INTEGER) || type == Type.DOUBLE ||
+                type == Type.FLOAT || type == Type.DATE || type == Type.DATE_TIME || type == Type.BOOLEAN;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public QName getQName() {
+        return qname;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return the type and order of the index, as registered for its name in the index file
+     */
+    long getDeclaration() {
+        return ((long) type << 1) | (descending ? 1 : 0);
+    }
+}
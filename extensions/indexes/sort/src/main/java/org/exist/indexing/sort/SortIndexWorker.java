@@ -23,46 +23,92 @@ package org.exist.indexing.sort;
 
 import org.exist.EXistException;
 import org.exist.collections.Collection;
+import org.exist.dom.QName;
 import org.exist.dom.persistent.*;
+import org.exist.indexing.AbstractStreamListener;
 import org.exist.indexing.IndexController;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.MatchListener;
 import org.exist.indexing.StreamListener;
 import org.exist.indexing.StreamListener.ReindexMode;
+import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.DBBroker;
+import org.exist.storage.IndexSpec;
+import org.exist.storage.Indexable;
 import org.exist.storage.NodePath;
+import org.exist.storage.ValueIndexFactory;
 import org.exist.storage.btree.BTreeCallback;
 import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.lock.LockManager;
 import org.exist.storage.lock.ManagedLock;
+import org.exist.storage.txn.Txn;
 import org.exist.util.*;
 import org.exist.xquery.QueryRewriter;
 import org.exist.xquery.TerminatedException;
+import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.StringValue;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class SortIndexWorker implements IndexWorker {
 
+    private static final String INDEX_ELEMENT = "sort";
+
+    /**
+     * Key prefix of the entries of the indexes declared in collection.xconf. The keys are
+     * ordered by the value of the node, followed by its collection, document and node id.
+     */
+    private static final byte DECLARED_ENTRY = 2;
+
+    /**
+     * Key prefix under which the type and order of a declared index is registered by its id.
+     */
+    private static final byte DECLARED_TYPE = 3;
+
     private ReindexMode mode = ReindexMode.STORE;
     private DocumentImpl document = null;
     private SortIndex index;
+    private final DBBroker broker;
     private final LockManager lockManager;
 
-    public SortIndexWorker(final SortIndex index) {
+    private Map<QName, SortIndexConfig> config = null;
+    private final Deque<XMLString> contentStack = new ArrayDeque<>();
+    private final SortStreamListener listener = new SortStreamListener();
+    // entries of the declared indexes waiting for the next flush, mapped to their pointer
+    private final Map<Value, Long> pending = new TreeMap<>();
+    private final Map<String, Short> ids = new HashMap<>();
+    // type and order of the declared indexes checked against the registered ones for the current document
+    private final Map<String, Long> declarations = new HashMap<>();
+    private final Set<String> conflicts = new HashSet<>();
+
+    public SortIndexWorker(final SortIndex index, final DBBroker broker) {
         this.index = index;
+        this.broker = broker;
         this.lockManager = index.getBrokerPool().getLockManager();
     }
 
     public void setDocument(final DocumentImpl doc, final ReindexMode mode) {
-        this.document = doc;
+        setDocument(doc);
         this.mode = mode;
     }
 
@@ -82,10 +128,229 @@ public class SortIndexWorker implements IndexWorker {
     @Override
     public void flush() {
         switch (mode) {
+            case STORE:
+                saveEntries();
+                break;
+            case REMOVE_SOME_NODES:
+                dropEntries();
+                break;
             case REMOVE_ALL_NODES:
+                dropEntries();
                 remove(document);
                 break;
         }
+        pending.clear();
+        ids.clear();
+    }
+
+    private void saveEntries() {
+        if (pending.isEmpty())
+            return;
+        try(final ManagedLock<ReentrantLock> btreeLock = lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+            for (final Map.Entry<Value, Long> entry : pending.entrySet()) {
+                index.btree.addValue(entry.getKey(), entry.getValue());
+            }
+        } catch (final LockException | IOException | BTreeException e) {
+            SortIndex.LOG.error("Exception caught while writing sort index for document {}: {}", document.getURI(), e.getMessage(), e);
+        }
+    }
+
+    private void dropEntries() {
+        if (pending.isEmpty())
+            return;
+        try(final ManagedLock<ReentrantLock> btreeLock = lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+            for (final Value key : pending.keySet()) {
+                index.btree.removeValue(key);
+            }
+        } catch (final LockException | IOException | BTreeException e) {
+            SortIndex.LOG.error("Exception caught while deleting sort index for document {}: {}", document.getURI(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the value of a node to the entries to be stored or removed by the next flush.
+     */
+    private void indexValue(final SortIndexConfig config, final NodeId nodeId, final String content) {
+        final byte[] value;
+        try {
+            value = ValueIndexFactory.serialize((Indexable) new StringValue(content).convertTo(config.getType()), 0);
+        } catch (final XPathException | EXistException e) {
+            if (SortIndex.LOG.isDebugEnabled()) {
+                SortIndex.LOG.debug("Node {} of document {} is not added to sort index {}: {}", nodeId,
+                        document.getURI(), config.getName(), e.getMessage());
+            }
+            return;
+        }
+        try {
+            final short id = mode == ReindexMode.STORE ? getOrRegisterId(config) : getDeclaredId(config.getName());
+            if (id < 0)
+                return;
+            final byte[] key = computeDeclaredKey(id, value, config.isDescending());
+            final int tail = key.length;
+            final byte[] data = new byte[tail + 8 + nodeId.size()];
+            System.arraycopy(key, 0, data, 0, tail);
+            ByteConversion.intToByteH(document.getCollection().getId(), data, tail);
+            ByteConversion.intToByteH(document.getDocId(), data, tail + 4);
+            nodeId.serialize(data, tail + 8);
+            pending.put(new Value(data), ((long) tail << 32) | nodeId.units());
+        } catch (final EXistException | LockException e) {
+            SortIndex.LOG.error("Exception caught while updating sort index {}: {}", config.getName(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the id of a declared index, registering its name, type and order when the first
+     * node is stored. The entries of an index can only be decoded with the type they were stored
+     * with, so a declaration with a different type or order is rejected while the index has entries.
+     *
+     * @return the id of the index, or -1 if the declaration conflicts with the registered one
+     */
+    private short getOrRegisterId(final SortIndexConfig config) throws EXistException, LockException {
+        Short id = ids.get(config.getName());
+        final Long registered = declarations.get(config.getName());
+        if (id != null && registered != null && registered == config.getDeclaration())
+            return id;
+        if (conflicts.contains(config.getName()))
+            return -1;
+
+        if (id == null) {
+            id = getOrRegisterId(config.getName());
+            ids.put(config.getName(), id);
+        }
+        final Value typeKey = new Value(computeTypeKey(id));
+        try(final ManagedLock<ReentrantLock> btreeLock = lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+            final long declared = index.btree.findValue(typeKey);
+            if (declared != config.getDeclaration()) {
+                if (declared >= 0 && hasEntries(id)) {
+                    conflicts.add(config.getName());
+                    SortIndex.LOG.error("Sort index {} of collection {} is declared with a different type or order " +
+                            "than the existing index of the same name, the nodes of document {} are not added to it. " +
+                            "Remove the existing index or use another name.", config.getName(),
+                            document.getCollection().getURI(), document.getURI());
+                    return -1;
+                }
+                // no entries are stored with a previous declaration
+                index.btree.addValue(typeKey, config.getDeclaration());
+            }
+        } catch (final IOException | BTreeException | TerminatedException e) {
+            throw new EXistException("Exception caught while registering sort index: " + e.getMessage(), e);
+        }
+        declarations.put(config.getName(), config.getDeclaration());
+        return id;
+    }
+
+    private boolean hasEntries(final short id) throws IOException, BTreeException, TerminatedException {
+        final byte[] prefix = computeDeclaredKey(id);
+        final ScanCallback callback = new ScanCallback(1);
+        index.btree.query(new ScanQuery(new Value(prefix), new Value(successor(prefix)), callback), callback);
+        return !callback.keys.isEmpty();
+    }
+
+    private short getDeclaredId(final String name) throws EXistException, LockException {
+        Short id = ids.get(name);
+        if (id == null) {
+            id = getId(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the nodes of an index declared in collection.xconf in the order of their values,
+     * reading only the index entries of the requested range and page. Entries in documents the
+     * current user can not read are skipped and not counted.
+     *
+     * @param name the name of the index
+     * @param from the lowest value to return, or null to start with the lowest value in the index
+     * @param to the highest value to return, or null to end with the highest value in the index
+     * @param offset the number of entries to skip
+     * @param limit the maximum number of nodes to return, or a negative number to return all of them
+     *
+     * @return the nodes, in ascending or descending order of their values as declared for the index
+     *
+     * @throws EXistException if an error occurs with the database
+     * @throws LockException if a locking error occurs
+     * @throws XPathException if the bounds can not be converted to the type of the index
+     */
+    public List<NodeProxy> scan(final String name, final AtomicValue from, final AtomicValue to, final long offset,
+            final long limit) throws EXistException, LockException, XPathException {
+        if (limit == 0)
+            return Collections.emptyList();
+        final short id = getId(name);
+        if (id < 0)
+            return Collections.emptyList();
+        final long declared;
+        try(final ManagedLock<ReentrantLock> btreeLock = lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+            declared = index.btree.findValue(new Value(computeTypeKey(id)));
+        } catch (final IOException | BTreeException e) {
+            throw new EXistException("Exception caught while reading sort index: " + e.getMessage(), e);
+        }
+        if (declared < 0)
+            return Collections.emptyList();
+        final int type = (int) (declared >> 1);
+        final boolean descending = (declared & 1) != 0;
+
+        // in a descending index the highest value comes first
+        final AtomicValue first = descending ? to : from;
+        final AtomicValue last = descending ? from : to;
+        final byte[] prefix = computeDeclaredKey(id);
+        final byte[] low = first == null ? prefix : computeDeclaredKey(id, serialize(first, type), descending);
+        final byte[] high = successor(last == null ? prefix : computeDeclaredKey(id, serialize(last, type), descending));
+
+        final List<NodeProxy> result = new ArrayList<>();
+        final Map<Long, DocumentImpl> docs = new HashMap<>();
+        long skip = offset;
+        Value start = new Value(low);
+        while (true) {
+            final long wanted = limit < 0 || limit > Long.MAX_VALUE - skip ? Long.MAX_VALUE : skip + limit - result.size();
+            final ScanCallback callback = new ScanCallback(wanted);
+            try(final ManagedLock<ReentrantLock> btreeLock = lockManager.acquireBtreeReadLock(index.btree.getLockName())) {
+                index.btree.query(new ScanQuery(start, new Value(high), callback), callback);
+            } catch (final IOException | BTreeException | TerminatedException e) {
+                throw new EXistException("Exception caught while reading sort index: " + e.getMessage(), e);
+            }
+
+            // documents are looked up once the lock on the index is released
+            for (int i = 0; i < callback.keys.size(); i++) {
+                final byte[] key = callback.keys.get(i);
+                final long pointer = callback.pointers.get(i);
+                final int tail = (int) (pointer >>> 32);
+                final int collectionId = ByteConversion.byteToIntH(key, tail);
+                final int docId = ByteConversion.byteToIntH(key, tail + 4);
+                final long docKey = ((long) collectionId << 32) | (docId & 0xFFFFFFFFL);
+                DocumentImpl doc = docs.get(docKey);
+                if (doc == null && !docs.containsKey(docKey)) {
+                    try {
+                        doc = broker.getResourceById(collectionId, DocumentImpl.XML_FILE, docId);
+                    } catch (final PermissionDeniedException e) {
+                        // not readable by the current user
+                    }
+                    docs.put(docKey, doc);
+                }
+                if (doc == null)
+                    continue;
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                final NodeId nodeId = index.getBrokerPool().getNodeFactory()
+                        .createFromData((int) pointer, key, tail + 8);
+                result.add(new NodeProxy(null, doc, nodeId));
+                if (limit >= 0 && result.size() == limit)
+                    return result;
+            }
+            if (callback.keys.size() < wanted)
+                return result;
+            // some entries were not readable: continue after the last key read
+            final byte[] lastKey = callback.keys.get(callback.keys.size() - 1);
+            final byte[] next = new byte[lastKey.length + 1];
+            System.arraycopy(lastKey, 0, next, 0, lastKey.length);
+            start = new Value(next);
+        }
+    }
+
+    private static byte[] serialize(final AtomicValue value, final int type) throws XPathException, EXistException {
+        return ValueIndexFactory.serialize((Indexable) value.convertTo(type), 0);
     }
 
     /**
@@ -154,6 +419,10 @@ public class SortIndexWorker implements IndexWorker {
             final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
             index.btree.remove(query, null);
 
+            final byte[] declaredKey = computeDeclaredKey(id);
+            index.btree.remove(new IndexQuery(IndexQuery.RANGE, new Value(declaredKey), new Value(successor(declaredKey))), null);
+            index.btree.removeValue(new Value(computeTypeKey(id)));
+
             removeId(name);
         } catch (final BTreeException | TerminatedException | IOException e) {
             throw new EXistException("Exception caught while deleting sort index: " + e.getMessage(), e);
@@ -281,16 +550,87 @@ public class SortIndexWorker implements IndexWorker {
         return data;
     }
 
+    /**
+     * Key of an entry of a declared index, up to and including the value of the node.
+     * The bytes of the value are inverted for a descending index, and the value is followed
+     * by a separator which orders a value before the values it is a prefix of, or after
+     * them in a descending index.
+     */
+    private static byte[] computeDeclaredKey(final short id, final byte[] value, final boolean descending) {
+        final byte[] data = new byte[4 + value.length];
+        data[0] = DECLARED_ENTRY;
+        ByteConversion.shortToByteH(id, data, 1);
+        for (int i = 0; i < value.length; i++) {
+            data[3 + i] = descending ? (byte) ~value[i] : value[i];
+        }
+        data[data.length - 1] = descending ? (byte) 0xFF : 0;
+        return data;
+    }
+
+    private static byte[] computeDeclaredKey(final short id) {
+        final byte[] data = new byte[3];
+        data[0] = DECLARED_ENTRY;
+        ByteConversion.shortToByteH(id, data, 1);
+        return data;
+    }
+
+    private static byte[] computeTypeKey(final short id) {
+        final byte[] data = new byte[3];
+        data[0] = DECLARED_TYPE;
+        ByteConversion.shortToByteH(id, data, 1);
+        return data;
+    }
+
+    /**
+     * @return the lowest key greater than every key starting with the given prefix
+     */
+    private static byte[] successor(final byte[] prefix) {
+        int len = prefix.length;
+        while (len > 0 && prefix[len - 1] == (byte) 0xFF) {
+            len--;
+        }
+        final byte[] data = new byte[len];
+        System.arraycopy(prefix, 0, data, 0, len);
+        data[len - 1]++;
+        return data;
+    }
+
     public Object configure(final IndexController controller, final NodeList configNodes, final Map<String, String> namespaces) throws DatabaseConfigurationException {
-        return null;
+        // the sort indexes declared in collection.xconf, by the qname of the nodes they order
+        final Map<QName, SortIndexConfig> map = new TreeMap<>();
+        for (int i = 0; i < configNodes.getLength(); i++) {
+            final Node node = configNodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && INDEX_ELEMENT.equals(node.getLocalName())) {
+                final SortIndexConfig config = new SortIndexConfig((Element) node, namespaces);
+                for (final SortIndexConfig other : map.values()) {
+                    if (other.getName().equals(config.getName()) && other.getDeclaration() != config.getDeclaration()) {
+                        throw new DatabaseConfigurationException("Sort index configuration: index " + config.getName() +
+                                " is declared more than once with a different type or order");
+                    }
+                }
+                map.put(config.getQName(), config);
+            }
+        }
+        return map.isEmpty() ? null : map;
     }
 
     public DocumentImpl getDocument() {
         return document;
     }
 
+    @SuppressWarnings("unchecked")
     public void setDocument(final DocumentImpl doc) {
         this.document = doc;
+        config = null;
+        contentStack.clear();
+        declarations.clear();
+        conflicts.clear();
+        if (doc == null)
+            return;
+        final IndexSpec indexConf = doc.getCollection().getIndexConfiguration(broker);
+        if (indexConf != null) {
+            config = (Map<QName, SortIndexConfig>) indexConf.getCustomIndexSpec(SortIndex.ID);
+        }
     }
 
     @Override
@@ -302,12 +642,39 @@ public class SortIndexWorker implements IndexWorker {
         this.mode = mode;
     }
 
+    @SuppressWarnings("unchecked")
     public IStoredNode getReindexRoot(final IStoredNode node, final NodePath path, final boolean insert, final boolean includeSelf) {
-        return insert ? null : node;
+        if (node.getNodeType() == Node.ATTRIBUTE_NODE)
+            return insert ? null : node;
+        final IndexSpec indexConf = node.getOwnerDocument().getCollection().getIndexConfiguration(broker);
+        final Map<QName, SortIndexConfig> config = indexConf == null ? null :
+                (Map<QName, SortIndexConfig>) indexConf.getCustomIndexSpec(SortIndex.ID);
+        if (config == null)
+            return insert ? null : node;
+
+        // the value of an indexed element changes with any of its descendants
+        final int len = node.getNodeType() == Node.ELEMENT_NODE && !includeSelf ? path.length() - 1 : path.length();
+        boolean reindexRequired = false;
+        for (int i = 0; i < len; i++) {
+            if (config.get(path.getComponent(i)) != null) {
+                reindexRequired = true;
+                break;
+            }
+        }
+        if (!reindexRequired)
+            return insert ? null : node;
+        IStoredNode topMost = null;
+        IStoredNode currentNode = node;
+        while (currentNode != null) {
+            if (config.get(currentNode.getQName()) != null)
+                topMost = currentNode;
+            currentNode = currentNode.getParentStoredNode();
+        }
+        return topMost;
     }
 
     public StreamListener getListener() {
-        return null;
+        return listener;
     }
 
     public MatchListener getMatchListener(final DBBroker broker, final NodeProxy proxy) {
@@ -315,6 +682,20 @@ public class SortIndexWorker implements IndexWorker {
     }
 
     public void removeCollection(final Collection collection, final DBBroker broker, final boolean reindex) {
+        if (index.btree == null)
+            return;
+        // the entries of the declared indexes are ordered by value, so the whole key range is
+        // scanned for the entries of the collection
+        final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(new byte[] { DECLARED_ENTRY }));
+        try(final ManagedLock<ReentrantLock> btreeLock = lockManager.acquireBtreeWriteLock(index.btree.getLockName())) {
+            final FindCollectionCallback callback = new FindCollectionCallback(collection.getId());
+            index.btree.query(query, callback);
+            for (final Value key : callback.keys) {
+                index.btree.removeValue(key);
+            }
+        } catch (final BTreeException | LockException | TerminatedException | IOException e) {
+            SortIndex.LOG.error("Exception caught while deleting sort index for collection {}: {}", collection.getURI(), e.getMessage(), e);
+        }
     }
 
     public boolean checkIndex(final DBBroker broker) {
@@ -325,6 +706,110 @@ public class SortIndexWorker implements IndexWorker {
         return new Occurrences[0];
     }
 
+    private class SortStreamListener extends AbstractStreamListener {
+
+        @Override
+        public void startElement(final Txn transaction, final ElementImpl element, final NodePath path) {
+            if (config != null && config.get(element.getQName()) != null) {
+                contentStack.push(new XMLString());
+            }
+            super.startElement(transaction, element, path);
+        }
+
+        @Override
+        public void attribute(final Txn transaction, final AttrImpl attrib, final NodePath path) {
+            if (config != null) {
+                final SortIndexConfig attribConfig = config.get(attrib.getQName());
+                if (attribConfig != null) {
+                    indexValue(attribConfig, attrib.getNodeId(), attrib.getValue());
+                }
+            }
+            super.attribute(transaction, attrib, path);
+        }
+
+        @Override
+        public void endElement(final Txn transaction, final ElementImpl element, final NodePath path) {
+            if (config != null) {
+                final SortIndexConfig elementConfig = config.get(element.getQName());
+                if (elementConfig != null) {
+                    final XMLString content = contentStack.pop();
+                    indexValue(elementConfig, element.getNodeId(), content.toString());
+                    content.reset();
+                }
+            }
+            super.endElement(transaction, element, path);
+        }
+
+        @Override
+        public void characters(final Txn transaction, final AbstractCharacterData text, final NodePath path) {
+            if (!contentStack.isEmpty()) {
+                for (final Iterator<XMLString> it = contentStack.descendingIterator(); it.hasNext(); ) {
+                    it.next().append(text.getXMLString());
+                }
+            }
+            super.characters(transaction, text, path);
+        }
+
+        @Override
+        public IndexWorker getWorker() {
+            return SortIndexWorker.this;
+        }
+    }
+
+    /**
+     * Collects the entries of a scan, up to a limit.
+     */
+    private static final class ScanCallback implements BTreeCallback {
+        final long limit;
+        final List<byte[]> keys = new ArrayList<>();
+        final List<Long> pointers = new ArrayList<>();
+
+        private ScanCallback(final long limit) {
+            this.limit = limit;
+        }
+
+        public boolean indexInfo(final Value value, final long pointer) throws TerminatedException {
+            keys.add(value.getData());
+            pointers.add(pointer);
+            return true;
+        }
+    }
+
+    /**
+     * Range query which stops matching once the callback has collected enough entries,
+     * so that the btree does not read the pages after them.
+     */
+    private static final class ScanQuery extends IndexQuery {
+        private final ScanCallback callback;
+
+        private ScanQuery(final Value from, final Value to, final ScanCallback callback) {
+            super(IndexQuery.RANGE, from, to);
+            this.callback = callback;
+        }
+
+        @Override
+        public boolean testValue(final Value value) {
+            return callback.keys.size() < callback.limit && super.testValue(value);
+        }
+    }
+
+    private static final class FindCollectionCallback implements BTreeCallback {
+        final int collectionId;
+        final List<Value> keys = new ArrayList<>();
+
+        private FindCollectionCallback(final int collectionId) {
+            this.collectionId = collectionId;
+        }
+
+        public boolean indexInfo(final Value value, final long pointer) throws TerminatedException {
+            final int tail = (int) (pointer >>> 32);
+            if (ByteConversion.byteToIntH(value.data(), value.start() + tail) == collectionId) {
+                keys.add(new Value(value.getData()));
+            }
+            return true;
+        }
+    }
+
     private final static class FindIdCallback implements BTreeCallback {
         long max = 0;
         List<Long> allIds = null;
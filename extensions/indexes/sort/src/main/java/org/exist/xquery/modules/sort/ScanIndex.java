@@ -0,0 +1,113 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sort;
+
+import org.exist.EXistException;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.indexing.sort.SortIndex;
+import org.exist.indexing.sort.SortIndexWorker;
+import org.exist.util.LockException;
+import org.exist.xquery.*;
+import org.exist.xquery.value.*;
+
+import java.util.List;
+
+public class ScanIndex extends BasicFunction {
+
+    private static final String DESCRIPTION = "Return the nodes of the sort index $id, which must be declared in " +
+            "collection.xconf, in the order of their values. Only the entries of the requested page are read from " +
+            "the index, so the nodes do not need to be sorted.";
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("scan", SortModule.NAMESPACE_URI, SortModule.PREFIX),
+                    DESCRIPTION,
+                    new SequenceType[]{
+                            new FunctionParameterSequenceType("id", Type.STRING, Cardinality.EXACTLY_ONE, "The name of the index."),
+                            new FunctionParameterSequenceType("start", Type.INTEGER, Cardinality.EXACTLY_ONE,
+                                    "The position of the first node to return, starting at 1."),
+                            new FunctionParameterSequenceType("length", Type.INTEGER, Cardinality.ZERO_OR_ONE,
+                                    "The maximum number of nodes to return. If empty, all nodes from $start are returned.")
+                    },
+                    new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE, "the nodes in index order")),
+            new FunctionSignature(
+                    new QName("scan", SortModule.NAMESPACE_URI, SortModule.PREFIX),
+                    DESCRIPTION + " Only nodes whose value is between $from and $to, inclusive, are returned.",
+                    new SequenceType[]{
+                            new FunctionParameterSequenceType("id", Type.STRING, Cardinality.EXACTLY_ONE, "The name of the index."),
+                            new FunctionParameterSequenceType("from", Type.ATOMIC, Cardinality.ZERO_OR_ONE,
+                                    "The lowest value. If empty, the range starts with the lowest value in the index."),
+                            new FunctionParameterSequenceType("to", Type.ATOMIC, Cardinality.ZERO_OR_ONE,
+                                    "The highest value. If empty, the range ends with the highest value in the index."),
+                            new FunctionParameterSequenceType("start", Type.INTEGER, Cardinality.EXACTLY_ONE,
+                                    "The position of the first node in the range to return, starting at 1."),
+                            new FunctionParameterSequenceType("length", Type.INTEGER, Cardinality.ZERO_OR_ONE,
+                                    "The maximum number of nodes to return. If empty, all nodes from $start are returned.")
+                    },
+                    new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE, "the nodes in index order"))
+    };
+
+    public ScanIndex(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        final String id = args[0].getStringValue();
+        AtomicValue from = null;
+        AtomicValue to = null;
+        int next = 1;
+        if (getArgumentCount() == 5) {
+            if (!args[1].isEmpty())
+                from = args[1].itemAt(0).atomize();
+            if (!args[2].isEmpty())
+                to = args[2].itemAt(0).atomize();
+            next = 3;
+        }
+        final long start = ((IntegerValue) args[next].itemAt(0)).getLong();
+        long length = args[next + 1].isEmpty() ? -1 : ((IntegerValue) args[next + 1].itemAt(0)).getLong();
+        long offset = start - 1;
+        if (offset < 0) {
+            // as with fn:subsequence, positions before 1 count against the length
+            if (length >= 0)
+                length = Math.max(0, length + offset);
+            offset = 0;
+        }
+
+        final SortIndexWorker index = (SortIndexWorker)
+                context.getBroker().getIndexController().getWorkerByIndexId(SortIndex.ID);
+        final List<NodeProxy> nodes;
+        try {
+            nodes = index.scan(id, from, to, offset, length);
+        } catch (final EXistException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        } catch (final LockException e) {
+            throw new XPathException(this, "Caught lock error while searching index. Giving up.", e);
+        }
+        final ValueSequence result = new ValueSequence(nodes.size());
+        for (final NodeProxy node : nodes) {
+            result.add(node);
+        }
+        return result;
+    }
+}
@@ -41,7 +41,9 @@ public class SortModule extends AbstractInternalModule {
             new FunctionDef(GetIndex.signature, GetIndex.class),
             new FunctionDef(HasIndex.signature, HasIndex.class),
             new FunctionDef(RemoveIndex.signatures[0], RemoveIndex.class),
-            new FunctionDef(RemoveIndex.signatures[1], RemoveIndex.class)
+            new FunctionDef(RemoveIndex.signatures[1], RemoveIndex.class),
+            new FunctionDef(ScanIndex.signatures[0], ScanIndex.class),
+            new FunctionDef(ScanIndex.signatures[1], ScanIndex.class)
     };
 
     public SortModule(final Map<String, List<?>> parameters) {
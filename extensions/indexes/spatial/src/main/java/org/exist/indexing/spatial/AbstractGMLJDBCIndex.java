@@ -31,17 +31,19 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
+import org.exist.indexing.RecoverySupport;
 import org.exist.indexing.StreamListener.ReindexMode;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.txn.Txn;
 import org.exist.util.DatabaseConfigurationException;
 import org.w3c.dom.Element;
 
 /**
  * @author <a href="mailto:pierrick.brihaye@free.fr">Pierrick Brihaye</a>
  */
-public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
+public abstract class AbstractGMLJDBCIndex extends AbstractIndex implements RecoverySupport {
 
     /**
      * Holds the index ID. Notice that we delegate this task to the abstract JDBC class,
@@ -50,7 +52,6 @@ public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
      */
     public final static String ID = AbstractGMLJDBCIndex.class.getName();	
 
-    @SuppressWarnings("unused")
     private final static Logger LOG = LogManager.getLogger(AbstractGMLJDBCIndex.class);
 
     /**
@@ -81,6 +82,17 @@ public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
 
     protected int max_docs_in_context_to_refine_query = 10;
 
+    /**
+     * Whether spatial:search is answered from the {@link SpatialEnvelopeStore}
+     * rather than by the JDBC database.
+     */
+    protected boolean nativeSearch = false;
+
+    /**
+     * The bounding boxes and geometries for spatial:search, or null if the JDBC database answers it.
+     */
+    protected SpatialEnvelopeStore envelopes = null;
+
     @Override
     public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
         super.configure(pool, dataDir, config);
@@ -89,15 +101,53 @@ public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
         } catch (final ClassNotFoundException | SQLException e) {
             throw new DatabaseConfigurationException(e.getMessage());
         }
+        final String param = config.getAttribute("native-search");
+        nativeSearch = "yes".equals(param) || "true".equals(param);
     }
 
     public int getMaxDocsInContextToRefineQuery() {
         return max_docs_in_context_to_refine_query;
     }
 
+    /**
+     * @return the store answering spatial:search, or null if the JDBC database answers it
+     */
+    public SpatialEnvelopeStore getEnvelopeStore() {
+        return envelopes;
+    }
+
     @Override
     public void open() throws DatabaseConfigurationException {
         //Nothing particular to do : the connection will be opened on request      
+        if (nativeSearch) {
+            final Path file = getDataDir().resolve(SpatialEnvelopeStore.FILE_NAME);
+            try {
+                envelopes = new SpatialEnvelopeStore(pool, file);
+            } catch (final DBException e) {
+                throw new DatabaseConfigurationException("Failed to create index file: " + file.toAbsolutePath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fills a new envelope store with the geometries which are already in the JDBC database,
+     * i.e. those indexed before native search was enabled. The store records once it is
+     * complete, so an interrupted run is repeated at the next startup.
+     */
+    @Override
+    public void recover(DBBroker broker, Txn transaction) throws DBException {
+        if (envelopes == null)
+            return;
+        try {
+            if (envelopes.isPopulated())
+                return;
+            LOG.info("Adding the indexed geometries to {}", SpatialEnvelopeStore.FILE_NAME);
+            ((AbstractGMLJDBCIndexWorker) getWorker(broker)).populateEnvelopes(envelopes);
+            envelopes.setPopulated();
+        } catch (final SpatialIndexException e) {
+            throw new DBException("Failed to fill " + SpatialEnvelopeStore.FILE_NAME + ": " + e.getMessage());
+        }
+        envelopes.flush();
     }
 
     @Override
@@ -108,12 +158,18 @@ public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
             //Reset state
             worker.setDocument(null, ReindexMode.UNKNOWN);
         }
+        if (envelopes != null) {
+            envelopes.close();
+            envelopes = null;
+        }
         shutdownDatabase();
     }
 
     //Seems to never be used
     @Override
     public void sync() throws DBException {
+        if (envelopes != null)
+            envelopes.flush();
         //TODO : something useful here
         /*
         try {
@@ -133,6 +189,10 @@ public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
             //Reset state
             worker.setDocument(null, ReindexMode.UNKNOWN);
         }
+        if (envelopes != null) {
+            envelopes.closeAndRemove();
+            envelopes = null;
+        }
         removeIndexContent();
         shutdownDatabase();
         deleteDatabase();
@@ -21,7 +21,9 @@
  */
 package org.exist.indexing.spatial;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKBReader;
 import com.vividsolutions.jts.io.WKBWriter;
 import com.vividsolutions.jts.io.WKTReader;
@@ -37,7 +39,9 @@ import org.exist.indexing.IndexWorker;
 import org.exist.indexing.MatchListener;
 import org.exist.indexing.StreamListener;
 import org.exist.indexing.StreamListener.ReindexMode;
+import org.exist.indexing.spatial.AbstractGMLJDBCIndex.SpatialOperator;
 import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.DBBroker;
 import org.exist.storage.IndexSpec;
 import org.exist.storage.NodePath;
@@ -344,6 +348,8 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
                     if (!saveGeometryNode(srsGeometry.getGeometry(), srsGeometry.getSRSName(),
                             currentDoc, nodeId, ps)) {
                         LOG.error("Unable to save geometry for node: {}", nodeId);
+                    } else if (index.getEnvelopeStore() != null) {
+                        saveEnvelope(srsGeometry.getGeometry(), srsGeometry.getSRSName(), nodeId);
                     }
                 } finally {
                     //Help the garbage collector
@@ -359,10 +365,29 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         }
     }
 
+    private void saveEnvelope(Geometry geometry, String srsName, NodeId nodeId) {
+        try {
+            Geometry EPSG4326_geometry = transformGeometry(geometry, srsName, "EPSG:4326");
+            Envelope envelope = EPSG4326_geometry.getEnvelopeInternal();
+            index.getEnvelopeStore().add(currentDoc.getCollection().getId(), currentDoc.getDocId(), nodeId,
+                    envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY(),
+                    wkbWriter.write(EPSG4326_geometry));
+        } catch (SpatialIndexException e) {
+            LOG.error("Unable to save envelope for node: {}", nodeId, e);
+        }
+    }
+
     private void dropDocumentNode(Connection conn) throws SQLException {
         if (currentNodeId == null)
             return;
         try {
+            if (index.getEnvelopeStore() != null) {
+                try {
+                    index.getEnvelopeStore().removeNode(currentDoc.getDocId(), currentNodeId);
+                } catch (SpatialIndexException e) {
+                    LOG.error("Unable to drop envelope for node: {}", currentNodeId, e);
+                }
+            }
             boolean removed = removeDocumentNode(currentDoc, currentNodeId, conn);
             if (!removed) {
                 LOG.error("No data dropped for node {} from GML index", currentNodeId.toString());
@@ -378,6 +403,13 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
     private void removeDocument(Connection conn) throws SQLException {
         if (LOG.isDebugEnabled())
             LOG.debug("Dropping GML index for document {}", currentDoc.getURI());
+        if (index.getEnvelopeStore() != null) {
+            try {
+                index.getEnvelopeStore().removeDocument(currentDoc.getDocId());
+            } catch (SpatialIndexException e) {
+                LOG.error("Unable to drop envelopes for document: {}", currentDoc.getURI(), e);
+            }
+        }
         int nodeCount = removeDocument(currentDoc, conn);
         if (LOG.isDebugEnabled())
             LOG.debug("Dropped {} nodes from GML index", nodeCount);
@@ -394,6 +426,17 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         if (!isCollectionGMLAware)
             return;
 
+        if (index.getEnvelopeStore() != null) {
+            //The envelopes are stored by document, as the id of a document does not change when it is moved
+            try {
+                for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                    index.getEnvelopeStore().removeDocument(i.next().getDocId());
+                }
+            } catch (SpatialIndexException | PermissionDeniedException | LockException e) {
+                LOG.error("Unable to drop envelopes for collection: {}", collection.getURI(), e);
+            }
+        }
+
         Connection conn = null;
         try {
             conn = acquireConnection();
@@ -416,6 +459,8 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
 
     public NodeSet search(DBBroker broker, NodeSet contextSet, Geometry EPSG4326_geometry, int spatialOp)
             throws SpatialIndexException {
+        if (index.getEnvelopeStore() != null)
+            return search(broker, contextSet, EPSG4326_geometry, spatialOp, index.getEnvelopeStore());
         Connection conn = null;
         try { 
             conn = acquireConnection();
@@ -433,6 +478,154 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         }
     }
 
+    /**
+     * Fills the envelope store of the index with the geometries of the database, i.e.
+     * those which were indexed before native search was enabled.
+     *
+     * @param envelopes the envelope store of the index
+     *
+     * @throws SpatialIndexException if the geometries cannot be read or stored
+     */
+    protected void populateEnvelopes(SpatialEnvelopeStore envelopes) throws SpatialIndexException {
+        Connection conn = null;
+        try {
+            conn = acquireConnection();
+            final long start = System.currentTimeMillis();
+            final int count = populateEnvelopes(envelopes, conn);
+            LOG.info("Added {} geometries to {} in {} ms", count, SpatialEnvelopeStore.FILE_NAME,
+                    System.currentTimeMillis() - start);
+        } catch (SQLException e) {
+            throw new SpatialIndexException(e);
+        } finally {
+            try {
+                if (conn != null)
+                    releaseConnection(conn);
+            } catch (SQLException e) {
+                LOG.error(e);
+            }
+        }
+    }
+
+    /**
+     * Answers a search from the envelope store of the index rather than from the database:
+     * the candidates are selected by their bounding boxes in memory and only the geometries
+     * the bounding boxes can not decide on are read and compared.
+     */
+    private NodeSet search(DBBroker broker, NodeSet contextSet, Geometry EPSG4326_geometry, int spatialOp,
+            SpatialEnvelopeStore envelopes) throws SpatialIndexException {
+        final Envelope envelope = EPSG4326_geometry.getEnvelopeInternal();
+        final List<SpatialEnvelopeStore.Entry> candidates = new ArrayList<>();
+        if (spatialOp == SpatialOperator.DISJOINT)
+            //Nothing much we can do with the BBox at this stage
+            envelopes.scan(candidates::add);
+        else
+            envelopes.search(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY(), candidates::add);
+
+        final DocumentSet contextDocs = contextSet == null ? null : contextSet.getDocumentSet();
+        //Documents already resolved, when the whole index is scanned
+        final Map<Long, DocumentImpl> docs = new HashMap<>();
+        final NodeSet result = new ExtArrayNodeSet();
+        for (SpatialEnvelopeStore.Entry entry : candidates) {
+            if (!envelopeMatches(entry, envelope, spatialOp))
+                continue;
+            DocumentImpl doc;
+            if (contextDocs != null) {
+                doc = contextDocs.getDoc(entry.getDocId());
+            } else {
+                final long key = ((long) entry.getCollectionId() << 32) | (entry.getDocId() & 0xFFFFFFFFL);
+                doc = docs.get(key);
+                if (doc == null && !docs.containsKey(key)) {
+                    try {
+                        doc = broker.getResourceById(entry.getCollectionId(), DocumentImpl.XML_FILE, entry.getDocId());
+                    } catch (PermissionDeniedException e) {
+                        LOG.debug(e);
+                        //Ignore since the broker has no right on the document
+                    }
+                    docs.put(key, doc);
+                }
+            }
+            if (doc == null)
+                continue;
+            NodeProxy p = new NodeProxy(null, doc, entry.getNodeId());
+            if (contextSet != null && contextSet.get(p) == null)
+                continue;
+            //No BBox intersection : obviously disjoint
+            boolean geometryMatches = spatialOp == SpatialOperator.DISJOINT &&
+                !entry.intersects(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY());
+            //Possible match : check the geometry
+            if (!geometryMatches) {
+                byte[] wkb = envelopes.getGeometry(entry);
+                if (wkb == null)
+                    continue;
+                try {
+                    geometryMatches = geometryMatches(wkbReader.read(wkb), EPSG4326_geometry, spatialOp);
+                } catch (ParseException e) {
+                    throw new SpatialIndexException(e);
+                }
+            }
+            if (geometryMatches)
+                result.add(p);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("{} eligible geometries, {} selected", candidates.size(), result.getItemCount());
+        }
+        return result;
+    }
+
+    /**
+     * Checks the bounding box of an entry against the bounding box of the searched geometry,
+     * the same way the database tables are constrained.
+     */
+    private static boolean envelopeMatches(SpatialEnvelopeStore.Entry entry, Envelope envelope, int spatialOp) {
+        switch (spatialOp) {
+        //BBoxes are equal
+        case SpatialOperator.EQUALS:
+            return entry.getMinX() == envelope.getMinX() && entry.getMaxX() == envelope.getMaxX() &&
+                entry.getMinY() == envelope.getMinY() && entry.getMaxY() == envelope.getMaxY();
+        case SpatialOperator.DISJOINT:
+            return true;
+        //BBoxes intersect themselves
+        case SpatialOperator.INTERSECTS:
+        case SpatialOperator.TOUCHES:
+        case SpatialOperator.CROSSES:
+        case SpatialOperator.OVERLAPS:
+            return entry.intersects(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY());
+        //BBox is fully within
+        case SpatialOperator.WITHIN:
+            return entry.getMinX() >= envelope.getMinX() && entry.getMaxX() <= envelope.getMaxX() &&
+                entry.getMinY() >= envelope.getMinY() && entry.getMaxY() <= envelope.getMaxY();
+        //BBox fully contains
+        case SpatialOperator.CONTAINS:
+            return entry.getMinX() <= envelope.getMinX() && entry.getMaxX() >= envelope.getMaxX() &&
+                entry.getMinY() <= envelope.getMinY() && entry.getMaxY() >= envelope.getMaxY();
+        default:
+            throw new IllegalArgumentException("Unsupported spatial operator:" + spatialOp);
+        }
+    }
+
+    protected static boolean geometryMatches(Geometry geometry, Geometry EPSG4326_geometry, int spatialOp) {
+        switch (spatialOp) {
+        case SpatialOperator.EQUALS:
+            return geometry.equals(EPSG4326_geometry);
+        case SpatialOperator.DISJOINT:
+            return geometry.disjoint(EPSG4326_geometry);
+        case SpatialOperator.INTERSECTS:
+            return geometry.intersects(EPSG4326_geometry);
+        case SpatialOperator.TOUCHES:
+            return geometry.touches(EPSG4326_geometry);
+        case SpatialOperator.CROSSES:
+            return geometry.crosses(EPSG4326_geometry);
+        case SpatialOperator.WITHIN:
+            return geometry.within(EPSG4326_geometry);
+        case SpatialOperator.CONTAINS:
+            return geometry.contains(EPSG4326_geometry);
+        case SpatialOperator.OVERLAPS:
+            return geometry.overlaps(EPSG4326_geometry);
+        default:
+            return false;
+        }
+    }
+
     public Geometry getGeometryForNode(DBBroker broker, NodeProxy p, boolean getEPSG4326) 
             throws  SpatialIndexException {
         Connection conn = null;
@@ -550,6 +743,8 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
 
     protected abstract boolean checkIndex(DBBroker broker, Connection conn) throws SQLException, SpatialIndexException;
 
+    protected abstract int populateEnvelopes(SpatialEnvelopeStore envelopes, Connection conn) throws SQLException, SpatialIndexException;
+
     protected abstract Connection acquireConnection() throws SQLException;
 
     protected abstract void releaseConnection(Connection conn) throws SQLException;
@@ -282,6 +282,14 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
                 backup.closeEntry();
             }
         }
+        if (envelopes != null) {
+            try {
+                final OutputStream os = backup.newEntry(FileUtils.fileName(envelopes.getFile()));
+                envelopes.backupToStream(os);
+            } finally {
+                backup.closeEntry();
+            }
+        }
 	}
 	
 }
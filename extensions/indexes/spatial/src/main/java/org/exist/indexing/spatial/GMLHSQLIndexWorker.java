@@ -338,32 +338,7 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
                         if (!geometryMatches) {	
                             try {
                                 Geometry geometry = wkbReader.read(rs.getBytes("EPSG4326_WKB"));
-                                switch (spatialOp) {
-                                case SpatialOperator.EQUALS:
-                                    geometryMatches = geometry.equals(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.DISJOINT:
-                                    geometryMatches = geometry.disjoint(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.INTERSECTS:
-                                    geometryMatches = geometry.intersects(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.TOUCHES:
-                                    geometryMatches = geometry.touches(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.CROSSES:
-                                    geometryMatches = geometry.crosses(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.WITHIN:
-                                    geometryMatches = geometry.within(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.CONTAINS:
-                                    geometryMatches = geometry.contains(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.OVERLAPS:
-                                    geometryMatches = geometry.overlaps(EPSG4326_geometry);
-                                    break;
-                                }
+                                geometryMatches = geometryMatches(geometry, EPSG4326_geometry, spatialOp);
                             } catch (ParseException e) {
                                 //Transforms the exception into an SQLException.
                                 //Very unlikely to happen though...
@@ -651,6 +626,50 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         }
     }
 
+    @Override
+    protected int populateEnvelopes(SpatialEnvelopeStore envelopes, Connection conn) throws SQLException, SpatialIndexException {
+        PreparedStatement ps = conn.prepareStatement(
+                "SELECT DOCUMENT_URI, NODE_ID_UNITS, NODE_ID, EPSG4326_WKB, EPSG4326_MINX, EPSG4326_MAXX, EPSG4326_MINY, EPSG4326_MAXY" +
+                " FROM " + GMLHSQLIndex.TABLE_NAME + " ORDER BY DOCUMENT_URI;"
+        );
+        ResultSet rs = null;
+        try {
+            rs = ps.executeQuery();
+            String documentURI = null;
+            DocumentImpl doc = null;
+            int count = 0;
+            while (rs.next()) {
+                //Rows are ordered by document : resolve each document once
+                if (!rs.getString("DOCUMENT_URI").equals(documentURI)) {
+                    documentURI = rs.getString("DOCUMENT_URI");
+                    try {
+                        doc = (DocumentImpl)broker.getXMLResource(XmldbURI.create(documentURI));
+                    } catch (PermissionDeniedException e) {
+                        LOG.debug(e);
+                        doc = null;
+                    }
+                    if (doc == null)
+                        LOG.warn("Document '{}' is indexed but can not be read, its geometries are not added to {}",
+                                documentURI, SpatialEnvelopeStore.FILE_NAME);
+                }
+                if (doc == null)
+                    continue;
+                NodeId nodeId = new DLN(rs.getInt("NODE_ID_UNITS"), rs.getBytes("NODE_ID"), 0);
+                envelopes.add(doc.getCollection().getId(), doc.getDocId(), nodeId,
+                        rs.getDouble("EPSG4326_MINX"), rs.getDouble("EPSG4326_MINY"),
+                        rs.getDouble("EPSG4326_MAXX"), rs.getDouble("EPSG4326_MAXY"),
+                        rs.getBytes("EPSG4326_WKB"));
+                count++;
+            }
+            return count;
+        } finally {
+            if (rs != null)
+                rs.close();
+            if (ps != null)
+                ps.close();
+        }
+    }
+
     @Override
     protected boolean checkIndex(DBBroker broker, Connection conn) throws SQLException {
         PreparedStatement ps = conn.prepareStatement(
@@ -0,0 +1,225 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A read-only R-tree over the bounding boxes of a set of entries, bulk loaded
+ * bottom-up with the Sort-Tile-Recursive (STR) algorithm.
+ *
+ * At each level the boxes are sorted by the x of their centre and cut into
+ * vertical slices, each slice is sorted by the y of the centre, and runs of
+ * {@link #NODE_CAPACITY} boxes then become the children of one node of the
+ * level above. The nodes are therefore full and their boxes overlap little,
+ * which a tree built by single insertions does not achieve.
+ *
+ * The tree is kept in arrays of coordinates rather than in node objects, so
+ * that a search touches few cache lines.
+ */
+public final class STRTree {
+
+    public static final int NODE_CAPACITY = 16;
+
+    @FunctionalInterface
+    public interface EntryVisitor {
+
+        /**
+         * @param entry the number of an entry whose bounding box is searched for,
+         *     that is its position in the bounds given to {@link STRTree#bulkLoad(double[], int)}
+         */
+        void visit(int entry);
+    }
+
+    private static final STRTree EMPTY = new STRTree(new double[0][], new int[0][], new int[0]);
+
+    /**
+     * The boxes of each level, leaves first, as minX, minY, maxX, maxY.
+     */
+    private final double[][] bounds;
+
+    /**
+     * For each level above the leaves, the position of the first child of each node
+     * in the level below. The children of a node are consecutive.
+     */
+    private final int[][] firstChild;
+
+    /**
+     * The entry number of each leaf.
+     */
+    private final int[] entries;
+
+    private STRTree(final double[][] bounds, final int[][] firstChild, final int[] entries) {
+        this.bounds = bounds;
+        this.firstChild = firstChild;
+        this.entries = entries;
+    }
+
+    /**
+     * Builds a tree over the bounding boxes of entries.
+     *
+     * @param entryBounds the box of entry {@code i} at {@code 4 * i}, as minX, minY, maxX, maxY
+     * @param count the number of entries
+     *
+     * @return the tree
+     */
+    public static STRTree bulkLoad(final double[] entryBounds, final int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        final List<double[]> levelBounds = new ArrayList<>();
+        final List<int[]> levelFirstChild = new ArrayList<>();
+
+        int[] order = tile(entryBounds, count);
+        final int[] entries = order;
+        double[] level = permute(entryBounds, order);
+        levelBounds.add(level);
+        levelFirstChild.add(null);
+
+        int size = count;
+        while (size > 1) {
+            final int parents = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            final double[] parentBounds = new double[4 * parents];
+            final int[] parentFirstChild = new int[parents];
+            for (int p = 0; p < parents; p++) {
+                final int from = p * NODE_CAPACITY;
+                final int to = Math.min(from + NODE_CAPACITY, size);
+                parentFirstChild[p] = from;
+                union(level, from, to, parentBounds, p);
+            }
+
+            order = tile(parentBounds, parents);
+            level = permute(parentBounds, order);
+            final int[] firstChild = new int[parents];
+            for (int p = 0; p < parents; p++) {
+                firstChild[p] = parentFirstChild[order[p]];
+            }
+            levelBounds.add(level);
+            levelFirstChild.add(firstChild);
+            size = parents;
+        }
+
+        return new STRTree(levelBounds.toArray(new double[0][]), levelFirstChild.toArray(new int[0][]), entries);
+    }
+
+    /**
+     * Orders boxes so that each run of {@link #NODE_CAPACITY} can be grouped under one node.
+     *
+     * @return the box numbers in packed order
+     */
+    private static int[] tile(final double[] boxes, final int count) {
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+
+        final Comparator<Integer> byCentreX = Comparator.comparingDouble(i -> boxes[4 * i] + boxes[4 * i + 2]);
+        final Comparator<Integer> byCentreY = Comparator.comparingDouble(i -> boxes[4 * i + 1] + boxes[4 * i + 3]);
+        Arrays.sort(order, byCentreX);
+
+        final int nodes = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        final int slices = (int) Math.ceil(Math.sqrt(nodes));
+        final int sliceSize = slices * NODE_CAPACITY;
+        for (int from = 0; from < count; from += sliceSize) {
+            Arrays.sort(order, from, Math.min(from + sliceSize, count), byCentreY);
+        }
+
+        final int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    private static double[] permute(final double[] boxes, final int[] order) {
+        final double[] result = new double[4 * order.length];
+        for (int i = 0; i < order.length; i++) {
+            System.arraycopy(boxes, 4 * order[i], result, 4 * i, 4);
+        }
+        return result;
+    }
+
+    private static void union(final double[] boxes, final int from, final int to, final double[] target, final int pos) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            minX = Math.min(minX, boxes[4 * i]);
+            minY = Math.min(minY, boxes[4 * i + 1]);
+            maxX = Math.max(maxX, boxes[4 * i + 2]);
+            maxY = Math.max(maxY, boxes[4 * i + 3]);
+        }
+        target[4 * pos] = minX;
+        target[4 * pos + 1] = minY;
+        target[4 * pos + 2] = maxX;
+        target[4 * pos + 3] = maxY;
+    }
+
+    /**
+     * @return the number of entries in the tree
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Visits the entries whose bounding box intersects a box, boundaries included.
+     *
+     * @param minX the minimum x of the box
+     * @param minY the minimum y of the box
+     * @param maxX the maximum x of the box
+     * @param maxY the maximum y of the box
+     * @param visitor receives the number of each entry found
+     */
+    public void search(final double minX, final double minY, final double maxX, final double maxY,
+            final EntryVisitor visitor) {
+        if (entries.length == 0) {
+            return;
+        }
+        search(bounds.length - 1, 0, minX, minY, maxX, maxY, visitor);
+    }
+
+    private void search(final int level, final int node, final double minX, final double minY, final double maxX,
+            final double maxY, final EntryVisitor visitor) {
+        final double[] boxes = bounds[level];
+        if (boxes[4 * node] > maxX || boxes[4 * node + 2] < minX
+                || boxes[4 * node + 1] > maxY || boxes[4 * node + 3] < minY) {
+            return;
+        }
+
+        if (level == 0) {
+            visitor.visit(entries[node]);
+            return;
+        }
+
+        final int from = firstChild[level][node];
+        final int to = Math.min(from + NODE_CAPACITY, bounds[level - 1].length / 4);
+        for (int child = from; child < to; child++) {
+            search(level - 1, child, minX, minY, maxX, maxY, visitor);
+        }
+    }
+}
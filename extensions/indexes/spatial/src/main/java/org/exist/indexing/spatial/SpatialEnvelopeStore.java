@@ -0,0 +1,507 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.numbering.NodeId;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.BTreeException;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.storage.index.BFile;
+import org.exist.storage.lock.LockManager;
+import org.exist.storage.lock.ManagedLock;
+import org.exist.util.ByteConversion;
+import org.exist.util.LockException;
+import org.exist.util.ReadOnlyException;
+import org.exist.xquery.TerminatedException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the EPSG:4326 bounding box and geometry of every indexed GML node in a
+ * {@link BFile}, and answers bounding box searches from an {@link STRTree}
+ * over these boxes, so that spatial:search does not need the JDBC database.
+ *
+ * Each node has two records, under keys which only differ by their first byte:
+ * its bounding box, and its geometry as WKB. The keys start with the document id,
+ * which does not change when a document is moved; the id of the collection is only
+ * kept with the bounding box, to find the document again. The tree is bulk loaded
+ * from the bounding box records by the first search, and is then kept in memory:
+ * nodes which are added later are searched linearly, and nodes which are removed or
+ * replaced are marked as such and skipped, until there are enough of either to
+ * repack the tree.
+ *
+ * Changes and loads of the tree are serialized on the store, and always take the
+ * lock of the file after that of the store.
+ *
+ * A new store only holds the nodes which are indexed after it was created, it records
+ * whether it has been filled with the nodes which were indexed before, see
+ * {@link #isPopulated()}.
+ */
+public class SpatialEnvelopeStore {
+
+    public static final short FILE_FORMAT_VERSION_ID = 1;
+
+    public static final String FILE_NAME = "spatial_envelopes.dbx";
+
+    private static final Logger LOG = LogManager.getLogger(SpatialEnvelopeStore.class);
+
+    private static final byte ENVELOPE = 0;
+    private static final byte GEOMETRY = 1;
+    private static final byte POPULATED = 2;
+
+    private static final int DOCUMENT_ID_OFFSET = 1;
+    private static final int NODE_ID_UNITS_OFFSET = DOCUMENT_ID_OFFSET + 4;
+    private static final int NODE_ID_OFFSET = NODE_ID_UNITS_OFFSET + 2;
+
+    private static final int ENVELOPE_LENGTH = 4 + 32;
+
+    /**
+     * The least number of added or removed nodes for which the tree is repacked.
+     */
+    private static final int MIN_REPACK = 1024;
+
+    private final BrokerPool pool;
+    private final LockManager lockManager;
+    private final BFile db;
+
+    /**
+     * The tree and the nodes added since it was packed, or null if it has to be loaded from the file.
+     */
+    private Snapshot snapshot = null;
+    private final List<Entry> added = new ArrayList<>();
+
+    /**
+     * The entries of the tree and the added nodes by document and node id, whilst the tree is loaded.
+     */
+    private final Map<Integer, Map<NodeId, Entry>> entries = new HashMap<>();
+
+    /**
+     * The number of entries of the tree which were removed since it was packed.
+     */
+    private int removed = 0;
+
+    public SpatialEnvelopeStore(final BrokerPool pool, final Path file) throws DBException {
+        this.pool = pool;
+        this.lockManager = pool.getLockManager();
+        this.db = new BFile(pool, (byte) 0, FILE_FORMAT_VERSION_ID, false, file, pool.getCacheManager(), 1.4, 0.07);
+    }
+
+    /**
+     * The bounding box of an indexed node.
+     */
+    public static final class Entry {
+        private final int collectionId;
+        private final int docId;
+        private final NodeId nodeId;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+        private volatile boolean removed = false;
+
+        Entry(final int collectionId, final int docId, final NodeId nodeId, final double minX, final double minY,
+                final double maxX, final double maxY) {
+            this.collectionId = collectionId;
+            this.docId = docId;
+            this.nodeId = nodeId;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        /**
+         * @return the id of the collection of the document, when the node was indexed
+         */
+        public int getCollectionId() {
+            return collectionId;
+        }
+
+        public int getDocId() {
+            return docId;
+        }
+
+        public NodeId getNodeId() {
+            return nodeId;
+        }
+
+        public double getMinX() {
+            return minX;
+        }
+
+        public double getMinY() {
+            return minY;
+        }
+
+        public double getMaxX() {
+            return maxX;
+        }
+
+        public double getMaxY() {
+            return maxY;
+        }
+
+        boolean intersects(final double minX, final double minY, final double maxX, final double maxY) {
+            return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY;
+        }
+    }
+
+    private static final class Snapshot {
+        private final STRTree tree;
+        private final Entry[] packed;
+        private final Entry[] unpacked;
+
+        Snapshot(final STRTree tree, final Entry[] packed, final Entry[] unpacked) {
+            this.tree = tree;
+            this.packed = packed;
+            this.unpacked = unpacked;
+        }
+
+        /**
+         * Builds the tree over the entries which have not been removed.
+         */
+        static Snapshot pack(final List<Entry> entries) {
+            entries.removeIf(entry -> entry.removed);
+            final Entry[] packed = entries.toArray(new Entry[0]);
+            final double[] bounds = new double[4 * packed.length];
+            for (int i = 0; i < packed.length; i++) {
+                bounds[4 * i] = packed[i].minX;
+                bounds[4 * i + 1] = packed[i].minY;
+                bounds[4 * i + 2] = packed[i].maxX;
+                bounds[4 * i + 3] = packed[i].maxY;
+            }
+            return new Snapshot(STRTree.bulkLoad(bounds, packed.length), packed, new Entry[0]);
+        }
+    }
+
+    /**
+     * Determines whether the store has been filled with the nodes which
+     * were already indexed when it was created, see {@link #setPopulated()}.
+     *
+     * @return true if the store holds all the indexed nodes
+     *
+     * @throws SpatialIndexException if the file cannot be read
+     */
+    public boolean isPopulated() throws SpatialIndexException {
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeReadLock(db.getLockName())) {
+            return db.containsKey(new Value(new byte[] { POPULATED }));
+        } catch (final LockException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    /**
+     * Records that the store has been filled with the nodes which were already indexed when it was created.
+     *
+     * @throws SpatialIndexException if the record cannot be written
+     */
+    public void setPopulated() throws SpatialIndexException {
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeWriteLock(db.getLockName())) {
+            db.put(new Value(new byte[] { POPULATED }), new byte[] { 1 }, true);
+        } catch (final LockException | ReadOnlyException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    /**
+     * Stores the bounding box and the geometry of a node.
+     *
+     * @param collectionId the id of the collection of the document
+     * @param docId the id of the document
+     * @param nodeId the id of the node
+     * @param minX the minimum x of the EPSG:4326 bounding box
+     * @param minY the minimum y of the EPSG:4326 bounding box
+     * @param maxX the maximum x of the EPSG:4326 bounding box
+     * @param maxY the maximum y of the EPSG:4326 bounding box
+     * @param wkb the EPSG:4326 geometry as WKB
+     *
+     * @throws SpatialIndexException if the records cannot be written
+     */
+    public synchronized void add(final int collectionId, final int docId, final NodeId nodeId, final double minX, final double minY,
+            final double maxX, final double maxY, final byte[] wkb) throws SpatialIndexException {
+        final byte[] envelope = new byte[ENVELOPE_LENGTH];
+        ByteConversion.intToByte(collectionId, envelope, 0);
+        ByteConversion.longToByte(Double.doubleToLongBits(minX), envelope, 4);
+        ByteConversion.longToByte(Double.doubleToLongBits(minY), envelope, 12);
+        ByteConversion.longToByte(Double.doubleToLongBits(maxX), envelope, 20);
+        ByteConversion.longToByte(Double.doubleToLongBits(maxY), envelope, 28);
+
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeWriteLock(db.getLockName())) {
+            db.put(key(ENVELOPE, docId, nodeId), envelope, true);
+            db.put(key(GEOMETRY, docId, nodeId), wkb, true);
+        } catch (final LockException | ReadOnlyException e) {
+            throw new SpatialIndexException(e);
+        }
+
+        if (snapshot != null) {
+            final Entry entry = new Entry(collectionId, docId, nodeId, minX, minY, maxX, maxY);
+            // the tree may hold the former bounding box of the node
+            markRemoved(entries.computeIfAbsent(docId, id -> new HashMap<>()).put(nodeId, entry));
+            added.add(entry);
+        }
+    }
+
+    /**
+     * Removes the records of a node.
+     *
+     * @param docId the id of the document
+     * @param nodeId the id of the node
+     *
+     * @return true if the node was indexed
+     *
+     * @throws SpatialIndexException if the records cannot be removed
+     */
+    public synchronized boolean removeNode(final int docId, final NodeId nodeId) throws SpatialIndexException {
+        final Value envelopeKey = key(ENVELOPE, docId, nodeId);
+        final boolean found;
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeWriteLock(db.getLockName())) {
+            found = db.containsKey(envelopeKey);
+            db.remove(envelopeKey);
+            db.remove(key(GEOMETRY, docId, nodeId));
+        } catch (final LockException e) {
+            throw new SpatialIndexException(e);
+        }
+
+        if (snapshot != null) {
+            final Map<NodeId, Entry> nodes = entries.get(docId);
+            if (nodes != null) {
+                markRemoved(nodes.remove(nodeId));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Removes the records of the nodes of a document.
+     *
+     * @param docId the id of the document
+     *
+     * @throws SpatialIndexException if the records cannot be removed
+     */
+    public synchronized void removeDocument(final int docId) throws SpatialIndexException {
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeWriteLock(db.getLockName())) {
+            db.removeAll(null, new IndexQuery(IndexQuery.TRUNC_RIGHT, key(ENVELOPE, docId, null)));
+            db.removeAll(null, new IndexQuery(IndexQuery.TRUNC_RIGHT, key(GEOMETRY, docId, null)));
+        } catch (final LockException | BTreeException | IOException e) {
+            throw new SpatialIndexException(e);
+        }
+
+        if (snapshot != null) {
+            final Map<NodeId, Entry> nodes = entries.remove(docId);
+            if (nodes != null) {
+                for (final Entry entry : nodes.values()) {
+                    markRemoved(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks an entry of the tree or of the added nodes as removed, so that searches skip it
+     * until the tree is repacked without it.
+     */
+    private void markRemoved(final Entry entry) {
+        if (entry != null) {
+            entry.removed = true;
+            removed++;
+        }
+    }
+
+    private synchronized void invalidate() {
+        snapshot = null;
+        added.clear();
+        entries.clear();
+        removed = 0;
+    }
+
+    /**
+     * Visits the nodes whose bounding box intersects a box, boundaries included.
+     *
+     * @param minX the minimum x of the box
+     * @param minY the minimum y of the box
+     * @param maxX the maximum x of the box
+     * @param maxY the maximum y of the box
+     * @param consumer receives the bounding box of every node found
+     *
+     * @throws SpatialIndexException if the tree has to be loaded and the file cannot be read
+     */
+    public void search(final double minX, final double minY, final double maxX, final double maxY,
+            final Consumer<Entry> consumer) throws SpatialIndexException {
+        final Snapshot current = getSnapshot();
+        current.tree.search(minX, minY, maxX, maxY, i -> {
+            final Entry entry = current.packed[i];
+            if (!entry.removed) {
+                consumer.accept(entry);
+            }
+        });
+        for (final Entry entry : current.unpacked) {
+            if (!entry.removed && entry.intersects(minX, minY, maxX, maxY)) {
+                consumer.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * Visits the bounding boxes of all the indexed nodes.
+     *
+     * @param consumer receives the bounding box of every node
+     *
+     * @throws SpatialIndexException if the tree has to be loaded and the file cannot be read
+     */
+    public void scan(final Consumer<Entry> consumer) throws SpatialIndexException {
+        final Snapshot current = getSnapshot();
+        for (final Entry entry : current.packed) {
+            if (!entry.removed) {
+                consumer.accept(entry);
+            }
+        }
+        for (final Entry entry : current.unpacked) {
+            if (!entry.removed) {
+                consumer.accept(entry);
+            }
+        }
+    }
+
+    private synchronized Snapshot getSnapshot() throws SpatialIndexException {
+        if (snapshot == null) {
+            final long start = System.currentTimeMillis();
+            final List<Entry> loaded = load();
+            for (final Entry entry : loaded) {
+                entries.computeIfAbsent(entry.docId, id -> new HashMap<>()).put(entry.nodeId, entry);
+            }
+            snapshot = Snapshot.pack(loaded);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Loaded {} geometries into the spatial tree in {} ms", snapshot.packed.length,
+                        System.currentTimeMillis() - start);
+            }
+        } else if (snapshot.unpacked.length + added.size() + removed >= Math.max(MIN_REPACK, snapshot.packed.length / 8)) {
+            final List<Entry> all = new ArrayList<>(snapshot.packed.length + snapshot.unpacked.length + added.size());
+            Collections.addAll(all, snapshot.packed);
+            Collections.addAll(all, snapshot.unpacked);
+            all.addAll(added);
+            snapshot = Snapshot.pack(all);
+            added.clear();
+            removed = 0;
+        } else if (!added.isEmpty()) {
+            final Entry[] unpacked = new Entry[snapshot.unpacked.length + added.size()];
+            System.arraycopy(snapshot.unpacked, 0, unpacked, 0, snapshot.unpacked.length);
+            for (int i = 0; i < added.size(); i++) {
+                unpacked[snapshot.unpacked.length + i] = added.get(i);
+            }
+            snapshot = new Snapshot(snapshot.tree, snapshot.packed, unpacked);
+            added.clear();
+        }
+        return snapshot;
+    }
+
+    private List<Entry> load() throws SpatialIndexException {
+        final List<Entry> loaded = new ArrayList<>();
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeReadLock(db.getLockName())) {
+            db.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(new byte[] { ENVELOPE })), (key, pointer) -> {
+                final Value value = db.get(pointer);
+                if (value == null) {
+                    return true;
+                }
+                final byte[] k = key.data();
+                final int start = key.start();
+                final byte[] v = value.data();
+                final int vStart = value.start();
+                final short units = ByteConversion.byteToShort(k, start + NODE_ID_UNITS_OFFSET);
+                loaded.add(new Entry(
+                        ByteConversion.byteToInt(v, vStart),
+                        ByteConversion.byteToInt(k, start + DOCUMENT_ID_OFFSET),
+                        pool.getNodeFactory().createFromData(units, k, start + NODE_ID_OFFSET),
+                        Double.longBitsToDouble(ByteConversion.byteToLong(v, vStart + 4)),
+                        Double.longBitsToDouble(ByteConversion.byteToLong(v, vStart + 12)),
+                        Double.longBitsToDouble(ByteConversion.byteToLong(v, vStart + 20)),
+                        Double.longBitsToDouble(ByteConversion.byteToLong(v, vStart + 28))));
+                return true;
+            });
+        } catch (final LockException | BTreeException | IOException | TerminatedException e) {
+            throw new SpatialIndexException(e);
+        }
+        return loaded;
+    }
+
+    /**
+     * Reads the geometry of a node.
+     *
+     * @param entry the bounding box of the node, as found by a search
+     *
+     * @return the EPSG:4326 geometry as WKB, or null if the node is no longer indexed
+     *
+     * @throws SpatialIndexException if the file cannot be read
+     */
+    public byte[] getGeometry(final Entry entry) throws SpatialIndexException {
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeReadLock(db.getLockName())) {
+            final Value value = db.get(key(GEOMETRY, entry.docId, entry.nodeId));
+            return value == null ? null : value.getData();
+        } catch (final LockException e) {
+            throw new SpatialIndexException(e);
+        }
+    }
+
+    public void flush() throws DBException {
+        db.flush();
+    }
+
+    public void close() throws DBException {
+        db.close();
+    }
+
+    public void closeAndRemove() throws DBException {
+        invalidate();
+        db.closeAndRemove();
+    }
+
+    public Path getFile() {
+        return db.getFile();
+    }
+
+    public void backupToStream(final OutputStream os) throws IOException {
+        db.backupToStream(os);
+    }
+
+    private static Value key(final byte type, final int docId, final NodeId nodeId) {
+        final byte[] data = new byte[nodeId == null ? NODE_ID_UNITS_OFFSET : NODE_ID_OFFSET + nodeId.size()];
+        data[0] = type;
+        ByteConversion.intToByte(docId, data, DOCUMENT_ID_OFFSET);
+        if (nodeId != null) {
+            ByteConversion.shortToByte((short) nodeId.units(), data, NODE_ID_UNITS_OFFSET);
+            nodeId.serialize(data, NODE_ID_OFFSET);
+        }
+        return new Value(data);
+    }
+}
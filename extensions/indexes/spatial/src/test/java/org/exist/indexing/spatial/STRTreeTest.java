@@ -0,0 +1,91 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class STRTreeTest {
+
+    @Test
+    public void emptyTree() {
+        final STRTree tree = STRTree.bulkLoad(new double[0], 0);
+        assertEquals(0, tree.size());
+        final List<Integer> found = new ArrayList<>();
+        tree.search(-180, -90, 180, 90, found::add);
+        assertTrue(found.isEmpty());
+    }
+
+    @Test
+    public void searchMatchesLinearScan() {
+        final Random random = new Random(42);
+        for (final int count : new int[] { 1, 15, 16, 17, 300, 5000 }) {
+            final double[] bounds = new double[4 * count];
+            for (int i = 0; i < count; i++) {
+                final double x = random.nextDouble() * 360 - 180;
+                final double y = random.nextDouble() * 180 - 90;
+                bounds[4 * i] = x;
+                bounds[4 * i + 1] = y;
+                bounds[4 * i + 2] = x + random.nextDouble() * 5;
+                bounds[4 * i + 3] = y + random.nextDouble() * 5;
+            }
+            final STRTree tree = STRTree.bulkLoad(bounds, count);
+            assertEquals(count, tree.size());
+
+            for (int q = 0; q < 50; q++) {
+                final double minX = random.nextDouble() * 360 - 180;
+                final double minY = random.nextDouble() * 180 - 90;
+                final double maxX = minX + random.nextDouble() * 40;
+                final double maxY = minY + random.nextDouble() * 40;
+
+                final List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    if (bounds[4 * i] <= maxX && bounds[4 * i + 2] >= minX
+                            && bounds[4 * i + 1] <= maxY && bounds[4 * i + 3] >= minY) {
+                        expected.add(i);
+                    }
+                }
+                final List<Integer> found = new ArrayList<>();
+                tree.search(minX, minY, maxX, maxY, found::add);
+                Collections.sort(found);
+                assertEquals(expected, found);
+            }
+        }
+    }
+
+    @Test
+    public void boundariesAreIncluded() {
+        final double[] bounds = { 0, 0, 1, 1, 2, 2, 3, 3 };
+        final STRTree tree = STRTree.bulkLoad(bounds, 2);
+        final List<Integer> found = new ArrayList<>();
+        tree.search(1, 1, 2, 2, found::add);
+        Collections.sort(found);
+        assertEquals(List.of(0, 1), found);
+    }
+}
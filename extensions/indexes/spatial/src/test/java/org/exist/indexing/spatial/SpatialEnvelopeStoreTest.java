@@ -0,0 +1,243 @@
+/*
+ * eXist-db Open Source Native XML Database
+ * Copyright (C) 2001 The eXist-db Authors
+ *
+ * info@exist-db.org
+ * http://www.exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.exist.numbering.DLN;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.DBException;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialEnvelopeStoreTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer server = new ExistEmbeddedServer(true, true);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file;
+    private SpatialEnvelopeStore store;
+
+    @Before
+    public void open() throws Exception {
+        file = temporaryFolder.getRoot().toPath().resolve(SpatialEnvelopeStore.FILE_NAME);
+        store = new SpatialEnvelopeStore(getPool(), file);
+    }
+
+    @After
+    public void close() throws DBException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void persistedAcrossReopen() throws Exception {
+        assertFalse(store.isPopulated());
+        store.add(1, 10, new DLN("1.2"), 0, 0, 1, 1, new byte[] { 1 });
+        store.add(1, 10, new DLN("1.3"), 5, 5, 6, 6, new byte[] { 2 });
+        store.add(2, 20, new DLN("1.2"), -10, -10, -9, -9, new byte[] { 3 });
+        store.setPopulated();
+        reopen();
+
+        assertTrue(store.isPopulated());
+        assertEquals(3, scan().size());
+        final List<SpatialEnvelopeStore.Entry> found = search(4, 4, 7, 7);
+        assertEquals(1, found.size());
+        final SpatialEnvelopeStore.Entry entry = found.get(0);
+        assertEquals(1, entry.getCollectionId());
+        assertEquals(10, entry.getDocId());
+        assertEquals("1.3", entry.getNodeId().toString());
+        assertEquals(5, entry.getMinX(), 0);
+        assertEquals(6, entry.getMaxY(), 0);
+        assertArrayEquals(new byte[] { 2 }, store.getGeometry(entry));
+    }
+
+    @Test
+    public void removal() throws Exception {
+        store.add(1, 10, new DLN("1.2"), 0, 0, 1, 1, new byte[] { 1 });
+        store.add(1, 10, new DLN("1.3"), 0, 0, 1, 1, new byte[] { 2 });
+        store.add(1, 11, new DLN("1.2"), 0, 0, 1, 1, new byte[] { 3 });
+        store.add(2, 20, new DLN("1.2"), 0, 0, 1, 1, new byte[] { 4 });
+        assertEquals(4, search(0, 0, 1, 1).size());
+
+        assertTrue(store.removeNode(10, new DLN("1.3")));
+        assertFalse(store.removeNode(10, new DLN("1.3")));
+        List<SpatialEnvelopeStore.Entry> found = search(0, 0, 1, 1);
+        assertEquals(3, found.size());
+        for (final SpatialEnvelopeStore.Entry entry : found) {
+            assertFalse(entry.getDocId() == 10 && "1.3".equals(entry.getNodeId().toString()));
+        }
+
+        store.removeDocument(11);
+        found = search(0, 0, 1, 1);
+        assertEquals(2, found.size());
+        for (final SpatialEnvelopeStore.Entry entry : found) {
+            assertFalse(entry.getDocId() == 11);
+        }
+        assertEquals(2, scan().size());
+
+        reopen();
+        assertEquals(2, search(0, 0, 1, 1).size());
+    }
+
+    @Test
+    public void removedGeometryIsNull() throws Exception {
+        store.add(1, 10, new DLN("1.2"), 0, 0, 1, 1, new byte[] { 1 });
+        final SpatialEnvelopeStore.Entry entry = search(0, 0, 1, 1).get(0);
+        store.removeDocument(10);
+        assertNull(store.getGeometry(entry));
+    }
+
+    @Test
+    public void replacedAfterMove() throws Exception {
+        store.add(1, 10, new DLN("1.2"), 0, 0, 1, 1, new byte[] { 1 });
+        assertEquals(1, search(0, 0, 1, 1).size());
+
+        // the document is reindexed in another collection, with the same document id
+        store.add(2, 10, new DLN("1.2"), 5, 5, 6, 6, new byte[] { 2 });
+        assertEquals(0, search(0, 0, 1, 1).size());
+        List<SpatialEnvelopeStore.Entry> found = search(5, 5, 6, 6);
+        assertEquals(1, found.size());
+        assertEquals(2, found.get(0).getCollectionId());
+        assertArrayEquals(new byte[] { 2 }, store.getGeometry(found.get(0)));
+        assertEquals(1, scan().size());
+
+        reopen();
+        found = search(5, 5, 6, 6);
+        assertEquals(1, found.size());
+        assertEquals(2, found.get(0).getCollectionId());
+
+        assertTrue(store.removeNode(10, new DLN("1.2")));
+        assertEquals(0, scan().size());
+    }
+
+    @Test
+    public void removedEntriesSkippedBeforeAndAfterRepack() throws Exception {
+        for (int i = 0; i < 3000; i++) {
+            store.add(1, 10 + i % 2, new DLN(i + 1), i, 0, i + 0.5, 0.5, new byte[] { 1 });
+        }
+        // loads the tree
+        assertEquals(3000, search(0, 0, 10000, 1).size());
+
+        // below the repack threshold : skipped in the tree
+        for (int i = 0; i < 10; i += 2) {
+            assertTrue(store.removeNode(10, new DLN(i + 1)));
+        }
+        assertEquals(2995, search(0, 0, 10000, 1).size());
+        assertEquals(0, search(4, 0, 4.2, 1).size());
+        assertEquals(1, search(5, 0, 5.2, 1).size());
+
+        // above it : the tree is rebuilt without them
+        store.removeDocument(10);
+        final List<SpatialEnvelopeStore.Entry> found = search(0, 0, 10000, 1);
+        assertEquals(1500, found.size());
+        for (final SpatialEnvelopeStore.Entry entry : found) {
+            assertEquals(11, entry.getDocId());
+        }
+        assertEquals(1500, scan().size());
+
+        // nodes added again after the removal are found
+        store.add(1, 10, new DLN(1), 0, 0, 0.5, 0.5, new byte[] { 2 });
+        assertEquals(1, search(0, 0, 0.2, 1).size());
+        assertEquals(1501, scan().size());
+    }
+
+    @Test
+    public void appendedEntriesFoundBeforeAndAfterRepack() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            store.add(1, 10, new DLN(i + 1), i, 0, i + 0.5, 0.5, new byte[] { 1 });
+        }
+        // loads the tree
+        assertEquals(100, search(0, 0, 1000, 1).size());
+
+        // below the repack threshold : kept aside of the tree
+        for (int i = 100; i < 110; i++) {
+            store.add(1, 10, new DLN(i + 1), i, 0, i + 0.5, 0.5, new byte[] { 1 });
+        }
+        assertEquals(110, search(0, 0, 1000, 1).size());
+        assertEquals(1, search(105, 0, 105.2, 1).size());
+
+        // above it : the tree is rebuilt with all the entries
+        for (int i = 110; i < 3000; i++) {
+            store.add(1, 10, new DLN(i + 1), i, 0, i + 0.5, 0.5, new byte[] { 1 });
+        }
+        final List<SpatialEnvelopeStore.Entry> found = search(0, 0, 10000, 1);
+        assertEquals(2000, found.size());
+        final List<Integer> ids = new ArrayList<>();
+        for (final SpatialEnvelopeStore.Entry entry : found) {
+            ids.add((int) entry.getMinX());
+        }
+        Collections.sort(ids);
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(i, ids.get(i).intValue());
+        }
+        assertEquals(1, search(1500, 0, 1500.2, 1).size());
+        assertEquals(1, search(105, 0, 105.2, 1).size());
+        assertEquals(2000, scan().size());
+
+        // replacing a node does not duplicate it
+        store.add(1, 10, new DLN(1), 0, 0, 0.5, 0.5, new byte[] { 2 });
+        assertEquals(2000, scan().size());
+    }
+
+    private List<SpatialEnvelopeStore.Entry> search(final double minX, final double minY, final double maxX,
+            final double maxY) throws SpatialIndexException {
+        final List<SpatialEnvelopeStore.Entry> found = new ArrayList<>();
+        store.search(minX, minY, maxX, maxY, found::add);
+        return found;
+    }
+
+    private List<SpatialEnvelopeStore.Entry> scan() throws SpatialIndexException {
+        final List<SpatialEnvelopeStore.Entry> found = new ArrayList<>();
+        store.scan(found::add);
+        return found;
+    }
+
+    private void reopen() throws DBException {
+        store.flush();
+        store.close();
+        store = null;
+        store = new SpatialEnvelopeStore(getPool(), file);
+    }
+
+    private static BrokerPool getPool() {
+        return server.getBrokerPool();
+    }
+}